@@ -44,6 +44,15 @@ android {
         buildConfig = true
     }
 
+    testOptions {
+        // android.* stubs (CancellationSignal, Log) return defaults instead of throwing in JVM tests
+        unitTests.isReturnDefaultValues = true
+        unitTests.all {
+            // The benchmark_* tests are skipped unless asked for: ./gradlew testDebugUnitTest -Pbenchmarks
+            it.systemProperty("benchmarks", project.hasProperty("benchmarks"))
+        }
+    }
+
 }
 
 dependencies {
@@ -0,0 +1,53 @@
+package com.mytrackr.receipts.data.local;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON bytes of the ReceiptCodec document maps, for the on-device tables. Unlike Java serialization this stays
+ * readable when Receipt gains or loses fields.
+ */
+final class JsonMaps {
+
+    private JsonMaps() {}
+
+    static byte[] toBytes(Map<String, Object> map) {
+        return new JSONObject(map).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @throws JSONException If the bytes are not a JSON object
+     */
+    static Map<String, Object> fromBytes(byte[] bytes) throws JSONException {
+        return toMap(new JSONObject(new String(bytes, StandardCharsets.UTF_8)));
+    }
+
+    private static Map<String, Object> toMap(JSONObject json) throws JSONException {
+        Map<String, Object> map = new HashMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            map.put(key, fromJson(json.get(key)));
+        }
+        return map;
+    }
+
+    private static Object fromJson(Object value) throws JSONException {
+        if (value instanceof JSONObject) return toMap((JSONObject) value);
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) list.add(fromJson(array.get(i)));
+            return list;
+        }
+        return value == JSONObject.NULL ? null : value;
+    }
+}
@@ -0,0 +1,171 @@
+package com.mytrackr.receipts.data.local;
+
+import com.mytrackr.receipts.data.models.Receipt;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of the user's receipts by image hash and by purchase, so a new scan can be checked for a
+ * duplicate with a few hash lookups, independent of how many receipts there are.
+ * Images match on the exact content hash, or on a difference hash at most {@link #MAX_DHASH_DISTANCE} bits away.
+ * Near matches are found through the hash's four 16-bit bands: two hashes that close always share a band
+ * (pigeonhole), so only receipts sharing one are compared. Purchases match on store, receipt date and total.
+ * Thread-safe.
+ */
+public class ReceiptHashIndex {
+    public static final int MAX_DHASH_DISTANCE = 3;
+    private static final int BANDS = 4;
+    private static final int BAND_BITS = 16;
+
+    private final Map<String, String> idBySha = new HashMap<>();
+    // (band number << 16 | band value) -> ids of receipts whose dHash has that band
+    private final Map<Integer, Set<String>> idsByBand = new HashMap<>();
+    private final Map<String, String> idByPurchase = new HashMap<>();
+    // What each receipt was indexed under, so it can be removed again
+    private final Map<String, String> shaById = new HashMap<>();
+    private final Map<String, Long> dHashById = new HashMap<>();
+    private final Map<String, String> purchaseById = new HashMap<>();
+
+    public synchronized void clear() {
+        idBySha.clear();
+        idsByBand.clear();
+        idByPurchase.clear();
+        shaById.clear();
+        dHashById.clear();
+        purchaseById.clear();
+    }
+
+    /**
+     * Replace the whole index, e.g. after a full load.
+     */
+    public synchronized void rebuild(Collection<Receipt> receipts) {
+        clear();
+        for (Receipt receipt : receipts) {
+            put(receipt);
+        }
+    }
+
+    /**
+     * Add a receipt, or re-index it if it was already present. Full receipts and summaries both work.
+     */
+    public synchronized void put(Receipt receipt) {
+        if (receipt == null || receipt.getId() == null) return;
+        String id = receipt.getId();
+        remove(id);
+
+        Receipt.ReceiptMetadata metadata = receipt.getMetadata();
+        if (metadata != null) {
+            String sha256 = metadata.getImageSha256();
+            if (sha256 != null) {
+                shaById.put(id, sha256);
+                idBySha.put(sha256, id);
+            }
+            if (metadata.getImageDHash() != null) {
+                long dHash = metadata.getImageDHash();
+                dHashById.put(id, dHash);
+                for (int band = 0; band < BANDS; band++) {
+                    Set<String> ids = idsByBand.get(bandKey(dHash, band));
+                    if (ids == null) {
+                        ids = new LinkedHashSet<>();
+                        idsByBand.put(bandKey(dHash, band), ids);
+                    }
+                    ids.add(id);
+                }
+            }
+        }
+
+        String purchase = purchaseKey(receipt);
+        if (purchase != null) {
+            purchaseById.put(id, purchase);
+            idByPurchase.put(purchase, id);
+        }
+    }
+
+    public synchronized void remove(String id) {
+        String sha256 = shaById.remove(id);
+        if (sha256 != null && id.equals(idBySha.get(sha256))) {
+            idBySha.remove(sha256);
+        }
+        Long dHash = dHashById.remove(id);
+        if (dHash != null) {
+            for (int band = 0; band < BANDS; band++) {
+                int key = bandKey(dHash, band);
+                Set<String> ids = idsByBand.get(key);
+                if (ids == null) continue;
+                ids.remove(id);
+                if (ids.isEmpty()) idsByBand.remove(key);
+            }
+        }
+        String purchase = purchaseById.remove(id);
+        if (purchase != null && id.equals(idByPurchase.get(purchase))) {
+            idByPurchase.remove(purchase);
+        }
+    }
+
+    public synchronized int size() {
+        return dHashById.size();
+    }
+
+    /**
+     * Id of a receipt with the same or a visually near-identical image, or null.
+     * @param sha256 Content hash, may be null
+     * @param dHash Difference hash, may be null
+     */
+    public synchronized String findImage(String sha256, Long dHash) {
+        if (sha256 != null) {
+            String id = idBySha.get(sha256);
+            if (id != null) return id;
+        }
+        if (dHash == null) return null;
+        String best = null;
+        int bestDistance = MAX_DHASH_DISTANCE + 1;
+        for (int band = 0; band < BANDS; band++) {
+            Set<String> ids = idsByBand.get(bandKey(dHash, band));
+            if (ids == null) continue;
+            for (String id : ids) {
+                int distance = Long.bitCount(dHashById.get(id) ^ dHash);
+                if (distance < bestDistance) {
+                    best = id;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Id of another receipt from the same store, date and total, or null. Receipts lacking any of these never match.
+     */
+    public synchronized String findPurchase(Receipt receipt) {
+        String purchase = purchaseKey(receipt);
+        if (purchase == null) return null;
+        String id = idByPurchase.get(purchase);
+        return id != null && !id.equals(receipt.getId()) ? id : null;
+    }
+
+    private static int bandKey(long dHash, int band) {
+        int value = (int) ((dHash >>> (band * BAND_BITS)) & 0xFFFF);
+        return (band << BAND_BITS) | value;
+    }
+
+    // Store name letters and digits, the printed date's digits and the total in cents. The printed date rather
+    // than receiptDateTimestamp, which falls back to the upload time when no date was recognised.
+    static String purchaseKey(Receipt receipt) {
+        if (receipt.getStore() == null || receipt.getReceipt() == null) return null;
+        String store = normalize(receipt.getStore().getName());
+        String date = receipt.getReceipt().getDate() != null ? receipt.getReceipt().getDate().replaceAll("[^0-9]", "") : "";
+        long totalCents = Math.round(receipt.getReceipt().getTotal() * 100);
+        if (store.isEmpty() || date.isEmpty() || totalCents <= 0) return null;
+        return store + '|' + date + '|' + totalCents;
+    }
+
+    private static String normalize(String value) {
+        if (value == null) return "";
+        return value.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]", "");
+    }
+}
@@ -0,0 +1,310 @@
+package com.mytrackr.receipts.data.local;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.mytrackr.receipts.data.models.Receipt;
+import com.mytrackr.receipts.data.models.ReceiptCodec;
+import com.mytrackr.receipts.utils.SyncPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-device SQLite copy of the user's receipt summaries, each row the JSON of ReceiptCodec.encodeSummary, and of
+ * their search documents (ReceiptCodec.encodeSearch), which sync separately and are attached when reading.
+ * ReceiptRepository serves reads from here first and reconciles with Firestore in the background.
+ * All methods hit the disk and must be called off the main thread.
+ */
+public class ReceiptLocalStore extends SQLiteOpenHelper {
+    private static final String TAG = "ReceiptLocalStore";
+
+    private static final String DATABASE_NAME = "receipts_local.db";
+    // 2: rows hold receipt summaries instead of full receipts
+    // 3: Receipt pins its serialVersionUID; rows written before do not deserialize
+    // 4: summaries carry ocrTerms; refetch them so OCR words are searchable
+    // 5: rows are summary JSON instead of Java-serialized receipts
+    // 6: item lines and OCR words move from the summaries to the receipt_search table
+    // Bump whenever the stored shape changes incompatibly, so the cache is rebuilt together with the sync watermarks.
+    private static final int DATABASE_VERSION = 6;
+
+    private static final String TABLE_RECEIPTS = "receipts";
+    private static final String COL_ID = "id";
+    private static final String COL_USER_ID = "user_id";
+    // Upload time, mirrors the Firestore createdAt ordering used by the list screens
+    private static final String COL_DATE_TIMESTAMP = "date_timestamp";
+    // Actual receipt date, used for month/year range queries
+    private static final String COL_RECEIPT_DATE = "receipt_date";
+    private static final String COL_PAYLOAD = "payload";
+
+    // Search documents by receipt; a row may arrive before its summary and is only read together with it
+    private static final String TABLE_SEARCH = "receipt_search";
+
+    private static ReceiptLocalStore instance;
+
+    private final SyncPreferences syncPreferences;
+
+    private ReceiptLocalStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        syncPreferences = new SyncPreferences(context);
+    }
+
+    public static synchronized ReceiptLocalStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReceiptLocalStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_RECEIPTS + " ("
+                + COL_ID + " TEXT NOT NULL, "
+                + COL_USER_ID + " TEXT NOT NULL, "
+                + COL_DATE_TIMESTAMP + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_RECEIPT_DATE + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_PAYLOAD + " BLOB NOT NULL, "
+                + "PRIMARY KEY (" + COL_USER_ID + ", " + COL_ID + "))");
+        db.execSQL("CREATE INDEX idx_receipts_user_date ON " + TABLE_RECEIPTS
+                + " (" + COL_USER_ID + ", " + COL_DATE_TIMESTAMP + ")");
+        db.execSQL("CREATE INDEX idx_receipts_user_receipt_date ON " + TABLE_RECEIPTS
+                + " (" + COL_USER_ID + ", " + COL_RECEIPT_DATE + ")");
+        db.execSQL("CREATE TABLE " + TABLE_SEARCH + " ("
+                + COL_ID + " TEXT NOT NULL, "
+                + COL_USER_ID + " TEXT NOT NULL, "
+                + COL_PAYLOAD + " BLOB NOT NULL, "
+                + "PRIMARY KEY (" + COL_USER_ID + ", " + COL_ID + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The tables are only a cache of Firestore, so it is safe to rebuild them. Delta sync would only fetch changes
+        // after the watermark, so the watermarks go with them and the next sync is a full one.
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECEIPTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SEARCH);
+        onCreate(db);
+        syncPreferences.clearAllReceiptsWatermarks();
+    }
+
+    /**
+     * All receipts of the user, newest upload first, with their search documents attached.
+     */
+    public List<Receipt> getReceipts(String userId) {
+        return query(userId, "r." + COL_USER_ID + " = ?", new String[]{userId});
+    }
+
+    /**
+     * Receipts of the user whose receipt date falls in [start, end).
+     */
+    public List<Receipt> getReceiptsInRange(String userId, long start, long end) {
+        return query(userId, "r." + COL_USER_ID + " = ? AND r." + COL_RECEIPT_DATE + " >= ? AND r." + COL_RECEIPT_DATE + " < ?",
+                new String[]{userId, String.valueOf(start), String.valueOf(end)});
+    }
+
+    /**
+     * Replace every stored receipt summary of the user with the given list (full reconcile).
+     */
+    public void replaceAll(String userId, List<Receipt> receipts) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_RECEIPTS, COL_USER_ID + " = ?", new String[]{userId});
+            for (Receipt receipt : receipts) {
+                insertOrReplace(db, userId, receipt);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Replace the user's receipts dated in [start, end) with the given list (range reconcile).
+     */
+    public void replaceRange(String userId, long start, long end, List<Receipt> receipts) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_RECEIPTS, COL_USER_ID + " = ? AND " + COL_RECEIPT_DATE + " >= ? AND " + COL_RECEIPT_DATE + " < ?",
+                    new String[]{userId, String.valueOf(start), String.valueOf(end)});
+            for (Receipt receipt : receipts) {
+                insertOrReplace(db, userId, receipt);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Store a receipt saved on this device: its summary and its search document.
+     */
+    public void upsert(String userId, Receipt receipt) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            insertOrReplace(db, userId, receipt);
+            insertOrReplaceSearch(db, userId, receipt);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Store summaries; their search documents are left as they are.
+     */
+    public void upsertAll(String userId, List<Receipt> receipts) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Receipt receipt : receipts) {
+                insertOrReplace(db, userId, receipt);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Replace every stored search document of the user with the given ones (full reconcile).
+     * @param searches Decoded search documents (ReceiptCodec.decodeSearch)
+     */
+    public void replaceAllSearch(String userId, List<Receipt> searches) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_SEARCH, COL_USER_ID + " = ?", new String[]{userId});
+            for (Receipt search : searches) {
+                insertOrReplaceSearch(db, userId, search);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void upsertSearch(String userId, List<Receipt> searches) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Receipt search : searches) {
+                insertOrReplaceSearch(db, userId, search);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void delete(String userId, String receiptId) {
+        SQLiteDatabase db = getWritableDatabase();
+        String[] args = new String[]{userId, receiptId};
+        db.delete(TABLE_RECEIPTS, COL_USER_ID + " = ? AND " + COL_ID + " = ?", args);
+        db.delete(TABLE_SEARCH, COL_USER_ID + " = ? AND " + COL_ID + " = ?", args);
+    }
+
+    private void insertOrReplace(SQLiteDatabase db, String userId, Receipt receipt) {
+        if (receipt == null || receipt.getId() == null) return;
+        byte[] payload = encode(receipt);
+        if (payload == null) return;
+
+        ContentValues values = new ContentValues();
+        values.put(COL_ID, receipt.getId());
+        values.put(COL_USER_ID, userId);
+        values.put(COL_DATE_TIMESTAMP, receipt.getReceipt() != null ? receipt.getReceipt().getDateTimestamp() : 0L);
+        values.put(COL_RECEIPT_DATE, receiptDateOf(receipt));
+        values.put(COL_PAYLOAD, payload);
+        db.insertWithOnConflict(TABLE_RECEIPTS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private void insertOrReplaceSearch(SQLiteDatabase db, String userId, Receipt receipt) {
+        if (receipt == null || receipt.getId() == null) return;
+        byte[] payload = encodeSearch(receipt);
+        if (payload == null) return;
+
+        ContentValues values = new ContentValues();
+        values.put(COL_ID, receipt.getId());
+        values.put(COL_USER_ID, userId);
+        values.put(COL_PAYLOAD, payload);
+        db.insertWithOnConflict(TABLE_SEARCH, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    // Summaries (r) with their search documents (s), if synced yet
+    private List<Receipt> query(String userId, String selection, String[] args) {
+        List<Receipt> receipts = new ArrayList<>();
+        int unreadable = 0;
+        String sql = "SELECT r." + COL_ID + ", r." + COL_PAYLOAD + ", s." + COL_PAYLOAD
+                + " FROM " + TABLE_RECEIPTS + " r LEFT JOIN " + TABLE_SEARCH + " s"
+                + " ON s." + COL_USER_ID + " = r." + COL_USER_ID + " AND s." + COL_ID + " = r." + COL_ID
+                + " WHERE " + selection + " ORDER BY r." + COL_DATE_TIMESTAMP + " DESC";
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                String id = cursor.getString(0);
+                Receipt receipt = decode(id, cursor.getBlob(1));
+                if (receipt == null) {
+                    unreadable++;
+                    continue;
+                }
+                if (!cursor.isNull(2)) ReceiptCodec.attachSearch(receipt, decodeSearch(id, cursor.getBlob(2)));
+                receipts.add(receipt);
+            }
+        }
+        if (unreadable > 0) {
+            // Delta sync would never fetch these again; a full sync rewrites them
+            Log.w(TAG, unreadable + " cached receipts unreadable, forcing a full sync");
+            syncPreferences.clearReceiptsWatermark(userId);
+        }
+        return receipts;
+    }
+
+    // Same fallback as buildReceiptMap: receiptDateTimestamp, else dateTimestamp
+    private static long receiptDateOf(Receipt receipt) {
+        if (receipt.getReceipt() == null) return 0L;
+        long receiptDate = receipt.getReceipt().getReceiptDateTimestamp();
+        return receiptDate > 0 ? receiptDate : receipt.getReceipt().getDateTimestamp();
+    }
+
+    private static byte[] encode(Receipt receipt) {
+        try {
+            return JsonMaps.toBytes(ReceiptCodec.encodeSummary(receipt));
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to encode receipt " + receipt.getId(), e);
+            return null;
+        }
+    }
+
+    private static byte[] encodeSearch(Receipt receipt) {
+        try {
+            return JsonMaps.toBytes(ReceiptCodec.encodeSearch(receipt));
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to encode search document of receipt " + receipt.getId(), e);
+            return null;
+        }
+    }
+
+    // An unreadable search row only costs search words until the next full sync, so it is just skipped
+    private static Receipt decodeSearch(String id, byte[] payload) {
+        try {
+            return ReceiptCodec.decodeSearch(id, JsonMaps.fromBytes(payload));
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to decode stored search document " + id, e);
+            return null;
+        }
+    }
+
+    private static Receipt decode(String id, byte[] payload) {
+        if (payload == null || payload.length == 0) return null;
+        try {
+            return ReceiptCodec.decodeSummary(id, JsonMaps.fromBytes(payload));
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to decode stored receipt " + id, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.mytrackr.receipts.data.local;
+
+import com.mytrackr.receipts.data.models.Receipt;
+import com.mytrackr.receipts.data.models.ReceiptItem;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * In-memory inverted index over the user's receipts, so search never needs a network round trip.
+ * Indexes the store name, item names and categories, the receipt category and the words of the OCR text.
+ * Every query word must match for a receipt to be returned. A word matches indexed words exactly or as a prefix;
+ * only when it matches nothing that way (and has at least 4 characters) are words within a small edit distance
+ * tried, to tolerate typos. Thread-safe.
+ */
+public class ReceiptSearchIndex {
+    private static final int MIN_TOKEN_LENGTH = 2;
+    private static final int MIN_FUZZY_LENGTH = 4;
+    // Query words this long may be two edits away, shorter ones only one
+    private static final int TWO_EDITS_LENGTH = 8;
+
+    private static final int SCORE_EXACT = 3;
+    private static final int SCORE_PREFIX = 2;
+    private static final int SCORE_FUZZY = 1;
+
+    // Receipts are numbered internally so postings can be plain int arrays; null marks a removed receipt
+    private final List<String> docIds = new ArrayList<>();
+    private final List<String[]> docWords = new ArrayList<>();
+    private long[] docUploadTimes = new long[16];
+    private final Map<String, Integer> docNumbers = new HashMap<>();
+
+    // word -> numbers of the receipts containing it, ascending
+    private final Map<String, Postings> postings = new HashMap<>();
+    // Sorted vocabulary, so all words with a prefix are one subSet range
+    private final TreeSet<String> vocabulary = new TreeSet<>();
+    // Words bucketed by first letter and length. Fuzzy matching assumes the first letter is right, like most
+    // typo-tolerant search, and only compares words of a plausible length.
+    private final Map<Long, Set<String>> fuzzyBuckets = new HashMap<>();
+    // Live receipt numbers, newest upload first; recomputed on the first search after a change
+    private int[] newestFirst;
+
+    public synchronized void clear() {
+        docIds.clear();
+        docWords.clear();
+        docNumbers.clear();
+        postings.clear();
+        vocabulary.clear();
+        fuzzyBuckets.clear();
+        newestFirst = null;
+    }
+
+    /**
+     * Replace the whole index, e.g. after a full load.
+     */
+    public synchronized void rebuild(Collection<Receipt> receipts) {
+        clear();
+        for (Receipt receipt : receipts) {
+            put(receipt);
+        }
+    }
+
+    /**
+     * Add a receipt, or re-index it if it was already present.
+     */
+    public synchronized void put(Receipt receipt) {
+        if (receipt == null || receipt.getId() == null) return;
+        remove(receipt.getId());
+        long uploadTime = receipt.getReceipt() != null ? receipt.getReceipt().getDateTimestamp() : 0L;
+        add(receipt.getId(), wordsOf(receipt).toArray(new String[0]), uploadTime);
+    }
+
+    public synchronized void remove(String id) {
+        Integer doc = docNumbers.remove(id);
+        if (doc == null) return;
+        for (String word : docWords.get(doc)) {
+            Postings docs = postings.get(word);
+            if (docs == null) continue;
+            docs.remove(doc);
+            if (docs.size == 0) {
+                postings.remove(word);
+                vocabulary.remove(word);
+                Set<String> bucket = fuzzyBuckets.get(bucketKey(word.charAt(0), word.length()));
+                if (bucket != null) bucket.remove(word);
+            }
+        }
+        docIds.set(doc, null);
+        docWords.set(doc, null);
+        newestFirst = null;
+        // Edits keep appending numbers; renumber once most of them are dead
+        if (docIds.size() > 64 && docNumbers.size() * 2 < docIds.size()) {
+            compact();
+        }
+    }
+
+    public synchronized int size() {
+        return docNumbers.size();
+    }
+
+    /**
+     * Ids of the receipts matching every word of the query, best match first, newest upload first among equals.
+     * An empty query matches nothing.
+     */
+    public synchronized List<String> search(String query) {
+        int[] total = null;
+        for (String term : tokenize(query, 1)) {
+            int[] termScores = scoreTerm(term);
+            if (termScores == null) return new ArrayList<>();
+            if (total == null) {
+                total = termScores;
+            } else {
+                for (int doc = 0; doc < total.length; doc++) {
+                    total[doc] = total[doc] > 0 && termScores[doc] > 0 ? total[doc] + termScores[doc] : 0;
+                }
+            }
+        }
+        if (total == null) return new ArrayList<>();
+
+        // Bucket by score while walking the receipts newest first, so no comparison sort is needed
+        int maxScore = 0;
+        for (int score : total) maxScore = Math.max(maxScore, score);
+        List<List<String>> byScore = new ArrayList<>();
+        for (int score = 0; score <= maxScore; score++) byScore.add(new ArrayList<>());
+        for (int doc : newestFirst()) {
+            if (total[doc] > 0) byScore.get(total[doc]).add(docIds.get(doc));
+        }
+
+        List<String> ids = new ArrayList<>();
+        for (int score = maxScore; score > 0; score--) {
+            ids.addAll(byScore.get(score));
+        }
+        return ids;
+    }
+
+    private int[] newestFirst() {
+        if (newestFirst == null) {
+            List<Integer> docs = new ArrayList<>(docNumbers.values());
+            docs.sort((a, b) -> Long.compare(docUploadTimes[b], docUploadTimes[a]));
+            newestFirst = new int[docs.size()];
+            for (int i = 0; i < newestFirst.length; i++) newestFirst[i] = docs.get(i);
+        }
+        return newestFirst;
+    }
+
+    // Best score of the term per receipt number, or null if it matches nothing
+    private int[] scoreTerm(String term) {
+        int[] scores = new int[docIds.size()];
+        boolean matched = false;
+        for (String word : vocabulary.subSet(term, true, term + Character.MAX_VALUE, false)) {
+            int score = word.equals(term) ? SCORE_EXACT : SCORE_PREFIX;
+            matched |= postings.get(word).maxInto(scores, score);
+        }
+        if (matched || term.length() < MIN_FUZZY_LENGTH) {
+            return matched ? scores : null;
+        }
+
+        int maxEdits = term.length() >= TWO_EDITS_LENGTH ? 2 : 1;
+        for (int length = term.length() - maxEdits; length <= term.length() + maxEdits; length++) {
+            Set<String> bucket = fuzzyBuckets.get(bucketKey(term.charAt(0), length));
+            if (bucket == null) continue;
+            for (String word : bucket) {
+                if (withinEditDistance(term, word, maxEdits)) {
+                    matched |= postings.get(word).maxInto(scores, SCORE_FUZZY);
+                }
+            }
+        }
+        return matched ? scores : null;
+    }
+
+    private void add(String id, String[] words, long uploadTime) {
+        int doc = docIds.size();
+        docIds.add(id);
+        docWords.add(words);
+        docNumbers.put(id, doc);
+        if (doc >= docUploadTimes.length) {
+            docUploadTimes = Arrays.copyOf(docUploadTimes, docUploadTimes.length * 2);
+        }
+        docUploadTimes[doc] = uploadTime;
+        newestFirst = null;
+
+        for (String word : words) {
+            Postings docs = postings.get(word);
+            if (docs == null) {
+                docs = new Postings();
+                postings.put(word, docs);
+                vocabulary.add(word);
+                long key = bucketKey(word.charAt(0), word.length());
+                Set<String> bucket = fuzzyBuckets.get(key);
+                if (bucket == null) {
+                    bucket = new HashSet<>();
+                    fuzzyBuckets.put(key, bucket);
+                }
+                bucket.add(word);
+            }
+            // Numbers only grow, so appending keeps every postings list sorted
+            docs.add(doc);
+        }
+    }
+
+    private void compact() {
+        List<String> ids = new ArrayList<>(docIds);
+        List<String[]> words = new ArrayList<>(docWords);
+        long[] uploadTimes = docUploadTimes;
+        clear();
+        for (int doc = 0; doc < ids.size(); doc++) {
+            if (ids.get(doc) != null) add(ids.get(doc), words.get(doc), uploadTimes[doc]);
+        }
+    }
+
+    private static long bucketKey(char first, int length) {
+        return ((long) first << 32) | length;
+    }
+
+    static Set<String> wordsOf(Receipt receipt) {
+        StringBuilder text = new StringBuilder();
+        if (receipt.getStore() != null) append(text, receipt.getStore().getName());
+        if (receipt.getReceipt() != null) append(text, receipt.getReceipt().getCategory());
+        if (receipt.getItems() != null) {
+            for (ReceiptItem item : receipt.getItems()) {
+                if (item == null) continue;
+                append(text, item.getName());
+                append(text, item.getCategory());
+            }
+        }
+        Receipt.ReceiptMetadata metadata = receipt.getMetadata();
+        if (metadata != null) {
+            // Summaries carry the words of the OCR text instead of the text
+            append(text, metadata.getOcrText() != null ? metadata.getOcrText() : metadata.getOcrTerms());
+        }
+        return tokenize(text.toString(), MIN_TOKEN_LENGTH);
+    }
+
+    private static void append(StringBuilder text, String value) {
+        if (value != null) text.append(value).append(' ');
+    }
+
+    /**
+     * Lower-cased, accent-free words of the text, in order of first appearance.
+     */
+    static Set<String> tokenize(String text, int minLength) {
+        Set<String> words = new LinkedHashSet<>();
+        if (text == null || text.isEmpty()) return words;
+        String normalized = stripAccents(text).toLowerCase(Locale.ROOT);
+
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= minLength) words.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Drops combining marks after decomposition (e with acute -> e). Plain ASCII, the common case, is returned as is.
+    private static String stripAccents(String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (ascii) return text;
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder stripped = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) stripped.append(c);
+        }
+        return stripped.toString();
+    }
+
+    /**
+     * Levenshtein distance of a and b is at most max. Stops as soon as every cell of a row exceeds max.
+     */
+    static boolean withinEditDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) return false;
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) return false;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()] <= max;
+    }
+
+    // Growable, sorted int array of receipt numbers
+    private static class Postings {
+        int[] docs = new int[2];
+        int size;
+
+        void add(int doc) {
+            if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = doc;
+        }
+
+        void remove(int doc) {
+            int index = Arrays.binarySearch(docs, 0, size, doc);
+            if (index < 0) return;
+            System.arraycopy(docs, index + 1, docs, index, size - index - 1);
+            size--;
+        }
+
+        // scores[doc] = max(scores[doc], score) for every receipt in the list
+        boolean maxInto(int[] scores, int score) {
+            for (int i = 0; i < size; i++) {
+                if (scores[docs[i]] < score) scores[docs[i]] = score;
+            }
+            return size > 0;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.mytrackr.receipts.data.local;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.util.Log;
+
+import com.mytrackr.receipts.data.models.Receipt;
+import com.mytrackr.receipts.data.models.ReceiptCodec;
+import com.mytrackr.receipts.utils.UploadImageEncoder;
+import com.mytrackr.receipts.utils.UploadPreferences;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durable queue of receipts saved on this device but not yet uploaded.
+ * Each entry holds the receipt as ReceiptCodec JSON (with its final id, so retries never create duplicates) and a
+ * private copy of the image, so neither the scan screen nor the original image has to outlive the save. ReceiptUploadWorker drains it.
+ * An entry that failed {@link #MAX_ATTEMPTS} times, or cannot be read, is failed: it is kept but no longer drained
+ * until {@link #retryFailed(String)}. All methods hit the disk and must be called off the main thread.
+ */
+public class UploadOutbox extends SQLiteOpenHelper {
+    private static final String TAG = "UploadOutbox";
+
+    private static final String DATABASE_NAME = "upload_outbox.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String IMAGE_DIR = "outbox";
+    // Failed drains of one entry before it is left alone; WorkManager backoff makes this span hours
+    public static final int MAX_ATTEMPTS = 5;
+
+    private static final String TABLE_PENDING = "pending_receipts";
+    private static final String COL_ID = "id";
+    private static final String COL_USER_ID = "user_id";
+    private static final String COL_IMAGE_PATH = "image_path";
+    // Set once the image is uploaded, so a retry after a failed Firestore write does not upload it again
+    private static final String COL_IMAGE_URL = "image_url";
+    private static final String COL_CLOUDINARY_PUBLIC_ID = "cloudinary_public_id";
+    private static final String COL_ATTEMPTS = "attempts";
+    private static final String COL_CREATED_AT = "created_at";
+    private static final String COL_PAYLOAD = "payload";
+
+    private static UploadOutbox instance;
+
+    private final File imageDir;
+
+    public static class Entry {
+        public final String id;
+        public final String userId;
+        public final File image;
+        public final Receipt receipt;
+        public final String imageUrl;
+        public final String cloudinaryPublicId;
+        public final int attempts;
+
+        Entry(String id, String userId, File image, Receipt receipt, String imageUrl, String cloudinaryPublicId, int attempts) {
+            this.id = id;
+            this.userId = userId;
+            this.image = image;
+            this.receipt = receipt;
+            this.imageUrl = imageUrl;
+            this.cloudinaryPublicId = cloudinaryPublicId;
+            this.attempts = attempts;
+        }
+    }
+
+    private UploadOutbox(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        imageDir = new File(context.getFilesDir(), IMAGE_DIR);
+    }
+
+    public static synchronized UploadOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new UploadOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_PENDING + " ("
+                + COL_ID + " TEXT PRIMARY KEY NOT NULL, "
+                + COL_USER_ID + " TEXT NOT NULL, "
+                + COL_IMAGE_PATH + " TEXT NOT NULL, "
+                + COL_IMAGE_URL + " TEXT, "
+                + COL_CLOUDINARY_PUBLIC_ID + " TEXT, "
+                + COL_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_CREATED_AT + " INTEGER NOT NULL, "
+                + COL_PAYLOAD + " BLOB NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // No upgrades yet. Unlike ReceiptLocalStore this table is not a cache: never drop it.
+    }
+
+    /**
+     * Copy the image into app storage, re-encoded to the upload byte budget, and queue the receipt.
+     * The receipt must already have its id.
+     * @throws IOException If the image cannot be read, decoded or copied; nothing is queued then
+     */
+    public void enqueue(Context context, String userId, Receipt receipt, Uri imageUri) throws IOException {
+        byte[] payload = encodePayload(receipt);
+        if (payload == null) throw new IOException("Receipt could not be encoded");
+
+        if (!imageDir.isDirectory() && !imageDir.mkdirs()) {
+            throw new IOException("Could not create " + imageDir);
+        }
+        File image = new File(imageDir, receipt.getId() + ".jpg");
+        UploadPreferences uploadPreferences = new UploadPreferences(context);
+        try {
+            UploadImageEncoder.Result result = UploadImageEncoder.encode(context, imageUri, image, uploadPreferences.getImageByteBudget());
+            uploadPreferences.recordEncodedImage(result.originalBytes, result.encodedBytes);
+            Log.d(TAG, "Queued image of " + receipt.getId() + ": " + result.originalBytes + " -> " + result.encodedBytes + " bytes"
+                    + (result.isOriginal() ? " (original kept)" : " (" + result.width + "x" + result.height + ", q" + result.quality + ")"));
+        } catch (IOException e) {
+            image.delete();
+            throw e;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(COL_ID, receipt.getId());
+        values.put(COL_USER_ID, userId);
+        values.put(COL_IMAGE_PATH, image.getAbsolutePath());
+        values.put(COL_CREATED_AT, System.currentTimeMillis());
+        values.put(COL_PAYLOAD, payload);
+        getWritableDatabase().insertWithOnConflict(TABLE_PENDING, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Pending receipts of the user that have not failed, oldest first.
+     */
+    public List<Entry> getPending(String userId) {
+        List<Entry> entries = new ArrayList<>();
+        List<String> unreadable = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_PENDING,
+                new String[]{COL_ID, COL_USER_ID, COL_IMAGE_PATH, COL_IMAGE_URL, COL_CLOUDINARY_PUBLIC_ID, COL_ATTEMPTS, COL_PAYLOAD},
+                COL_USER_ID + " = ? AND " + COL_ATTEMPTS + " < " + MAX_ATTEMPTS, new String[]{userId},
+                null, null, COL_CREATED_AT + " ASC")) {
+            while (cursor.moveToNext()) {
+                Receipt receipt = decodePayload(cursor.getString(0), cursor.getBlob(6));
+                if (receipt == null) {
+                    unreadable.add(cursor.getString(0));
+                    continue;
+                }
+                entries.add(new Entry(cursor.getString(0), cursor.getString(1), new File(cursor.getString(2)), receipt,
+                        cursor.getString(3), cursor.getString(4), cursor.getInt(5)));
+            }
+        }
+        for (String id : unreadable) {
+            // Kept with its image, since the receipt exists nowhere else, but never drained again
+            Log.w(TAG, "Pending receipt " + id + " is unreadable, marking it failed");
+            setAttempts(id, MAX_ATTEMPTS);
+        }
+        return entries;
+    }
+
+    /**
+     * Receipts of the user still to be drained; failed entries are not counted.
+     */
+    public int countPending(String userId) {
+        return count(userId, COL_ATTEMPTS + " < " + MAX_ATTEMPTS);
+    }
+
+    /**
+     * Receipts of the user that are no longer drained, see {@link #MAX_ATTEMPTS}.
+     */
+    public int countFailed(String userId) {
+        return count(userId, COL_ATTEMPTS + " >= " + MAX_ATTEMPTS);
+    }
+
+    /**
+     * Give the user's failed entries a fresh set of attempts.
+     * @return Number of entries queued again
+     */
+    public int retryFailed(String userId) {
+        ContentValues values = new ContentValues();
+        values.put(COL_ATTEMPTS, 0);
+        return getWritableDatabase().update(TABLE_PENDING, values,
+                COL_USER_ID + " = ? AND " + COL_ATTEMPTS + " >= " + MAX_ATTEMPTS, new String[]{userId});
+    }
+
+    private int count(String userId, String condition) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + TABLE_PENDING + " WHERE " + COL_USER_ID + " = ? AND " + condition, new String[]{userId})) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    /**
+     * Record the uploaded image of an entry.
+     */
+    public void setImageUploaded(String id, String imageUrl, String cloudinaryPublicId) {
+        ContentValues values = new ContentValues();
+        values.put(COL_IMAGE_URL, imageUrl);
+        values.put(COL_CLOUDINARY_PUBLIC_ID, cloudinaryPublicId);
+        getWritableDatabase().update(TABLE_PENDING, values, COL_ID + " = ?", new String[]{id});
+    }
+
+    public void incrementAttempts(String id) {
+        getWritableDatabase().execSQL("UPDATE " + TABLE_PENDING + " SET " + COL_ATTEMPTS + " = " + COL_ATTEMPTS + " + 1"
+                + " WHERE " + COL_ID + " = ?", new Object[]{id});
+    }
+
+    private void setAttempts(String id, int attempts) {
+        ContentValues values = new ContentValues();
+        values.put(COL_ATTEMPTS, attempts);
+        getWritableDatabase().update(TABLE_PENDING, values, COL_ID + " = ?", new String[]{id});
+    }
+
+    /**
+     * Drop an entry and its image copy, once uploaded or given up.
+     */
+    public void remove(String id) {
+        File image = new File(imageDir, id + ".jpg");
+        if (image.exists() && !image.delete()) {
+            Log.w(TAG, "Failed to delete outbox image " + image);
+        }
+        getWritableDatabase().delete(TABLE_PENDING, COL_ID + " = ?", new String[]{id});
+    }
+
+    // The receipt as ReceiptCodec JSON, plus the OCR text the document map leaves to the blob
+    private static byte[] encodePayload(Receipt receipt) {
+        try {
+            Map<String, Object> map = ReceiptCodec.encode(receipt);
+            if (ReceiptCodec.hasOcrText(receipt)) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> metadata = (Map<String, Object>) map.get("metadata");
+                metadata.put("ocrText", receipt.getMetadata().getOcrText());
+            }
+            return JsonMaps.toBytes(map);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to encode receipt " + receipt.getId(), e);
+            return null;
+        }
+    }
+
+    private static Receipt decodePayload(String id, byte[] payload) {
+        if (payload == null || payload.length == 0) return null;
+        try {
+            return ReceiptCodec.decode(id, JsonMaps.fromBytes(payload));
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to decode pending receipt " + id, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.mytrackr.receipts.data.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pre-aggregated spending of one month, stored at users/{uid}/rollups/{yyyy-MM}.
+ * Kept current with FieldValue.increment in the same write as every receipt and transaction change.
+ */
+public class MonthlyRollup {
+    private double total;
+    private long count;
+    private double receiptTotal;
+    private long receiptCount;
+    private double manualTotal;
+    private long manualCount;
+    private double tax;
+    private Map<String, Double> categories = new HashMap<>();
+    // True once the month has been backfilled from a full scan; before that the increments may only cover part of it
+    private boolean complete;
+    // Bumped by every increment and backfill, so a backfill can tell whether the document changed since its scan
+    private long version;
+
+    public MonthlyRollup() {
+        // Required empty constructor for Firestore
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public void setTotal(double total) {
+        this.total = total;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public double getReceiptTotal() {
+        return receiptTotal;
+    }
+
+    public void setReceiptTotal(double receiptTotal) {
+        this.receiptTotal = receiptTotal;
+    }
+
+    public long getReceiptCount() {
+        return receiptCount;
+    }
+
+    public void setReceiptCount(long receiptCount) {
+        this.receiptCount = receiptCount;
+    }
+
+    public double getManualTotal() {
+        return manualTotal;
+    }
+
+    public void setManualTotal(double manualTotal) {
+        this.manualTotal = manualTotal;
+    }
+
+    public long getManualCount() {
+        return manualCount;
+    }
+
+    public void setManualCount(long manualCount) {
+        this.manualCount = manualCount;
+    }
+
+    public double getTax() {
+        return tax;
+    }
+
+    public void setTax(double tax) {
+        this.tax = tax;
+    }
+
+    public Map<String, Double> getCategories() {
+        return categories;
+    }
+
+    public void setCategories(Map<String, Double> categories) {
+        this.categories = categories != null ? categories : new HashMap<>();
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
@@ -18,6 +18,9 @@ public class Receipt implements Serializable {
     
     // Items list
     private List<ReceiptItem> items;
+
+    // Summed item prices by item category (ReceiptCodec.itemTotalsOf); summaries carry these instead of the item lines
+    private Map<String, Double> itemTotals;
     
     // Additional information
     private AdditionalInfo additional;
@@ -25,6 +28,9 @@ public class Receipt implements Serializable {
     // Metadata
     private ReceiptMetadata metadata;
 
+    // True when only the list projection (receiptSummaries) was loaded; the full receipt is fetched on demand
+    private boolean summary;
+
     public Receipt() {}
 
     // Getters and setters
@@ -45,6 +51,9 @@ public class Receipt implements Serializable {
     
     public List<ReceiptItem> getItems() { return items; }
     public void setItems(List<ReceiptItem> items) { this.items = items; }
+
+    public Map<String, Double> getItemTotals() { return itemTotals; }
+    public void setItemTotals(Map<String, Double> itemTotals) { this.itemTotals = itemTotals; }
     
     public AdditionalInfo getAdditional() { return additional; }
     public void setAdditional(AdditionalInfo additional) { this.additional = additional; }
@@ -52,6 +61,9 @@ public class Receipt implements Serializable {
     public ReceiptMetadata getMetadata() { return metadata; }
     public void setMetadata(ReceiptMetadata metadata) { this.metadata = metadata; }
 
+    public boolean isSummary() { return summary; }
+    public void setSummary(boolean summary) { this.summary = summary; }
+
     // Nested classes for structured data
     public static class StoreInfo implements Serializable {
         private String name;
@@ -154,6 +166,15 @@ public class Receipt implements Serializable {
 
     public static class ReceiptMetadata implements Serializable {
         private String ocrText;
+        // Id of the compressed OCR text document under the receipt's "blobs" subcollection; ocrText stays null
+        // until it has been loaded from there
+        private String ocrTextBlob;
+        // Distinct words of the OCR text (ReceiptCodec.ocrTermsOf), carried by the receipt's search document so
+        // search does not need the text itself
+        private String ocrTerms;
+        // Hashes of the processed image (see ImageHashes), used to spot the same receipt being saved twice
+        private String imageSha256;
+        private Long imageDHash;
         private String processedBy;
         private String uploadedAt;
         private String userId;
@@ -162,7 +183,19 @@ public class Receipt implements Serializable {
 
         public String getOcrText() { return ocrText; }
         public void setOcrText(String ocrText) { this.ocrText = ocrText; }
-        
+
+        public String getOcrTextBlob() { return ocrTextBlob; }
+        public void setOcrTextBlob(String ocrTextBlob) { this.ocrTextBlob = ocrTextBlob; }
+
+        public String getOcrTerms() { return ocrTerms; }
+        public void setOcrTerms(String ocrTerms) { this.ocrTerms = ocrTerms; }
+
+        public String getImageSha256() { return imageSha256; }
+        public void setImageSha256(String imageSha256) { this.imageSha256 = imageSha256; }
+
+        public Long getImageDHash() { return imageDHash; }
+        public void setImageDHash(Long imageDHash) { this.imageDHash = imageDHash; }
+
         public String getProcessedBy() { return processedBy; }
         public void setProcessedBy(String processedBy) { this.processedBy = processedBy; }
         
@@ -0,0 +1,543 @@
+package com.mytrackr.receipts.data.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hand-written mapping between Receipt and the Firestore document map.
+ * Replaces reflection based toObject(Receipt.class) and the per-screen parse copies.
+ * Every field is looked up once and type-checked instead of cast, so a malformed field
+ * is skipped rather than failing the whole receipt. Pure Java, so it runs in JVM unit tests.
+ */
+public final class ReceiptCodec {
+
+    // Document id of the compressed OCR text in users/{uid}/receipts/{id}/blobs
+    public static final String OCR_TEXT_BLOB = "ocrText";
+    // Cap on ocrTerms, so a long receipt cannot bloat its search document
+    private static final int MAX_OCR_TERMS_LENGTH = 2000;
+
+    private ReceiptCodec() {}
+
+    /**
+     * Decode a receipt document.
+     * @param id Firestore document id
+     * @param data Document data, may be null
+     * @return The receipt, or null if there is no data
+     */
+    public static Receipt decode(String id, Map<String, Object> data) {
+        if (data == null) return null;
+
+        Receipt receipt = new Receipt();
+        receipt.setId(id);
+        receipt.setImageUrl(asString(data.get("imageUrl")));
+        receipt.setCloudinaryPublicId(asString(data.get("cloudinaryPublicId")));
+
+        Map<String, Object> storeMap = asMap(data.get("store"));
+        if (storeMap != null) {
+            receipt.setStore(decodeStore(storeMap));
+        } else if (data.containsKey("store")) {
+            receipt.setStore(new Receipt.StoreInfo());
+        } else {
+            // Backward compatibility
+            String storeName = asString(data.get("storeName"));
+            if (storeName != null) {
+                Receipt.StoreInfo store = new Receipt.StoreInfo();
+                store.setName(storeName);
+                receipt.setStore(store);
+            }
+        }
+
+        Object receiptObj = data.get("receipt");
+        if (receiptObj != null || data.containsKey("receipt")) {
+            Map<String, Object> receiptMap = asMap(receiptObj);
+            receipt.setReceipt(receiptMap != null ? decodeReceiptInfo(receiptMap) : new Receipt.ReceiptInfo());
+        }
+
+        Object itemsObj = data.get("items");
+        if (itemsObj instanceof List) {
+            receipt.setItems(decodeItems((List<?>) itemsObj));
+        }
+
+        Object additionalObj = data.get("additional");
+        if (additionalObj != null || data.containsKey("additional")) {
+            Map<String, Object> additionalMap = asMap(additionalObj);
+            receipt.setAdditional(additionalMap != null ? decodeAdditional(additionalMap) : new Receipt.AdditionalInfo());
+        }
+
+        Object metadataObj = data.get("metadata");
+        if (metadataObj != null || data.containsKey("metadata")) {
+            Map<String, Object> metadataMap = asMap(metadataObj);
+            receipt.setMetadata(metadataMap != null ? decodeMetadata(metadataMap) : new Receipt.ReceiptMetadata());
+        }
+
+        return receipt;
+    }
+
+    /**
+     * Encode the structured receipt fields plus the backward compatibility fields (storeName, date, total).
+     * Server-assigned fields (createdAt, updatedAt) and cloudinaryPublicId are added by the repository.
+     * The OCR text is not inlined: metadata only references the blob the repository writes from
+     * {@link CompressedText#compress(String)}.
+     */
+    public static Map<String, Object> encode(Receipt receipt) {
+        Map<String, Object> map = new HashMap<>(16);
+
+        Receipt.StoreInfo store = receipt.getStore();
+        if (store != null) {
+            Map<String, Object> storeMap = new HashMap<>(8);
+            putIfNotNull(storeMap, "name", store.getName());
+            putIfNotNull(storeMap, "address", store.getAddress());
+            putIfNotNull(storeMap, "phone", store.getPhone());
+            putIfNotNull(storeMap, "website", store.getWebsite());
+            map.put("store", storeMap);
+        }
+
+        Receipt.ReceiptInfo info = receipt.getReceipt();
+        if (info != null) {
+            map.put("receipt", encodeReceiptInfo(info));
+        }
+
+        List<ReceiptItem> items = receipt.getItems();
+        if (items != null && !items.isEmpty()) {
+            map.put("items", encodeItems(items));
+        }
+
+        Receipt.AdditionalInfo additional = receipt.getAdditional();
+        if (additional != null) {
+            Map<String, Object> additionalMap = new HashMap<>(8);
+            putIfNotNull(additionalMap, "taxNumber", additional.getTaxNumber());
+            putIfNotNull(additionalMap, "cashier", additional.getCashier());
+            putIfNotNull(additionalMap, "storeNumber", additional.getStoreNumber());
+            putIfNotNull(additionalMap, "notes", additional.getNotes());
+            map.put("additional", additionalMap);
+        }
+
+        Receipt.ReceiptMetadata metadata = receipt.getMetadata();
+        if (metadata != null) {
+            Map<String, Object> metadataMap = new HashMap<>(8);
+            if (hasOcrText(receipt)) {
+                metadataMap.put("ocrTextBlob", OCR_TEXT_BLOB);
+            } else {
+                putIfNotNull(metadataMap, "ocrTextBlob", metadata.getOcrTextBlob());
+            }
+            putIfNotNull(metadataMap, "imageSha256", metadata.getImageSha256());
+            putIfNotNull(metadataMap, "imageDHash", metadata.getImageDHash());
+            putIfNotNull(metadataMap, "processedBy", metadata.getProcessedBy());
+            putIfNotNull(metadataMap, "uploadedAt", metadata.getUploadedAt());
+            putIfNotNull(metadataMap, "userId", metadata.getUserId());
+            map.put("metadata", metadataMap);
+        }
+
+        putIfNotNull(map, "imageUrl", receipt.getImageUrl());
+
+        // Backward compatibility fields (for existing queries)
+        if (store != null && store.getName() != null) {
+            map.put("storeName", store.getName());
+        }
+        if (info != null) {
+            map.put("date", info.getDateTimestamp());
+            map.put("total", info.getTotal());
+        }
+
+        return map;
+    }
+
+    /**
+     * Encode the list projection stored in users/{uid}/receiptSummaries: what lists, totals, budgets and the CSV
+     * export need. Item lines and OCR words go to the search document instead ({@link #encodeSearch}); only their
+     * totals by category stay, for the category breakdowns. updatedAt is added by the repository.
+     */
+    public static Map<String, Object> encodeSummary(Receipt receipt) {
+        Map<String, Object> map = new HashMap<>(20);
+        putIfNotNull(map, "imageUrl", receipt.getImageUrl());
+        putIfNotNull(map, "cloudinaryPublicId", receipt.getCloudinaryPublicId());
+        if (receipt.getStore() != null) {
+            putIfNotNull(map, "storeName", receipt.getStore().getName());
+        }
+        if (receipt.getAdditional() != null) {
+            putIfNotNull(map, "taxNumber", receipt.getAdditional().getTaxNumber());
+        }
+
+        Receipt.ReceiptInfo info = receipt.getReceipt();
+        if (info != null) {
+            putIfNotNull(map, "date", info.getDate());
+            putIfNotNull(map, "currency", info.getCurrency());
+            putIfNotNull(map, "paymentMethod", info.getPaymentMethod());
+            putIfNotNull(map, "category", normalizeCategory(info.getCategory()));
+            map.put("subtotal", info.getSubtotal());
+            map.put("tax", info.getTax());
+            map.put("total", info.getTotal());
+            map.put("dateTimestamp", info.getDateTimestamp());
+            // Same fallback as the full document, so month queries on summaries find the receipt
+            long receiptDate = info.getReceiptDateTimestamp() > 0 ? info.getReceiptDateTimestamp() : info.getDateTimestamp();
+            if (receiptDate > 0) map.put("receiptDateTimestamp", receiptDate);
+        }
+
+        // Image hashes, so duplicate detection works from the synced summaries alone
+        Receipt.ReceiptMetadata metadata = receipt.getMetadata();
+        if (metadata != null) {
+            putIfNotNull(map, "imageSha256", metadata.getImageSha256());
+            putIfNotNull(map, "imageDHash", metadata.getImageDHash());
+        }
+
+        Map<String, Double> itemTotals = itemTotalsOf(receipt);
+        if (!itemTotals.isEmpty()) map.put("itemTotals", new HashMap<String, Object>(itemTotals));
+        return map;
+    }
+
+    /**
+     * Decode a receipt summary document. The result is marked {@link Receipt#isSummary()} and has no item lines
+     * until {@link #attachSearch} gives it those of its search document.
+     * @return The summary, or null if there is no data
+     */
+    public static Receipt decodeSummary(String id, Map<String, Object> data) {
+        if (data == null) return null;
+
+        Receipt receipt = new Receipt();
+        receipt.setId(id);
+        receipt.setSummary(true);
+        receipt.setImageUrl(asString(data.get("imageUrl")));
+        receipt.setCloudinaryPublicId(asString(data.get("cloudinaryPublicId")));
+
+        Receipt.StoreInfo store = new Receipt.StoreInfo();
+        store.setName(asString(data.get("storeName")));
+        receipt.setStore(store);
+
+        String taxNumber = asString(data.get("taxNumber"));
+        if (taxNumber != null) {
+            Receipt.AdditionalInfo additional = new Receipt.AdditionalInfo();
+            additional.setTaxNumber(taxNumber);
+            receipt.setAdditional(additional);
+        }
+
+        Receipt.ReceiptInfo info = new Receipt.ReceiptInfo();
+        info.setDate(asString(data.get("date")));
+        info.setCurrency(asString(data.get("currency")));
+        info.setPaymentMethod(asString(data.get("paymentMethod")));
+        info.setCategory(normalizeCategory(data.get("category")));
+        info.setSubtotal(asDouble(data.get("subtotal")));
+        info.setTax(asDouble(data.get("tax")));
+        info.setTotal(asDouble(data.get("total")));
+        info.setDateTimestamp(asLong(data.get("dateTimestamp")));
+        info.setReceiptDateTimestamp(asLong(data.get("receiptDateTimestamp")));
+        receipt.setReceipt(info);
+
+        String imageSha256 = asString(data.get("imageSha256"));
+        Long imageDHash = asNullableLong(data.get("imageDHash"));
+        if (imageSha256 != null || imageDHash != null) {
+            Receipt.ReceiptMetadata metadata = new Receipt.ReceiptMetadata();
+            metadata.setImageSha256(imageSha256);
+            metadata.setImageDHash(imageDHash);
+            receipt.setMetadata(metadata);
+        }
+
+        Map<String, Object> itemTotalsMap = asMap(data.get("itemTotals"));
+        if (itemTotalsMap != null) {
+            Map<String, Double> itemTotals = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : itemTotalsMap.entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    itemTotals.put(entry.getKey(), ((Number) entry.getValue()).doubleValue());
+                }
+            }
+            receipt.setItemTotals(itemTotals);
+        }
+        return receipt;
+    }
+
+    /**
+     * Encode the search document stored in users/{uid}/receiptSearch: the item lines, reduced to what search and
+     * the category details use, and the words of the OCR text. Only the on-device index reads it.
+     * updatedAt is added by the repository.
+     */
+    public static Map<String, Object> encodeSearch(Receipt receipt) {
+        Map<String, Object> map = new HashMap<>(4);
+        List<ReceiptItem> items = receipt.getItems();
+        if (items != null && !items.isEmpty()) {
+            List<Map<String, Object>> lines = new ArrayList<>(items.size());
+            for (ReceiptItem item : items) {
+                Map<String, Object> line = new HashMap<>(4);
+                putIfNotNull(line, "name", item.getName());
+                putIfNotNull(line, "category", item.getCategory());
+                putIfNotNull(line, "totalPrice", item.getEffectiveTotalPrice());
+                lines.add(line);
+            }
+            map.put("items", lines);
+        }
+        putIfNotNull(map, "ocrTerms", ocrTermsOf(receipt));
+        return map;
+    }
+
+    /**
+     * Decode a search document into a receipt holding only its id, item lines and OCR words.
+     * @return The search part, or null if there is no data
+     */
+    public static Receipt decodeSearch(String id, Map<String, Object> data) {
+        if (data == null) return null;
+
+        Receipt receipt = new Receipt();
+        receipt.setId(id);
+        Object itemsObj = data.get("items");
+        if (itemsObj instanceof List) {
+            receipt.setItems(decodeItems((List<?>) itemsObj));
+        }
+        String ocrTerms = asString(data.get("ocrTerms"));
+        if (ocrTerms != null) {
+            Receipt.ReceiptMetadata metadata = new Receipt.ReceiptMetadata();
+            metadata.setOcrTerms(ocrTerms);
+            receipt.setMetadata(metadata);
+        }
+        return receipt;
+    }
+
+    /**
+     * Give a summary the item lines and OCR words of its search part (a decoded search document, or the previous
+     * copy of the same receipt). Nothing happens if search is null.
+     * @return The summary
+     */
+    public static Receipt attachSearch(Receipt summary, Receipt search) {
+        if (search == null) return summary;
+        if (search.getItems() != null) summary.setItems(search.getItems());
+        String ocrTerms = search.getMetadata() != null ? search.getMetadata().getOcrTerms() : null;
+        if (ocrTerms != null) {
+            if (summary.getMetadata() == null) summary.setMetadata(new Receipt.ReceiptMetadata());
+            summary.getMetadata().setOcrTerms(ocrTerms);
+        }
+        return summary;
+    }
+
+    /**
+     * The summary of a full receipt with its search part attached, as the on-device store holds it.
+     */
+    public static Receipt summarize(Receipt receipt) {
+        return attachSearch(decodeSummary(receipt.getId(), encodeSummary(receipt)),
+                decodeSearch(receipt.getId(), encodeSearch(receipt)));
+    }
+
+    /**
+     * Summed item prices by item category, from the item lines or, for a summary without them, its stored totals.
+     * Items without a category count as "Other"; items without a positive price are left out.
+     */
+    public static Map<String, Double> itemTotalsOf(Receipt receipt) {
+        Map<String, Double> totals = new LinkedHashMap<>();
+        if (receipt.getItems() != null) {
+            for (ReceiptItem item : receipt.getItems()) {
+                double price = item.getEffectiveTotalPrice() != null ? item.getEffectiveTotalPrice() : 0.0;
+                if (price <= 0) continue;
+                String category = normalizeCategory(item.getCategory());
+                totals.merge(category != null ? category : "Other", price, Double::sum);
+            }
+        } else if (receipt.getItemTotals() != null) {
+            totals.putAll(receipt.getItemTotals());
+        }
+        return totals;
+    }
+
+    /**
+     * The receipt carries OCR text that has to be written to its blob
+     */
+    public static boolean hasOcrText(Receipt receipt) {
+        return receipt.getMetadata() != null && receipt.getMetadata().getOcrText() != null
+                && !receipt.getMetadata().getOcrText().isEmpty();
+    }
+
+    /**
+     * Distinct lower-cased words of the receipt's OCR text, space separated and capped at
+     * MAX_OCR_TERMS_LENGTH chars. Falls back to the terms already on the metadata (from the search document)
+     * while the text is only in its blob; null if neither is known.
+     */
+    public static String ocrTermsOf(Receipt receipt) {
+        Receipt.ReceiptMetadata metadata = receipt.getMetadata();
+        if (metadata == null) return null;
+        if (!hasOcrText(receipt)) return metadata.getOcrTerms();
+        return ocrTermsOf(metadata.getOcrText());
+    }
+
+    public static String ocrTermsOf(String ocrText) {
+        if (ocrText == null) return null;
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : ocrText.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            // Short numbers are mostly price and date fragments
+            if (word.length() >= 2 && (word.length() >= 4 || !isDigits(word))) words.add(word);
+        }
+        StringBuilder terms = new StringBuilder();
+        for (String word : words) {
+            if (terms.length() + word.length() + 1 > MAX_OCR_TERMS_LENGTH) break;
+            if (terms.length() > 0) terms.append(' ');
+            terms.append(word);
+        }
+        return terms.toString();
+    }
+
+    private static boolean isDigits(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isDigit(word.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Category as stored: trimmed, and null when empty or the literal "null".
+     */
+    public static String normalizeCategory(Object category) {
+        if (category == null) return null;
+        String trimmed = category.toString().trim();
+        if (trimmed.isEmpty() || trimmed.equals("null")) return null;
+        return trimmed;
+    }
+
+    private static Receipt.StoreInfo decodeStore(Map<String, Object> storeMap) {
+        Receipt.StoreInfo store = new Receipt.StoreInfo();
+        store.setName(asString(storeMap.get("name")));
+        store.setAddress(asString(storeMap.get("address")));
+        store.setPhone(asString(storeMap.get("phone")));
+        store.setWebsite(asString(storeMap.get("website")));
+        return store;
+    }
+
+    private static Receipt.ReceiptInfo decodeReceiptInfo(Map<String, Object> receiptMap) {
+        Receipt.ReceiptInfo info = new Receipt.ReceiptInfo();
+        info.setReceiptId(asString(receiptMap.get("receiptId")));
+        info.setDate(asString(receiptMap.get("date")));
+        info.setTime(asString(receiptMap.get("time")));
+        info.setCurrency(asString(receiptMap.get("currency")));
+        info.setPaymentMethod(asString(receiptMap.get("paymentMethod")));
+        info.setCardLast4(asString(receiptMap.get("cardLast4")));
+        info.setCategory(normalizeCategory(receiptMap.get("category")));
+        info.setSubtotal(asDouble(receiptMap.get("subtotal")));
+        info.setTax(asDouble(receiptMap.get("tax")));
+        info.setTotal(asDouble(receiptMap.get("total")));
+        info.setDateTimestamp(asLong(receiptMap.get("dateTimestamp")));
+        info.setReceiptDateTimestamp(asLong(receiptMap.get("receiptDateTimestamp")));
+        info.setCustomNotificationTimestamp(asLong(receiptMap.get("customNotificationTimestamp")));
+        return info;
+    }
+
+    private static List<ReceiptItem> decodeItems(List<?> itemsList) {
+        List<ReceiptItem> items = new ArrayList<>(itemsList.size());
+        for (Object itemObj : itemsList) {
+            Map<String, Object> itemMap = asMap(itemObj);
+            if (itemMap == null) continue;
+            ReceiptItem item = new ReceiptItem();
+            item.setName(asString(itemMap.get("name")));
+            Object quantity = itemMap.get("quantity");
+            if (quantity instanceof Number) item.setQuantity(((Number) quantity).intValue());
+            Object unitPrice = itemMap.get("unitPrice");
+            if (unitPrice instanceof Number) item.setUnitPrice(((Number) unitPrice).doubleValue());
+            Object totalPrice = itemMap.get("totalPrice");
+            if (totalPrice instanceof Number) item.setTotalPrice(((Number) totalPrice).doubleValue());
+            item.setCategory(asString(itemMap.get("category")));
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static Receipt.AdditionalInfo decodeAdditional(Map<String, Object> additionalMap) {
+        Receipt.AdditionalInfo additional = new Receipt.AdditionalInfo();
+        additional.setTaxNumber(asString(additionalMap.get("taxNumber")));
+        additional.setCashier(asString(additionalMap.get("cashier")));
+        additional.setStoreNumber(asString(additionalMap.get("storeNumber")));
+        additional.setNotes(asString(additionalMap.get("notes")));
+        return additional;
+    }
+
+    private static Receipt.ReceiptMetadata decodeMetadata(Map<String, Object> metadataMap) {
+        Receipt.ReceiptMetadata metadata = new Receipt.ReceiptMetadata();
+        // Inline in documents written before the text moved to a compressed blob
+        metadata.setOcrText(asString(metadataMap.get("ocrText")));
+        metadata.setOcrTextBlob(asString(metadataMap.get("ocrTextBlob")));
+        metadata.setImageSha256(asString(metadataMap.get("imageSha256")));
+        metadata.setImageDHash(asNullableLong(metadataMap.get("imageDHash")));
+        metadata.setProcessedBy(asString(metadataMap.get("processedBy")));
+        metadata.setUploadedAt(asString(metadataMap.get("uploadedAt")));
+        metadata.setUserId(asString(metadataMap.get("userId")));
+        return metadata;
+    }
+
+    private static Map<String, Object> encodeReceiptInfo(Receipt.ReceiptInfo info) {
+        Map<String, Object> receiptMap = new HashMap<>(20);
+        putIfNotNull(receiptMap, "receiptId", info.getReceiptId());
+        putIfNotNull(receiptMap, "date", info.getDate());
+        putIfNotNull(receiptMap, "time", info.getTime());
+        putIfNotNull(receiptMap, "currency", info.getCurrency());
+        putIfNotNull(receiptMap, "paymentMethod", info.getPaymentMethod());
+        putIfNotNull(receiptMap, "cardLast4", info.getCardLast4());
+        putIfNotNull(receiptMap, "category", normalizeCategory(info.getCategory()));
+        receiptMap.put("subtotal", info.getSubtotal());
+        receiptMap.put("tax", info.getTax());
+        receiptMap.put("total", info.getTotal());
+        // Always save dateTimestamp (for sorting/upload time)
+        receiptMap.put("dateTimestamp", info.getDateTimestamp());
+        // receiptDateTimestamp falls back to dateTimestamp so month queries still find the receipt
+        if (info.getReceiptDateTimestamp() > 0) {
+            receiptMap.put("receiptDateTimestamp", info.getReceiptDateTimestamp());
+        } else if (info.getDateTimestamp() > 0) {
+            receiptMap.put("receiptDateTimestamp", info.getDateTimestamp());
+        }
+        if (info.getCustomNotificationTimestamp() > 0) {
+            receiptMap.put("customNotificationTimestamp", info.getCustomNotificationTimestamp());
+        }
+        return receiptMap;
+    }
+
+    private static List<Map<String, Object>> encodeItems(List<ReceiptItem> items) {
+        List<Map<String, Object>> itemsList = new ArrayList<>(items.size());
+        for (ReceiptItem item : items) {
+            Map<String, Object> itemMap = new HashMap<>(8);
+            putIfNotNull(itemMap, "name", item.getName());
+            putIfNotNull(itemMap, "quantity", item.getQuantity());
+            putIfNotNull(itemMap, "unitPrice", item.getUnitPrice());
+            putIfNotNull(itemMap, "totalPrice", item.getTotalPrice());
+            putIfNotNull(itemMap, "category", item.getCategory());
+            // Keep backward compatibility with "price" field
+            if (item.getTotalPrice() != null) {
+                itemMap.put("price", item.getTotalPrice());
+            } else if (item.getUnitPrice() != null && item.getQuantity() != null) {
+                itemMap.put("price", item.getUnitPrice() * item.getQuantity());
+            } else {
+                itemMap.put("price", 0.0);
+            }
+            itemsList.add(itemMap);
+        }
+        return itemsList;
+    }
+
+    private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
+        if (value != null) map.put(key, value);
+    }
+
+    private static String asString(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    // Numbers may arrive as strings from older clients
+    private static double asDouble(Object value) {
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException ignored) {
+                return 0.0;
+            }
+        }
+        return 0.0;
+    }
+
+    private static long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
+    private static Long asNullableLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+}
@@ -2,38 +2,60 @@ package com.mytrackr.receipts.data.repository;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
 import android.util.Log;
 
-import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import android.os.Handler;
 import android.os.Looper;
 
-import androidx.annotation.NonNull;
 
-import com.google.firebase.FirebaseApp;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.SetOptions;
-import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.firestore.WriteBatch;
+import com.google.firebase.storage.StorageMetadata;
 import com.google.firebase.storage.StorageReference;
 import com.google.firebase.storage.UploadTask;
-import com.google.firebase.storage.StorageException;
-import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.FieldValue;
 
+import com.mytrackr.receipts.data.local.ReceiptLocalStore;
+import com.mytrackr.receipts.data.local.UploadOutbox;
+import com.mytrackr.receipts.data.models.CompressedText;
 import com.mytrackr.receipts.data.models.Receipt;
-import com.mytrackr.receipts.data.models.ReceiptItem;
+import com.mytrackr.receipts.data.models.ReceiptCodec;
+import com.mytrackr.receipts.services.ReceiptUploadWorker;
 import com.mytrackr.receipts.utils.CloudinaryUtils;
 import com.mytrackr.receipts.utils.NotificationPreferences;
 import com.mytrackr.receipts.utils.NotificationScheduler;
+import com.mytrackr.receipts.utils.StorageBucketResolver;
+import com.mytrackr.receipts.utils.SyncPreferences;
+import com.mytrackr.receipts.utils.Telemetry;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 
 // add import for R
@@ -48,6 +70,37 @@ public class ReceiptRepository {
     private static final Map<String, Long> lastScheduledTime = new HashMap<>();
     private static final long SCHEDULING_COOLDOWN_MS = 5000; // 5 seconds cooldown
 
+    // On-device copy of the user's receipts; reads are served from here first, then reconciled with Firestore
+    private ReceiptLocalStore localStore;
+    private final ExecutorService localExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Upload post-processing (storage callbacks, download URL retries, the receipt write) runs here, never on the main thread
+    private final ScheduledExecutorService uploadExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // Set on every Firebase Storage upload, so the download URL can be built without a getDownloadUrl round trip
+    private static final String DOWNLOAD_TOKENS_METADATA = "firebaseStorageDownloadTokens";
+    private static final int DOWNLOAD_URL_ATTEMPTS = 3;
+    private static final long RETRY_BASE_DELAY_MS = 1000;
+    private static final long RETRY_MAX_DELAY_MS = 10000;
+
+    // Value of the "kind" field of users/{uid}/tombstones documents written for deleted receipts
+    static final String TOMBSTONE_KIND_RECEIPT = "receipt";
+
+    // users/{uid}/receiptSummaries holds the lean list projection of every receipt (ReceiptCodec.encodeSummary),
+    // written together with the full document. Lists and sync read only these; the full receipt is read on demand.
+    public static final String SUMMARIES_COLLECTION = "receiptSummaries";
+    // users/{uid}/receiptSearch holds what only the on-device search needs (ReceiptCodec.encodeSearch): item lines
+    // and OCR words. Written with the summary, synced separately so summary queries stay small.
+    public static final String SEARCH_COLLECTION = "receiptSearch";
+    // Firestore batches hold at most 500 writes
+    private static final int MAX_BATCH_WRITES = 450;
+
+    // users/{uid}/receipts/{id}/blobs holds large receipt fields, deflate-compressed, so they are only
+    // downloaded when needed; currently the OCR text (ReceiptCodec.OCR_TEXT_BLOB)
+    private static final String BLOBS_COLLECTION = "blobs";
+    // Legacy receipts moved per migration round; three writes each, within one batch
+    private static final int OCR_MIGRATION_PAGE = 150;
+
     public static synchronized ReceiptRepository getInstance(){
         if(repositoryInstance == null){
             repositoryInstance = new ReceiptRepository();
@@ -67,140 +120,37 @@ public class ReceiptRepository {
         void onFailure(Exception e);
     }
 
+    /**
+     * Receives receipts from the local store (fromCache = true) and again once Firestore has been reconciled.
+     * Always invoked on the main thread.
+     */
+    public interface ReceiptsCallback {
+        void onReceiptsLoaded(List<Receipt> receipts, boolean fromCache);
+        void onFailure(Exception e);
+    }
+
     // Build Firestore map from Receipt object with all structured fields
     private Map<String, Object> buildReceiptMap(Receipt receipt, String cloudinaryPublicId) {
-        Map<String, Object> map = new HashMap<>();
-        String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
-        
-        // Store information
-        if (receipt.getStore() != null) {
-            Map<String, Object> storeMap = new HashMap<>();
-            Receipt.StoreInfo store = receipt.getStore();
-            if (store.getName() != null) storeMap.put("name", store.getName());
-            if (store.getAddress() != null) storeMap.put("address", store.getAddress());
-            if (store.getPhone() != null) storeMap.put("phone", store.getPhone());
-            if (store.getWebsite() != null) storeMap.put("website", store.getWebsite());
-            map.put("store", storeMap);
-        }
-        
-        // Receipt information
-        if (receipt.getReceipt() != null) {
-            Map<String, Object> receiptMap = new HashMap<>();
-            Receipt.ReceiptInfo receiptInfo = receipt.getReceipt();
-            if (receiptInfo.getReceiptId() != null) receiptMap.put("receiptId", receiptInfo.getReceiptId());
-            if (receiptInfo.getDate() != null) receiptMap.put("date", receiptInfo.getDate());
-            if (receiptInfo.getTime() != null) receiptMap.put("time", receiptInfo.getTime());
-            if (receiptInfo.getCurrency() != null) receiptMap.put("currency", receiptInfo.getCurrency());
-            if (receiptInfo.getPaymentMethod() != null) receiptMap.put("paymentMethod", receiptInfo.getPaymentMethod());
-            if (receiptInfo.getCardLast4() != null) receiptMap.put("cardLast4", receiptInfo.getCardLast4());
-            // Always save category if it exists (even if empty string, but not null)
-            if (receiptInfo.getCategory() != null) {
-                String category = receiptInfo.getCategory().trim();
-                if (!category.isEmpty() && !category.equals("null")) {
-                    receiptMap.put("category", category);
-                    Log.d("ReceiptRepository", "Saving category to Firestore: " + category);
-                } else {
-                    Log.w("ReceiptRepository", "Category is empty or 'null' string, not saving");
-                }
-            } else {
-                Log.w("ReceiptRepository", "Category is null, not saving");
-            }
-            receiptMap.put("subtotal", receiptInfo.getSubtotal());
-            receiptMap.put("tax", receiptInfo.getTax());
-            receiptMap.put("total", receiptInfo.getTotal());
-            // Always save dateTimestamp (for sorting/upload time)
-            receiptMap.put("dateTimestamp", receiptInfo.getDateTimestamp());
-            
-            // Always save receiptDateTimestamp if it exists, otherwise save dateTimestamp as fallback
-            if (receiptInfo.getReceiptDateTimestamp() > 0) {
-                receiptMap.put("receiptDateTimestamp", receiptInfo.getReceiptDateTimestamp()); // Actual receipt date
-            } else if (receiptInfo.getDateTimestamp() > 0) {
-                // If receiptDateTimestamp is 0 but dateTimestamp exists, use it as fallback
-                receiptMap.put("receiptDateTimestamp", receiptInfo.getDateTimestamp());
-                Log.d("ReceiptRepository", "Using dateTimestamp as receiptDateTimestamp fallback: " + receiptInfo.getDateTimestamp());
-            }
-            if (receiptInfo.getCustomNotificationTimestamp() > 0) {
-                receiptMap.put("customNotificationTimestamp", receiptInfo.getCustomNotificationTimestamp()); // Custom notification date
-            }
-            map.put("receipt", receiptMap);
-        }
-        
-        // Items - convert ReceiptItem objects to Maps for Firestore
-        if (receipt.getItems() != null && !receipt.getItems().isEmpty()) {
-            List<Map<String, Object>> itemsList = getMaps(receipt);
-            map.put("items", itemsList);
-        }
-        
-        // Additional information
-        if (receipt.getAdditional() != null) {
-            Map<String, Object> additionalMap = new HashMap<>();
-            Receipt.AdditionalInfo additional = receipt.getAdditional();
-            if (additional.getTaxNumber() != null) additionalMap.put("taxNumber", additional.getTaxNumber());
-            if (additional.getCashier() != null) additionalMap.put("cashier", additional.getCashier());
-            if (additional.getStoreNumber() != null) additionalMap.put("storeNumber", additional.getStoreNumber());
-            if (additional.getNotes() != null) additionalMap.put("notes", additional.getNotes());
-            map.put("additional", additionalMap);
-        }
-        
-        // Metadata
-        if (receipt.getMetadata() != null) {
-            Map<String, Object> metadataMap = new HashMap<>();
-            Receipt.ReceiptMetadata metadata = receipt.getMetadata();
-            if (metadata.getOcrText() != null) metadataMap.put("ocrText", metadata.getOcrText());
-            if (metadata.getProcessedBy() != null) metadataMap.put("processedBy", metadata.getProcessedBy());
-            if (metadata.getUploadedAt() != null) metadataMap.put("uploadedAt", metadata.getUploadedAt());
-            if (metadata.getUserId() != null) metadataMap.put("userId", metadata.getUserId());
-            map.put("metadata", metadataMap);
-        }
-        
-        // Image URL
-        if (receipt.getImageUrl() != null) {
-            map.put("imageUrl", receipt.getImageUrl());
-        }
+        Map<String, Object> map = ReceiptCodec.encode(receipt);
         
         // Cloudinary public id if present
         if (cloudinaryPublicId != null) {
             map.put("cloudinaryPublicId", cloudinaryPublicId);
         }
         
-        // Backward compatibility fields (for existing queries)
-        if (receipt.getStore() != null && receipt.getStore().getName() != null) {
-            map.put("storeName", receipt.getStore().getName());
-        }
-        if (receipt.getReceipt() != null) {
-            map.put("date", receipt.getReceipt().getDateTimestamp());
-            map.put("total", receipt.getReceipt().getTotal());
-        }
-        
         // Add server timestamp for consistent ordering/audit
         map.put("createdAt", FieldValue.serverTimestamp());
+        // Bumped on every write so delta sync can pick the change up
+        map.put("updatedAt", FieldValue.serverTimestamp());
         
         return map;
     }
 
-    @NonNull
-    private static List<Map<String, Object>> getMaps(Receipt receipt) {
-        List<Map<String, Object>> itemsList = new ArrayList<>();
-        for (ReceiptItem item : receipt.getItems()) {
-            Map<String, Object> itemMap = new HashMap<>();
-            if (item.getName() != null) itemMap.put("name", item.getName());
-            if (item.getQuantity() != null) itemMap.put("quantity", item.getQuantity());
-            if (item.getUnitPrice() != null) itemMap.put("unitPrice", item.getUnitPrice());
-            if (item.getTotalPrice() != null) itemMap.put("totalPrice", item.getTotalPrice());
-            if (item.getCategory() != null) itemMap.put("category", item.getCategory());
-            // Keep backward compatibility with "price" field
-            if (item.getTotalPrice() != null) {
-                itemMap.put("price", item.getTotalPrice());
-            } else if (item.getUnitPrice() != null && item.getQuantity() != null) {
-                itemMap.put("price", item.getUnitPrice() * item.getQuantity());
-            } else {
-                itemMap.put("price", 0.0);
-            }
-            itemsList.add(itemMap);
-        }
-        return itemsList;
-    }
-
+    /**
+     * Save a receipt without waiting for the upload: the receipt gets its final id and is queued with a copy of
+     * its image in the UploadOutbox, which ReceiptUploadWorker uploads in the background, surviving process death
+     * and network loss. The callback reports whether the receipt was queued, on the main thread.
+     */
     public void saveReceipt(Context context, Uri imageUri, Receipt receipt, SaveCallback callback) {
         String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
         String id = UUID.randomUUID().toString();
@@ -213,21 +163,57 @@ public class ReceiptRepository {
             return;
         }
 
+        Context appContext = context.getApplicationContext();
+        localExecutor.execute(() -> {
+            try {
+                UploadOutbox.getInstance(appContext).enqueue(appContext, userId, receipt, imageUri);
+            } catch (Exception e) {
+                Log.w("ReceiptRepository", "Failed to queue receipt " + id, e);
+                if (callback != null) mainHandler.post(() -> callback.onFailure(e));
+                return;
+            }
+            ReceiptUploadWorker.enqueue(appContext);
+            if (callback != null) mainHandler.post(callback::onSuccess);
+        });
+    }
+
+    public interface ImageUploadCallback {
+        // cloudinaryPublicId is null when the image went to Firebase Storage
+        void onSuccess(String imageUrl, String cloudinaryPublicId);
+        void onFailure(Exception e);
+        // Bytes of the current attempt; may be invoked on any thread
+        default void onProgress(long bytesSent, long totalBytes) {}
+    }
+
+    /**
+     * Upload a receipt image to Cloudinary if configured, otherwise (or if that fails) to Firebase Storage.
+     * The storage path is derived from the receipt id. onSuccess/onFailure are invoked on a background thread.
+     * @param cancellationSignal Aborts the upload in flight and skips any fallback, may be null
+     */
+    public void uploadReceiptImage(Context context, String id, Uri imageUri, CancellationSignal cancellationSignal, ImageUploadCallback callback) {
         // Check for Cloudinary config and attempt upload if available
         if (CloudinaryUtils.isConfigured(context)) {
             CloudinaryUtils.UploadConfig config = CloudinaryUtils.readConfig(context, id);
             if (config != null) {
-                CloudinaryUtils.uploadImage(context, imageUri, config, new CloudinaryUtils.CloudinaryUploadCallback() {
+                CloudinaryUtils.uploadImage(context, imageUri, config, cancellationSignal, uploadExecutor, new CloudinaryUtils.CloudinaryUploadCallback() {
                     @Override
                     public void onSuccess(String secureUrl, String publicId) {
-                        receipt.setImageUrl(secureUrl);
-                        saveMetadataToFirestore(id, receipt, publicId, callback, context);
+                        callback.onSuccess(secureUrl, publicId);
                     }
 
                     @Override
                     public void onFailure(Exception e) {
+                        if (isCanceled(cancellationSignal)) {
+                            callback.onFailure(e);
+                            return;
+                        }
                         Log.w("ReceiptRepository", "Cloudinary upload failed, falling back to Firebase Storage", e);
-                        saveReceiptFirebaseFallback(context, imageUri, receipt, id, callback);
+                        saveReceiptFirebaseFallback(context, imageUri, id, cancellationSignal, callback);
+                    }
+
+                    @Override
+                    public void onProgress(long bytesSent, long totalBytes) {
+                        callback.onProgress(bytesSent, totalBytes);
                     }
                 });
                 return;
@@ -235,29 +221,84 @@ public class ReceiptRepository {
         }
 
          // Fallback to Firebase Storage if Cloudinary not configured
-         saveReceiptFirebaseFallback(context, imageUri, receipt, id, callback);
-    }
-
-     // Helper: save metadata to Firestore (used by Cloudinary path)
-     private void saveMetadataToFirestore(String id, Receipt receipt, String cloudinaryPublicId, SaveCallback callback, Context context) {
-         Map<String, Object> map = buildReceiptMap(receipt, cloudinaryPublicId);
-         String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
-
-        // Save receipt under the user's document: users/{userId}/receipts/{id}
-        db.collection("users").document(userId).collection("receipts").document(id).set(map, SetOptions.merge())
-                 .addOnSuccessListener(aVoid -> {
-                     // Schedule replacement period notification
-                     if (context != null) {
-                         scheduleReplacementNotification(context, id, receipt);
-                     }
-                     if (callback != null) callback.onSuccess();
-                 })
-                 .addOnFailureListener(e -> {
-                     Log.w("ReceiptRepository", "Failed to save receipt metadata", e);
-                     if (callback != null) callback.onFailure(e);
-                 });
-     }
-     
+         saveReceiptFirebaseFallback(context, imageUri, id, cancellationSignal, callback);
+    }
+
+    private static boolean isCanceled(CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCanceled();
+    }
+
+    // Progress reporting and cancellation for one Firebase Storage upload attempt
+    private void track(UploadTask uploadTask, CancellationSignal cancellationSignal, ImageUploadCallback callback) {
+        if (cancellationSignal != null) cancellationSignal.setOnCancelListener(uploadTask::cancel);
+        if (callback != null) {
+            uploadTask.addOnProgressListener(uploadExecutor, snapshot -> callback.onProgress(snapshot.getBytesTransferred(), snapshot.getTotalByteCount()));
+        }
+    }
+
+    /**
+     * Write a receipt whose image is already uploaded: the receipt document, its summary, its OCR text blob and,
+     * unless the receipt already existed, the month's rollup increment, in one transaction. Safe to repeat with the
+     * same id, so an upload retried after a lost acknowledgement neither duplicates the receipt nor double counts it.
+     */
+    public void writeUploadedReceipt(Context context, String userId, String id, Receipt receipt, String cloudinaryPublicId, SaveCallback callback) {
+        writeReceiptDocument(context, userId, id, receipt, buildReceiptMap(receipt, cloudinaryPublicId), callback);
+    }
+
+    private void writeReceiptDocument(Context context, String userId, String id, Receipt receipt, Map<String, Object> map, SaveCallback callback) {
+        Object cloudinaryPublicId = map.get("cloudinaryPublicId");
+        if (cloudinaryPublicId instanceof String) receipt.setCloudinaryPublicId((String) cloudinaryPublicId);
+        Map<String, Object> summary = ReceiptCodec.encodeSummary(receipt);
+        summary.put("updatedAt", FieldValue.serverTimestamp());
+        Map<String, Object> search = ReceiptCodec.encodeSearch(receipt);
+        search.put("updatedAt", FieldValue.serverTimestamp());
+        Map<String, Object> rollupDelta = RollupRepository.receiptDelta(receipt, 1);
+
+        DocumentReference receiptRef = db.collection("users").document(userId).collection("receipts").document(id);
+        DocumentReference summaryRef = db.collection("users").document(userId).collection(SUMMARIES_COLLECTION).document(id);
+        DocumentReference searchRef = db.collection("users").document(userId).collection(SEARCH_COLLECTION).document(id);
+        // An edit of a receipt whose OCR text is still in its blob keeps the words the search document already has
+        boolean keepOcrTerms = !search.containsKey("ocrTerms") && receipt.getMetadata() != null
+                && receipt.getMetadata().getOcrTextBlob() != null;
+        Telemetry.Span span = Telemetry.getInstance().start(Telemetry.STAGE_FIRESTORE_WRITE);
+        db.runTransaction(transaction -> {
+                    boolean exists = transaction.get(receiptRef).exists();
+                    if (keepOcrTerms) {
+                        String ocrTerms = transaction.get(searchRef).getString("ocrTerms");
+                        if (ocrTerms != null) {
+                            search.put("ocrTerms", ocrTerms);
+                            // So the local write-through keeps them too
+                            receipt.getMetadata().setOcrTerms(ocrTerms);
+                        }
+                    }
+                    if (exists) map.remove("createdAt");
+                    transaction.set(receiptRef, map, SetOptions.merge());
+                    transaction.set(summaryRef, summary);
+                    transaction.set(searchRef, search);
+                    if (ReceiptCodec.hasOcrText(receipt)) {
+                        transaction.set(ocrTextBlobRef(userId, id), buildOcrTextBlob(receipt.getMetadata().getOcrText()));
+                    }
+                    if (!exists && rollupDelta != null) {
+                        transaction.set(RollupRepository.getInstance().rollupRef(userId, RollupRepository.monthKeyOf(receipt)), rollupDelta, SetOptions.merge());
+                    }
+                    return null;
+                })
+                .addOnSuccessListener(uploadExecutor, aVoid -> {
+                    span.succeed();
+                    cacheReceiptLocally(context, userId, receipt);
+                    // Schedule replacement period notification
+                    if (context != null) {
+                        scheduleReplacementNotification(context, id, receipt);
+                    }
+                    if (callback != null) callback.onSuccess();
+                })
+                .addOnFailureListener(uploadExecutor, e -> {
+                    Log.w("ReceiptRepository", "Failed to save receipt metadata", e);
+                    span.fail(e);
+                    if (callback != null) callback.onFailure(e);
+                });
+    }
+
     private void scheduleReplacementNotification(Context context, String receiptId, Receipt receipt) {
         if (receipt.getReceipt() == null) {
             Log.w("ReceiptRepository", "ReceiptInfo is null, cannot schedule notification");
@@ -320,37 +361,48 @@ public class ReceiptRepository {
     }
 
     // Fallback path: call the original Firebase Storage upload logic (extracted here so Cloudinary path can reuse it)
-    private void saveReceiptFirebaseFallback(Context context, Uri imageUri, Receipt receipt, String id, SaveCallback callback) {
-        String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
-        FirebaseStorage storageInstance = getPreferredStorage(context);
-        StorageReference ref = storageInstance.getReference().child("receipts/" + userId + "/" + id + ".jpg");
+    private void saveReceiptFirebaseFallback(Context context, Uri imageUri, String id, CancellationSignal cancellationSignal, ImageUploadCallback callback) {
+        uploadToStorage(context, imageUri, id, cancellationSignal, callback, false);
+    }
 
-        try {
-            UploadTask uploadTask;
-            java.io.InputStream inputToClose = null;
-            if ("content".equals(imageUri.getScheme())) {
-                inputToClose = context.getContentResolver().openInputStream(imageUri);
-                if (inputToClose != null) {
-                    Log.d("ReceiptRepository", "Fallback: uploading via putStream to path=" + ref.getPath());
-                    uploadTask = ref.putStream(inputToClose);
+    // Uploads to the bucket StorageBucketResolver picked; retried is set on the one retry after the bucket vanished
+    private void uploadToStorage(Context context, Uri imageUri, String id, CancellationSignal cancellationSignal, ImageUploadCallback callback, boolean retried) {
+        String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
+        StorageBucketResolver.getInstance(context).resolve(storageInstance -> {
+            if (isCanceled(cancellationSignal)) {
+                if (callback != null) callback.onFailure(new java.util.concurrent.CancellationException("Upload cancelled"));
+                return;
+            }
+            StorageReference ref = storageInstance.getReference().child("receipts/" + userId + "/" + id + ".jpg");
+            String downloadToken = UUID.randomUUID().toString();
+            StorageMetadata metadata = imageMetadata(downloadToken);
+            try {
+                UploadTask uploadTask;
+                java.io.InputStream inputToClose = null;
+                if ("content".equals(imageUri.getScheme())) {
+                    inputToClose = context.getContentResolver().openInputStream(imageUri);
+                    if (inputToClose != null) {
+                        Log.d("ReceiptRepository", "Fallback: uploading via putStream to path=" + ref.getPath());
+                        uploadTask = ref.putStream(inputToClose, metadata);
+                    } else {
+                        Log.d("ReceiptRepository", "Fallback: InputStream null; falling back to putFile for path=" + ref.getPath());
+                        uploadTask = ref.putFile(imageUri, metadata);
+                    }
                 } else {
-                    Log.d("ReceiptRepository", "Fallback: InputStream null; falling back to putFile for path=" + ref.getPath());
-                    uploadTask = ref.putFile(imageUri);
+                    Log.d("ReceiptRepository", "Fallback: uploading via putFile to path=" + ref.getPath());
+                    uploadTask = ref.putFile(imageUri, metadata);
                 }
-            } else {
-                Log.d("ReceiptRepository", "Fallback: uploading via putFile to path=" + ref.getPath());
-                uploadTask = ref.putFile(imageUri);
-            }
 
-            attachUploadListeners(uploadTask, ref, inputToClose, receipt, id, callback, context, imageUri, false);
+                attachUploadListeners(uploadTask, ref, inputToClose, downloadToken, cancellationSignal, callback, context, imageUri, id, retried, SystemClock.elapsedRealtime());
 
-        } catch (Exception e) {
-            Log.w("ReceiptRepository", "Fallback: Exception while uploading image", e);
-            if (callback != null) callback.onFailure(e);
-        }
+            } catch (Exception e) {
+                Log.w("ReceiptRepository", "Fallback: Exception while uploading image", e);
+                if (callback != null) callback.onFailure(e);
+            }
+        });
     }
 
-    private void attachUploadListeners(UploadTask uploadTask, StorageReference ref, java.io.InputStream toClose, Receipt receipt, String id, SaveCallback callback, Context context, Uri originalUri, boolean reuploadAttempted) {
+    private void attachUploadListeners(UploadTask uploadTask, StorageReference ref, java.io.InputStream toClose, String downloadToken, CancellationSignal cancellationSignal, ImageUploadCallback callback, Context context, Uri originalUri, String id, boolean reuploadAttempted, long startedAt) {
         if (uploadTask == null) {
             if (toClose != null) {
                 try { toClose.close(); } catch (Exception ignored) {}
@@ -359,59 +411,57 @@ public class ReceiptRepository {
             return;
         }
 
-        uploadTask.addOnSuccessListener((OnSuccessListener<UploadTask.TaskSnapshot>) taskSnapshot -> {
+        StorageBucketResolver resolver = StorageBucketResolver.getInstance(context);
+        Telemetry.Span span = Telemetry.getInstance().start(Telemetry.STAGE_STORAGE_UPLOAD);
+        track(uploadTask, cancellationSignal, callback);
+        uploadTask.addOnSuccessListener(uploadExecutor, (OnSuccessListener<UploadTask.TaskSnapshot>) taskSnapshot -> {
             Log.d("ReceiptRepository", "upload success snapshot; metadataRefPath=" + (taskSnapshot != null && taskSnapshot.getMetadata() != null && taskSnapshot.getMetadata().getReference()!=null ? taskSnapshot.getMetadata().getReference().getPath() : "(null)"));
             if (toClose != null) {
                 try { toClose.close(); } catch (Exception ex) { Log.d("ReceiptRepository", "Failed to close input stream after upload", ex); }
             }
+            resolver.recordUpload(true, SystemClock.elapsedRealtime() - startedAt);
+            span.succeed(taskSnapshot != null ? taskSnapshot.getBytesTransferred() : 0);
 
             StorageReference uploadedRef = null;
             if (taskSnapshot != null && taskSnapshot.getMetadata() != null) uploadedRef = taskSnapshot.getMetadata().getReference();
             if (uploadedRef == null) uploadedRef = ref;
 
+            String derivedUrl = downloadUrlOf(uploadedRef, downloadToken);
+            if (derivedUrl != null) {
+                if (callback != null) callback.onSuccess(derivedUrl, null);
+                return;
+            }
+
             Log.d("ReceiptRepository", "Resolving download URL for uploadedRefPath=" + uploadedRef.getPath());
-            getDownloadUrlWithRetries(uploadedRef, 3, 1000, new DownloadUrlCallback() {
+            getDownloadUrlWithRetries(uploadedRef, DOWNLOAD_URL_ATTEMPTS, new DownloadUrlCallback() {
                 @Override
                 public void onSuccess(Uri uri) {
                     Log.d("ReceiptRepository", "download URL resolved=" + uri.toString());
-                    receipt.setImageUrl(uri.toString());
-                    Map<String, Object> map = buildReceiptMap(receipt, null);
-
-                    // Save under users/{userId}/receipts/{id}
-                    String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
-                    db.collection("users").document(userId).collection("receipts").document(id).set(map, SetOptions.merge())
-                             .addOnSuccessListener(aVoid -> {
-                                 // Schedule replacement period notification
-                                 if (context != null) {
-                                     scheduleReplacementNotification(context, id, receipt);
-                                 }
-                                 if (callback != null) callback.onSuccess();
-                             })
-                             .addOnFailureListener(e -> {
-                                 Log.w("ReceiptRepository", "Failed to save receipt metadata", e);
-                                 if (callback != null) callback.onFailure(e);
-                             });
+                    if (callback != null) callback.onSuccess(uri.toString(), null);
                 }
 
                 @Override
                 public void onFailure(Exception e) {
                     Log.w("ReceiptRepository", "Failed to obtain download URL after upload (all retries)", e);
-                    if (!reuploadAttempted && originalUri != null) {
+                    if (!reuploadAttempted && originalUri != null && !isCanceled(cancellationSignal)) {
                         Log.w("ReceiptRepository", "Attempting reupload as fallback");
                         try {
                             java.io.InputStream newStream = null;
                             UploadTask retryTask;
+                            String retryToken = UUID.randomUUID().toString();
+                            StorageMetadata retryMetadata = imageMetadata(retryToken);
                             if ("content".equals(originalUri.getScheme())) {
                                 newStream = context.getContentResolver().openInputStream(originalUri);
                                 if (newStream != null) {
-                                    retryTask = ref.putStream(newStream);
+                                    retryTask = ref.putStream(newStream, retryMetadata);
                                 } else {
-                                    retryTask = ref.putFile(originalUri);
+                                    retryTask = ref.putFile(originalUri, retryMetadata);
                                 }
                             } else {
-                                retryTask = ref.putFile(originalUri);
+                                retryTask = ref.putFile(originalUri, retryMetadata);
                             }
-                            attachUploadListeners(retryTask, ref, newStream, receipt, id, callback, context, originalUri, true);
+                            Telemetry.getInstance().recordRetry(Telemetry.STAGE_STORAGE_UPLOAD);
+                            attachUploadListeners(retryTask, ref, newStream, retryToken, cancellationSignal, callback, context, originalUri, id, true, SystemClock.elapsedRealtime());
                             return;
                         } catch (Exception ex) {
                             Log.w("ReceiptRepository", "Reupload attempt failed", ex);
@@ -423,89 +473,476 @@ public class ReceiptRepository {
                 }
             });
 
-        }).addOnFailureListener(e -> {
+        }).addOnFailureListener(uploadExecutor, e -> {
             if (toClose != null) {
                 try { toClose.close(); } catch (Exception ex) { Log.d("ReceiptRepository", "Failed to close input stream after failed upload", ex); }
             }
+            span.fail(e);
+            if (isCanceled(cancellationSignal)) {
+                if (callback != null) callback.onFailure(e);
+                return;
+            }
             Log.w("ReceiptRepository", "Image upload failed", e);
+            resolver.recordUpload(false, SystemClock.elapsedRealtime() - startedAt);
 
-            boolean isNotFound = false;
-            try {
-                if (e instanceof StorageException) {
-                    StorageException se = (StorageException) e;
-                    int code = se.getErrorCode();
-                    isNotFound = (code == StorageException.ERROR_OBJECT_NOT_FOUND) || (se.getMessage() != null && se.getMessage().toLowerCase().contains("not found"));
-                } else if (e.getMessage() != null && e.getMessage().toLowerCase().contains("not found")) {
-                    isNotFound = true;
+            // The cached bucket is gone (project migrated): resolve again, once
+            if (StorageBucketResolver.isBucketNotFound(e) && !reuploadAttempted && originalUri != null) {
+                resolver.invalidate();
+                Telemetry.getInstance().recordRetry(Telemetry.STAGE_STORAGE_UPLOAD);
+                uploadToStorage(context, originalUri, id, cancellationSignal, callback, true);
+                return;
+            }
+
+            if (callback != null) callback.onFailure(e);
+        });
+    }
+
+    /**
+     * Local-first load of all receipts of the current user.
+     * The callback first receives the on-device copy (if any) and then the list after a delta sync with Firestore.
+     */
+    public void loadReceiptsForCurrentUser(Context context, ReceiptsCallback callback) {
+        String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
+        ReceiptLocalStore store = getLocalStore(context);
+
+        localExecutor.execute(() -> {
+            List<Receipt> cached = store.getReceipts(userId);
+            if (!cached.isEmpty()) {
+                mainHandler.post(() -> callback.onReceiptsLoaded(cached, true));
+            }
+            // Receipts queued by this user before a sign-out or a cancelled drain
+            if (UploadOutbox.getInstance(context).countPending(userId) > 0) {
+                ReceiptUploadWorker.enqueue(context);
+            }
+        });
+
+        syncReceipts(context, userId, new SyncCallback() {
+            @Override
+            public void onSynced() {
+                // Runs on localExecutor, right after the merge
+                List<Receipt> synced = store.getReceipts(userId);
+                mainHandler.post(() -> callback.onReceiptsLoaded(synced, false));
+                migrateInlineOcrText(context, userId);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    private interface SyncCallback {
+        // Invoked on localExecutor once the local store is up to date
+        void onSynced();
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Bring the local store up to date with Firestore: receipt summaries, then their search documents.
+     * The first sync on a device downloads every summary; later syncs only fetch summaries whose updatedAt
+     * is newer than the persisted watermark, plus tombstones of receipts deleted since then.
+     */
+    private void syncReceipts(Context context, String userId, SyncCallback callback) {
+        ReceiptLocalStore store = getLocalStore(context);
+        // Open the store before reading the watermark: a schema upgrade drops the cache together with the watermarks
+        localExecutor.execute(() -> {
+            store.getReadableDatabase();
+            SyncPreferences syncPreferences = new SyncPreferences(context);
+            long searchWatermark = syncPreferences.getSearchWatermark(userId);
+            syncReceipts(context, userId, syncPreferences.getReceiptsWatermark(userId), new SyncCallback() {
+                @Override
+                public void onSynced() {
+                    syncSearch(context, userId, searchWatermark, callback);
                 }
-            } catch (Exception ignored) {}
-
-            if (isNotFound && !reuploadAttempted && originalUri != null) {
-                try {
-                    String configuredBucket = null;
-                    try { configuredBucket = FirebaseApp.getInstance().getOptions().getStorageBucket(); } catch (Exception ex) { Log.d("ReceiptRepository", "Failed to read configured bucket", ex); }
-                    String alternateBucket = null;
-                    if (configuredBucket != null) {
-                        if (configuredBucket.contains("firebasestorage.app")) {
-                            alternateBucket = configuredBucket.replace("firebasestorage.app", "appspot.com");
-                        } else if (configuredBucket.contains("appspot.com")) {
-                            alternateBucket = configuredBucket.replace("appspot.com", "firebasestorage.app");
-                        }
-                    }
 
-                    if (alternateBucket != null && !alternateBucket.equals(configuredBucket)) {
-                        Log.w("ReceiptRepository", "Attempting upload with alternate bucket: " + alternateBucket);
-                        FirebaseStorage altStorage = FirebaseStorage.getInstance("gs://" + alternateBucket);
-                        StorageReference altRef = altStorage.getReference().child(ref.getPath());
-                        java.io.InputStream retryStream = null;
-                        UploadTask retryTask;
-                        if ("content".equals(originalUri.getScheme())) {
-                            retryStream = context.getContentResolver().openInputStream(originalUri);
-                            if (retryStream != null) retryTask = altRef.putStream(retryStream);
-                            else retryTask = altRef.putFile(originalUri);
+                @Override
+                public void onFailure(Exception e) {
+                    callback.onFailure(e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Same watermark scheme as the summaries, for the search documents. Deleted receipts need no tombstones here:
+     * the summary sync already removed them, search rows included. A failure only delays search words, so the
+     * callback still reports the (summary) sync as done.
+     */
+    private void syncSearch(Context context, String userId, long watermark, SyncCallback callback) {
+        ReceiptLocalStore store = getLocalStore(context);
+        SyncPreferences syncPreferences = new SyncPreferences(context);
+        Query query = db.collection("users").document(userId).collection(SEARCH_COLLECTION);
+        if (watermark > 0) {
+            query = query.whereGreaterThan("updatedAt", new Timestamp(new Date(watermark)));
+        }
+        query.get()
+                .addOnSuccessListener(snapshot -> {
+                    List<Receipt> searches = parseSearches(snapshot);
+                    long newWatermark = Math.max(Math.max(1, watermark), latestTimestamp(snapshot, "updatedAt"));
+                    localExecutor.execute(() -> {
+                        if (watermark == 0) {
+                            store.replaceAllSearch(userId, searches);
                         } else {
-                            retryTask = altRef.putFile(originalUri);
+                            store.upsertSearch(userId, searches);
+                        }
+                        syncPreferences.setSearchWatermark(userId, newWatermark);
+                        callback.onSynced();
+                    });
+                })
+                .addOnFailureListener(e -> {
+                    Log.w("ReceiptRepository", "Search document sync failed", e);
+                    localExecutor.execute(callback::onSynced);
+                });
+    }
+
+    private void syncReceipts(Context context, String userId, long watermark, SyncCallback callback) {
+        ReceiptLocalStore store = getLocalStore(context);
+        SyncPreferences syncPreferences = new SyncPreferences(context);
+        Telemetry.Span span = Telemetry.getInstance().start(Telemetry.STAGE_RECEIPT_SYNC);
+
+        if (watermark == 0) {
+            db.collection("users").document(userId).collection(SUMMARIES_COLLECTION)
+                    .get()
+                    .continueWithTask(task -> {
+                        if (!task.isSuccessful()) return Tasks.forException(task.getException());
+                        return backfillSummaries(userId, task.getResult());
+                    })
+                    .addOnSuccessListener(fresh -> {
+                        span.succeed();
+                        long newWatermark = Math.max(1, fresh.latestUpdatedAt);
+                        localExecutor.execute(() -> {
+                            store.replaceAll(userId, fresh.summaries);
+                            syncPreferences.setReceiptsWatermark(userId, newWatermark);
+                            callback.onSynced();
+                        });
+                    })
+                    .addOnFailureListener(e -> {
+                        span.fail(e);
+                        Log.w("ReceiptRepository", "Failed to reconcile receipts with Firestore", e);
+                        callback.onFailure(e);
+                    });
+            return;
+        }
+
+        Timestamp since = new Timestamp(new Date(watermark));
+        Task<QuerySnapshot> changedTask = db.collection("users").document(userId).collection(SUMMARIES_COLLECTION)
+                .whereGreaterThan("updatedAt", since)
+                .get();
+        Task<QuerySnapshot> deletedTask = db.collection("users").document(userId).collection("tombstones")
+                .whereGreaterThan("deletedAt", since)
+                .get();
+
+        Tasks.whenAllSuccess(changedTask, deletedTask)
+                .addOnSuccessListener(results -> {
+                    span.succeed();
+                    QuerySnapshot changed = changedTask.getResult();
+                    QuerySnapshot deleted = deletedTask.getResult();
+                    List<Receipt> changedReceipts = parseSummaries(changed);
+                    List<String> deletedIds = new ArrayList<>();
+                    for (DocumentSnapshot tombstone : deleted.getDocuments()) {
+                        if (TOMBSTONE_KIND_RECEIPT.equals(tombstone.getString("kind"))) {
+                            deletedIds.add(tombstone.getId());
                         }
-                        attachUploadListeners(retryTask, altRef, retryStream, receipt, id, callback, context, originalUri, true);
-                        return;
                     }
-                } catch (Exception ex) {
-                    Log.w("ReceiptRepository", "Alternate-bucket retry failed", ex);
-                }
+                    long newWatermark = Math.max(watermark,
+                            Math.max(latestTimestamp(changed, "updatedAt"), latestTimestamp(deleted, "deletedAt")));
+                    Log.d("ReceiptRepository", "Delta sync: " + changedReceipts.size() + " changed, " + deletedIds.size() + " deleted");
 
-                if (!reuploadAttempted && originalUri != null) {
-                    try {
-                        Log.w("ReceiptRepository", "Attempting putBytes fallback upload");
-                        uploadBytesFallback(context, originalUri, ref, receipt, id, callback);
-                        return;
-                    } catch (Exception ex) {
-                        Log.w("ReceiptRepository", "putBytes fallback failed", ex);
+                    applyRemoteChanges(context, userId, changedReceipts, deletedIds, newWatermark, callback::onSynced);
+                })
+                .addOnFailureListener(e -> {
+                    span.fail(e);
+                    Log.w("ReceiptRepository", "Delta sync failed", e);
+                    callback.onFailure(e);
+                });
+    }
+
+    /**
+     * Receipts saved before summaries existed have none. If the receipts collection has more documents than
+     * receiptSummaries (one count aggregation), read it once and write the missing summaries and search documents,
+     * keeping each receipt's own updatedAt so the watermarks are unaffected.
+     * @return All summaries, including the backfilled ones
+     */
+    private Task<FullSync> backfillSummaries(String userId, QuerySnapshot summarySnapshot) {
+        FullSync result = new FullSync();
+        result.summaries.addAll(parseSummaries(summarySnapshot));
+        result.latestUpdatedAt = latestTimestamp(summarySnapshot, "updatedAt");
+        Set<String> summarizedIds = new HashSet<>();
+        for (DocumentSnapshot document : summarySnapshot.getDocuments()) {
+            summarizedIds.add(document.getId());
+        }
+
+        CollectionReference receipts = db.collection("users").document(userId).collection("receipts");
+        return receipts.count().get(AggregateSource.SERVER).continueWithTask(countTask -> {
+            if (!countTask.isSuccessful() || countTask.getResult().getCount() <= summarizedIds.size()) {
+                return Tasks.forResult(result);
+            }
+            Log.d("ReceiptRepository", "Backfilling summaries: " + countTask.getResult().getCount()
+                    + " receipts, " + summarizedIds.size() + " summaries");
+            return receipts.get().continueWithTask(receiptsTask -> {
+                if (!receiptsTask.isSuccessful()) return Tasks.forException(receiptsTask.getException());
+
+                List<Task<Void>> commits = new ArrayList<>();
+                WriteBatch batch = db.batch();
+                int batchWrites = 0;
+                for (DocumentSnapshot document : receiptsTask.getResult().getDocuments()) {
+                    if (summarizedIds.contains(document.getId())) continue;
+                    Receipt receipt = parseReceiptFromDocument(document);
+                    if (receipt == null) continue;
+
+                    Timestamp updatedAt = document.getTimestamp("updatedAt");
+                    if (updatedAt == null) updatedAt = document.getTimestamp("createdAt");
+                    if (updatedAt == null) updatedAt = Timestamp.now();
+                    Map<String, Object> summary = ReceiptCodec.encodeSummary(receipt);
+                    summary.put("updatedAt", updatedAt);
+                    Map<String, Object> search = ReceiptCodec.encodeSearch(receipt);
+                    search.put("updatedAt", updatedAt);
+                    batch.set(db.collection("users").document(userId).collection(SUMMARIES_COLLECTION).document(document.getId()), summary);
+                    batch.set(db.collection("users").document(userId).collection(SEARCH_COLLECTION).document(document.getId()), search);
+                    result.summaries.add(ReceiptCodec.decodeSummary(document.getId(), summary));
+                    result.latestUpdatedAt = Math.max(result.latestUpdatedAt, updatedAt.toDate().getTime());
+
+                    batchWrites += 2;
+                    if (batchWrites >= MAX_BATCH_WRITES) {
+                        commits.add(batch.commit());
+                        batch = db.batch();
+                        batchWrites = 0;
                     }
                 }
+                if (batchWrites > 0) commits.add(batch.commit());
+                return Tasks.whenAll(commits).continueWith(commitTask -> {
+                    if (!commitTask.isSuccessful()) {
+                        // The local store is still complete; the next full sync on any device retries the writes
+                        Log.w("ReceiptRepository", "Failed to write backfilled summaries", commitTask.getException());
+                    }
+                    return result;
+                });
+            });
+        });
+    }
+
+    // Summaries of a full sync and the newest updatedAt among them
+    private static class FullSync {
+        final List<Receipt> summaries = new ArrayList<>();
+        long latestUpdatedAt;
+    }
+
+    /**
+     * Merge receipts changed or deleted on the server into the local store and advance the sync watermark.
+     * Used by delta sync and by ReceiptStore's live listeners.
+     * @param onMerged Runs on localExecutor after the merge, may be null
+     */
+    void applyRemoteChanges(Context context, String userId, List<Receipt> changed, List<String> deletedIds, long newWatermark, Runnable onMerged) {
+        ReceiptLocalStore store = getLocalStore(context);
+        SyncPreferences syncPreferences = new SyncPreferences(context);
+        localExecutor.execute(() -> {
+            store.upsertAll(userId, changed);
+            for (String id : deletedIds) {
+                store.delete(userId, id);
+            }
+            if (newWatermark > syncPreferences.getReceiptsWatermark(userId)) {
+                syncPreferences.setReceiptsWatermark(userId, newWatermark);
             }
+            if (onMerged != null) onMerged.run();
+        });
+    }
 
-            if (callback != null) callback.onFailure(e);
+    /**
+     * Merge search documents changed on the server into the local store and advance their watermark.
+     * Used by ReceiptStore's live listener.
+     */
+    void applySearchChanges(Context context, String userId, List<Receipt> changed, long newWatermark) {
+        ReceiptLocalStore store = getLocalStore(context);
+        SyncPreferences syncPreferences = new SyncPreferences(context);
+        localExecutor.execute(() -> {
+            store.upsertSearch(userId, changed);
+            if (newWatermark > syncPreferences.getSearchWatermark(userId)) {
+                syncPreferences.setSearchWatermark(userId, newWatermark);
+            }
         });
     }
 
-    public void searchByStore(String storePrefix, OnCompleteListener<QuerySnapshot> listener) {
-        // Search across all users' receipts using collectionGroup
-        db.collectionGroup("receipts")
-                .whereGreaterThanOrEqualTo("storeName", storePrefix)
-                .whereLessThanOrEqualTo("storeName", storePrefix + "\uf8ff")
-                .get()
-                .addOnCompleteListener(listener);
+    // Newest value of a Timestamp field across the documents, in epoch millis (0 if none)
+    static long latestTimestamp(QuerySnapshot querySnapshot, String field) {
+        long latest = 0;
+        for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+            Timestamp timestamp = document.getTimestamp(field);
+            if (timestamp != null) {
+                latest = Math.max(latest, timestamp.toDate().getTime());
+            }
+        }
+        return latest;
+    }
+
+    static List<Receipt> parseSummaries(QuerySnapshot querySnapshot) {
+        List<Receipt> receipts = new ArrayList<>();
+        for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+            Receipt receipt = parseSummaryFromDocument(document);
+            if (receipt != null) receipts.add(receipt);
+        }
+        return receipts;
+    }
+
+    static List<Receipt> parseSearches(QuerySnapshot querySnapshot) {
+        List<Receipt> searches = new ArrayList<>();
+        for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+            Receipt search = ReceiptCodec.decodeSearch(document.getId(), document.getData());
+            if (search != null) searches.add(search);
+        }
+        return searches;
+    }
+
+    private synchronized ReceiptLocalStore getLocalStore(Context context) {
+        if (localStore == null && context != null) {
+            localStore = ReceiptLocalStore.getInstance(context);
+        }
+        return localStore;
+    }
+
+    // Write-through so the next local-first read already contains the receipt
+    private void cacheReceiptLocally(Context context, String userId, Receipt receipt) {
+        ReceiptLocalStore store = getLocalStore(context);
+        if (store == null) return;
+        Receipt summary = ReceiptCodec.summarize(receipt);
+        localExecutor.execute(() -> store.upsert(userId, summary));
+    }
+
+    private DocumentReference ocrTextBlobRef(String userId, String receiptId) {
+        return db.collection("users").document(userId).collection("receipts").document(receiptId)
+                .collection(BLOBS_COLLECTION).document(ReceiptCodec.OCR_TEXT_BLOB);
+    }
+
+    private static Map<String, Object> buildOcrTextBlob(String ocrText) {
+        Map<String, Object> blob = new HashMap<>();
+        blob.put("data", Blob.fromBytes(CompressedText.compress(ocrText)));
+        blob.put("encoding", CompressedText.ENCODING);
+        blob.put("length", ocrText.length());
+        return blob;
+    }
+
+    public interface OcrTextCallback {
+        // text is null if the receipt has no OCR text
+        void onSuccess(String text);
+        void onFailure(Exception e);
+    }
+
+    /**
+     * The OCR text of a receipt, read from its compressed blob unless it is already loaded or stored inline
+     * (legacy documents). The text is also set on the receipt's metadata. Invoked on the main thread.
+     */
+    public void loadOcrText(Receipt receipt, OcrTextCallback callback) {
+        Receipt.ReceiptMetadata metadata = receipt.getMetadata();
+        if (metadata != null && metadata.getOcrText() != null) {
+            callback.onSuccess(metadata.getOcrText());
+            return;
+        }
+        // Summaries carry no metadata; only skip the read when the full document says there is no blob
+        if (!receipt.isSummary() && (metadata == null || metadata.getOcrTextBlob() == null)) {
+            callback.onSuccess(null);
+            return;
+        }
+
+        String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
+        ocrTextBlobRef(userId, receipt.getId()).get()
+                .addOnSuccessListener(document -> {
+                    Blob data = document.getBlob("data");
+                    if (data == null) {
+                        callback.onSuccess(null);
+                        return;
+                    }
+                    Long length = document.getLong("length");
+                    localExecutor.execute(() -> {
+                        try {
+                            // length counts chars; UTF-8 is at least as long, so it is a good lower bound for the buffer
+                            String text = CompressedText.decompress(data.toBytes(), length != null ? length.intValue() : 0);
+                            mainHandler.post(() -> {
+                                if (receipt.getMetadata() == null) receipt.setMetadata(new Receipt.ReceiptMetadata());
+                                receipt.getMetadata().setOcrText(text);
+                                callback.onSuccess(text);
+                            });
+                        } catch (IllegalArgumentException e) {
+                            Log.e("ReceiptRepository", "Corrupt OCR text blob for receipt " + receipt.getId(), e);
+                            mainHandler.post(() -> callback.onFailure(e));
+                        }
+                    });
+                })
+                .addOnFailureListener(e -> {
+                    Log.w("ReceiptRepository", "Failed to load OCR text for receipt " + receipt.getId(), e);
+                    callback.onFailure(e);
+                });
     }
 
-    public void fetchReceiptsForCurrentUser(OnCompleteListener<QuerySnapshot> listener) {
-         String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
-        // Fetch directly from the user's receipts subcollection, ordered by createdAt (uploadedAt)
-        db.collection("users").document(userId).collection("receipts")
-                .orderBy("createdAt", Query.Direction.DESCENDING)
+    /**
+     * Give a receipt's search document the words of its OCR text, for documents written without them.
+     * The updatedAt bump lets the other devices' delta sync pick the change up.
+     */
+    public void saveOcrTerms(String userId, String receiptId, String ocrTerms) {
+        db.collection("users").document(userId).collection(SEARCH_COLLECTION).document(receiptId)
+                .set(searchTermsUpdate(ocrTerms), SetOptions.merge())
+                .addOnFailureListener(e -> Log.w("ReceiptRepository", "Failed to save OCR terms for receipt " + receiptId, e));
+    }
+
+    /**
+     * One-time move of OCR text stored inline in receipt documents (before blobs existed) into compressed blobs.
+     * Only documents that still have a non-empty metadata.ocrText are read, a page at a time. Their search
+     * documents get the words of the text (ocrTerms).
+     */
+    private void migrateInlineOcrText(Context context, String userId) {
+        SyncPreferences syncPreferences = new SyncPreferences(context);
+        if (syncPreferences.isOcrTextMigrated(userId)) return;
+
+        CollectionReference receipts = db.collection("users").document(userId).collection("receipts");
+        Telemetry.Span span = Telemetry.getInstance().start(Telemetry.STAGE_OCR_MIGRATION);
+        receipts.whereGreaterThan("metadata.ocrText", "")
+                .limit(OCR_MIGRATION_PAGE)
                 .get()
-                .addOnCompleteListener(listener);
+                .addOnSuccessListener(snapshot -> {
+                    if (snapshot.isEmpty()) {
+                        span.succeed();
+                        syncPreferences.setOcrTextMigrated(userId);
+                        return;
+                    }
+                    WriteBatch batch = db.batch();
+                    for (DocumentSnapshot document : snapshot.getDocuments()) {
+                        String ocrText = document.getString("metadata.ocrText");
+                        if (ocrText == null) continue;
+                        batch.set(ocrTextBlobRef(userId, document.getId()), buildOcrTextBlob(ocrText));
+                        batch.update(document.getReference(),
+                                "metadata.ocrText", FieldValue.delete(),
+                                "metadata.ocrTextBlob", ReceiptCodec.OCR_TEXT_BLOB);
+                        // Search documents written from these documents left the text out; give them its words
+                        batch.set(db.collection("users").document(userId).collection(SEARCH_COLLECTION).document(document.getId()),
+                                searchTermsUpdate(ReceiptCodec.ocrTermsOf(ocrText)), SetOptions.merge());
+                    }
+                    batch.commit()
+                            .addOnSuccessListener(aVoid -> {
+                                span.succeed();
+                                Log.d("ReceiptRepository", "Moved OCR text of " + snapshot.size() + " receipts to blobs");
+                                if (snapshot.size() < OCR_MIGRATION_PAGE) {
+                                    syncPreferences.setOcrTextMigrated(userId);
+                                } else {
+                                    migrateInlineOcrText(context, userId);
+                                }
+                            })
+                            .addOnFailureListener(e -> {
+                                span.fail(e);
+                                Log.w("ReceiptRepository", "OCR text migration failed, retrying on next load", e);
+                            });
+                })
+                .addOnFailureListener(e -> {
+                    span.fail(e);
+                    Log.w("ReceiptRepository", "OCR text migration query failed, retrying on next load", e);
+                });
     }
-    
+
+    private static Map<String, Object> searchTermsUpdate(String ocrTerms) {
+        Map<String, Object> update = new HashMap<>();
+        update.put("ocrTerms", ocrTerms);
+        update.put("updatedAt", FieldValue.serverTimestamp());
+        return update;
+    }
+
     /**
      * Fetch a single receipt by ID from Firestore
      * @param receiptId The receipt ID to fetch
@@ -552,308 +989,84 @@ public class ReceiptRepository {
      * Parse a receipt from a Firestore document (full parsing with all fields)
      * Made public so it can be reused by other classes like NotificationAlarmReceiver
      */
-    public static Receipt parseReceiptFromDocument(com.google.firebase.firestore.DocumentSnapshot document) {
+    public static Receipt parseReceiptFromDocument(DocumentSnapshot document) {
         try {
-            Receipt receipt = new Receipt();
-            Map<String, Object> data = document.getData();
-            if (data == null) return null;
-
-            receipt.setId(document.getId());
-            
-            // Parse image URL
-            if (data.containsKey("imageUrl")) {
-                receipt.setImageUrl((String) data.get("imageUrl"));
-            }
-            
-            if (data.containsKey("cloudinaryPublicId")) {
-                receipt.setCloudinaryPublicId((String) data.get("cloudinaryPublicId"));
-            }
-
-            // Parse store information
-            if (data.containsKey("store")) {
-                Map<String, Object> storeMap = (Map<String, Object>) data.get("store");
-                Receipt.StoreInfo store = new Receipt.StoreInfo();
-                if (storeMap != null) {
-                    if (storeMap.containsKey("name")) store.setName((String) storeMap.get("name"));
-                    if (storeMap.containsKey("address")) store.setAddress((String) storeMap.get("address"));
-                    if (storeMap.containsKey("phone")) store.setPhone((String) storeMap.get("phone"));
-                    if (storeMap.containsKey("website")) store.setWebsite((String) storeMap.get("website"));
-                }
-                receipt.setStore(store);
-            } else if (data.containsKey("storeName")) {
-                // Backward compatibility
-                Receipt.StoreInfo store = new Receipt.StoreInfo();
-                store.setName((String) data.get("storeName"));
-                receipt.setStore(store);
-            }
-
-            // Parse receipt information
-            if (data.containsKey("receipt")) {
-                Map<String, Object> receiptMap = (Map<String, Object>) data.get("receipt");
-                Receipt.ReceiptInfo receiptInfo = new Receipt.ReceiptInfo();
-                if (receiptMap != null) {
-                    if (receiptMap.containsKey("receiptId")) receiptInfo.setReceiptId((String) receiptMap.get("receiptId"));
-                    if (receiptMap.containsKey("date")) receiptInfo.setDate((String) receiptMap.get("date"));
-                    if (receiptMap.containsKey("time")) receiptInfo.setTime((String) receiptMap.get("time"));
-                    if (receiptMap.containsKey("currency")) receiptInfo.setCurrency((String) receiptMap.get("currency"));
-                    if (receiptMap.containsKey("paymentMethod")) receiptInfo.setPaymentMethod((String) receiptMap.get("paymentMethod"));
-                    if (receiptMap.containsKey("cardLast4")) receiptInfo.setCardLast4((String) receiptMap.get("cardLast4"));
-                    if (receiptMap.containsKey("category")) {
-                        Object categoryObj = receiptMap.get("category");
-                        if (categoryObj != null) {
-                            String category = categoryObj.toString().trim();
-                            if (!category.isEmpty() && !category.equals("null")) {
-                                receiptInfo.setCategory(category);
-                            }
-                        }
-                    }
-                    if (receiptMap.containsKey("subtotal")) {
-                        Object subtotal = receiptMap.get("subtotal");
-                        if (subtotal instanceof Number) {
-                            receiptInfo.setSubtotal(((Number) subtotal).doubleValue());
-                        } else if (subtotal != null) {
-                            // Try to parse as string if not a number
-                            try {
-                                receiptInfo.setSubtotal(Double.parseDouble(subtotal.toString()));
-                            } catch (NumberFormatException e) {
-                                Log.w("ReceiptRepository", "Failed to parse subtotal: " + subtotal);
-                            }
-                        }
-                    }
-                    if (receiptMap.containsKey("tax")) {
-                        Object tax = receiptMap.get("tax");
-                        if (tax instanceof Number) {
-                            receiptInfo.setTax(((Number) tax).doubleValue());
-                        } else if (tax != null) {
-                            try {
-                                receiptInfo.setTax(Double.parseDouble(tax.toString()));
-                            } catch (NumberFormatException e) {
-                                Log.w("ReceiptRepository", "Failed to parse tax: " + tax);
-                            }
-                        }
-                    }
-                    if (receiptMap.containsKey("total")) {
-                        Object total = receiptMap.get("total");
-                        if (total instanceof Number) {
-                            receiptInfo.setTotal(((Number) total).doubleValue());
-                        } else if (total != null) {
-                            try {
-                                receiptInfo.setTotal(Double.parseDouble(total.toString()));
-                            } catch (NumberFormatException e) {
-                                Log.w("ReceiptRepository", "Failed to parse total: " + total);
-                            }
-                        }
-                    }
-                    if (receiptMap.containsKey("dateTimestamp")) {
-                        Object dateTimestamp = receiptMap.get("dateTimestamp");
-                        if (dateTimestamp instanceof Number) receiptInfo.setDateTimestamp(((Number) dateTimestamp).longValue());
-                    }
-                    if (receiptMap.containsKey("receiptDateTimestamp")) {
-                        Object receiptDateTimestamp = receiptMap.get("receiptDateTimestamp");
-                        if (receiptDateTimestamp instanceof Number) receiptInfo.setReceiptDateTimestamp(((Number) receiptDateTimestamp).longValue());
-                    }
-                    if (receiptMap.containsKey("customNotificationTimestamp")) {
-                        Object customNotificationTimestamp = receiptMap.get("customNotificationTimestamp");
-                        if (customNotificationTimestamp instanceof Number) receiptInfo.setCustomNotificationTimestamp(((Number) customNotificationTimestamp).longValue());
-                    }
-                }
-                receipt.setReceipt(receiptInfo);
-            }
-
-            // Parse items
-            if (data.containsKey("items")) {
-                List<Map<String, Object>> itemsMap = (List<Map<String, Object>>) data.get("items");
-                if (itemsMap != null) {
-                    List<ReceiptItem> items = new ArrayList<>();
-                    for (Map<String, Object> itemMap : itemsMap) {
-                        ReceiptItem item = new ReceiptItem();
-                        if (itemMap.containsKey("name")) item.setName((String) itemMap.get("name"));
-                        if (itemMap.containsKey("quantity")) {
-                            Object qty = itemMap.get("quantity");
-                            if (qty instanceof Number) item.setQuantity(((Number) qty).intValue());
-                        }
-                        if (itemMap.containsKey("unitPrice")) {
-                            Object price = itemMap.get("unitPrice");
-                            if (price instanceof Number) item.setUnitPrice(((Number) price).doubleValue());
-                        }
-                        if (itemMap.containsKey("totalPrice")) {
-                            Object total = itemMap.get("totalPrice");
-                            if (total instanceof Number) item.setTotalPrice(((Number) total).doubleValue());
-                        }
-                        if (itemMap.containsKey("category")) item.setCategory((String) itemMap.get("category"));
-                        items.add(item);
-                    }
-                    receipt.setItems(items);
-                }
-            }
-
-            // Parse additional information
-            if (data.containsKey("additional")) {
-                Map<String, Object> additionalMap = (Map<String, Object>) data.get("additional");
-                Receipt.AdditionalInfo additional = new Receipt.AdditionalInfo();
-                if (additionalMap != null) {
-                    if (additionalMap.containsKey("taxNumber")) additional.setTaxNumber((String) additionalMap.get("taxNumber"));
-                    if (additionalMap.containsKey("cashier")) additional.setCashier((String) additionalMap.get("cashier"));
-                    if (additionalMap.containsKey("storeNumber")) additional.setStoreNumber((String) additionalMap.get("storeNumber"));
-                    if (additionalMap.containsKey("notes")) additional.setNotes((String) additionalMap.get("notes"));
-                }
-                receipt.setAdditional(additional);
-            }
-
-            // Parse metadata
-            if (data.containsKey("metadata")) {
-                Map<String, Object> metadataMap = (Map<String, Object>) data.get("metadata");
-                Receipt.ReceiptMetadata metadata = new Receipt.ReceiptMetadata();
-                if (metadataMap != null) {
-                    if (metadataMap.containsKey("ocrText")) metadata.setOcrText((String) metadataMap.get("ocrText"));
-                    if (metadataMap.containsKey("processedBy")) metadata.setProcessedBy((String) metadataMap.get("processedBy"));
-                    if (metadataMap.containsKey("uploadedAt")) metadata.setUploadedAt((String) metadataMap.get("uploadedAt"));
-                    if (metadataMap.containsKey("userId")) metadata.setUserId((String) metadataMap.get("userId"));
-                }
-                receipt.setMetadata(metadata);
-            }
-
-            return receipt;
+            return ReceiptCodec.decode(document.getId(), document.getData());
         } catch (Exception e) {
             Log.e("ReceiptRepository", "Error parsing receipt from document", e);
             return null;
         }
     }
 
+    /**
+     * Parse a users/{uid}/receiptSummaries document
+     */
+    public static Receipt parseSummaryFromDocument(DocumentSnapshot document) {
+        try {
+            return ReceiptCodec.decodeSummary(document.getId(), document.getData());
+        } catch (Exception e) {
+            Log.e("ReceiptRepository", "Error parsing receipt summary from document", e);
+            return null;
+        }
+    }
+
     private interface DownloadUrlCallback {
         void onSuccess(Uri uri);
         void onFailure(Exception e);
     }
 
-    private void getDownloadUrlWithRetries(StorageReference ref, int maxAttempts, long initialDelayMs, DownloadUrlCallback callback) {
-        Handler handler = new Handler(Looper.getMainLooper());
-        final int[] attemptCount = {0};
-        final long[] currentDelay = {initialDelayMs};
-        final long MAX_DELAY_MS = 10000; // 10 seconds max delay
-
-        Runnable attempt = new Runnable() {
-            @Override
-            public void run() {
-                attemptCount[0]++;
-                Log.d("ReceiptRepository", "Attempt " + attemptCount[0] + " to get download URL for " + ref.getPath());
-                
-                ref.getDownloadUrl()
-                    .addOnSuccessListener(uri -> {
-                        Log.d("ReceiptRepository", "Successfully retrieved download URL on attempt " + attemptCount[0]);
-                        if (callback != null) callback.onSuccess(uri);
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.w("ReceiptRepository", "getDownloadUrl failed on attempt " + attemptCount[0] + 
-                                "/" + maxAttempts + ", error: " + e.getMessage());
-                        
-                        if (attemptCount[0] >= maxAttempts) {
-                            Log.e("ReceiptRepository", "Max retry attempts (" + maxAttempts + ") reached");
-                            if (callback != null) callback.onFailure(e);
-                            return;
-                        }
-                        
-                        currentDelay[0] = Math.min(currentDelay[0] * 2, MAX_DELAY_MS);
-                        Log.d("ReceiptRepository", "Retrying in " + currentDelay[0] + "ms...");
-                        
-                        handler.postDelayed(this, currentDelay[0]);
-                    });
-            }
-        };
-        
-        handler.post(attempt);
+    // Retries on uploadExecutor with exponential backoff and jitter, so retries of parallel uploads do not line up
+    private void getDownloadUrlWithRetries(StorageReference ref, int maxAttempts, DownloadUrlCallback callback) {
+        getDownloadUrlAttempt(ref, 1, maxAttempts, callback);
     }
 
-    private FirebaseStorage getPreferredStorage(Context context) {
-        try {
-            String configured = null;
-            try { configured = FirebaseApp.getInstance().getOptions().getStorageBucket(); } catch (Exception ignored) {}
-            if (configured != null) {
-                if (configured.contains("firebasestorage.app")) {
-                    String alt = configured.replace("firebasestorage.app", "appspot.com");
-                    try {
-                        FirebaseStorage altStorage = FirebaseStorage.getInstance("gs://" + alt);
-                        Log.d("ReceiptRepository", "Using alternate storage bucket gs://" + alt);
-                        return altStorage;
-                    } catch (Exception e) {
-                        Log.d("ReceiptRepository", "Failed to use alternate storage bucket, falling back: " + alt, e);
+    private void getDownloadUrlAttempt(StorageReference ref, int attempt, int maxAttempts, DownloadUrlCallback callback) {
+        Log.d("ReceiptRepository", "Attempt " + attempt + " to get download URL for " + ref.getPath());
+        Telemetry.Span span = Telemetry.getInstance().start(Telemetry.STAGE_DOWNLOAD_URL);
+        ref.getDownloadUrl()
+                .addOnSuccessListener(uploadExecutor, uri -> {
+                    span.succeed();
+                    Log.d("ReceiptRepository", "Successfully retrieved download URL on attempt " + attempt);
+                    if (callback != null) callback.onSuccess(uri);
+                })
+                .addOnFailureListener(uploadExecutor, e -> {
+                    Log.w("ReceiptRepository", "getDownloadUrl failed on attempt " + attempt + "/" + maxAttempts + ", error: " + e.getMessage());
+                    span.fail(e);
+                    if (attempt >= maxAttempts) {
+                        Log.e("ReceiptRepository", "Max retry attempts (" + maxAttempts + ") reached");
+                        if (callback != null) callback.onFailure(e);
+                        return;
                     }
-                }
-                try {
-                    FirebaseStorage cfgStorage = FirebaseStorage.getInstance("gs://" + configured);
-                    Log.d("ReceiptRepository", "Using configured storage bucket gs://" + configured);
-                    return cfgStorage;
-                } catch (Exception e) {
-                    Log.d("ReceiptRepository", "Failed to use configured storage bucket, falling back to default", e);
-                }
-            }
-        } catch (Exception ignored) {}
-        return FirebaseStorage.getInstance();
+                    long delay = retryDelayMs(attempt);
+                    Log.d("ReceiptRepository", "Retrying in " + delay + "ms...");
+                    Telemetry.getInstance().recordRetry(Telemetry.STAGE_DOWNLOAD_URL);
+                    uploadExecutor.schedule(() -> getDownloadUrlAttempt(ref, attempt + 1, maxAttempts, callback), delay, TimeUnit.MILLISECONDS);
+                });
     }
 
-    private void uploadBytesFallback(Context context, Uri imageUri, StorageReference ref, Receipt receipt, String id, SaveCallback callback) {
-        try {
-            java.io.InputStream inputStream = context.getContentResolver().openInputStream(imageUri);
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            java.io.ByteArrayOutputStream output = new java.io.ByteArrayOutputStream();
-            try {
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    output.write(buffer, 0, bytesRead);
-                }
-            } finally {
-                inputStream.close();
-            }
-            byte[] imageData = output.toByteArray();
-            UploadTask uploadTask = ref.putBytes(imageData);
-
-            uploadTask.addOnSuccessListener((OnSuccessListener<UploadTask.TaskSnapshot>) taskSnapshot -> {
-                Log.d("ReceiptRepository", "putBytes upload success snapshot; metadataRefPath=" + (taskSnapshot != null && taskSnapshot.getMetadata() != null && taskSnapshot.getMetadata().getReference()!=null ? taskSnapshot.getMetadata().getReference().getPath() : "(null)"));
-
-                StorageReference uploadedRef = null;
-                if (taskSnapshot != null && taskSnapshot.getMetadata() != null) uploadedRef = taskSnapshot.getMetadata().getReference();
-                if (uploadedRef == null) uploadedRef = ref;
-
-                Log.d("ReceiptRepository", "Resolving download URL for uploadedRefPath=" + uploadedRef.getPath());
-                getDownloadUrlWithRetries(uploadedRef, 3, 1000, new DownloadUrlCallback() {
-                    @Override
-                    public void onSuccess(Uri uri) {
-                        Log.d("ReceiptRepository", "download URL resolved=" + uri.toString());
-                        receipt.setImageUrl(uri.toString());
-                        Map<String, Object> map = buildReceiptMap(receipt, null);
-
-                        // Save putBytes fallback result under users/{userId}/receipts/{id}
-                        String userId = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "anonymous";
-                        db.collection("users").document(userId).collection("receipts").document(id).set(map, SetOptions.merge())
-                                .addOnSuccessListener(aVoid -> {
-                                    // Schedule replacement period notification
-                                    if (context != null) {
-                                        scheduleReplacementNotification(context, id, receipt);
-                                    }
-                                    if (callback != null) callback.onSuccess();
-                                })
-                                .addOnFailureListener(e -> {
-                                    Log.w("ReceiptRepository", "Failed to save receipt metadata", e);
-                                    if (callback != null) callback.onFailure(e);
-                                });
-                    }
+    // Delay before retry number attempt + 1: exponential, capped, with "equal jitter" (half fixed, half random)
+    private static long retryDelayMs(int attempt) {
+        long ceiling = Math.min(RETRY_MAX_DELAY_MS, RETRY_BASE_DELAY_MS << Math.min(attempt - 1, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
 
-                    @Override
-                    public void onFailure(Exception e) {
-                        Log.w("ReceiptRepository", "Failed to obtain download URL after putBytes upload (all retries)", e);
-                        if (callback != null) callback.onFailure(e);
-                    }
-                });
+    private static StorageMetadata imageMetadata(String downloadToken) {
+        return new StorageMetadata.Builder()
+                .setContentType("image/jpeg")
+                .setCustomMetadata(DOWNLOAD_TOKENS_METADATA, downloadToken)
+                .build();
+    }
 
-            }).addOnFailureListener(e -> {
-                Log.w("ReceiptRepository", "putBytes upload failed", e);
-                if (callback != null) callback.onFailure(e);
-            });
-        } catch (Exception e) {
-            Log.w("ReceiptRepository", "Exception in uploadBytesFallback", e);
-            if (callback != null) callback.onFailure(e);
-        }
+    /**
+     * The download URL Firebase Storage serves for an object uploaded with the given token, or null if unknown.
+     */
+    static String downloadUrlOf(StorageReference ref, String downloadToken) {
+        if (downloadToken == null || ref.getBucket() == null || ref.getBucket().isEmpty()) return null;
+        String path = ref.getPath().startsWith("/") ? ref.getPath().substring(1) : ref.getPath();
+        return "https://firebasestorage.googleapis.com/v0/b/" + ref.getBucket() + "/o/" + Uri.encode(path)
+                + "?alt=media&token=" + downloadToken;
     }
-    
+
     // Delete receipt from Firestore
     public void deleteReceipt(String receiptId, DeleteCallback callback) {
         if (receiptId == null || receiptId.isEmpty()) {
@@ -867,10 +1080,36 @@ public class ReceiptRepository {
             ? FirebaseAuth.getInstance().getCurrentUser().getUid() 
             : "anonymous";
         
-        db.collection("users").document(userId).collection("receipts").document(receiptId)
-                .delete()
+        // Delete and leave a tombstone so other devices drop the receipt on their next delta sync.
+        // A transaction rather than a batch: the stored receipt has to be read to take it out of the monthly rollup.
+        Map<String, Object> tombstone = new HashMap<>();
+        tombstone.put("kind", TOMBSTONE_KIND_RECEIPT);
+        tombstone.put("deletedAt", FieldValue.serverTimestamp());
+
+        DocumentReference receiptRef = db.collection("users").document(userId).collection("receipts").document(receiptId);
+        db.runTransaction(transaction -> {
+                    DocumentSnapshot snapshot = transaction.get(receiptRef);
+                    if (snapshot.exists()) {
+                        Receipt stored = parseReceiptFromDocument(snapshot);
+                        Map<String, Object> rollupDelta = RollupRepository.receiptDelta(stored, -1);
+                        if (rollupDelta != null) {
+                            transaction.set(RollupRepository.getInstance().rollupRef(userId, RollupRepository.monthKeyOf(stored)), rollupDelta, SetOptions.merge());
+                        }
+                    }
+                    transaction.delete(receiptRef);
+                    transaction.delete(db.collection("users").document(userId).collection(SUMMARIES_COLLECTION).document(receiptId));
+                    transaction.delete(db.collection("users").document(userId).collection(SEARCH_COLLECTION).document(receiptId));
+                    // Subcollections are not deleted with their parent
+                    transaction.delete(ocrTextBlobRef(userId, receiptId));
+                    transaction.set(db.collection("users").document(userId).collection("tombstones").document(receiptId), tombstone);
+                    return null;
+                })
                 .addOnSuccessListener(aVoid -> {
                     Log.d("ReceiptRepository", "Receipt deleted successfully: " + receiptId);
+                    ReceiptLocalStore store = getLocalStore(null);
+                    if (store != null) {
+                        localExecutor.execute(() -> store.delete(userId, receiptId));
+                    }
                     if (callback != null) callback.onSuccess();
                 })
                 .addOnFailureListener(e -> {
@@ -0,0 +1,531 @@
+package com.mytrackr.receipts.data.repository;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.mytrackr.receipts.data.local.ReceiptHashIndex;
+import com.mytrackr.receipts.data.local.ReceiptSearchIndex;
+import com.mytrackr.receipts.data.model.Transaction;
+import com.mytrackr.receipts.data.models.Receipt;
+import com.mytrackr.receipts.data.models.ReceiptCodec;
+import com.mytrackr.receipts.utils.SyncPreferences;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Application-scoped, in-memory view of the signed-in user's receipt summaries and transactions.
+ * The first start() loads them once (local store, then delta sync); after that live listeners on changes
+ * newer than the sync watermark keep them current, so screens observing the LiveData views never
+ * trigger reads of their own. All methods must be called on the main thread.
+ */
+public class ReceiptStore {
+    private static final String TAG = "ReceiptStore";
+
+    private static ReceiptStore instance;
+
+    private final Context appContext;
+    private final FirebaseFirestore db = FirebaseFirestore.getInstance();
+    private final ReceiptRepository receiptRepository = ReceiptRepository.getInstance();
+    private final TransactionRepository transactionRepository = TransactionRepository.getInstance();
+
+    private final MutableLiveData<List<Receipt>> receipts = new MutableLiveData<>();
+    private final MutableLiveData<List<Transaction>> transactions = new MutableLiveData<>();
+    private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
+    // Derived views are created once per key and shared by every observer
+    private final Map<String, LiveData<List<Receipt>>> rangeViews = new HashMap<>();
+    private final Map<String, LiveData<List<Receipt>>> categoryViews = new HashMap<>();
+
+    private final Map<String, Receipt> receiptsById = new LinkedHashMap<>();
+    // Full-text index of the same receipts. Updated and queried on its own thread so that indexing OCR text
+    // never blocks the UI; tasks run in order, so a search always sees every change published before it.
+    private final ReceiptSearchIndex searchIndex = new ReceiptSearchIndex();
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    // Image and purchase hashes of the same receipts, for duplicate checks; cheap enough to maintain inline
+    private final ReceiptHashIndex hashIndex = new ReceiptHashIndex();
+    // Receipts saved on this device whose summary has not synced back yet; only used by the duplicate checks
+    private final Map<String, Receipt> pendingById = new HashMap<>();
+    // Search documents (ReceiptCodec.decodeSearch) that arrived before their summary
+    private final Map<String, Receipt> searchBySummaryId = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // User the current data and listeners belong to
+    private String userId;
+    private boolean receiptsLoading;
+    private boolean transactionsLoading;
+    private ListenerRegistration receiptsRegistration;
+    private ListenerRegistration searchRegistration;
+    private ListenerRegistration transactionsRegistration;
+    private ListenerRegistration tombstonesRegistration;
+
+    public interface SearchCallback {
+        void onResults(List<Receipt> results);
+    }
+
+    private ReceiptStore(Context context) {
+        appContext = context.getApplicationContext();
+        // Drop everything on sign-out or account switch so the next user never sees stale data
+        FirebaseAuth.getInstance().addAuthStateListener(auth -> {
+            String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+            if (userId != null && !userId.equals(uid)) {
+                reset();
+            }
+        });
+    }
+
+    public static synchronized ReceiptStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReceiptStore(context);
+            Log.i("RECEIPT_STORE_INITIALIZED", "Receipt Store is Initialized");
+        }
+        return instance;
+    }
+
+    /**
+     * Make sure the data is loaded and kept live. Cheap to call from every onResume: it does nothing while
+     * a load is in flight or the listeners are attached.
+     */
+    public void start() {
+        String uid = getCurrentUserId();
+        if (uid == null) return;
+        if (!uid.equals(userId)) {
+            reset();
+            userId = uid;
+        }
+
+        if (!receiptsLoading && receiptsRegistration == null) {
+            loadReceipts(uid);
+        }
+        if (!transactionsLoading && transactionsRegistration == null) {
+            loadTransactions(uid);
+        }
+    }
+
+    /**
+     * All receipts of the user as summaries (see Receipt#isSummary), newest upload first.
+     * Null until the first load delivers.
+     */
+    public LiveData<List<Receipt>> getReceipts() {
+        return receipts;
+    }
+
+    /**
+     * All transactions of the user (income and expenses). Null until the first load delivers.
+     */
+    public LiveData<List<Transaction>> getTransactions() {
+        return transactions;
+    }
+
+    public LiveData<String> getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Receipts whose receipt date falls in [start, end).
+     */
+    public LiveData<List<Receipt>> getReceiptsInRange(long start, long end) {
+        String key = start + ":" + end;
+        LiveData<List<Receipt>> view = rangeViews.get(key);
+        if (view == null) {
+            view = Transformations.map(receipts, all -> filterByRange(all, start, end));
+            rangeViews.put(key, view);
+        }
+        return view;
+    }
+
+    /**
+     * Receipts dated in the given month.
+     * @param month 0-based month, as used by Calendar.MONTH
+     */
+    public LiveData<List<Receipt>> getReceiptsForMonth(int year, int month) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, 1);
+        long start = calendar.getTimeInMillis();
+        calendar.add(Calendar.MONTH, 1);
+        return getReceiptsInRange(start, calendar.getTimeInMillis());
+    }
+
+    /**
+     * Receipts with at least one item in the category (case-insensitive).
+     */
+    public LiveData<List<Receipt>> getReceiptsForCategory(String category) {
+        String key = category.toLowerCase();
+        LiveData<List<Receipt>> view = categoryViews.get(key);
+        if (view == null) {
+            view = Transformations.map(receipts, all -> filterByCategory(all, category));
+            categoryViews.put(key, view);
+        }
+        return view;
+    }
+
+    /**
+     * Search the user's receipts on the device: store name, receipt and item categories, item names and the
+     * words of the OCR text, which the search documents carry instead of the text.
+     * Every word must match, by prefix or with a typo. Results arrive on the main thread, best match first;
+     * nothing is delivered if the user changes in the meantime.
+     */
+    public void search(String query, SearchCallback callback) {
+        String uid = userId;
+        searchExecutor.execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            List<String> ids = searchIndex.search(query);
+            Log.d(TAG, "Search matched " + ids.size() + " of " + searchIndex.size() + " receipts in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            mainHandler.post(() -> {
+                if (uid == null || !uid.equals(userId)) return;
+                List<Receipt> results = new ArrayList<>();
+                for (String id : ids) {
+                    Receipt receipt = receiptsById.get(id);
+                    if (receipt != null) results.add(receipt);
+                }
+                callback.onResults(results);
+            });
+        });
+    }
+
+    /**
+     * A saved receipt whose image matches the given hashes exactly or nearly (see ReceiptHashIndex), or null.
+     * Constant time; only receipts already loaded or saved in this session are considered.
+     */
+    public Receipt findDuplicateImage(String sha256, Long dHash) {
+        return lookup(hashIndex.findImage(sha256, dHash));
+    }
+
+    /**
+     * Another saved receipt of the same purchase (store, printed date and total), or null.
+     */
+    public Receipt findDuplicatePurchase(Receipt receipt) {
+        return lookup(hashIndex.findPurchase(receipt));
+    }
+
+    /**
+     * Make a receipt that was just queued for upload count for duplicate checks before its summary syncs back.
+     */
+    public void addPendingReceipt(Receipt receipt) {
+        if (userId == null || receipt == null || receipt.getId() == null) return;
+        pendingById.put(receipt.getId(), receipt);
+        hashIndex.put(receipt);
+    }
+
+    /**
+     * OCR text loaded through {@link ReceiptRepository#loadOcrText}. A receipt whose search document has no
+     * ocrTerms gets the words of the text: indexed right away, and written back so other devices have them too.
+     */
+    public void indexOcrText(String receiptId, String ocrText) {
+        Receipt summary = receiptsById.get(receiptId);
+        if (userId == null || summary == null || ocrText == null || ocrText.isEmpty()) return;
+        if (summary.getMetadata() == null) summary.setMetadata(new Receipt.ReceiptMetadata());
+        if (summary.getMetadata().getOcrTerms() != null) return;
+        String ocrTerms = ReceiptCodec.ocrTermsOf(ocrText);
+        summary.getMetadata().setOcrTerms(ocrTerms);
+        searchExecutor.execute(() -> searchIndex.put(summary));
+        receiptRepository.saveOcrTerms(userId, receiptId, ocrTerms);
+    }
+
+    private Receipt lookup(String id) {
+        if (id == null) return null;
+        Receipt receipt = receiptsById.get(id);
+        return receipt != null ? receipt : pendingById.get(id);
+    }
+
+    private void loadReceipts(String uid) {
+        receiptsLoading = true;
+        receiptRepository.loadReceiptsForCurrentUser(appContext, new ReceiptRepository.ReceiptsCallback() {
+            @Override
+            public void onReceiptsLoaded(List<Receipt> loaded, boolean fromCache) {
+                if (!uid.equals(userId)) return;
+                receiptsById.clear();
+                for (Receipt receipt : loaded) {
+                    receiptsById.put(receipt.getId(), receipt);
+                }
+                List<Receipt> toIndex = new ArrayList<>(loaded);
+                searchExecutor.execute(() -> searchIndex.rebuild(toIndex));
+                hashIndex.rebuild(loaded);
+                for (Receipt pending : pendingById.values()) {
+                    if (!receiptsById.containsKey(pending.getId())) hashIndex.put(pending);
+                }
+                publishReceipts();
+                if (!fromCache) {
+                    receiptsLoading = false;
+                    errorMessage.setValue(null);
+                    listenForReceiptChanges(uid);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (!uid.equals(userId)) return;
+                Log.e(TAG, "Failed to load receipts", e);
+                receiptsLoading = false;
+                errorMessage.setValue(e != null ? e.getMessage() : "Failed to load receipts");
+                // Keep showing the local copy, or an empty list when there is none
+                if (receipts.getValue() == null) publishReceipts();
+            }
+        });
+    }
+
+    private void loadTransactions(String uid) {
+        transactionsLoading = true;
+        transactionRepository.syncTransactions(new TransactionRepository.TransactionsCallback() {
+            @Override
+            public void onTransactionsLoaded(List<Transaction> loaded) {
+                if (!uid.equals(userId)) return;
+                transactionsLoading = false;
+                transactions.setValue(loaded);
+                listenForTransactionChanges(uid);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (!uid.equals(userId)) return;
+                Log.e(TAG, "Failed to load transactions", e);
+                transactionsLoading = false;
+                if (transactions.getValue() == null) transactions.setValue(new ArrayList<>());
+            }
+        });
+    }
+
+    // Only documents changed after the sync watermark match, so attaching costs next to no reads
+    private void listenForReceiptChanges(String uid) {
+        if (receiptsRegistration != null) return;
+        Timestamp since = new Timestamp(new Date(new SyncPreferences(appContext).getReceiptsWatermark(uid)));
+        receiptsRegistration = db.collection("users").document(uid).collection(ReceiptRepository.SUMMARIES_COLLECTION)
+                .whereGreaterThan("updatedAt", since)
+                .addSnapshotListener((snapshot, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "Receipt listener failed", e);
+                        receiptsRegistration = null;
+                        return;
+                    }
+                    if (snapshot == null || !uid.equals(userId) || snapshot.getDocumentChanges().isEmpty()) return;
+
+                    List<Receipt> changed = new ArrayList<>();
+                    List<String> removed = new ArrayList<>();
+                    long latest = 0;
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        String id = change.getDocument().getId();
+                        if (change.getType() == DocumentChange.Type.REMOVED) {
+                            removed.add(id);
+                            receiptsById.remove(id);
+                            searchBySummaryId.remove(id);
+                            continue;
+                        }
+                        Receipt receipt = ReceiptRepository.parseSummaryFromDocument(change.getDocument());
+                        if (receipt == null) continue;
+                        // Summaries do not carry the item lines and OCR words; keep those already known
+                        Receipt search = searchBySummaryId.remove(id);
+                        ReceiptCodec.attachSearch(receipt, search != null ? search : receiptsById.get(id));
+                        changed.add(receipt);
+                        receiptsById.put(id, receipt);
+                        Timestamp updatedAt = change.getDocument().getTimestamp("updatedAt");
+                        if (updatedAt != null) latest = Math.max(latest, updatedAt.toDate().getTime());
+                    }
+                    for (Receipt receipt : changed) {
+                        pendingById.remove(receipt.getId());
+                        hashIndex.put(receipt);
+                    }
+                    for (String id : removed) hashIndex.remove(id);
+                    Log.d(TAG, "Live receipt changes: " + changed.size() + " changed, " + removed.size() + " removed");
+                    searchExecutor.execute(() -> {
+                        for (Receipt receipt : changed) searchIndex.put(receipt);
+                        for (String id : removed) searchIndex.remove(id);
+                    });
+                    receiptRepository.applyRemoteChanges(appContext, uid, changed, removed, latest, null);
+                    publishReceipts();
+                });
+        listenForSearchChanges(uid);
+        listenForTombstones(uid);
+    }
+
+    // Item lines and OCR words change without the summary; only the index and the category views use them
+    private void listenForSearchChanges(String uid) {
+        if (searchRegistration != null) return;
+        Timestamp since = new Timestamp(new Date(new SyncPreferences(appContext).getSearchWatermark(uid)));
+        searchRegistration = db.collection("users").document(uid).collection(ReceiptRepository.SEARCH_COLLECTION)
+                .whereGreaterThan("updatedAt", since)
+                .addSnapshotListener((snapshot, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "Search listener failed", e);
+                        searchRegistration = null;
+                        return;
+                    }
+                    if (snapshot == null || !uid.equals(userId) || snapshot.getDocumentChanges().isEmpty()) return;
+
+                    List<Receipt> changed = new ArrayList<>();
+                    List<Receipt> toIndex = new ArrayList<>();
+                    long latest = 0;
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        // Removals come with the summary's
+                        if (change.getType() == DocumentChange.Type.REMOVED) continue;
+                        String id = change.getDocument().getId();
+                        Receipt search = ReceiptCodec.decodeSearch(id, change.getDocument().getData());
+                        if (search == null) continue;
+                        changed.add(search);
+                        Receipt receipt = receiptsById.get(id);
+                        if (receipt != null) {
+                            toIndex.add(ReceiptCodec.attachSearch(receipt, search));
+                        } else {
+                            searchBySummaryId.put(id, search);
+                        }
+                        Timestamp updatedAt = change.getDocument().getTimestamp("updatedAt");
+                        if (updatedAt != null) latest = Math.max(latest, updatedAt.toDate().getTime());
+                    }
+                    Log.d(TAG, "Live search changes: " + changed.size());
+                    searchExecutor.execute(() -> {
+                        for (Receipt receipt : toIndex) searchIndex.put(receipt);
+                    });
+                    receiptRepository.applySearchChanges(appContext, uid, changed, latest);
+                    if (!toIndex.isEmpty()) publishReceipts();
+                });
+    }
+
+    private void listenForTransactionChanges(String uid) {
+        if (transactionsRegistration != null) return;
+        Timestamp since = new Timestamp(new Date(transactionRepository.getTransactionsWatermark()));
+        transactionsRegistration = db.collection("users").document(uid).collection("transactions")
+                .whereGreaterThan("updatedAt", since)
+                .addSnapshotListener((snapshot, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "Transaction listener failed", e);
+                        transactionsRegistration = null;
+                        return;
+                    }
+                    if (snapshot == null || !uid.equals(userId) || snapshot.getDocumentChanges().isEmpty()) return;
+                    List<Transaction> current = transactionRepository.applyListenerChanges(uid, snapshot.getDocumentChanges());
+                    if (current != null) transactions.setValue(current);
+                });
+        listenForTombstones(uid);
+    }
+
+    // Deletions of documents that never matched the change listeners (older than the watermark) arrive as tombstones
+    private void listenForTombstones(String uid) {
+        if (tombstonesRegistration != null || receiptsRegistration == null || transactionsRegistration == null) return;
+        long watermark = Math.min(new SyncPreferences(appContext).getReceiptsWatermark(uid), transactionRepository.getTransactionsWatermark());
+        tombstonesRegistration = db.collection("users").document(uid).collection("tombstones")
+                .whereGreaterThan("deletedAt", new Timestamp(new Date(watermark)))
+                .addSnapshotListener((snapshot, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "Tombstone listener failed", e);
+                        tombstonesRegistration = null;
+                        return;
+                    }
+                    if (snapshot == null || !uid.equals(userId)) return;
+
+                    List<String> deletedReceipts = new ArrayList<>();
+                    List<String> deletedTransactions = new ArrayList<>();
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        if (change.getType() != DocumentChange.Type.ADDED) continue;
+                        String kind = change.getDocument().getString("kind");
+                        if (ReceiptRepository.TOMBSTONE_KIND_RECEIPT.equals(kind)) {
+                            deletedReceipts.add(change.getDocument().getId());
+                        } else if (TransactionRepository.TOMBSTONE_KIND_TRANSACTION.equals(kind)) {
+                            deletedTransactions.add(change.getDocument().getId());
+                        }
+                    }
+
+                    if (!deletedReceipts.isEmpty()) {
+                        for (String id : deletedReceipts) {
+                            receiptsById.remove(id);
+                            searchBySummaryId.remove(id);
+                            hashIndex.remove(id);
+                        }
+                        searchExecutor.execute(() -> {
+                            for (String id : deletedReceipts) searchIndex.remove(id);
+                        });
+                        receiptRepository.applyRemoteChanges(appContext, uid, new ArrayList<>(), deletedReceipts, 0, null);
+                        publishReceipts();
+                    }
+                    if (!deletedTransactions.isEmpty()) {
+                        List<Transaction> current = transactionRepository.applyTombstones(uid, deletedTransactions);
+                        if (current != null) transactions.setValue(current);
+                    }
+                });
+    }
+
+    private void publishReceipts() {
+        List<Receipt> sorted = new ArrayList<>(receiptsById.values());
+        // Same order as the local store: newest upload first
+        sorted.sort((a, b) -> Long.compare(uploadTimeOf(b), uploadTimeOf(a)));
+        receipts.setValue(sorted);
+    }
+
+    private void reset() {
+        if (receiptsRegistration != null) receiptsRegistration.remove();
+        if (searchRegistration != null) searchRegistration.remove();
+        if (transactionsRegistration != null) transactionsRegistration.remove();
+        if (tombstonesRegistration != null) tombstonesRegistration.remove();
+        receiptsRegistration = null;
+        searchRegistration = null;
+        transactionsRegistration = null;
+        tombstonesRegistration = null;
+        receiptsLoading = false;
+        transactionsLoading = false;
+        userId = null;
+        receiptsById.clear();
+        searchExecutor.execute(searchIndex::clear);
+        hashIndex.clear();
+        pendingById.clear();
+        searchBySummaryId.clear();
+        receipts.setValue(null);
+        transactions.setValue(null);
+    }
+
+    private static List<Receipt> filterByRange(List<Receipt> all, long start, long end) {
+        if (all == null) return null;
+        List<Receipt> filtered = new ArrayList<>();
+        for (Receipt receipt : all) {
+            long date = receiptDateOf(receipt);
+            if (date >= start && date < end) filtered.add(receipt);
+        }
+        return filtered;
+    }
+
+    private static List<Receipt> filterByCategory(List<Receipt> all, String category) {
+        if (all == null) return null;
+        List<Receipt> filtered = new ArrayList<>();
+        for (Receipt receipt : all) {
+            for (String itemCategory : ReceiptCodec.itemTotalsOf(receipt).keySet()) {
+                if (category.equalsIgnoreCase(itemCategory)) {
+                    filtered.add(receipt);
+                    break;
+                }
+            }
+        }
+        return filtered;
+    }
+
+    private static long uploadTimeOf(Receipt receipt) {
+        return receipt.getReceipt() != null ? receipt.getReceipt().getDateTimestamp() : 0L;
+    }
+
+    // receiptDateTimestamp, else dateTimestamp, like the month queries
+    private static long receiptDateOf(Receipt receipt) {
+        if (receipt.getReceipt() == null) return 0L;
+        long date = receipt.getReceipt().getReceiptDateTimestamp();
+        return date > 0 ? date : receipt.getReceipt().getDateTimestamp();
+    }
+
+    private String getCurrentUserId() {
+        FirebaseAuth auth = FirebaseAuth.getInstance();
+        return auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+    }
+}
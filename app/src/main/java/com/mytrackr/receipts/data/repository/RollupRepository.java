@@ -0,0 +1,302 @@
+package com.mytrackr.receipts.data.repository;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.AggregateQuery;
+import com.google.firebase.firestore.AggregateQuerySnapshot;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.mytrackr.receipts.data.model.MonthlyRollup;
+import com.mytrackr.receipts.data.model.Transaction;
+import com.mytrackr.receipts.data.models.Receipt;
+import com.mytrackr.receipts.data.models.ReceiptCodec;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Monthly rollup documents (users/{uid}/rollups/{yyyy-MM}).
+ * Receipt and transaction writes add the increments built here to their own batch or transaction,
+ * so a month's totals can be read with a single document get instead of scanning the month.
+ */
+public class RollupRepository {
+    // Version passed to backfillRollup for a month that had no rollup document when it was scanned
+    public static final long NO_ROLLUP = -1;
+
+    private static RollupRepository instance;
+    private final FirebaseFirestore firestore;
+    private final FirebaseAuth firebaseAuth;
+
+    public interface RollupCallback {
+        // rollup is null when the month has no rollup document yet
+        void onRollupLoaded(MonthlyRollup rollup);
+        void onFailure(Exception e);
+    }
+
+    private RollupRepository() {
+        firestore = FirebaseFirestore.getInstance();
+        firebaseAuth = FirebaseAuth.getInstance();
+    }
+
+    public static synchronized RollupRepository getInstance() {
+        if (instance == null) {
+            instance = new RollupRepository();
+            Log.i("ROLLUP_REPO_INITIALIZED", "Rollup Repository is Initialized");
+        }
+        return instance;
+    }
+
+    public DocumentReference rollupRef(String uid, String monthKey) {
+        return firestore.collection("users").document(uid).collection("rollups").document(monthKey);
+    }
+
+    /**
+     * Rollup document id of the month containing the timestamp, e.g. "2024-05".
+     */
+    public static String monthKey(long timestamp) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestamp);
+        return monthKey(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH));
+    }
+
+    /**
+     * @param month 0-based month, as returned by Calendar.MONTH
+     */
+    public static String monthKey(int year, int month) {
+        return String.format(Locale.US, "%04d-%02d", year, month + 1);
+    }
+
+    /**
+     * Increments for adding (sign = 1) or removing (sign = -1) a receipt, to be written with
+     * set(rollupRef(uid, monthKeyOf(receipt)), delta, SetOptions.merge()).
+     * @return The increments, or null if the receipt does not count towards spending
+     */
+    public static Map<String, Object> receiptDelta(Receipt receipt, int sign) {
+        if (receipt == null || receipt.getReceipt() == null) return null;
+        double total = receipt.getReceipt().getTotal();
+        // Same rule as the budget sync: receipts without a positive total are not counted
+        if (total <= 0) return null;
+        double tax = receipt.getReceipt().getTax();
+
+        Map<String, Object> categories = new HashMap<>();
+        for (Map.Entry<String, Double> entry : categoryAmounts(receipt).entrySet()) {
+            categories.put(entry.getKey(), FieldValue.increment(sign * entry.getValue()));
+        }
+
+        Map<String, Object> delta = new HashMap<>();
+        delta.put("total", FieldValue.increment(sign * total));
+        delta.put("count", FieldValue.increment(sign));
+        delta.put("receiptTotal", FieldValue.increment(sign * total));
+        delta.put("receiptCount", FieldValue.increment(sign));
+        delta.put("tax", FieldValue.increment(sign * tax));
+        delta.put("categories", categories);
+        delta.put("version", FieldValue.increment(1));
+        delta.put("updatedAt", FieldValue.serverTimestamp());
+        return delta;
+    }
+
+    /**
+     * Increments for adding (sign = 1) or removing (sign = -1) a manual transaction.
+     * @return The increments, or null for income, which is not spending
+     */
+    public static Map<String, Object> transactionDelta(Transaction transaction, int sign) {
+        if (transaction == null || !transaction.isExpense()) return null;
+        double amount = transaction.getAmount();
+
+        // Manual transactions have no category, the dashboard shows them as "Other"
+        Map<String, Object> categories = new HashMap<>();
+        categories.put("Other", FieldValue.increment(sign * amount));
+
+        Map<String, Object> delta = new HashMap<>();
+        delta.put("total", FieldValue.increment(sign * amount));
+        delta.put("count", FieldValue.increment(sign));
+        delta.put("manualTotal", FieldValue.increment(sign * amount));
+        delta.put("manualCount", FieldValue.increment(sign));
+        delta.put("categories", categories);
+        delta.put("version", FieldValue.increment(1));
+        delta.put("updatedAt", FieldValue.serverTimestamp());
+        return delta;
+    }
+
+    // Receipt date, falling back to the upload time like the month queries do
+    public static String monthKeyOf(Receipt receipt) {
+        long date = receipt.getReceipt() != null ? receipt.getReceipt().getReceiptDateTimestamp() : 0;
+        if (date == 0 && receipt.getReceipt() != null) date = receipt.getReceipt().getDateTimestamp();
+        return monthKey(date > 0 ? date : System.currentTimeMillis());
+    }
+
+    public static String monthKeyOf(Transaction transaction) {
+        long timestamp = transaction.getTimestamp();
+        return monthKey(timestamp > 0 ? timestamp : System.currentTimeMillis());
+    }
+
+    /**
+     * Split of a receipt over item categories, using the same pre-tax allocation as the dashboard,
+     * plus a "Tax" entry. Items without a category count as "Other".
+     */
+    public static Map<String, Double> categoryAmounts(Receipt receipt) {
+        Map<String, Double> amounts = new HashMap<>();
+        Receipt.ReceiptInfo info = receipt.getReceipt();
+        double subtotal = info != null ? info.getSubtotal() : 0.0;
+        double tax = info != null ? info.getTax() : 0.0;
+        double total = info != null ? info.getTotal() : 0.0;
+
+        // Summaries read straight from Firestore carry only these totals, not the item lines
+        Map<String, Double> itemAmounts = ReceiptCodec.itemTotalsOf(receipt);
+        double itemsTotal = 0.0;
+        for (double price : itemAmounts.values()) {
+            itemsTotal += price;
+        }
+
+        double base;
+        if (subtotal > 0) {
+            base = subtotal;
+        } else if (total > 0) {
+            base = total - tax > 0 ? total - tax : total;
+        } else {
+            base = itemsTotal;
+        }
+
+        if (itemsTotal > 0 && base > 0) {
+            for (Map.Entry<String, Double> entry : itemAmounts.entrySet()) {
+                amounts.put(entry.getKey(), base * entry.getValue() / itemsTotal);
+            }
+        }
+        if (tax > 0) {
+            amounts.merge("Tax", tax, Double::sum);
+        }
+        return amounts;
+    }
+
+    public void getRollup(String monthKey, RollupCallback callback) {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            callback.onFailure(new IllegalStateException("User not authenticated"));
+            return;
+        }
+
+        rollupRef(uid, monthKey).get()
+                .addOnSuccessListener(documentSnapshot -> {
+                    if (documentSnapshot.exists()) {
+                        callback.onRollupLoaded(parseRollupFromDocument(documentSnapshot));
+                    } else {
+                        callback.onRollupLoaded(null);
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.e("ROLLUP_FETCH_ERROR", "Failed to fetch rollup " + monthKey, e);
+                    callback.onFailure(e);
+                });
+    }
+
+    /**
+     * Overwrite a month's rollup with totals computed from a full scan and mark it complete,
+     * so later reads can trust the increments. Runs in a transaction that gives up when the document changed
+     * or appeared after the scan read it (version differs from {@code scannedVersion}, NO_ROLLUP if it was
+     * missing), since the scan may then miss a receipt or transaction the increments already counted.
+     * The month stays incomplete and is scanned again on the next read. The same happens while some receipts
+     * have no summary yet (a full sync has not backfilled them), since the scan only reads summaries.
+     */
+    public void backfillRollup(String monthKey, MonthlyRollup rollup, long scannedVersion) {
+        String uid = getCurrentUserId();
+        if (uid == null) return;
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("total", rollup.getTotal());
+        data.put("count", rollup.getCount());
+        data.put("receiptTotal", rollup.getReceiptTotal());
+        data.put("receiptCount", rollup.getReceiptCount());
+        data.put("manualTotal", rollup.getManualTotal());
+        data.put("manualCount", rollup.getManualCount());
+        data.put("tax", rollup.getTax());
+        data.put("categories", new HashMap<>(rollup.getCategories()));
+        data.put("complete", true);
+        data.put("version", Math.max(scannedVersion, 0) + 1);
+        data.put("updatedAt", FieldValue.serverTimestamp());
+
+        DocumentReference ref = rollupRef(uid, monthKey);
+        // Same check as ReceiptRepository.backfillSummaries
+        AggregateQuery receiptCount = firestore.collection("users").document(uid).collection("receipts").count();
+        AggregateQuery summaryCount = firestore.collection("users").document(uid)
+                .collection(ReceiptRepository.SUMMARIES_COLLECTION).count();
+        Task<AggregateQuerySnapshot> receiptsTask = receiptCount.get(AggregateSource.SERVER);
+        Task<AggregateQuerySnapshot> summariesTask = summaryCount.get(AggregateSource.SERVER);
+        Tasks.whenAllSuccess(receiptsTask, summariesTask)
+                .onSuccessTask(counts -> {
+                    if (receiptsTask.getResult().getCount() > summariesTask.getResult().getCount()) {
+                        Log.d("ROLLUP_BACKFILLED", "Summaries not backfilled yet, leaving rollup " + monthKey + " incomplete");
+                        return Tasks.forResult(false);
+                    }
+                    return firestore.runTransaction(transaction -> {
+                        DocumentSnapshot current = transaction.get(ref);
+                        long version = current.exists() ? asLong(current.get("version")) : NO_ROLLUP;
+                        if (version != scannedVersion) {
+                            Log.d("ROLLUP_BACKFILLED", "Rollup " + monthKey + " changed since the scan, not backfilled");
+                            return false;
+                        }
+                        transaction.set(ref, data);
+                        return true;
+                    });
+                })
+                .addOnSuccessListener(written -> {
+                    if (written) Log.d("ROLLUP_BACKFILLED", "Rollup backfilled: " + monthKey);
+                })
+                .addOnFailureListener(e -> Log.e("ROLLUP_BACKFILL_ERROR", "Failed to backfill rollup " + monthKey, e));
+    }
+
+    public static MonthlyRollup parseRollupFromDocument(DocumentSnapshot document) {
+        try {
+            Map<String, Object> data = document.getData();
+            if (data == null) return null;
+
+            MonthlyRollup rollup = new MonthlyRollup();
+            rollup.setTotal(asDouble(data.get("total")));
+            rollup.setCount(asLong(data.get("count")));
+            rollup.setReceiptTotal(asDouble(data.get("receiptTotal")));
+            rollup.setReceiptCount(asLong(data.get("receiptCount")));
+            rollup.setManualTotal(asDouble(data.get("manualTotal")));
+            rollup.setManualCount(asLong(data.get("manualCount")));
+            rollup.setTax(asDouble(data.get("tax")));
+            rollup.setComplete(Boolean.TRUE.equals(data.get("complete")));
+            rollup.setVersion(asLong(data.get("version")));
+
+            Map<String, Double> categories = new HashMap<>();
+            Object categoriesObj = data.get("categories");
+            if (categoriesObj instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) categoriesObj).entrySet()) {
+                    categories.put(String.valueOf(entry.getKey()), asDouble(entry.getValue()));
+                }
+            }
+            rollup.setCategories(categories);
+            return rollup;
+        } catch (Exception e) {
+            Log.e("RollupRepository", "Error parsing rollup from document", e);
+            return null;
+        }
+    }
+
+    // Increments of whole numbers come back as Long, so read every field as a Number
+    private static double asDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+    }
+
+    private static long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
+    private String getCurrentUserId() {
+        if (firebaseAuth.getCurrentUser() != null) {
+            return firebaseAuth.getCurrentUser().getUid();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,140 @@
+package com.mytrackr.receipts.data.repository;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Shares Firestore snapshot listeners between everyone observing the same query.
+ * Each query key maps to one LiveData. Its listener is attached when the first lifecycle-bound observer
+ * becomes active and removed shortly after the last one goes away, so listeners never outlive their screens
+ * and identical queries are only streamed once. Must be used from the main thread.
+ */
+class SnapshotListenerRegistry<T> {
+    private static final String TAG = "SnapshotListenerRegistry";
+    // Keeps the listener across quick observer swaps (configuration changes, tab re-selection)
+    private static final long RELEASE_DELAY_MS = 2000;
+
+    interface Parser<T> {
+        T parse(QuerySnapshot snapshot);
+    }
+
+    private final Parser<T> parser;
+    private final Map<String, SharedQuery> queries = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    SnapshotListenerRegistry(Parser<T> parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * The shared LiveData of the query. Nothing is read until the LiveData has an active observer.
+     * @param key Identifies the query shape; equal keys must describe equal queries
+     * @param errorMessage Receives listener errors, held weakly
+     */
+    LiveData<T> observe(String key, Query query, MutableLiveData<String> errorMessage) {
+        return observe(key, query, null, errorMessage);
+    }
+
+    /**
+     * Like {@link #observe(String, Query, MutableLiveData)}, but switches to {@code fallback} if the query's
+     * composite index does not exist (yet) in the project instead of reporting an error.
+     * @param fallback Query returning the same documents without needing a composite index
+     */
+    LiveData<T> observe(String key, Query query, Query fallback, MutableLiveData<String> errorMessage) {
+        SharedQuery shared = queries.get(key);
+        if (shared == null) {
+            shared = new SharedQuery(key, query, fallback);
+            queries.put(key, shared);
+        }
+        if (errorMessage != null) shared.errorSinks.add(errorMessage);
+        return shared;
+    }
+
+    private class SharedQuery extends LiveData<T> {
+        private final String key;
+        private Query query;
+        private Query fallback;
+        private final Set<MutableLiveData<String>> errorSinks = Collections.newSetFromMap(new WeakHashMap<>());
+        private ListenerRegistration registration;
+        private final Runnable release = this::release;
+
+        SharedQuery(String key, Query query, Query fallback) {
+            this.key = key;
+            this.query = query;
+            this.fallback = fallback;
+        }
+
+        @Override
+        protected void onActive() {
+            mainHandler.removeCallbacks(release);
+            queries.putIfAbsent(key, this);
+            if (registration != null) return;
+            attach();
+        }
+
+        private void attach() {
+            Log.d(TAG, "Attaching listener " + key);
+            registration = query.addSnapshotListener((snapshot, e) -> {
+                if (e != null && fallback != null && isMissingIndex(e)) {
+                    Log.w(TAG, "Index missing for " + key + ", using fallback query", e);
+                    registration.remove();
+                    query = fallback;
+                    fallback = null;
+                    attach();
+                    return;
+                }
+                if (e != null) {
+                    Log.e(TAG, "Listener failed " + key, e);
+                    // Firestore does not call a failed listener again; drop it so the next activation re-attaches
+                    if (registration != null) {
+                        registration.remove();
+                        registration = null;
+                    }
+                    for (MutableLiveData<String> sink : errorSinks) {
+                        sink.postValue(e.getMessage());
+                    }
+                    return;
+                }
+                if (snapshot != null) setValue(parser.parse(snapshot));
+            });
+        }
+
+        @Override
+        protected void onInactive() {
+            mainHandler.postDelayed(release, RELEASE_DELAY_MS);
+        }
+
+        private void release() {
+            if (hasActiveObservers()) return;
+            if (registration != null) {
+                Log.d(TAG, "Removing listener " + key);
+                registration.remove();
+                registration = null;
+            }
+            if (!hasObservers()) {
+                queries.remove(key);
+            }
+        }
+    }
+
+    // Firestore rejects queries whose composite index is not deployed with FAILED_PRECONDITION
+    static boolean isMissingIndex(Exception e) {
+        return e instanceof FirebaseFirestoreException
+                && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.FAILED_PRECONDITION;
+    }
+}
@@ -1,15 +1,33 @@
 package com.mytrackr.receipts.data.repository;
 
 import android.util.Log;
+import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
 import com.mytrackr.receipts.data.model.Transaction;
+import com.mytrackr.receipts.utils.Telemetry;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class TransactionRepository {
@@ -17,6 +35,23 @@ public class TransactionRepository {
     private final FirebaseFirestore firestore;
     private final FirebaseAuth firebaseAuth;
 
+    // Value of the "kind" field of users/{uid}/tombstones documents written for deleted transactions
+    static final String TOMBSTONE_KIND_TRANSACTION = "transaction";
+
+    // In-memory set of the user's transactions kept current by delta sync (see syncTransactions)
+    private final Map<String, Transaction> transactionCache = new LinkedHashMap<>();
+    private String cachedUserId;
+    private long transactionsWatermark = 0;
+
+    // Snapshot listeners shared by identical live queries and removed when nobody observes them
+    private final SnapshotListenerRegistry<List<Transaction>> liveQueries =
+            new SnapshotListenerRegistry<>(TransactionRepository::parseTransactions);
+
+    public interface TransactionsCallback {
+        void onTransactionsLoaded(List<Transaction> transactions);
+        void onFailure(Exception e);
+    }
+
     private TransactionRepository() {
         firestore = FirebaseFirestore.getInstance();
         firebaseAuth = FirebaseAuth.getInstance();
@@ -44,13 +79,22 @@ public class TransactionRepository {
         transactionData.put("timestamp", transaction.getTimestamp());
         transactionData.put("month", transaction.getMonth());
         transactionData.put("year", transaction.getYear());
+        transactionData.put("updatedAt", FieldValue.serverTimestamp());
 
-        firestore
+        // Write the transaction and its monthly rollup increment in one batch
+        DocumentReference documentReference = firestore
                 .collection("users")
                 .document(uid)
                 .collection("transactions")
-                .add(transactionData)
-                .addOnSuccessListener(documentReference -> {
+                .document();
+        WriteBatch batch = firestore.batch();
+        batch.set(documentReference, transactionData);
+        Map<String, Object> rollupDelta = RollupRepository.transactionDelta(transaction, 1);
+        if (rollupDelta != null) {
+            batch.set(RollupRepository.getInstance().rollupRef(uid, RollupRepository.monthKeyOf(transaction)), rollupDelta, SetOptions.merge());
+        }
+        batch.commit()
+                .addOnSuccessListener(aVoid -> {
                     Log.i("TRANSACTION_ADDED", "Transaction added successfully: " + documentReference.getId());
                     successLiveData.postValue(true);
                 })
@@ -61,83 +105,147 @@ public class TransactionRepository {
                 });
     }
 
-    public void getRecentTransactions(String month, String year, int limit, MutableLiveData<List<Transaction>> transactionsLiveData, MutableLiveData<String> errorMessage) {
+    /**
+     * Live view of the month's most recent transactions. The underlying listener is shared with every other
+     * caller of the same query and only runs while the returned LiveData is observed.
+     * Served by the (month, year, timestamp desc) index in firestore.indexes.json; until that index is
+     * deployed the month is selected by timestamp range instead.
+     */
+    public LiveData<List<Transaction>> getRecentTransactions(String month, String year, int limit, MutableLiveData<String> errorMessage) {
         String uid = getCurrentUserId();
         if (uid == null) {
             errorMessage.postValue("User not authenticated");
-            return;
+            return new MutableLiveData<>(new ArrayList<>());
         }
 
-        // Query without ordering first to avoid index requirement
-        firestore
-                .collection("users")
-                .document(uid)
-                .collection("transactions")
+        CollectionReference transactions = transactionsCollection(uid);
+        Query query = transactions
+                .whereEqualTo("month", month)
+                .whereEqualTo("year", year)
                 .orderBy("timestamp", Query.Direction.DESCENDING)
-                .limit(100) // Get more, then filter client-side
-                .addSnapshotListener((queryDocumentSnapshots, e) -> {
-                    if (e != null) {
-                        Log.e("TRANSACTION_FETCH_ERROR", "Failed to fetch transactions", e);
-                        errorMessage.postValue(e.getMessage());
-                        return;
-                    }
+                .limit(limit);
 
-                    if (queryDocumentSnapshots != null) {
-                        List<Transaction> transactions = new ArrayList<>();
-                        // Filter by month and year client-side
-                        for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
-                            Transaction transaction = doc.toObject(Transaction.class);
-                            if (month.equals(transaction.getMonth()) && year.equals(transaction.getYear())) {
-                                transaction.setId(doc.getId());
-                                transactions.add(transaction);
-                                if (transactions.size() >= limit) {
-                                    break; // Stop once we have enough
-                                }
-                            }
-                        }
-                        transactionsLiveData.postValue(transactions);
-                    }
-                });
+        long[] range = monthRange(month, year);
+        Query fallback = transactions
+                .whereGreaterThanOrEqualTo("timestamp", range[0])
+                .whereLessThan("timestamp", range[1])
+                .orderBy("timestamp", Query.Direction.DESCENDING)
+                .limit(limit);
+
+        String key = uid + "/transactions?month=" + month + "&year=" + year + "&orderBy=timestamp_desc&limit=" + limit;
+        return liveQueries.observe(key, query, fallback, errorMessage);
     }
 
-    public void getRecentTransactionsLastMonth(int limit, MutableLiveData<List<Transaction>> transactionsLiveData, MutableLiveData<String> errorMessage) {
+    /**
+     * Live view of the newest {@code limit} transactions of the last 30 days, sharing its listener
+     * like {@link #getRecentTransactions}.
+     */
+    public LiveData<List<Transaction>> getRecentTransactionsLastMonth(int limit, MutableLiveData<String> errorMessage) {
         String uid = getCurrentUserId();
         if (uid == null) {
             errorMessage.postValue("User not authenticated");
-            return;
+            return new MutableLiveData<>(new ArrayList<>());
         }
 
-        // Calculate timestamp for 30 days ago
-        long thirtyDaysAgo = System.currentTimeMillis() - (30L * 24 * 60 * 60 * 1000);
+        // 30 days back from today's midnight, so calls during the same day share one listener
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, -30);
+        long since = calendar.getTimeInMillis();
 
-        firestore
-                .collection("users")
-                .document(uid)
-                .collection("transactions")
+        // Range and ordering on the same field only need the automatic single-field index
+        Query query = transactionsCollection(uid)
+                .whereGreaterThanOrEqualTo("timestamp", since)
                 .orderBy("timestamp", Query.Direction.DESCENDING)
-                .limit(limit)
-                .addSnapshotListener((queryDocumentSnapshots, e) -> {
-                    if (e != null) {
-                        Log.e("TRANSACTION_FETCH_ERROR", "Failed to fetch transactions", e);
-                        errorMessage.postValue(e.getMessage());
-                        return;
-                    }
+                .limit(limit);
 
-                    if (queryDocumentSnapshots != null) {
-                        List<Transaction> transactions = new ArrayList<>();
-                        // Filter transactions from last 30 days
-                        for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
-                            Transaction transaction = doc.toObject(Transaction.class);
-                            if (transaction.getTimestamp() >= thirtyDaysAgo) {
-                                transaction.setId(doc.getId());
-                                transactions.add(transaction);
-                            }
+        String key = uid + "/transactions?timestamp>=" + since + "&orderBy=timestamp_desc&limit=" + limit;
+        return liveQueries.observe(key, query, errorMessage);
+    }
+
+    /**
+     * Expenses with a timestamp in [start, end), read through the (type, timestamp) composite index so
+     * income documents of the range are never downloaded. Falls back to the bare range, filtered on the
+     * device, if the index is not deployed.
+     */
+    public void fetchExpensesInRange(long start, long end, TransactionsCallback callback) {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            callback.onFailure(new IllegalStateException("User not authenticated"));
+            return;
+        }
+
+        Query range = transactionsCollection(uid)
+                .whereGreaterThanOrEqualTo("timestamp", start)
+                .whereLessThan("timestamp", end);
+
+        range.whereEqualTo("type", "expense")
+                .get()
+                .continueWithTask(task -> {
+                    if (task.isSuccessful() || !SnapshotListenerRegistry.isMissingIndex(task.getException())) {
+                        return task;
+                    }
+                    Log.w("TRANSACTION_FETCH_ERROR", "Expense index missing, filtering the range on the device", task.getException());
+                    return range.get();
+                })
+                .addOnSuccessListener(querySnapshot -> {
+                    List<Transaction> expenses = new ArrayList<>();
+                    for (Transaction transaction : parseTransactions(querySnapshot)) {
+                        if (transaction.isExpense()) {
+                            expenses.add(transaction);
                         }
-                        transactionsLiveData.postValue(transactions);
                     }
+                    callback.onTransactionsLoaded(expenses);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e("TRANSACTION_FETCH_ERROR", "Failed to fetch expenses in range", e);
+                    callback.onFailure(e);
                 });
     }
 
+    private CollectionReference transactionsCollection(String uid) {
+        return firestore.collection("users").document(uid).collection("transactions");
+    }
+
+    // [start, end) in millis of the month named by the English month name and year stored on transactions
+    private static long[] monthRange(String month, String year) {
+        Calendar calendar = Calendar.getInstance();
+        try {
+            calendar.setTime(new SimpleDateFormat("MMMM", Locale.ENGLISH).parse(month));
+            int monthIndex = calendar.get(Calendar.MONTH);
+            calendar.clear();
+            calendar.set(Integer.parseInt(year), monthIndex, 1);
+        } catch (Exception e) {
+            Log.e("TRANSACTION_FETCH_ERROR", "Invalid month " + month + " " + year, e);
+            calendar = Calendar.getInstance();
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+        }
+        long start = calendar.getTimeInMillis();
+        calendar.add(Calendar.MONTH, 1);
+        return new long[]{start, calendar.getTimeInMillis()};
+    }
+
+    private static List<Transaction> parseTransactions(QuerySnapshot querySnapshot) {
+        List<Transaction> transactions = new ArrayList<>();
+        for (QueryDocumentSnapshot doc : querySnapshot) {
+            try {
+                Transaction transaction = doc.toObject(Transaction.class);
+                transaction.setId(doc.getId());
+                transactions.add(transaction);
+            } catch (Exception e) {
+                Log.e("TRANSACTION_FETCH_ERROR", "Failed to parse transaction " + doc.getId(), e);
+            }
+        }
+        return transactions;
+    }
+
     public void deleteTransaction(String transactionId, MutableLiveData<Boolean> successLiveData, MutableLiveData<String> errorMessage) {
         String uid = getCurrentUserId();
         if (uid == null) {
@@ -145,12 +253,26 @@ public class TransactionRepository {
             return;
         }
 
-        firestore
-                .collection("users")
-                .document(uid)
-                .collection("transactions")
-                .document(transactionId)
-                .delete()
+        // Delete and leave a tombstone so delta sync drops the transaction everywhere.
+        // Runs as a transaction so the stored amount can be read and taken out of the monthly rollup.
+        Map<String, Object> tombstone = new HashMap<>();
+        tombstone.put("kind", TOMBSTONE_KIND_TRANSACTION);
+        tombstone.put("deletedAt", FieldValue.serverTimestamp());
+
+        DocumentReference transactionRef = firestore.collection("users").document(uid).collection("transactions").document(transactionId);
+        firestore.runTransaction(firestoreTransaction -> {
+                    DocumentSnapshot snapshot = firestoreTransaction.get(transactionRef);
+                    if (snapshot.exists()) {
+                        Transaction stored = snapshot.toObject(Transaction.class);
+                        Map<String, Object> rollupDelta = RollupRepository.transactionDelta(stored, -1);
+                        if (rollupDelta != null) {
+                            firestoreTransaction.set(RollupRepository.getInstance().rollupRef(uid, RollupRepository.monthKeyOf(stored)), rollupDelta, SetOptions.merge());
+                        }
+                    }
+                    firestoreTransaction.delete(transactionRef);
+                    firestoreTransaction.set(firestore.collection("users").document(uid).collection("tombstones").document(transactionId), tombstone);
+                    return null;
+                })
                 .addOnSuccessListener(aVoid -> {
                     Log.i("TRANSACTION_DELETED", "Transaction deleted successfully: " + transactionId);
                     successLiveData.postValue(true);
@@ -162,6 +284,145 @@ public class TransactionRepository {
                 });
     }
 
+    /**
+     * All transactions of the current user. The first call downloads the whole collection; later calls only
+     * fetch transactions whose updatedAt is newer than the last sync plus tombstones of deleted ones,
+     * and merge them into the in-memory set.
+     */
+    public synchronized void syncTransactions(TransactionsCallback callback) {
+        String uid = getCurrentUserId();
+        if (uid == null) {
+            callback.onFailure(new IllegalStateException("User not authenticated"));
+            return;
+        }
+        if (!uid.equals(cachedUserId)) {
+            transactionCache.clear();
+            transactionsWatermark = 0;
+            cachedUserId = uid;
+        }
+        Telemetry.Span span = Telemetry.getInstance().start(Telemetry.STAGE_TRANSACTION_SYNC);
+
+        if (transactionsWatermark == 0) {
+            firestore.collection("users").document(uid).collection("transactions")
+                    .get()
+                    .addOnSuccessListener(querySnapshot -> {
+                        span.succeed();
+                        synchronized (this) {
+                            if (!uid.equals(cachedUserId)) return;
+                            transactionCache.clear();
+                            mergeChanged(querySnapshot);
+                            transactionsWatermark = Math.max(1, latestUpdatedAt(querySnapshot));
+                            callback.onTransactionsLoaded(new ArrayList<>(transactionCache.values()));
+                        }
+                    })
+                    .addOnFailureListener(e -> {
+                        span.fail(e);
+                        Log.e("TRANSACTION_FETCH_ERROR", "Failed to fetch transactions", e);
+                        callback.onFailure(e);
+                    });
+            return;
+        }
+
+        Timestamp since = new Timestamp(new Date(transactionsWatermark));
+        Task<QuerySnapshot> changedTask = firestore.collection("users").document(uid).collection("transactions")
+                .whereGreaterThan("updatedAt", since)
+                .get();
+        Task<QuerySnapshot> deletedTask = firestore.collection("users").document(uid).collection("tombstones")
+                .whereGreaterThan("deletedAt", since)
+                .get();
+
+        Tasks.whenAllSuccess(changedTask, deletedTask)
+                .addOnSuccessListener(results -> {
+                    span.succeed();
+                    synchronized (this) {
+                        if (!uid.equals(cachedUserId)) return;
+                        QuerySnapshot changed = changedTask.getResult();
+                        QuerySnapshot deleted = deletedTask.getResult();
+                        mergeChanged(changed);
+                        long latest = latestUpdatedAt(changed);
+                        for (DocumentSnapshot tombstone : deleted.getDocuments()) {
+                            if (TOMBSTONE_KIND_TRANSACTION.equals(tombstone.getString("kind"))) {
+                                transactionCache.remove(tombstone.getId());
+                            }
+                            Timestamp deletedAt = tombstone.getTimestamp("deletedAt");
+                            if (deletedAt != null) latest = Math.max(latest, deletedAt.toDate().getTime());
+                        }
+                        transactionsWatermark = Math.max(transactionsWatermark, latest);
+                        callback.onTransactionsLoaded(new ArrayList<>(transactionCache.values()));
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    span.fail(e);
+                    Log.e("TRANSACTION_FETCH_ERROR", "Transaction delta sync failed", e);
+                    callback.onFailure(e);
+                });
+    }
+
+    // Server time of the newest change merged into the in-memory set, 0 before the first sync
+    synchronized long getTransactionsWatermark() {
+        return transactionsWatermark;
+    }
+
+    /**
+     * Apply changes delivered by ReceiptStore's live listener to the in-memory set.
+     * @return The current transactions, or null if the set belongs to another user
+     */
+    synchronized List<Transaction> applyListenerChanges(String uid, List<DocumentChange> changes) {
+        if (!uid.equals(cachedUserId)) return null;
+        for (DocumentChange change : changes) {
+            QueryDocumentSnapshot doc = change.getDocument();
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                transactionCache.remove(doc.getId());
+                continue;
+            }
+            try {
+                Transaction transaction = doc.toObject(Transaction.class);
+                transaction.setId(doc.getId());
+                transactionCache.put(doc.getId(), transaction);
+            } catch (Exception e) {
+                Log.e("TRANSACTION_FETCH_ERROR", "Failed to parse transaction " + doc.getId(), e);
+            }
+            Timestamp updatedAt = doc.getTimestamp("updatedAt");
+            if (updatedAt != null) {
+                transactionsWatermark = Math.max(transactionsWatermark, updatedAt.toDate().getTime());
+            }
+        }
+        return new ArrayList<>(transactionCache.values());
+    }
+
+    /**
+     * Drop transactions whose tombstones were delivered by ReceiptStore's live listener.
+     * @return The current transactions, or null if the set belongs to another user
+     */
+    synchronized List<Transaction> applyTombstones(String uid, List<String> deletedIds) {
+        if (!uid.equals(cachedUserId)) return null;
+        for (String id : deletedIds) {
+            transactionCache.remove(id);
+        }
+        return new ArrayList<>(transactionCache.values());
+    }
+
+    private void mergeChanged(QuerySnapshot querySnapshot) {
+        for (QueryDocumentSnapshot doc : querySnapshot) {
+            try {
+                Transaction transaction = doc.toObject(Transaction.class);
+                transaction.setId(doc.getId());
+                transactionCache.put(doc.getId(), transaction);
+            } catch (Exception e) {
+                Log.e("TRANSACTION_FETCH_ERROR", "Failed to parse transaction " + doc.getId(), e);
+            }
+        }
+    }
+
+    private static long latestUpdatedAt(QuerySnapshot querySnapshot) {
+        long latest = 0;
+        for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
+            Timestamp updatedAt = doc.getTimestamp("updatedAt");
+            if (updatedAt != null) latest = Math.max(latest, updatedAt.toDate().getTime());
+        }
+        return latest;
+    }
+
     private String getCurrentUserId() {
         if (firebaseAuth.getCurrentUser() != null) {
             return firebaseAuth.getCurrentUser().getUid();
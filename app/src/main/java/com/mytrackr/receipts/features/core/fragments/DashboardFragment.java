@@ -33,8 +33,8 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.mytrackr.receipts.R;
 import com.mytrackr.receipts.data.models.Receipt;
-import com.mytrackr.receipts.data.models.ReceiptItem;
-import com.mytrackr.receipts.data.repository.ReceiptRepository;
+import com.mytrackr.receipts.data.models.ReceiptCodec;
+import com.mytrackr.receipts.data.repository.ReceiptStore;
 import com.mytrackr.receipts.data.model.Transaction;
 
 import com.github.mikephil.charting.charts.BarChart;
@@ -54,9 +54,6 @@ import com.github.mikephil.charting.formatter.IndexAxisValueFormatter;
 import com.github.mikephil.charting.formatter.ValueFormatter;
 import com.github.mikephil.charting.highlight.Highlight;
 import com.github.mikephil.charting.listener.OnChartValueSelectedListener;
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.mytrackr.receipts.features.category_details.CategoryDetailActivity;
 import android.content.Intent;
 
@@ -157,7 +154,7 @@ public class DashboardFragment extends Fragment implements OnChartValueSelectedL
         updateTabStyles();
         updateDateNavigationDisplay();
 
-        fetchAllDataOnce();
+        observeReceiptStore();
 
         ViewCompat.setOnApplyWindowInsetsListener(requireView(), (v, windowInsets) -> {
             Insets insets = windowInsets.getInsets(WindowInsetsCompat.Type.systemBars());
@@ -174,7 +171,7 @@ public class DashboardFragment extends Fragment implements OnChartValueSelectedL
     @Override
     public void onResume() {
         super.onResume();
-        fetchAllDataOnce();
+        ReceiptStore.getInstance(requireContext()).start();
     }
 
     private View loadingProgressLayout;
@@ -453,61 +450,40 @@ public class DashboardFragment extends Fragment implements OnChartValueSelectedL
         dialog.show();
     }
 
-    private void fetchAllDataOnce() {
-        showLoading(true);
-        ReceiptRepository.getInstance().fetchReceiptsForCurrentUser(task -> {
-            if (task.isSuccessful() && task.getResult() != null) {
-                mAllReceipts.clear();
-                for (QueryDocumentSnapshot document : task.getResult()) {
-                    try {
-                        Receipt receipt = document.toObject(Receipt.class);
-                        receipt.setId(document.getId());
-                        mAllReceipts.add(receipt);
-                    } catch (Exception e) {
-                        Log.e("Dashboard", "Receipt Parse error", e);
-                    }
+    // Renders from the shared ReceiptStore; onResume only makes sure it is started, so tab switches cost no reads
+    private void observeReceiptStore() {
+        ReceiptStore receiptStore = ReceiptStore.getInstance(requireContext());
+        if (receiptStore.getReceipts().getValue() == null) showLoading(true);
+
+        receiptStore.getReceipts().observe(getViewLifecycleOwner(), receipts -> {
+            if (receipts == null) return;
+            mAllReceipts.clear();
+            mAllReceipts.addAll(receipts);
+            filterAndRenderData();
+            updateWeeklyInsights();
+            showLoading(false);
+        });
+
+        receiptStore.getTransactions().observe(getViewLifecycleOwner(), transactions -> {
+            if (transactions == null) return;
+            mAllTransactions.clear();
+            for (Transaction transaction : transactions) {
+                if (transaction.isExpense()) {
+                    mAllTransactions.add(transaction);
                 }
-                fetchTransactionsAndRender();
-            } else {
-                showLoading(false);
-                Toast.makeText(getContext(), getString(R.string.failed_to_load_receipts), Toast.LENGTH_SHORT).show();
             }
+            filterAndRenderData();
+            updateWeeklyInsights();
         });
-    }
-
-    private void fetchTransactionsAndRender() {
-        String uid = FirebaseAuth.getInstance().getCurrentUser() != null ? FirebaseAuth.getInstance().getCurrentUser().getUid() : null;
-        if (uid == null) return;
-
-        FirebaseFirestore.getInstance()
-                .collection("users")
-                .document(uid)
-                .collection("transactions")
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    mAllTransactions.clear();
-                    for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
-                        try {
-                            Transaction transaction = doc.toObject(Transaction.class);
-                            transaction.setId(doc.getId());
-                            if (transaction.isExpense()) {
-                                mAllTransactions.add(transaction);
-                            }
-                        } catch (Exception e) {
-                            Log.e("Dashboard", "Transaction Parse error", e);
-                        }
-                    }
 
-                    filterAndRenderData();
-                    updateWeeklyInsights();
-                    showLoading(false);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e("Dashboard", "Failed to load transactions", e);
-                    filterAndRenderData();
-                    updateWeeklyInsights();
-                    showLoading(false);
-                });
+        receiptStore.getErrorMessage().observe(getViewLifecycleOwner(), error -> {
+            if (error == null) return;
+            Log.e("Dashboard", "Failed to load receipts: " + error);
+            showLoading(false);
+            if (mAllReceipts.isEmpty()) {
+                Toast.makeText(getContext(), getString(R.string.failed_to_load_receipts), Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     private void showLoading(boolean show) {
@@ -776,22 +752,17 @@ public class DashboardFragment extends Fragment implements OnChartValueSelectedL
                 java.util.List<String> itemTargets = new java.util.ArrayList<>();
                 double itemsTotal = 0.0;
 
-                if (receipt.getItems() != null) {
-                    for (ReceiptItem item : receipt.getItems()) {
-                        String cat = item.getCategory();
-                        double price = (item.getEffectiveTotalPrice() != null) ? item.getEffectiveTotalPrice() : 0.0;
-                        String target = "Other";
-                        if (cat != null) {
-                            for (String key : CATEGORY_COLORS.keySet()) {
-                                if (key.equalsIgnoreCase(cat)) { target = key; break; }
-                            }
-                        }
-                        if (price > 0) {
-                            itemPrices.add(price);
-                            itemTargets.add(target);
-                            itemsTotal += price;
-                        }
+                // Item totals by category; the summary keeps these even before its item lines have synced
+                for (Map.Entry<String, Double> entry : ReceiptCodec.itemTotalsOf(receipt).entrySet()) {
+                    String cat = entry.getKey();
+                    double price = entry.getValue();
+                    String target = "Other";
+                    for (String key : CATEGORY_COLORS.keySet()) {
+                        if (key.equalsIgnoreCase(cat)) { target = key; break; }
                     }
+                    itemPrices.add(price);
+                    itemTargets.add(target);
+                    itemsTotal += price;
                 }
 
                 if (hasInclusiveTotal) {
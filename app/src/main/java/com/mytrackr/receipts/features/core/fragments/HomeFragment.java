@@ -2,12 +2,15 @@ package com.mytrackr.receipts.features.core.fragments;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
@@ -17,6 +20,7 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.mytrackr.receipts.R;
 import com.mytrackr.receipts.data.models.Receipt;
 import com.mytrackr.receipts.databinding.FragmentHomeBinding;
 import com.mytrackr.receipts.ui.adapter.ReceiptAdapter;
@@ -28,12 +32,16 @@ import java.util.List;
 
 public class HomeFragment extends Fragment {
     private static final String TAG = "HomeFragment";
+    // Show more rows when this many are left below the last visible one
+    private static final int PREFETCH_DISTANCE = 5;
 
     private RecyclerView receiptsRecyclerView;
     private ReceiptAdapter receiptAdapter;
     private View emptyStateLayout;
     private View loadingProgressLayout;
     private TextView receiptsCount;
+    private TextView emptyStateTitle;
+    private TextView emptyStateSubtitle;
     private HomeViewModel homeViewModel;
     private FragmentHomeBinding binding;
 
@@ -53,6 +61,8 @@ public class HomeFragment extends Fragment {
         emptyStateLayout = binding.emptyStateLayout;
         loadingProgressLayout = binding.loadingProgressLayout;
         receiptsCount = binding.receiptsCount;
+        emptyStateTitle = binding.emptyStateTitle;
+        emptyStateSubtitle = binding.emptyStateSubtitle;
         FloatingActionButton fab = binding.fabScan;
 
         receiptAdapter = new ReceiptAdapter();
@@ -61,8 +71,33 @@ public class HomeFragment extends Fragment {
             startActivity(intent);
         });
 
-        receiptsRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(getContext());
+        receiptsRecyclerView.setLayoutManager(layoutManager);
         receiptsRecyclerView.setAdapter(receiptAdapter);
+        receiptsRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0) return;
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible + PREFETCH_DISTANCE >= receiptAdapter.getItemCount()) {
+                    homeViewModel.showMore();
+                }
+            }
+        });
+
+        binding.searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // Searches the on-device index, so it is cheap enough to run on every keystroke
+                homeViewModel.setSearchQuery(s.toString());
+            }
+        });
 
         fab.setOnClickListener(v -> {
             Intent i = new Intent(getActivity(), ReceiptScanActivity.class);
@@ -102,7 +137,7 @@ public class HomeFragment extends Fragment {
 
         homeViewModel.getReceipts().observe(getViewLifecycleOwner(), receipts -> {
             if (receipts != null) {
-                receiptAdapter.setReceipts(receipts);
+                receiptAdapter.submitReceipts(receipts);
                 Boolean isLoading = homeViewModel.getIsLoading().getValue();
                 if (isLoading == null || !isLoading) {
                     updateEmptyState(receipts.isEmpty());
@@ -128,6 +163,11 @@ public class HomeFragment extends Fragment {
     }
 
     private void updateEmptyState(boolean isEmpty) {
+        if (emptyStateTitle != null && emptyStateSubtitle != null) {
+            boolean searching = homeViewModel.isSearching();
+            emptyStateTitle.setText(searching ? R.string.no_matching_receipts : R.string.no_receipts);
+            emptyStateSubtitle.setText(searching ? R.string.try_a_different_search : R.string.scan_your_first_receipt_to_get_started);
+        }
         if (emptyStateLayout != null) {
             emptyStateLayout.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
         }
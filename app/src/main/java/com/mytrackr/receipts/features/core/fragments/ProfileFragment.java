@@ -11,7 +11,6 @@ import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.fragment.app.Fragment;
-import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 
@@ -26,6 +25,7 @@ import com.mytrackr.receipts.R;
 import com.mytrackr.receipts.data.model.Transaction;
 import com.mytrackr.receipts.data.models.ProfileMenuItem;
 import com.mytrackr.receipts.data.models.Receipt;
+import com.mytrackr.receipts.data.repository.ReceiptStore;
 import com.mytrackr.receipts.databinding.FragmentProfileBinding;
 import com.mytrackr.receipts.databinding.LogoutBottomSheetLayoutBinding;
 import com.mytrackr.receipts.features.change_password.ChangePasswordActivity;
@@ -90,13 +90,20 @@ public class ProfileFragment extends Fragment {
             return WindowInsetsCompat.CONSUMED;
         });
 
-        budgetViewModel.getTransactionsLiveData().observe(getViewLifecycleOwner(), transactions -> {
+        budgetViewModel.getCurrentYearTransactions(requireContext()).observe(getViewLifecycleOwner(), transactions -> {
             lastTransactions.clear();
             if (transactions != null) {
                 lastTransactions.addAll(transactions);
             }
         });
 
+        budgetViewModel.getCurrentYearReceipts(requireContext()).observe(getViewLifecycleOwner(), receipts -> {
+            lastReceipts.clear();
+            if (receipts != null) {
+                lastReceipts.addAll(receipts);
+            }
+        });
+
         refreshExportData();
 
         return binding.getRoot();
@@ -127,30 +134,10 @@ public class ProfileFragment extends Fragment {
         }
     }
 
+    // Export data is observed from the shared ReceiptStore; this only makes sure it is started
     private void refreshExportData() {
         if (budgetViewModel == null) return;
-
-        budgetViewModel.loadCurrentYearTransactions();
-
-        budgetViewModel.loadCurrentYearReceipts(new MutableLiveData<java.util.List<Receipt>>() {
-            @Override
-            public void postValue(java.util.List<Receipt> value) {
-                super.postValue(value);
-                lastReceipts.clear();
-                if (value != null) {
-                    lastReceipts.addAll(value);
-                }
-            }
-
-            @Override
-            public void setValue(java.util.List<Receipt> value) {
-                super.setValue(value);
-                lastReceipts.clear();
-                if (value != null) {
-                    lastReceipts.addAll(value);
-                }
-            }
-        });
+        ReceiptStore.getInstance(requireContext()).start();
     }
 
     private void handleSignOut(View view){
@@ -0,0 +1,70 @@
+package com.mytrackr.receipts.features.receipts;
+
+/**
+ * Contrast boost and 3x3 sharpen of ARGB pixels in a single pass.
+ * Contrast is a per-channel lookup table applied while the sharpen kernel reads its taps, so no contrasted copy
+ * of the image is ever materialised. Large images are split into row bands run on the common ForkJoin pool.
+ * Plain Java over int arrays; callers supply (and may reuse) the buffers.
+ */
+public final class EnhanceKernel {
+    private EnhanceKernel() {}
+
+    /**
+     * Channel lookup table of {@code clamp(c * contrast + brightness)}, the ColorMatrix the scan flow used before.
+     */
+    public static int[] contrastLut(float contrast, float brightness) {
+        int[] lut = new int[256];
+        for (int c = 0; c < 256; c++) {
+            lut[c] = clamp(Math.round(c * contrast + brightness));
+        }
+        return lut;
+    }
+
+    /**
+     * Write the contrasted and sharpened image of {@code src} to {@code dst}. Border pixels are contrasted only.
+     * Alpha is kept. {@code src} and {@code dst} must not overlap.
+     */
+    public static void apply(int[] src, int srcOffset, int srcStride, int[] dst, int dstOffset, int dstStride,
+                             int width, int height, int[] lut) {
+        if (width <= 0) return;
+        RowBands.run(height, (rowStart, rowEnd) ->
+                applyRows(src, srcOffset, srcStride, dst, dstOffset, dstStride, width, height, lut, rowStart, rowEnd));
+    }
+
+    // Rows [rowStart, rowEnd) of the image; reads the rows around them but writes only its own
+    static void applyRows(int[] src, int srcOffset, int srcStride, int[] dst, int dstOffset, int dstStride,
+                          int width, int height, int[] lut, int rowStart, int rowEnd) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = srcOffset + y * srcStride;
+            int out = dstOffset + y * dstStride;
+            if (y == 0 || y == height - 1 || width < 3) {
+                for (int x = 0; x < width; x++) dst[out + x] = contrast(src[row + x], lut);
+                continue;
+            }
+            int up = row - srcStride;
+            int down = row + srcStride;
+            dst[out] = contrast(src[row], lut);
+            for (int x = 1; x < width - 1; x++) {
+                int c = src[row + x];
+                int n = src[up + x];
+                int s = src[down + x];
+                int w = src[row + x - 1];
+                int e = src[row + x + 1];
+                // Kernel 0,-1,0 / -1,5,-1 / 0,-1,0 on the contrasted channels
+                int r = 5 * lut[(c >> 16) & 0xFF] - lut[(n >> 16) & 0xFF] - lut[(s >> 16) & 0xFF] - lut[(w >> 16) & 0xFF] - lut[(e >> 16) & 0xFF];
+                int g = 5 * lut[(c >> 8) & 0xFF] - lut[(n >> 8) & 0xFF] - lut[(s >> 8) & 0xFF] - lut[(w >> 8) & 0xFF] - lut[(e >> 8) & 0xFF];
+                int b = 5 * lut[c & 0xFF] - lut[n & 0xFF] - lut[s & 0xFF] - lut[w & 0xFF] - lut[e & 0xFF];
+                dst[out + x] = (c & 0xFF000000) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+            }
+            dst[out + width - 1] = contrast(src[row + width - 1], lut);
+        }
+    }
+
+    private static int contrast(int p, int[] lut) {
+        return (p & 0xFF000000) | (lut[(p >> 16) & 0xFF] << 16) | (lut[(p >> 8) & 0xFF] << 8) | lut[p & 0xFF];
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+}
@@ -0,0 +1,669 @@
+package com.mytrackr.receipts.features.receipts;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.content.FileProvider;
+
+import com.mytrackr.receipts.utils.BitmapPool;
+import com.mytrackr.receipts.utils.ExifOrientation;
+import com.mytrackr.receipts.utils.ImageHashes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Prepares scanned and picked receipt images off the main thread.
+ * A job runs the stages its {@link Request} asks for, in order: decode, perspective crop, downscale, whitespace
+ * trim, contrast and sharpen enhancement, hashing and JPEG encoding to a shareable file. Jobs run one at a time;
+ * submitting a job cancels the one before it, which stops at its next stage and never calls back. Only the final
+ * result is posted to the main thread.
+ */
+public class ImagePipeline {
+    private static final String TAG = "ImagePipeline";
+
+    public interface Callback {
+        void onResult(Result result);
+        void onFailure(Exception e);
+    }
+
+    /**
+     * What to do with an image. The source is either a bitmap (never modified or recycled by the pipeline) or a
+     * Uri to decode.
+     */
+    public static class Request {
+        private Bitmap sourceBitmap;
+        private Uri sourceUri;
+        private FullResolution fullResolution;
+        private float[] corners;
+        private boolean orderCorners;
+        private int maxDim;
+        private int trimThreshold = -1;
+        private boolean enhance;
+        private boolean hash;
+        private boolean encode;
+
+        public static Request of(Bitmap source) {
+            Request request = new Request();
+            request.sourceBitmap = source;
+            return request;
+        }
+
+        /**
+         * Decode the image at the Uri, upright and no larger than {@link #scaleTo} asks for.
+         */
+        public static Request of(Uri source) {
+            Request request = new Request();
+            request.sourceUri = source;
+            return request;
+        }
+
+        /**
+         * A bitmap source that is a downsampled view of an image file; crops are then cut from the file.
+         */
+        public Request withFullResolution(FullResolution fullResolution) {
+            this.fullResolution = fullResolution;
+            return this;
+        }
+
+        /**
+         * Crop to the quadrilateral x0,y0..x3,y3, in pixels of the source bitmap or, for a Uri source, of the
+         * upright full-size image. With {@code order}, the points may come in any order and as fractions of the
+         * image size, as the document scanner reports them.
+         */
+        public Request crop(float[] corners, boolean order) {
+            this.corners = corners;
+            this.orderCorners = order;
+            return this;
+        }
+
+        public Request scaleTo(int maxDim) {
+            this.maxDim = maxDim;
+            return this;
+        }
+
+        public Request trim(int brightnessThreshold) {
+            this.trimThreshold = brightnessThreshold;
+            return this;
+        }
+
+        public Request enhance() {
+            this.enhance = true;
+            return this;
+        }
+
+        public Request hash() {
+            this.hash = true;
+            return this;
+        }
+
+        public Request encode() {
+            this.encode = true;
+            return this;
+        }
+    }
+
+    /**
+     * The file a downsampled bitmap was decoded from, for cutting crops at full resolution.
+     */
+    public static class FullResolution {
+        final Uri uri;
+        final int orientation;
+        // Size of the upright image
+        final int width;
+        final int height;
+
+        FullResolution(Uri uri, int orientation, int width, int height) {
+            this.uri = uri;
+            this.orientation = orientation;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    public static class Result {
+        // Image after decoding and cropping, kept for corner editing
+        public final Bitmap original;
+        // Where original was decoded from if it is downsampled, otherwise null
+        public final FullResolution fullResolution;
+        // Image after all stages; the same instance as original if no later stage changed it
+        public final Bitmap processed;
+        // JPEG of processed, null unless encoding was asked for and succeeded
+        public final Uri uri;
+        public final String sha256;
+        public final Long dHash;
+
+        Result(Bitmap original, FullResolution fullResolution, Bitmap processed, Uri uri, String sha256, Long dHash) {
+            this.original = original;
+            this.fullResolution = fullResolution;
+            this.processed = processed;
+            this.uri = uri;
+            this.sha256 = sha256;
+            this.dHash = dHash;
+        }
+    }
+
+    /**
+     * Handle of a submitted request.
+     */
+    public static class Job {
+        private volatile boolean cancelled;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static class CancelledException extends Exception {}
+
+    private static final int[] CONTRAST_LUT = EnhanceKernel.contrastLut(1.15f, -10f);
+
+    private final Context context;
+    // Every bitmap the pipeline allocates comes from here, and every one it drops goes back
+    private final BitmapPool pool;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Job current;
+    // Pixel buffers reused across stages and jobs; touched only on the executor thread
+    private int[] pixels;
+    private int[] enhanced;
+    private int[] resampled;
+    private byte[] luma;
+    private final int[] bounds = new int[4];
+    private final int[] size = new int[2];
+    // Input plus output pixels the Java kernels may hold; larger images are drawn natively instead
+    private final long maxKernelBytes = Runtime.getRuntime().maxMemory() / 4;
+
+    public ImagePipeline(Context context) {
+        this.context = context.getApplicationContext();
+        this.pool = BitmapPool.getInstance(context);
+    }
+
+    /**
+     * Run a request in the background, cancelling the one before. The callback runs on the main thread unless
+     * the job was cancelled by then.
+     */
+    public Job submit(Request request, Callback callback) {
+        Job job = new Job();
+        synchronized (this) {
+            if (current != null) current.cancel();
+            current = job;
+        }
+        executor.execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                Result result = run(request, job);
+                Log.d(TAG, "Pipeline finished in " + (SystemClock.elapsedRealtime() - start) + " ms");
+                mainHandler.post(() -> {
+                    if (!job.isCancelled()) {
+                        callback.onResult(result);
+                    } else {
+                        // Cancelled after the last stage; nobody will take these bitmaps
+                        release(request, result);
+                    }
+                });
+            } catch (CancelledException e) {
+                Log.d(TAG, "Pipeline cancelled after " + (SystemClock.elapsedRealtime() - start) + " ms");
+            } catch (Exception e) {
+                Log.w(TAG, "Pipeline failed", e);
+                mainHandler.post(() -> {
+                    if (!job.isCancelled()) callback.onFailure(e);
+                });
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Cancel the running job, if any.
+     */
+    public synchronized void cancel() {
+        if (current != null) current.cancel();
+        current = null;
+    }
+
+    /**
+     * Cancel the running job and stop the worker thread; the pipeline cannot be used afterwards.
+     */
+    public void shutdown() {
+        cancel();
+        executor.execute(() -> {
+            pixels = null;
+            enhanced = null;
+            resampled = null;
+            luma = null;
+        });
+        executor.shutdown();
+    }
+
+    private Result run(Request request, Job job) throws Exception {
+        Bitmap source = request.sourceBitmap;
+        FullResolution fullResolution = request.fullResolution;
+        // Size of the image the crop corners refer to
+        float cornerSpaceW, cornerSpaceH;
+        if (source == null) {
+            if (request.sourceUri == null) throw new IllegalArgumentException("No image to process");
+            fullResolution = readFullResolution(request.sourceUri);
+            source = decode(fullResolution, request.maxDim);
+            cornerSpaceW = fullResolution.width;
+            cornerSpaceH = fullResolution.height;
+        } else {
+            cornerSpaceW = source.getWidth();
+            cornerSpaceH = source.getHeight();
+        }
+        checkCancelled(job, source, request);
+
+        Bitmap original = source;
+        if (request.corners != null) {
+            float[] corners = request.orderCorners ? normalizeAndOrderCorners(request.corners, cornerSpaceW, cornerSpaceH) : request.corners.clone();
+            // Into pixels of the source bitmap
+            float sx = source.getWidth() / cornerSpaceW;
+            float sy = source.getHeight() / cornerSpaceH;
+            for (int i = 0; i + 1 < corners.length; i += 2) {
+                corners[i] *= sx;
+                corners[i + 1] *= sy;
+            }
+            Bitmap cropped = null;
+            if (fullResolution != null) {
+                try {
+                    cropped = cropFullResolution(fullResolution, corners, source.getWidth(), source.getHeight(), request.maxDim);
+                } catch (Exception e) {
+                    Log.w(TAG, "Full-resolution crop failed, cropping the decoded image", e);
+                }
+            }
+            if (cropped == null) cropped = perspectiveCrop(source, corners);
+            if (cropped == null) throw new IOException("Perspective crop failed");
+            // A decoded source is ours; the caller's bitmap is left alone
+            if (source != request.sourceBitmap) pool.put(source);
+            original = cropped;
+            // The crop is the new original; it has no file behind it
+            fullResolution = null;
+        }
+        checkCancelled(job, original, request);
+
+        // From here on every stage returns a new bitmap or its input; inputs other than original are dropped
+        Bitmap proc = original;
+        if (request.maxDim > 0) {
+            proc = replace(proc, scaleBitmapToMaxDim(proc, request.maxDim), original);
+            checkCancelled(job, original, request, proc);
+        }
+        if (request.trimThreshold >= 0 || request.enhance) {
+            try {
+                proc = replace(proc, trimAndEnhance(proc, request.trimThreshold, request.enhance,
+                        proc != original && proc != request.sourceBitmap), original);
+            } catch (Exception e) {
+                Log.d(TAG, "trim/enhance failed", e);
+            }
+            checkCancelled(job, original, request, proc);
+        }
+
+        String sha256 = null;
+        Long dHash = null;
+        if (request.hash) {
+            try {
+                sha256 = ImageHashes.sha256(proc);
+                dHash = ImageHashes.dHash(proc);
+            } catch (Exception e) {
+                Log.d(TAG, "image hashing failed", e);
+            }
+            checkCancelled(job, original, request, proc);
+        }
+
+        Uri uri = null;
+        if (request.encode) {
+            try {
+                uri = saveBitmapToTempUri(proc);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to save processed image", e);
+            }
+        }
+        return new Result(original, fullResolution, proc, uri, sha256, dHash);
+    }
+
+    // Drops the bitmaps of a cancelled job that nobody else holds
+    private void checkCancelled(Job job, Bitmap original, Request request, Bitmap... intermediates) throws CancelledException {
+        if (!job.isCancelled()) return;
+        for (Bitmap bitmap : intermediates) {
+            if (bitmap != original && bitmap != request.sourceBitmap) pool.put(bitmap);
+        }
+        if (original != request.sourceBitmap) pool.put(original);
+        throw new CancelledException();
+    }
+
+    // Drops the bitmaps of a result that is not delivered, except the caller's own source bitmap
+    private void release(Request request, Result result) {
+        if (result.processed != result.original && result.processed != request.sourceBitmap) pool.put(result.processed);
+        if (result.original != request.sourceBitmap) pool.put(result.original);
+    }
+
+    private Bitmap replace(Bitmap previous, Bitmap next, Bitmap original) {
+        if (next != null && next != previous && previous != original) pool.put(previous);
+        return next != null ? next : previous;
+    }
+
+    private FullResolution readFullResolution(Uri uri) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(uri)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) throw new IOException("Not a decodable image: " + uri);
+        int orientation = ExifOrientation.read(context, uri);
+        boolean swap = ExifOrientation.swapsDimensions(orientation);
+        return new FullResolution(uri, orientation, swap ? bounds.outHeight : bounds.outWidth, swap ? bounds.outWidth : bounds.outHeight);
+    }
+
+    // Decodes upright with the long edge at most maxDim (0 = full size). Subsampling in the decoder does most of
+    // the reduction, so a 12 MP photo never exists in memory at full size.
+    private Bitmap decode(FullResolution image, int maxDim) throws IOException {
+        int longEdge = Math.max(image.width, image.height);
+        int sampleSize = maxDim > 0 ? sampleSizeFor(longEdge, maxDim) : 1;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        // Upper bound of the decoded size; the decoder may round either way
+        long bytes = 4L * ((image.width + sampleSize - 1) / sampleSize + 1) * ((image.height + sampleSize - 1) / sampleSize + 1);
+        options.inBitmap = pool.getForDecode(bytes);
+        Bitmap decoded;
+        try (InputStream in = open(image.uri)) {
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all; decode into a fresh one
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            try (InputStream in = open(image.uri)) {
+                decoded = BitmapFactory.decodeStream(in, null, options);
+            }
+        }
+        if (decoded == null) {
+            pool.put(options.inBitmap);
+            throw new IOException("Failed to decode " + image.uri);
+        }
+
+        Matrix matrix = new Matrix();
+        boolean transform = ExifOrientation.postApply(matrix, image.orientation);
+        int decodedLongEdge = Math.max(decoded.getWidth(), decoded.getHeight());
+        if (maxDim > 0 && decodedLongEdge > maxDim) {
+            float scale = (float) maxDim / decodedLongEdge;
+            matrix.postScale(scale, scale);
+            transform = true;
+        }
+        if (!transform) return decoded;
+        RectF dst = new RectF(0, 0, decoded.getWidth(), decoded.getHeight());
+        matrix.mapRect(dst);
+        matrix.postTranslate(-dst.left, -dst.top);
+        Bitmap upright = pool.get(Math.max(1, Math.round(dst.width())), Math.max(1, Math.round(dst.height())), Bitmap.Config.ARGB_8888);
+        new Canvas(upright).drawBitmap(decoded, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.put(decoded);
+        return upright;
+    }
+
+    // Cuts the quadrilateral (in pixels of a bitmapW x bitmapH view of the image) out of the image file, reading
+    // only its bounding box, subsampled no further than needed to keep maxDim
+    private Bitmap cropFullResolution(FullResolution image, float[] corners, int bitmapW, int bitmapH, int maxDim) throws IOException {
+        float[] points = corners.clone();
+        float sx = (float) image.width / bitmapW;
+        float sy = (float) image.height / bitmapH;
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            points[i] *= sx;
+            points[i + 1] *= sy;
+        }
+        boolean swap = ExifOrientation.swapsDimensions(image.orientation);
+        int storedW = swap ? image.height : image.width;
+        int storedH = swap ? image.width : image.height;
+        ExifOrientation.mapToStored(points, image.orientation, storedW, storedH);
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            minX = Math.min(minX, points[i]);
+            maxX = Math.max(maxX, points[i]);
+            minY = Math.min(minY, points[i + 1]);
+            maxY = Math.max(maxY, points[i + 1]);
+        }
+        Rect region = new Rect(Math.max(0, (int) Math.floor(minX)), Math.max(0, (int) Math.floor(minY)),
+                Math.min(storedW, (int) Math.ceil(maxX)), Math.min(storedH, (int) Math.ceil(maxY)));
+        if (region.width() <= 0 || region.height() <= 0) return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = maxDim > 0 ? sampleSizeFor(Math.max(region.width(), region.height()), maxDim) : 1;
+        Bitmap decoded;
+        try (InputStream in = open(image.uri)) {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+            try {
+                decoded = decoder.decodeRegion(region, options);
+            } finally {
+                decoder.recycle();
+            }
+        }
+        if (decoded == null) return null;
+
+        float scale = (float) decoded.getWidth() / region.width();
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            points[i] = (points[i] - region.left) * scale;
+            points[i + 1] = (points[i + 1] - region.top) * scale;
+        }
+        // The corners stay in upright order, so the crop comes out upright whatever the stored orientation
+        Bitmap cropped = perspectiveCrop(decoded, points);
+        pool.put(decoded);
+        return cropped;
+    }
+
+    // Largest power of two that keeps the long edge at or above maxDim
+    private static int sampleSizeFor(int longEdge, int maxDim) {
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= maxDim) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(uri);
+        if (in == null) throw new IOException("Could not open " + uri);
+        return in;
+    }
+
+    private Uri saveBitmapToTempUri(Bitmap bmp) throws IOException {
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        File storageDir = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        File f = File.createTempFile("JPEG_" + timeStamp + "_", ".jpg", storageDir);
+        try (OutputStream out = new FileOutputStream(f)) {
+            bmp.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        return FileProvider.getUriForFile(context, context.getPackageName() + ".fileprovider", f);
+    }
+
+    // Perform perspective crop using 4 source corner points (x0,y0..x3,y3), in order tl, tr, br, bl. Returns a
+    // bitmap from the pool or null.
+    private Bitmap perspectiveCrop(Bitmap src, float[] srcPts) {
+        if (src == null || srcPts == null || srcPts.length < 8) return null;
+        PerspectiveKernel.outputSize(srcPts, size);
+        int dstW = size[0];
+        int dstH = size[1];
+        int w = src.getWidth();
+        int h = src.getHeight();
+        try {
+            if (4L * ((long) w * h + (long) dstW * dstH) > maxKernelBytes) return perspectiveCropNative(src, srcPts, dstW, dstH);
+            double[] mapping = PerspectiveKernel.mapping(srcPts, dstW, dstH);
+            if (mapping == null) return null;
+            pixels = ensureCapacity(pixels, w * h);
+            src.getPixels(pixels, 0, w, 0, 0, w, h);
+            resampled = ensureCapacity(resampled, dstW * dstH);
+            PerspectiveKernel.warp(pixels, w, h, resampled, dstW, dstH, mapping);
+            Bitmap out = pool.getDirty(dstW, dstH, Bitmap.Config.ARGB_8888);
+            out.setPixels(resampled, 0, dstW, 0, 0, dstW, dstH);
+            return out;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // The same crop drawn by Skia, for images whose pixels would not fit the Java heap
+    private Bitmap perspectiveCropNative(Bitmap src, float[] srcPts, int dstW, int dstH) {
+        float[] dst = new float[]{0f,0f, dstW,0f, dstW,(float)dstH, 0f,(float)dstH};
+        Matrix matrix = new Matrix();
+        if (!matrix.setPolyToPoly(srcPts, 0, dst, 0, 4)) return null;
+        Bitmap out = pool.get(dstW, dstH, Bitmap.Config.ARGB_8888);
+        new Canvas(out).drawBitmap(src, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return out;
+    }
+
+    // Normalize corner coordinates (if they're normalized 0..1) to bitmap pixels and order them TL,TR,BR,BL.
+    static float[] normalizeAndOrderCorners(float[] corners, float w, float h) {
+        if (corners == null || corners.length < 8) return corners;
+        // copy
+        float[] pts = new float[8];
+        System.arraycopy(corners, 0, pts, 0, 8);
+        // detect if values are normalized (<= 1.01)
+        boolean normalized = true;
+        for (int i = 0; i < 8; i++) {
+            if (Math.abs(pts[i]) > 1.01f) { normalized = false; break; }
+        }
+        if (normalized) {
+            for (int i = 0; i < 8; i += 2) {
+                pts[i] = pts[i] * w; // x
+                pts[i+1] = pts[i+1] * h; // y
+            }
+        }
+
+        // compute centroid
+        float cx = 0f, cy = 0f;
+        for (int i = 0; i < 8; i += 2) { cx += pts[i]; cy += pts[i+1]; }
+        cx /= 4f; cy /= 4f;
+
+        // Make final copies so lambdas/anonymous comparators can capture them safely
+        final float cxFinal = cx;
+        final float cyFinal = cy;
+
+        // build array of indices and sort by angle around centroid
+        Integer[] idx = new Integer[]{0,1,2,3};
+        java.util.Arrays.sort(idx, (a,b) -> {
+            float ax = pts[a*2] - cxFinal; float ay = pts[a*2+1] - cyFinal;
+            float bx = pts[b*2] - cxFinal; float by = pts[b*2+1] - cyFinal;
+            double angA = Math.atan2(ay, ax);
+            double angB = Math.atan2(by, bx);
+            return Double.compare(angA, angB);
+        });
+        float[][] ordered = new float[4][2];
+        for (int i = 0; i < 4; i++) {
+            ordered[i][0] = pts[idx[i]*2];
+            ordered[i][1] = pts[idx[i]*2+1];
+        }
+        // find index of top-left (min y, then min x)
+        int topLeftIndex = 0;
+        float bestY = ordered[0][1], bestX = ordered[0][0];
+        for (int i = 1; i < 4; i++) {
+            if (ordered[i][1] < bestY - 1e-3f || (Math.abs(ordered[i][1]-bestY) < 1e-3f && ordered[i][0] < bestX)) {
+                bestY = ordered[i][1]; bestX = ordered[i][0]; topLeftIndex = i;
+            }
+        }
+
+        float[] out = new float[8];
+        for (int i = 0; i < 4; i++) {
+            int srcIdx = (topLeftIndex + i) % 4;
+            out[i*2] = ordered[srcIdx][0];
+            out[i*2+1] = ordered[srcIdx][1];
+        }
+        return out;
+    }
+
+    // Scale bitmap to a maximum dimension (preserve aspect ratio) into a bitmap from the pool. If already small
+    // enough, returns the same instance.
+    private Bitmap scaleBitmapToMaxDim(Bitmap src, int maxDim) {
+        if (src == null) return null;
+        int w = src.getWidth();
+        int h = src.getHeight();
+        if (!ScaleKernel.fitSize(w, h, maxDim, size)) return src;
+        int nw = size[0];
+        int nh = size[1];
+        try {
+            if (4L * ((long) w * h + (long) nw * nh) > maxKernelBytes) {
+                Bitmap scaled = pool.get(nw, nh, Bitmap.Config.ARGB_8888);
+                new Canvas(scaled).drawBitmap(src, null, new Rect(0, 0, nw, nh), new Paint(Paint.FILTER_BITMAP_FLAG));
+                return scaled;
+            }
+            pixels = ensureCapacity(pixels, w * h);
+            src.getPixels(pixels, 0, w, 0, 0, w, h);
+            resampled = ensureCapacity(resampled, nw * nh);
+            ScaleKernel.scale(pixels, w, h, resampled, nw, nh);
+            Bitmap scaled = pool.getDirty(nw, nh, Bitmap.Config.ARGB_8888);
+            scaled.setPixels(resampled, 0, nw, 0, 0, nw, nh);
+            return scaled;
+        } catch (Exception e) {
+            return src;
+        }
+    }
+
+    // Trims near-white margins (threshold 0-255, higher = more aggressive; negative = no trim) and applies the
+    // contrast boost + sharpen pass. Works on the pooled pixel buffers: the margins are found on the luminance
+    // plane, enhancement reads only the content rectangle, and a bitmap is allocated only for the final result.
+    // Writes back into src when allowed and the size is unchanged.
+    private Bitmap trimAndEnhance(Bitmap src, int trimThreshold, boolean enhance, boolean inPlace) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        pixels = ensureCapacity(pixels, w * h);
+        src.getPixels(pixels, 0, w, 0, 0, w, h);
+
+        int left = 0, top = 0, cropW = w, cropH = h;
+        if (trimThreshold >= 0) {
+            luma = ensureCapacity(luma, w * h);
+            TrimDetector.luminance(pixels, w, h, luma);
+            // A blank image is kept whole
+            if (TrimDetector.findContentBounds(luma, w, h, trimThreshold, bounds)) {
+                left = bounds[0];
+                top = bounds[1];
+                cropW = bounds[2] - bounds[0];
+                cropH = bounds[3] - bounds[1];
+            }
+        }
+        boolean sameSize = cropW == w && cropH == h;
+        if (!enhance && sameSize) return src;
+
+        int[] out = pixels;
+        int outOffset = top * w + left;
+        int outStride = w;
+        if (enhance) {
+            enhanced = ensureCapacity(enhanced, cropW * cropH);
+            EnhanceKernel.apply(pixels, outOffset, w, enhanced, 0, cropW, cropW, cropH, CONTRAST_LUT);
+            out = enhanced;
+            outOffset = 0;
+            outStride = cropW;
+        }
+        Bitmap result = sameSize && inPlace && src.isMutable() ? src : pool.getDirty(cropW, cropH, Bitmap.Config.ARGB_8888);
+        result.setPixels(out, outOffset, outStride, 0, 0, cropW, cropH);
+        return result;
+    }
+
+    private static int[] ensureCapacity(int[] buffer, int size) {
+        return buffer != null && buffer.length >= size ? buffer : new int[size];
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int size) {
+        return buffer != null && buffer.length >= size ? buffer : new byte[size];
+    }
+}
@@ -0,0 +1,89 @@
+package com.mytrackr.receipts.features.receipts;
+
+/**
+ * Perspective crop of ARGB pixels: maps a quadrilateral of the source onto an upright rectangle, sampling
+ * bilinearly like a filtered {@code Canvas.drawBitmap} with the {@code Matrix.setPolyToPoly} transform.
+ * Output pixels that fall outside the source are transparent. Rows are split into bands on the common
+ * ForkJoin pool.
+ */
+public final class PerspectiveKernel {
+    private PerspectiveKernel() {}
+
+    /**
+     * Size of the rectangle for corners tl, tr, br, bl (x0,y0..x3,y3): the longer of each pair of opposite edges,
+     * written to {@code size} as width, height.
+     */
+    public static void outputSize(float[] corners, int[] size) {
+        float widthTop = distance(corners[0], corners[1], corners[2], corners[3]);
+        float widthBottom = distance(corners[6], corners[7], corners[4], corners[5]);
+        float heightLeft = distance(corners[0], corners[1], corners[6], corners[7]);
+        float heightRight = distance(corners[2], corners[3], corners[4], corners[5]);
+        size[0] = Math.max(1, Math.round(Math.max(widthTop, widthBottom)));
+        size[1] = Math.max(1, Math.round(Math.max(heightLeft, heightRight)));
+    }
+
+    /**
+     * Coefficients a..h of the map from output pixel (x, y) to the source point
+     * {@code ((a x + b y + c) / (g x + h y + 1), (d x + e y + f) / (g x + h y + 1))}, taking the
+     * {@code dstW} x {@code dstH} rectangle onto the corners tl, tr, br, bl.
+     * @return Null if the corners are degenerate (three of them on a line)
+     */
+    public static double[] mapping(float[] corners, int dstW, int dstH) {
+        // Unit square to quadrilateral (Heckbert, "Fundamentals of Texture Mapping", 2.2.3)
+        double x0 = corners[0], y0 = corners[1], x1 = corners[2], y1 = corners[3];
+        double x2 = corners[4], y2 = corners[5], x3 = corners[6], y3 = corners[7];
+        double sx = x0 - x1 + x2 - x3;
+        double sy = y0 - y1 + y2 - y3;
+        double dx1 = x1 - x2, dx2 = x3 - x2, dy1 = y1 - y2, dy2 = y3 - y2;
+        double det = dx1 * dy2 - dx2 * dy1;
+        if (Math.abs(det) < 1e-9) return null;
+        double g = (sx * dy2 - dx2 * sy) / det;
+        double h = (dx1 * sy - sx * dy1) / det;
+        double a = x1 - x0 + g * x1;
+        double b = x3 - x0 + h * x3;
+        double d = y1 - y0 + g * y1;
+        double e = y3 - y0 + h * y3;
+        // Output pixels instead of unit square coordinates
+        return new double[]{a / dstW, b / dstH, x0, d / dstW, e / dstH, y0, g / dstW, h / dstH};
+    }
+
+    /**
+     * Fill the {@code dstW} x {@code dstH} image {@code dst} from {@code src} through {@link #mapping}. The arrays
+     * must not overlap.
+     */
+    public static void warp(int[] src, int srcW, int srcH, int[] dst, int dstW, int dstH, double[] m) {
+        if (srcW <= 0 || srcH <= 0 || dstW <= 0) return;
+        RowBands.run(dstH, (rowStart, rowEnd) -> {
+            for (int y = rowStart; y < rowEnd; y++) {
+                // Sample at output pixel centres; numerators and denominator step linearly along the row
+                double cy = y + 0.5;
+                double nx = m[0] * 0.5 + m[1] * cy + m[2];
+                double ny = m[3] * 0.5 + m[4] * cy + m[5];
+                double nz = m[6] * 0.5 + m[7] * cy + 1;
+                int out = y * dstW;
+                for (int x = 0; x < dstW; x++, nx += m[0], ny += m[3], nz += m[6]) {
+                    double z = 1 / nz;
+                    // Back from the centre to the top-left convention of the source pixel grid
+                    double sx = nx * z - 0.5;
+                    double sy = ny * z - 0.5;
+                    if (!(sx >= -0.5 && sy >= -0.5 && sx <= srcW - 0.5 && sy <= srcH - 0.5)) {
+                        dst[out + x] = 0;
+                        continue;
+                    }
+                    int px = (int) (sx + 1) - 1;
+                    int py = (int) (sy + 1) - 1;
+                    int fx = (int) ((sx - px) * 256 + 0.5);
+                    int fy = (int) ((sy - py) * 256 + 0.5);
+                    int x0 = Math.max(px, 0), x1 = Math.min(px + 1, srcW - 1);
+                    int row0 = Math.max(py, 0) * srcW, row1 = Math.min(py + 1, srcH - 1) * srcW;
+                    dst[out + x] = ScaleKernel.lerp(ScaleKernel.lerp(src[row0 + x0], src[row0 + x1], fx),
+                            ScaleKernel.lerp(src[row1 + x0], src[row1 + x1], fx), fy);
+                }
+            }
+        });
+    }
+
+    private static float distance(float x1, float y1, float x2, float y2) {
+        return (float) Math.hypot(x2 - x1, y2 - y1);
+    }
+}
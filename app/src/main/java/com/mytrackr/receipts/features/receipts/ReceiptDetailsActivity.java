@@ -26,6 +26,7 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.mytrackr.receipts.R;
 import com.mytrackr.receipts.data.models.Receipt;
 import com.mytrackr.receipts.data.repository.ReceiptRepository;
+import com.mytrackr.receipts.data.repository.ReceiptStore;
 import com.mytrackr.receipts.ui.adapter.ReceiptItemAdapter;
 import com.mytrackr.receipts.databinding.ActivityReceiptDetailsBinding;
 
@@ -72,7 +73,7 @@ public class ReceiptDetailsActivity extends AppCompatActivity {
             return;
         }
 
-        receiptRepository = new ReceiptRepository();
+        receiptRepository = ReceiptRepository.getInstance();
 
         setupToolbar();
         initViews();
@@ -184,6 +185,30 @@ public class ReceiptDetailsActivity extends AppCompatActivity {
         }
 
         populateNotificationDate();
+
+        populateOcrText();
+    }
+
+    private void populateOcrText() {
+        receiptRepository.loadOcrText(receipt, new ReceiptRepository.OcrTextCallback() {
+            @Override
+            public void onSuccess(String text) {
+                if (isFinishing() || isDestroyed()) return;
+                if (text == null || text.trim().isEmpty()) {
+                    binding.ocrTextCard.setVisibility(View.GONE);
+                    return;
+                }
+                binding.ocrText.setText(text.trim());
+                binding.ocrTextCard.setVisibility(View.VISIBLE);
+                ReceiptStore.getInstance(ReceiptDetailsActivity.this).indexOcrText(receipt.getId(), text);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.w(TAG, "Failed to load OCR text", e);
+                if (!isFinishing() && !isDestroyed()) binding.ocrTextCard.setVisibility(View.GONE);
+            }
+        });
     }
 
     private void populateNotificationDate() {
@@ -353,6 +378,7 @@ public class ReceiptDetailsActivity extends AppCompatActivity {
         if (receipt.getId() != null && !receipt.getId().isEmpty()) {
             java.util.Map<String, Object> updateMap = new java.util.HashMap<>();
             updateMap.put("receipt.customNotificationTimestamp", customTimestamp);
+            updateMap.put("updatedAt", com.google.firebase.firestore.FieldValue.serverTimestamp());
 
             com.google.firebase.auth.FirebaseAuth auth = com.google.firebase.auth.FirebaseAuth.getInstance();
             String userId = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : "anonymous";
@@ -511,6 +537,11 @@ public class ReceiptDetailsActivity extends AppCompatActivity {
     }
 
     private boolean isReceiptIncomplete(Receipt receipt) {
+        if (receipt.isSummary()) {
+            Log.d(TAG, "Receipt incomplete: only the list summary was passed");
+            return true;
+        }
+
         if (receipt.getReceipt() == null) {
             Log.d(TAG, "Receipt incomplete: receipt info is null");
             return true;
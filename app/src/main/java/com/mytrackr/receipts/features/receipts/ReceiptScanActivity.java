@@ -5,15 +5,8 @@ import android.app.Activity;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Matrix;
-import android.graphics.Paint;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Environment;
-import android.provider.MediaStore;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -29,7 +22,6 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import androidx.core.content.FileProvider;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.RequestOptions;
@@ -41,14 +33,18 @@ import com.google.mlkit.vision.documentscanner.GmsDocumentScanner;
 import com.google.mlkit.vision.documentscanner.GmsDocumentScannerOptions;
 import com.google.mlkit.vision.documentscanner.GmsDocumentScanning;
 import com.google.mlkit.vision.documentscanner.GmsDocumentScanningResult;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.firebase.auth.FirebaseAuth;
 import com.mytrackr.receipts.BuildConfig;
 import com.mytrackr.receipts.R;
 import com.mytrackr.receipts.data.models.Receipt;
 import com.mytrackr.receipts.data.models.ReceiptItem;
 import com.mytrackr.receipts.data.repository.ReceiptRepository;
+import com.mytrackr.receipts.data.repository.ReceiptStore;
 import com.mytrackr.receipts.databinding.ActivityReceiptScanBinding;
+import com.mytrackr.receipts.utils.BitmapPool;
 import com.mytrackr.receipts.utils.GeminiApiService;
+import com.mytrackr.receipts.utils.Telemetry;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -60,10 +56,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Date;
@@ -72,6 +64,9 @@ import java.util.Locale;
 public class ReceiptScanActivity extends AppCompatActivity {
     private static final int REQUEST_CAMERA = 1001;
     private static final String TAG = "ReceiptScanActivity";
+    // Long edge the image is scaled to for enhancement and OCR
+    private static final int MAX_PROCESSING_DIM = 1600;
+    private static final int TRIM_THRESHOLD = 230;
     private ActivityReceiptScanBinding binding;
     private Uri imageUri;
 
@@ -94,8 +89,16 @@ public class ReceiptScanActivity extends AppCompatActivity {
 
     private Receipt currentReceipt;
 
+    // Hashes of the processed image, saved with the receipt for duplicate detection
+    private String imageSha256;
+    private Long imageDHash;
+    // Existing receipt the user chose to scan or save a duplicate of anyway; the same match is not asked about again
+    private String acceptedDuplicateId;
+
     // Keep a reference to the original bitmap currently loaded (may be large). Null when none.
     private Bitmap lastBitmapOriginal = null;
+    // File lastBitmapOriginal was downsampled from, so crops can be cut at full resolution. Null when none.
+    private ImagePipeline.FullResolution lastFullResolution = null;
 
     // Activity Result launchers
     private ActivityResultLauncher<IntentSenderRequest> scanLauncher;
@@ -108,6 +111,9 @@ public class ReceiptScanActivity extends AppCompatActivity {
     // Gemini API service
     private GeminiApiService geminiApiService;
 
+    // Decodes, crops and enhances images off the main thread
+    private ImagePipeline imagePipeline;
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -200,6 +206,7 @@ public class ReceiptScanActivity extends AppCompatActivity {
 
         // Initialize Gemini API service
         geminiApiService = new GeminiApiService(BuildConfig.GEMINI_API_KEY);
+        imagePipeline = new ImagePipeline(this);
 
         checkAndRequestPermissions();
     }
@@ -215,13 +222,6 @@ public class ReceiptScanActivity extends AppCompatActivity {
         if (need) ActivityCompat.requestPermissions(this, perms, 1234);
     }
 
-    private File createImageFile() throws IOException {
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
-        String imageFileName = "JPEG_" + timeStamp + "_";
-        File storageDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-        return File.createTempFile(imageFileName, ".jpg", storageDir);
-    }
-
     // Use the Activity Result API for gallery
     private void openGalleryWithPermissionCheck() {
         // Check Android version for appropriate permission
@@ -314,44 +314,18 @@ public class ReceiptScanActivity extends AppCompatActivity {
         float[] pageCorners = extractCornerPointsFromPage(page);
 
         if (scannedImage == null) {
-            // attempt to load from a URI if page provided one
+            // attempt to find a URI on the page; the pipeline decodes it
             String[] uriMethodNames = new String[]{"getImageUri", "getContentUri", "getUri", "getContentUriString", "getImageUriString"};
             for (String name : uriMethodNames) {
-                if (scannedImage != null) break;
                 try {
                     Method mu = page.getClass().getMethod(name);
                     Object uriObj = mu.invoke(page);
                     if (uriObj instanceof Uri) {
-                        try {
-                            scannedImage = MediaStore.Images.Media.getBitmap(getContentResolver(), (Uri) uriObj);
-                            imageUri = (Uri) uriObj;
-                            break;
-                        } catch (IOException ioe) {
-                            Log.w(TAG, "failed to load Uri from page method: " + name, ioe);
-                        }
+                        imageUri = (Uri) uriObj;
+                        break;
                     } else if (uriObj instanceof String) {
-                        String s = (String) uriObj;
-                        try {
-                            Uri parsed = Uri.parse(s);
-                            scannedImage = MediaStore.Images.Media.getBitmap(getContentResolver(), parsed);
-                            imageUri = parsed;
-                            break;
-                        } catch (Exception ex) {
-                            try {
-                                Uri parsed = Uri.parse(s);
-                                InputStream is = null;
-                                try {
-                                    is = getContentResolver().openInputStream(parsed);
-                                    if (is != null) {
-                                        scannedImage = android.graphics.BitmapFactory.decodeStream(is);
-                                        imageUri = parsed;
-                                        break;
-                                    }
-                                } finally {
-                                    if (is != null) try { is.close(); } catch (IOException closeEx) { Log.w(TAG, "failed to close stream", closeEx); }
-                                }
-                            } catch (Exception e) { Log.w(TAG, "failed to parse page string uri: " + s, e); }
-                        }
+                        imageUri = Uri.parse((String) uriObj);
+                        break;
                     }
                 } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
                     Log.d(TAG, "reflection helper missing", e);
@@ -359,68 +333,48 @@ public class ReceiptScanActivity extends AppCompatActivity {
             }
         }
 
-        if (scannedImage == null && imageUri != null) {
-            try {
-                scannedImage = MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri);
-            } catch (IOException ioe) { Log.w(TAG, "failed to load fallback imageUri", ioe); }
+        if (scannedImage == null && imageUri == null) {
+            Toast.makeText(this, getString(R.string.no_scanned_image_available), Toast.LENGTH_SHORT).show();
+            return;
         }
 
-        if (scannedImage != null) {
-            // If we have page corners, apply perspective crop first (C1)
-            if (pageCorners != null) {
-                try {
-                    float[] norm = normalizeAndOrderCorners(pageCorners, scannedImage);
-                    Bitmap cropped = perspectiveCrop(scannedImage, norm != null ? norm : pageCorners);
-                    if (cropped != null) {
-                        // recycle previous scannedImage to free memory if different
-                        if (scannedImage != cropped && !scannedImage.isRecycled()) scannedImage.recycle();
-                        scannedImage = cropped;
-                    }
-                } catch (Exception e) { Log.w(TAG, "perspective crop failed", e); }
+        // Perspective crop with the page corners (C1), then downscale, trim and enhance (B) in the background
+        ImagePipeline.Request request = scannedImage != null ? ImagePipeline.Request.of(scannedImage) : ImagePipeline.Request.of(imageUri);
+        if (pageCorners != null) request.crop(pageCorners, true);
+        request.scaleTo(MAX_PROCESSING_DIM).trim(TRIM_THRESHOLD).enhance().encode();
+        showProcessingDialog();
+        imagePipeline.submit(request, new ImagePipeline.Callback() {
+            @Override
+            public void onResult(ImagePipeline.Result result) {
+                hideProcessingDialog();
+                // Keep the high-resolution image for corner editing (C2)
+                replaceOriginal(result.original, result.fullResolution);
+                try { if (btnEditCorners != null) btnEditCorners.setEnabled(true); } catch (Exception e) { Log.d(TAG, "failed enabling edit button", e); }
+                if (result.uri != null) {
+                    imageUri = result.uri;
+                    loadImageIntoPreview(imageUri);
+                } else {
+                    Toast.makeText(ReceiptScanActivity.this, getString(R.string.failed_to_save_scanned_image), Toast.LENGTH_SHORT).show();
+                    previewImageView.setImageBitmap(result.processed);
+                }
             }
 
-            // Keep a high-resolution copy for corner editing (C2)
-            try {
-                if (lastBitmapOriginal != null && !lastBitmapOriginal.isRecycled()) lastBitmapOriginal.recycle();
-            } catch (Exception e) { Log.d(TAG, "non-fatal error", e); }
-            try {
-                lastBitmapOriginal = scannedImage.copy(Bitmap.Config.ARGB_8888, true);
-            } catch (Exception e) {
-                // fallback to the reference
-                lastBitmapOriginal = scannedImage;
+            @Override
+            public void onFailure(Exception e) {
+                hideProcessingDialog();
+                Toast.makeText(ReceiptScanActivity.this, getString(R.string.no_scanned_image_available), Toast.LENGTH_SHORT).show();
             }
-            // enable corner edit button now that an image exists
-            try { if (btnEditCorners != null) btnEditCorners.setEnabled(true); } catch (Exception e) { Log.d(TAG, "failed enabling edit button", e); }
-
-            // Downscale for processing to limit memory / speed up convolution and OCR
-            try {
-                Bitmap scaled = scaleBitmapToMaxDim(scannedImage, 1600);
-                if (scaled != scannedImage) {
-                    if (!scannedImage.isRecycled()) scannedImage.recycle();
-                    scannedImage = scaled;
-                }
-            } catch (Exception e) { Log.d(TAG, "downscale failure", e); }
-
-            // Trim whitespace margins to make the preview tighter
-            try { scannedImage = trimWhitespace(scannedImage, 230); } catch (Exception e) { Log.d(TAG, "trimWhitespace failed", e); }
-
-            // Apply contrast / sharpen enhancement (B)
-            try { scannedImage = enhanceBitmap(scannedImage); } catch (Exception e) { Log.d(TAG, "enhanceBitmap failed", e); }
+        });
+    }
 
-            try {
-                File scannedFile = createImageFile();
-                FileOutputStream out = new FileOutputStream(scannedFile);
-                scannedImage.compress(Bitmap.CompressFormat.JPEG, 90, out);
-                out.flush(); out.close();
-                imageUri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", scannedFile);
-                loadImageIntoPreview(imageUri);
-            } catch (IOException e) {
-                Toast.makeText(this, getString(R.string.failed_to_save_scanned_image), Toast.LENGTH_SHORT).show();
-                previewImageView.setImageBitmap(scannedImage);
-            }
-        } else {
-            Toast.makeText(this, getString(R.string.no_scanned_image_available), Toast.LENGTH_SHORT).show();
-        }
+    // Swap the image kept for corner editing, handing the one before back to the pool
+    private void replaceOriginal(Bitmap original, ImagePipeline.FullResolution fullResolution) {
+        lastFullResolution = fullResolution;
+        if (original == lastBitmapOriginal) return;
+        try {
+            BitmapPool.getInstance(this).put(lastBitmapOriginal);
+        } catch (Exception e) { Log.d(TAG, "non-fatal error", e); }
+        lastBitmapOriginal = original;
     }
 
     // Attempt to extract corner points (x0,y0,...x3,y3) from the Page object via reflection
@@ -552,121 +506,6 @@ public class ReceiptScanActivity extends AppCompatActivity {
         return null;
     }
 
-    // Perform perspective crop using 4 source corner points (x0,y0..x3,y3). Returns a new bitmap or null.
-    private Bitmap perspectiveCrop(Bitmap src, float[] srcPts) {
-        if (src == null || srcPts == null || srcPts.length < 8) return null;
-        // srcPts assumed in order [tl.x, tl.y, tr.x, tr.y, br.x, br.y, bl.x, bl.y]
-        float tlx = srcPts[0], tly = srcPts[1];
-        float trx = srcPts[2], tryy = srcPts[3];
-        float brx = srcPts[4], bry = srcPts[5];
-        float blx = srcPts[6], bly = srcPts[7];
-        // compute target width/height based on distances
-        float widthTop = distance(tlx, tly, trx, tryy);
-        float widthBottom = distance(blx, bly, brx, bry);
-        int dstW = Math.max(1, Math.round(Math.max(widthTop, widthBottom)));
-        float heightLeft = distance(tlx, tly, blx, bly);
-        float heightRight = distance(trx, tryy, brx, bry);
-        int dstH = Math.max(1, Math.round(Math.max(heightLeft, heightRight)));
-
-        float[] dst = new float[]{0f,0f, dstW,0f, dstW,(float)dstH, 0f,(float)dstH};
-        float[] srcf = new float[]{tlx,tly, trx,tryy, brx,bry, blx,bly};
-        Matrix matrix = new Matrix();
-        boolean ok = matrix.setPolyToPoly(srcf, 0, dst, 0, 4);
-        if (!ok) return null;
-        try {
-            Bitmap out = Bitmap.createBitmap(dstW, dstH, Bitmap.Config.ARGB_8888);
-            Canvas c = new Canvas(out);
-            Paint p = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
-            c.drawBitmap(src, matrix, p);
-            return out;
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-    private float distance(float x1,float y1,float x2,float y2){
-        float dx = x2-x1; float dy = y2-y1; return (float)Math.hypot(dx,dy);
-    }
-
-    // Normalize corner coordinates (if they're normalized 0..1) to bitmap pixels and order them TL,TR,BR,BL.
-    private float[] normalizeAndOrderCorners(float[] corners, Bitmap src) {
-        if (corners == null || corners.length < 8 || src == null) return corners;
-        float w = src.getWidth();
-        float h = src.getHeight();
-        // copy
-        float[] pts = new float[8];
-        System.arraycopy(corners, 0, pts, 0, 8);
-        // detect if values are normalized (<= 1.01)
-        boolean normalized = true;
-        for (int i = 0; i < 8; i++) {
-            if (Math.abs(pts[i]) > 1.01f) { normalized = false; break; }
-        }
-        if (normalized) {
-            for (int i = 0; i < 8; i += 2) {
-                pts[i] = pts[i] * w; // x
-                pts[i+1] = pts[i+1] * h; // y
-            }
-        }
-
-        // compute centroid
-        float cx = 0f, cy = 0f;
-        for (int i = 0; i < 8; i += 2) { cx += pts[i]; cy += pts[i+1]; }
-        cx /= 4f; cy /= 4f;
-
-        // Make final copies so lambdas/anonymous comparators can capture them safely
-        final float cxFinal = cx;
-        final float cyFinal = cy;
-
-        // build array of indices and sort by angle around centroid
-        Integer[] idx = new Integer[]{0,1,2,3};
-        java.util.Arrays.sort(idx, (a,b) -> {
-            float ax = pts[a*2] - cxFinal; float ay = pts[a*2+1] - cyFinal;
-            float bx = pts[b*2] - cxFinal; float by = pts[b*2+1] - cyFinal;
-            double angA = Math.atan2(ay, ax);
-            double angB = Math.atan2(by, bx);
-            return Double.compare(angA, angB);
-        });
-        float[][] ordered = new float[4][2];
-        for (int i = 0; i < 4; i++) {
-            ordered[i][0] = pts[idx[i]*2];
-            ordered[i][1] = pts[idx[i]*2+1];
-        }
-        // find index of top-left (min y, then min x)
-        int topLeftIndex = 0;
-        float bestY = ordered[0][1], bestX = ordered[0][0];
-        for (int i = 1; i < 4; i++) {
-            if (ordered[i][1] < bestY - 1e-3f || (Math.abs(ordered[i][1]-bestY) < 1e-3f && ordered[i][0] < bestX)) {
-                bestY = ordered[i][1]; bestX = ordered[i][0]; topLeftIndex = i;
-            }
-        }
-
-        float[] out = new float[8];
-        for (int i = 0; i < 4; i++) {
-            int srcIdx = (topLeftIndex + i) % 4;
-            out[i*2] = ordered[srcIdx][0];
-            out[i*2+1] = ordered[srcIdx][1];
-        }
-        return out;
-    }
-
-    // Scale bitmap to a maximum dimension (preserve aspect ratio). If already small enough, returns the same instance.
-    private Bitmap scaleBitmapToMaxDim(Bitmap src, int maxDim) {
-        if (src == null) return null;
-        int w = src.getWidth();
-        int h = src.getHeight();
-        int max = Math.max(w, h);
-        if (max <= maxDim) return src;
-        float scale = (float) maxDim / (float) max;
-        int nw = Math.max(1, Math.round(w * scale));
-        int nh = Math.max(1, Math.round(h * scale));
-        try {
-            Bitmap scaled = Bitmap.createScaledBitmap(src, nw, nh, true);
-            return scaled;
-        } catch (Exception e) {
-            return src;
-        }
-    }
-
     private void showProcessingDialog() {
         try {
             if (progressOverlay != null) progressOverlay.setVisibility(View.VISIBLE);
@@ -679,117 +518,23 @@ public class ReceiptScanActivity extends AppCompatActivity {
         } catch (Exception ignored) {}
     }
 
-    // Enhancement: contrast boost + a lightweight sharpen pass
-    private Bitmap enhanceBitmap(Bitmap src) {
-        if (src == null) return null;
-        Bitmap contrasted = applyContrast(src, 1.15f, -10f);
-        try {
-            Bitmap sharpened = applySharpen(contrasted);
-            if (sharpened != null) return sharpened;
-        } catch (Exception ignored) {}
-        return contrasted;
-    }
-
-    // Save a bitmap to a temporary file and return a content Uri (FileProvider). Returns null on failure.
-    private Uri saveBitmapToTempUri(Bitmap bmp) {
-        if (bmp == null) return null;
-        try {
-            File f = createImageFile();
-            FileOutputStream out = new FileOutputStream(f);
-            bmp.compress(Bitmap.CompressFormat.JPEG, 90, out);
-            out.flush(); out.close();
-            return FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", f);
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-    // Simple contrast/brightness adjustment using ColorMatrix
-    private Bitmap applyContrast(Bitmap src, float contrast, float brightness) {
-        if (src == null) return null;
-        try {
-            Bitmap out = Bitmap.createBitmap(src.getWidth(), src.getHeight(), Bitmap.Config.ARGB_8888);
-            ColorMatrix cm = new ColorMatrix(new float[]{
-                    contrast, 0, 0, 0, brightness,
-                    0, contrast, 0, 0, brightness,
-                    0, 0, contrast, 0, brightness,
-                    0, 0, 0, 1, 0
-            });
-            Canvas c = new Canvas(out);
-            Paint p = new Paint(Paint.FILTER_BITMAP_FLAG);
-            p.setColorFilter(new ColorMatrixColorFilter(cm));
-            c.drawBitmap(src, 0, 0, p);
-            return out;
-        } catch (Exception e) {
-            return src;
-        }
-    }
-
-    // Lightweight sharpen via a 3x3 convolution kernel
-    private Bitmap applySharpen(Bitmap src) {
-        if (src == null) return null;
-        try {
-            int w = src.getWidth();
-            int h = src.getHeight();
-            int[] in = new int[w * h];
-            int[] out = new int[w * h];
-            src.getPixels(in, 0, w, 0, 0, w, h);
-
-            // sharpen kernel
-            int[] k = new int[]{0, -1, 0, -1, 5, -1, 0, -1, 0};
-            int kIdx;
-            for (int y = 1; y < h - 1; y++) {
-                for (int x = 1; x < w - 1; x++) {
-                    int r = 0, g = 0, b = 0;
-                    kIdx = 0;
-                    for (int ky = -1; ky <= 1; ky++) {
-                        for (int kx = -1; kx <= 1; kx++, kIdx++) {
-                            int px = in[(y + ky) * w + (x + kx)];
-                            int kr = (px >> 16) & 0xFF;
-                            int kg = (px >> 8) & 0xFF;
-                            int kb = px & 0xFF;
-                            int kval = k[kIdx];
-                            r += kr * kval;
-                            g += kg * kval;
-                            b += kb * kval;
-                        }
-                    }
-                    // clamp
-                    r = Math.min(255, Math.max(0, r));
-                    g = Math.min(255, Math.max(0, g));
-                    b = Math.min(255, Math.max(0, b));
-                    int a = (in[y * w + x] >> 24) & 0xFF;
-                    out[y * w + x] = (a << 24) | (r << 16) | (g << 8) | b;
-                }
-            }
-            // copy edges from source
-            for (int x = 0; x < w; x++) { out[x] = in[x]; out[(h - 1) * w + x] = in[(h - 1) * w + x]; }
-            for (int y = 0; y < h; y++) { out[y * w] = in[y * w]; out[y * w + w - 1] = in[y * w + w - 1]; }
-
-            Bitmap result = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-            result.setPixels(out, 0, w, 0, 0, w, h);
-            return result;
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-    // Update handlePickedImageUri to also load and store the original bitmap for corner editing
+    // Show the picked image right away; a bitmap for corner editing is decoded in the background at processing size,
+    // crops are then cut from the file at full resolution
     private void handlePickedImageUri(Uri uri) {
         if (uri == null) return;
         imageUri = uri;
-        // load full-resolution bitmap (may be large) and keep a reference for cropping
-        try {
-            Bitmap bm = MediaStore.Images.Media.getBitmap(getContentResolver(), uri);
-            if (bm != null) {
-                // recycle previous original
-                if (lastBitmapOriginal != null && !lastBitmapOriginal.isRecycled()) lastBitmapOriginal.recycle();
-                lastBitmapOriginal = bm;
+        replaceOriginal(null, null);
+        imagePipeline.submit(ImagePipeline.Request.of(uri).scaleTo(MAX_PROCESSING_DIM), new ImagePipeline.Callback() {
+            @Override
+            public void onResult(ImagePipeline.Result result) {
+                replaceOriginal(result.original, result.fullResolution);
             }
-        } catch (Exception e) {
-            Log.w(TAG, "failed to load original bitmap from gallery", e);
-            lastBitmapOriginal = null;
-        }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.w(TAG, "failed to load original bitmap from gallery", e);
+            }
+        });
         ocrTextView.setText("");
         btnProcess.setEnabled(true);
         btnSave.setEnabled(false);
@@ -890,37 +635,35 @@ public class ReceiptScanActivity extends AppCompatActivity {
         float[] bmpCorners = viewPointsToBitmap(viewCorners, lastBitmapOriginal);
         if (bmpCorners == null) { Toast.makeText(this, getString(R.string.failed_to_map_corners), Toast.LENGTH_SHORT).show(); return; }
 
+        // Crop and prepare the image for OCR in one pass; accepting again before it finishes replaces this crop
         showProcessingDialog();
-        try {
-            Bitmap cropped = perspectiveCrop(lastBitmapOriginal, bmpCorners);
-            if (cropped == null) {
+        if (btnProcess != null) btnProcess.setEnabled(false);
+        ImagePipeline.Request request = ImagePipeline.Request.of(lastBitmapOriginal)
+                .withFullResolution(lastFullResolution)
+                .crop(bmpCorners, false)
+                .scaleTo(MAX_PROCESSING_DIM)
+                .trim(TRIM_THRESHOLD)
+                .enhance()
+                .hash()
+                .encode();
+        imagePipeline.submit(request, new ImagePipeline.Callback() {
+            @Override
+            public void onResult(ImagePipeline.Result result) {
+                replaceOriginal(result.original, result.fullResolution);
+                exitCornerEditMode(false);
+                recognizeText(result);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
                 hideProcessingDialog();
-                Toast.makeText(this, getString(R.string.crop_failed), Toast.LENGTH_SHORT).show();
+                Toast.makeText(ReceiptScanActivity.this, getString(R.string.crop_failed), Toast.LENGTH_SHORT).show();
                 exitCornerEditMode(true);
-                return;
             }
-            // replace lastBitmapOriginal with cropped
-            if (!lastBitmapOriginal.isRecycled()) lastBitmapOriginal.recycle();
-            lastBitmapOriginal = cropped;
-            // save enhanced cropped preview into temp file and update imageUri
-            // optionally we may enhance before saving — keep behavior consistent with earlier flows
-            Bitmap proc = scaleBitmapToMaxDim(cropped, 1600);
-            try { proc = enhanceBitmap(proc); } catch (Exception e) { Log.d(TAG, "enhanceBitmap failed during crop flow", e); }
-            Uri newUri = saveBitmapToTempUri(proc != null ? proc : cropped);
-            if (newUri != null) imageUri = newUri;
-            // update preview
-            previewImageView.setImageBitmap(cropped);
-
-            // exit edit mode and re-run OCR on cropped/enhanced image
-            exitCornerEditMode(false);
-            // process OCR on cropped image
-            processImageForText();
-        } finally {
-            hideProcessingDialog();
-        }
+        });
     }
 
-    // Modify processImageForText to prefer lastBitmapOriginal if present
+    // Prepare the current image in the background (preferring lastBitmapOriginal), then run OCR on the result
     private void processImageForText() {
         if (imageUri == null && lastBitmapOriginal == null) {
             Toast.makeText(this, getString(R.string.no_image_selected_to_process), Toast.LENGTH_SHORT).show();
@@ -933,187 +676,109 @@ public class ReceiptScanActivity extends AppCompatActivity {
         }
 
         showProcessingDialog();
-        try {
-            Bitmap bm = null;
-            if (lastBitmapOriginal != null) {
-                // use a copy or scaled version to avoid modifying the master
-                bm = lastBitmapOriginal;
-            } else {
-                try {
-                    bm = MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri);
-                    lastBitmapOriginal = bm; // keep reference
-                } catch (IOException e) {
-                    hideProcessingDialog();
-                    // Re-enable button on image load failure
-                    if (btnProcess != null) {
-                        btnProcess.setEnabled(true);
-                    }
-                    Toast.makeText(this, getString(R.string.failed_to_load_image_for_ocr), Toast.LENGTH_SHORT).show();
-                    return;
-                }
+        ImagePipeline.Request request = lastBitmapOriginal != null
+                ? ImagePipeline.Request.of(lastBitmapOriginal).withFullResolution(lastFullResolution)
+                : ImagePipeline.Request.of(imageUri);
+        request.scaleTo(MAX_PROCESSING_DIM).trim(TRIM_THRESHOLD).enhance().hash().encode();
+        imagePipeline.submit(request, new ImagePipeline.Callback() {
+            @Override
+            public void onResult(ImagePipeline.Result result) {
+                replaceOriginal(result.original, result.fullResolution);
+                recognizeText(result);
             }
 
-            // operate on a processing copy (downscale to manageable size)
-            Bitmap proc = scaleBitmapToMaxDim(bm, 1600);
-            if (proc != bm) {
-                // if we created a downscaled proc and bm is lastBitmapOriginal we keep original
+            @Override
+            public void onFailure(Exception e) {
+                hideProcessingDialog();
+                // Re-enable button on image load failure
+                if (btnProcess != null) {
+                    btnProcess.setEnabled(true);
+                }
+                Toast.makeText(ReceiptScanActivity.this, getString(R.string.failed_to_load_image_for_ocr), Toast.LENGTH_SHORT).show();
             }
+        });
+    }
 
-            try { proc = trimWhitespace(proc, 230); } catch (Exception e) { Log.d(TAG, "trimWhitespace failed in processImageForText", e); }
-            try { proc = enhanceBitmap(proc); } catch (Exception e) { Log.d(TAG, "enhanceBitmap failed in processImageForText", e); }
+    private void recognizeText(ImagePipeline.Result result) {
+        if (btnProcess != null) btnProcess.setEnabled(false);
+        showProcessingDialog();
+        previewImageView.setImageBitmap(result.processed);
+
+        // Skip OCR and Gemini for an image that is already saved, unless the user insists
+        imageSha256 = result.sha256;
+        imageDHash = result.dHash;
+        Receipt duplicate = ReceiptStore.getInstance(this).findDuplicateImage(imageSha256, imageDHash);
+        if (duplicate != null && !duplicate.getId().equals(acceptedDuplicateId)) {
+            Log.d(TAG, "Scanned image matches saved receipt " + duplicate.getId());
+            hideProcessingDialog();
+            if (btnProcess != null) btnProcess.setEnabled(true);
+            showDuplicateDialog(duplicate, R.string.duplicate_image_message, () -> recognizeText(result));
+            return;
+        }
 
-            previewImageView.setImageBitmap(proc);
+        // enhanced image saved by the pipeline, uploaded later
+        if (result.uri != null) imageUri = result.uri;
 
-            // save enhanced proc to temp file to upload later
-            Uri newUri = saveBitmapToTempUri(proc);
-            if (newUri != null) imageUri = newUri;
+        InputImage image = InputImage.fromBitmap(result.processed, 0);
+        TextRecognizer recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS);
+        Telemetry.Span ocrSpan = Telemetry.getInstance().start(Telemetry.STAGE_OCR);
+        recognizer.process(image)
+                .addOnSuccessListener(text -> {
+                    ocrSpan.succeed();
+                    String fullText = text.getText();
+                    Log.d(TAG, "OCR completed, text length: " + (fullText != null ? fullText.length() : 0));
 
-            InputImage image = InputImage.fromBitmap(proc, 0);
-            TextRecognizer recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS);
-            recognizer.process(image)
-                    .addOnSuccessListener(text -> {
-                        String fullText = text.getText();
-                        Log.d(TAG, "OCR completed, text length: " + (fullText != null ? fullText.length() : 0));
+                    // Show OCR result card first
+                    if (ocrResultCard != null) {
+                        ocrResultCard.setVisibility(View.VISIBLE);
+                        Log.d(TAG, "OCR result card made visible");
+                    }
 
-                        // Show OCR result card first
-                        if (ocrResultCard != null) {
-                            ocrResultCard.setVisibility(View.VISIBLE);
-                            Log.d(TAG, "OCR result card made visible");
-                        }
+                    // Hide text view and show progress bar while processing
+                    if (ocrTextView != null) {
+                        ocrTextView.setVisibility(View.GONE);
+                    }
+                    if (ocrProcessingProgressBar != null) {
+                        ocrProcessingProgressBar.setVisibility(View.VISIBLE);
+                    }
 
-                        // Hide text view and show progress bar while processing
-                        if (ocrTextView != null) {
-                            ocrTextView.setVisibility(View.GONE);
+                    // Call Gemini API to extract structured data
+                    if (fullText != null && !fullText.trim().isEmpty() && geminiApiService != null) {
+                        Log.d(TAG, "Calling Gemini API");
+                        callGeminiApi(fullText);
+                    } else {
+                        Log.d(TAG, "Skipping Gemini API - fullText: " + (fullText != null ? "not null" : "null") + ", geminiApiService: " + (geminiApiService != null ? "not null" : "null"));
+                        // Fallback to basic parser if Gemini is not available
+                        hideProcessingDialog();
+                        // Re-enable button
+                        if (btnProcess != null) {
+                            btnProcess.setEnabled(true);
                         }
+                        // Hide progress and show text
                         if (ocrProcessingProgressBar != null) {
-                            ocrProcessingProgressBar.setVisibility(View.VISIBLE);
+                            ocrProcessingProgressBar.setVisibility(View.GONE);
                         }
-
-                        // Call Gemini API to extract structured data
-                        if (fullText != null && !fullText.trim().isEmpty() && geminiApiService != null) {
-                            Log.d(TAG, "Calling Gemini API");
-                            callGeminiApi(fullText);
-                        } else {
-                            Log.d(TAG, "Skipping Gemini API - fullText: " + (fullText != null ? "not null" : "null") + ", geminiApiService: " + (geminiApiService != null ? "not null" : "null"));
-                            // Fallback to basic parser if Gemini is not available
-                            hideProcessingDialog();
-                            // Re-enable button
-                            if (btnProcess != null) {
-                                btnProcess.setEnabled(true);
-                            }
-                            // Hide progress and show text
-                            if (ocrProcessingProgressBar != null) {
-                                ocrProcessingProgressBar.setVisibility(View.GONE);
-                            }
-                            if (ocrTextView != null) {
-                                ocrTextView.setVisibility(View.VISIBLE);
-                                ocrTextView.setText(fullText != null ? fullText : "");
-                            }
-                            currentReceipt = ReceiptParser.parse(fullText);
-                            if (btnSave != null) {
-                                btnSave.setVisibility(View.VISIBLE);
-                                btnSave.setEnabled(true);
-                            }
-                            Toast.makeText(this, getString(R.string.ocr_complete), Toast.LENGTH_SHORT).show();
+                        if (ocrTextView != null) {
+                            ocrTextView.setVisibility(View.VISIBLE);
+                            ocrTextView.setText(fullText != null ? fullText : "");
                         }
-                    })
-                    .addOnFailureListener(e -> {
-                        hideProcessingDialog();
-                        // Re-enable button on OCR failure
-                        if (btnProcess != null) {
-                            btnProcess.setEnabled(true);
+                        currentReceipt = ReceiptParser.parse(fullText);
+                        if (btnSave != null) {
+                            btnSave.setVisibility(View.VISIBLE);
+                            btnSave.setEnabled(true);
                         }
-                        Toast.makeText(this, getString(R.string.ocr_failed, e.getMessage()), Toast.LENGTH_SHORT).show();
-                    });
-        } finally {
-            // do not hideProcessingDialog here; callbacks will hide/handle it
-        }
-    }
-
-    // Trim near-white margins from a bitmap. threshold is 0-255 where higher = more aggressive trimming.
-    private Bitmap trimWhitespace(Bitmap src, int brightnessThreshold) {
-        if (src == null) return null;
-        int w = src.getWidth();
-        int h = src.getHeight();
-        int[] pixels = new int[w * h];
-        src.getPixels(pixels, 0, w, 0, 0, w, h);
-
-        int top = 0, left = 0, right = w - 1, bottom = h - 1;
-        boolean found = false;
-
-        // find top
-        outerTop:
-        for (int y = 0; y < h; y++) {
-            int rowIndex = y * w;
-            for (int x = 0; x < w; x++) {
-                int p = pixels[rowIndex + x];
-                int r = (p >> 16) & 0xFF;
-                int g = (p >> 8) & 0xFF;
-                int b = p & 0xFF;
-                if (r < brightnessThreshold || g < brightnessThreshold || b < brightnessThreshold) {
-                    top = y;
-                    found = true;
-                    break outerTop;
-                }
-            }
-        }
-        if (!found) return src; // image is all white-ish
-
-        // find bottom
-        outerBottom:
-        for (int y = h - 1; y >= 0; y--) {
-            int rowIndex = y * w;
-            for (int x = 0; x < w; x++) {
-                int p = pixels[rowIndex + x];
-                int r = (p >> 16) & 0xFF;
-                int g = (p >> 8) & 0xFF;
-                int b = p & 0xFF;
-                if (r < brightnessThreshold || g < brightnessThreshold || b < brightnessThreshold) {
-                    bottom = y;
-                    break outerBottom;
-                }
-            }
-        }
-
-        // find left
-        outerLeft:
-        for (int x = 0; x < w; x++) {
-            for (int y = top; y <= bottom; y++) {
-                int p = pixels[y * w + x];
-                int r = (p >> 16) & 0xFF;
-                int g = (p >> 8) & 0xFF;
-                int b = p & 0xFF;
-                if (r < brightnessThreshold || g < brightnessThreshold || b < brightnessThreshold) {
-                    left = x;
-                    break outerLeft;
-                }
-            }
-        }
-
-        // find right
-        outerRight:
-        for (int x = w - 1; x >= 0; x--) {
-            for (int y = top; y <= bottom; y++) {
-                int p = pixels[y * w + x];
-                int r = (p >> 16) & 0xFF;
-                int g = (p >> 8) & 0xFF;
-                int b = p & 0xFF;
-                if (r < brightnessThreshold || g < brightnessThreshold || b < brightnessThreshold) {
-                    right = x;
-                    break outerRight;
-                }
-            }
-        }
-
-        // clamp bounds
-        int cropW = Math.max(1, right - left + 1);
-        int cropH = Math.max(1, bottom - top + 1);
-        try {
-            Bitmap out = Bitmap.createBitmap(src, left, top, cropW, cropH);
-            return out;
-        } catch (Exception e) {
-            return src;
-        }
+                        Toast.makeText(this, getString(R.string.ocr_complete), Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    ocrSpan.fail(e);
+                    hideProcessingDialog();
+                    // Re-enable button on OCR failure
+                    if (btnProcess != null) {
+                        btnProcess.setEnabled(true);
+                    }
+                    Toast.makeText(this, getString(R.string.ocr_failed, e.getMessage()), Toast.LENGTH_SHORT).show();
+                });
     }
 
     private void saveReceipt() {
@@ -1165,18 +830,32 @@ public class ReceiptScanActivity extends AppCompatActivity {
             Log.w(TAG, "Receipt category is null or receipt.getReceipt() is null before saving");
         }
 
-        // call repository to save
-        ReceiptRepository repo = new ReceiptRepository();
+        if (currentReceipt.getMetadata() == null) {
+            currentReceipt.setMetadata(new Receipt.ReceiptMetadata());
+        }
+        currentReceipt.getMetadata().setImageSha256(imageSha256);
+        currentReceipt.getMetadata().setImageDHash(imageDHash);
+
+        ReceiptStore receiptStore = ReceiptStore.getInstance(this);
+        Receipt duplicate = receiptStore.findDuplicatePurchase(currentReceipt);
+        if (duplicate != null && !duplicate.getId().equals(acceptedDuplicateId)) {
+            Log.d(TAG, "Receipt matches the purchase of saved receipt " + duplicate.getId());
+            showDuplicateDialog(duplicate, R.string.duplicate_purchase_message, this::saveReceipt);
+            return;
+        }
+
+        // Queue the receipt; the upload continues in the background so the next receipt can be scanned right away
+        ReceiptRepository repo = ReceiptRepository.getInstance();
         btnSave.setEnabled(false);
         repo.saveReceipt(this, imageUri, currentReceipt, new ReceiptRepository.SaveCallback() {
             @Override
             public void onSuccess() {
                 runOnUiThread(() -> {
-                    Toast.makeText(ReceiptScanActivity.this, getString(R.string.receipt_saved), Toast.LENGTH_SHORT).show();
+                    receiptStore.addPendingReceipt(currentReceipt);
+                    Toast.makeText(ReceiptScanActivity.this, getString(R.string.receipt_queued), Toast.LENGTH_SHORT).show();
                     btnSave.setEnabled(true);
-                    // free high-res bitmap to reduce memory usage after successful upload
-                    try { if (lastBitmapOriginal != null && !lastBitmapOriginal.isRecycled()) { lastBitmapOriginal.recycle(); } } catch (Exception ignored) {}
-                    lastBitmapOriginal = null;
+                    // Hand the high-res bitmap back to the pool now that the receipt is queued
+                    replaceOriginal(null, null);
                     finish();
                 });
             }
@@ -1191,6 +870,23 @@ public class ReceiptScanActivity extends AppCompatActivity {
         });
     }
 
+    // Offer to open a receipt this one duplicates, or to go on with it anyway
+    private void showDuplicateDialog(Receipt existing, int messageRes, Runnable proceed) {
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.duplicate_receipt_title)
+                .setMessage(messageRes)
+                .setPositiveButton(R.string.open_existing_receipt, (dialog, which) -> {
+                    startActivity(ReceiptDetailsActivity.createIntent(this, existing));
+                    finish();
+                })
+                .setNeutralButton(R.string.continue_anyway, (dialog, which) -> {
+                    acceptedDuplicateId = existing.getId();
+                    proceed.run();
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
     // Call Gemini API to extract structured receipt data from OCR text
     private void callGeminiApi(String ocrText) {
         // Button is already disabled in processImageForText(), keep it disabled during Gemini call
@@ -1540,6 +1236,15 @@ public class ReceiptScanActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Pending image work would only deliver to a finished activity
+        if (imagePipeline != null) imagePipeline.shutdown();
+        // The next scan can reuse its memory
+        replaceOriginal(null, null);
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -0,0 +1,69 @@
+package com.mytrackr.receipts.features.receipts;
+
+/**
+ * Bilinear resampling of ARGB pixels, the filter {@code Bitmap.createScaledBitmap(.., true)} applies.
+ * Pixel centres are aligned, so a 1:1 scale copies the image exactly. Column taps and weights are computed once
+ * per call; rows are split into bands on the common ForkJoin pool. Meant for reductions of up to 2x, which is
+ * what is left after the decoder's inSampleSize; larger reductions alias.
+ */
+public final class ScaleKernel {
+    private ScaleKernel() {}
+
+    /**
+     * Target size for fitting a {@code width} x {@code height} image into {@code maxDim} on its long edge,
+     * written to {@code size} as width, height.
+     * @return False if the image already fits; size is then left untouched
+     */
+    public static boolean fitSize(int width, int height, int maxDim, int[] size) {
+        int max = Math.max(width, height);
+        if (max <= maxDim) return false;
+        float scale = (float) maxDim / (float) max;
+        size[0] = Math.max(1, Math.round(width * scale));
+        size[1] = Math.max(1, Math.round(height * scale));
+        return true;
+    }
+
+    /**
+     * Resample {@code src} into {@code dst}. The arrays must not overlap.
+     */
+    public static void scale(int[] src, int srcW, int srcH, int[] dst, int dstW, int dstH) {
+        if (srcW <= 0 || srcH <= 0 || dstW <= 0) return;
+        // Left tap and weight of the right tap (0-256) for each output column
+        int[] xTap = new int[dstW];
+        int[] xWeight = new int[dstW];
+        double xRatio = (double) srcW / dstW;
+        for (int x = 0; x < dstW; x++) {
+            double sx = Math.max(0, Math.min(srcW - 1, (x + 0.5) * xRatio - 0.5));
+            int x0 = (int) sx;
+            xTap[x] = x0;
+            xWeight[x] = x0 + 1 < srcW ? (int) ((sx - x0) * 256 + 0.5) : 0;
+        }
+        double yRatio = (double) srcH / dstH;
+        RowBands.run(dstH, (rowStart, rowEnd) -> {
+            for (int y = rowStart; y < rowEnd; y++) {
+                double sy = Math.max(0, Math.min(srcH - 1, (y + 0.5) * yRatio - 0.5));
+                int y0 = (int) sy;
+                int fy = y0 + 1 < srcH ? (int) ((sy - y0) * 256 + 0.5) : 0;
+                int top = y0 * srcW;
+                int bottom = fy > 0 ? top + srcW : top;
+                int out = y * dstW;
+                for (int x = 0; x < dstW; x++) {
+                    int x0 = xTap[x];
+                    int fx = xWeight[x];
+                    int x1 = fx > 0 ? x0 + 1 : x0;
+                    dst[out + x] = lerp(lerp(src[top + x0], src[top + x1], fx), lerp(src[bottom + x0], src[bottom + x1], fx), fy);
+                }
+            }
+        });
+    }
+
+    /**
+     * Blend of two ARGB pixels, {@code f} (0-256) parts of p1 to 256 - f of p0, all four channels at once.
+     */
+    static int lerp(int p0, int p1, int f) {
+        int g = 256 - f;
+        int rb = (((p0 & 0xFF00FF) * g + (p1 & 0xFF00FF) * f) >>> 8) & 0xFF00FF;
+        int ag = (((p0 >>> 8) & 0xFF00FF) * g + ((p1 >>> 8) & 0xFF00FF) * f) & 0xFF00FF00;
+        return ag | rb;
+    }
+}
@@ -0,0 +1,103 @@
+package com.mytrackr.receipts.features.receipts;
+
+/**
+ * Finds the box around the non-white content of a receipt image, for trimming its paper margins.
+ * Works on an 8-bit luminance plane. Each edge is searched from the outside in: every {@link #COARSE_STEP}-th
+ * row (or column) first, stopping at the first one with ink, then the rows skipped before it. Margins are
+ * usually a small part of the image, so only a fraction of the plane is read. Marks thinner than the coarse
+ * step that lie entirely inside a margin may be trimmed away with it.
+ */
+public final class TrimDetector {
+    static final int COARSE_STEP = 4;
+
+    private TrimDetector() {}
+
+    /**
+     * Fill {@code luma} with the Rec. 601 luminance of the ARGB pixels of a {@code width} x {@code height} image.
+     */
+    public static void luminance(int[] pixels, int width, int height, byte[] luma) {
+        int n = width * height;
+        for (int i = 0; i < n; i++) {
+            int p = pixels[i];
+            luma[i] = (byte) ((77 * ((p >> 16) & 0xFF) + 150 * ((p >> 8) & 0xFF) + 29 * (p & 0xFF)) >> 8);
+        }
+    }
+
+    /**
+     * Bounds of the pixels darker than {@code threshold}, written to {@code bounds} as left, top, right, bottom
+     * (right and bottom exclusive).
+     * @return False if there are none, i.e. the image is blank; bounds is then left untouched
+     */
+    public static boolean findContentBounds(byte[] luma, int width, int height, int threshold, int[] bounds) {
+        int top = firstRow(luma, width, height, threshold, 0, 1);
+        if (top < 0) return false;
+        int bottom = firstRow(luma, width, height, threshold, height - 1, -1);
+        int left = firstColumn(luma, width, threshold, top, bottom, 0, 1);
+        int right = firstColumn(luma, width, threshold, top, bottom, width - 1, -1);
+        bounds[0] = left;
+        bounds[1] = top;
+        bounds[2] = right + 1;
+        bounds[3] = bottom + 1;
+        return true;
+    }
+
+    // First row with ink walking from start in direction dir (+1/-1), or -1
+    private static int firstRow(byte[] luma, int width, int height, int threshold, int start, int dir) {
+        int coarse = -1;
+        for (int y = start; y >= 0 && y < height; y += dir * COARSE_STEP) {
+            if (rowHasInk(luma, width, threshold, y)) {
+                coarse = y;
+                break;
+            }
+        }
+        if (coarse < 0) {
+            // The rows after the last coarse row were skipped
+            int last = start + dir * ((Math.abs(dir > 0 ? height - 1 - start : start) / COARSE_STEP) * COARSE_STEP);
+            for (int y = last + dir; y >= 0 && y < height; y += dir) {
+                if (rowHasInk(luma, width, threshold, y)) return y;
+            }
+            return -1;
+        }
+        for (int y = coarse - dir * (COARSE_STEP - 1); y != coarse; y += dir) {
+            if (y >= 0 && y < height && rowHasInk(luma, width, threshold, y)) return y;
+        }
+        return coarse;
+    }
+
+    // First column with ink between rows top..bottom walking from start in direction dir. There is at least one.
+    private static int firstColumn(byte[] luma, int width, int threshold, int top, int bottom, int start, int dir) {
+        int coarse = -1;
+        for (int x = start; x >= 0 && x < width; x += dir * COARSE_STEP) {
+            if (columnHasInk(luma, width, threshold, x, top, bottom)) {
+                coarse = x;
+                break;
+            }
+        }
+        if (coarse < 0) {
+            int last = start + dir * ((Math.abs(dir > 0 ? width - 1 - start : start) / COARSE_STEP) * COARSE_STEP);
+            for (int x = last + dir; x >= 0 && x < width; x += dir) {
+                if (columnHasInk(luma, width, threshold, x, top, bottom)) return x;
+            }
+            return start;
+        }
+        for (int x = coarse - dir * (COARSE_STEP - 1); x != coarse; x += dir) {
+            if (x >= 0 && x < width && columnHasInk(luma, width, threshold, x, top, bottom)) return x;
+        }
+        return coarse;
+    }
+
+    private static boolean rowHasInk(byte[] luma, int width, int threshold, int y) {
+        int end = (y + 1) * width;
+        for (int i = y * width; i < end; i++) {
+            if ((luma[i] & 0xFF) < threshold) return true;
+        }
+        return false;
+    }
+
+    private static boolean columnHasInk(byte[] luma, int width, int threshold, int x, int top, int bottom) {
+        for (int i = top * width + x, end = bottom * width + x; i <= end; i += width) {
+            if ((luma[i] & 0xFF) < threshold) return true;
+        }
+        return false;
+    }
+}
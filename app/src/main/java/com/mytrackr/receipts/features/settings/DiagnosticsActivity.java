@@ -0,0 +1,201 @@
+package com.mytrackr.receipts.features.settings;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.core.graphics.Insets;
+import androidx.core.view.ViewCompat;
+import androidx.core.view.WindowInsetsCompat;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.mytrackr.receipts.R;
+import com.mytrackr.receipts.data.local.UploadOutbox;
+import com.mytrackr.receipts.databinding.ActivityDiagnosticsBinding;
+import com.mytrackr.receipts.services.ReceiptUploadWorker;
+import com.mytrackr.receipts.utils.LocaleHelper;
+import com.mytrackr.receipts.utils.BitmapPool;
+import com.mytrackr.receipts.utils.StorageBucketResolver;
+import com.mytrackr.receipts.utils.Telemetry;
+import com.mytrackr.receipts.utils.UploadPreferences;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Debug screen listing the per-stage timings collected by {@link Telemetry}, slowest stage first,
+ * with the storage bucket health, upload byte totals and the upload outbox. The raw figures can be shared as JSON.
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+    private ActivityDiagnosticsBinding binding;
+    // The outbox is a database; its counts are read off the main thread
+    private final ExecutorService outboxExecutor = Executors.newSingleThreadExecutor();
+    // Only the newest render may add its outbox counts
+    private int renderGeneration;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        LocaleHelper.applySavedLocale(this);
+        super.onCreate(savedInstanceState);
+        binding = ActivityDiagnosticsBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
+
+        setupToolbar();
+        binding.btnExportTelemetry.setOnClickListener(v -> exportJson());
+        binding.btnResetTelemetry.setOnClickListener(v -> {
+            Telemetry.getInstance().reset();
+            Toast.makeText(this, R.string.telemetry_reset, Toast.LENGTH_SHORT).show();
+            render();
+        });
+        binding.btnRetryUploads.setOnClickListener(v -> retryFailedUploads());
+
+        ViewCompat.setOnApplyWindowInsetsListener(binding.getRoot(), (v, insets) -> {
+            Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
+            v.setPadding(systemBars.left, systemBars.top, systemBars.right, systemBars.bottom);
+            return insets;
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        render();
+    }
+
+    private void setupToolbar() {
+        Toolbar toolbar = binding.toolbar.toolbar;
+        toolbar.setTitle("");
+        binding.toolbar.toolbarTitle.setText(R.string.diagnostics);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setDisplayShowHomeEnabled(true);
+        }
+    }
+
+    private void render() {
+        Telemetry telemetry = Telemetry.getInstance();
+        List<String> stages = telemetry.stagesByMeanLatency();
+        JSONObject stagesJson = telemetry.toJson().optJSONObject("stages");
+        StringBuilder text = new StringBuilder();
+
+        if (stages.isEmpty() || stagesJson == null) {
+            text.append(getString(R.string.no_telemetry_yet)).append('\n');
+        }
+        for (String name : stages) {
+            JSONObject stage = stagesJson != null ? stagesJson.optJSONObject(name) : null;
+            if (stage == null) continue;
+            text.append(name).append('\n');
+            text.append(String.format(Locale.US, "  n=%d  failed=%d  retries=%d%n",
+                    stage.optLong("count"), stage.optLong("failures"), stage.optLong("retries")));
+            text.append(String.format(Locale.US, "  mean=%dms  p50<=%dms  p90<=%dms  max=%dms%n",
+                    stage.optLong("meanMs"), stage.optLong("p50Ms"), stage.optLong("p90Ms"), stage.optLong("maxMs")));
+            if (stage.optLong("bytes") > 0) {
+                text.append("  bytes=").append(stage.optLong("bytes")).append('\n');
+            }
+            JSONObject reasons = stage.optJSONObject("failureReasons");
+            if (reasons != null) {
+                for (Iterator<String> it = reasons.keys(); it.hasNext(); ) {
+                    String reason = it.next();
+                    text.append("  ").append(reason).append(" x").append(reasons.optLong(reason)).append('\n');
+                }
+            }
+            text.append('\n');
+        }
+
+        StorageBucketResolver.Health health = StorageBucketResolver.getInstance(this).getHealth();
+        text.append("storage bucket\n");
+        text.append("  ").append(health.bucket != null ? health.bucket : "(unresolved)").append('\n');
+        text.append(String.format(Locale.US, "  probe=%dms  ok=%d  failed=%d  last=%dms%n%n",
+                health.probeLatencyMs, health.uploadsSucceeded, health.uploadsFailed, health.lastUploadLatencyMs));
+
+        UploadPreferences uploadPreferences = new UploadPreferences(this);
+        text.append("image encoding\n");
+        text.append(String.format(Locale.US, "  images=%d  original=%d  uploaded=%d  saved=%d bytes%n",
+                uploadPreferences.getImagesEncoded(), uploadPreferences.getOriginalBytes(),
+                uploadPreferences.getUploadBytes(), uploadPreferences.getBytesSaved()));
+
+        text.append("\nbitmap pool\n");
+        text.append("  ").append(BitmapPool.getInstance(this).stats()).append('\n');
+
+        binding.textTelemetry.setText(text);
+        renderOutbox(text);
+    }
+
+    private void renderOutbox(StringBuilder text) {
+        String userId = getUserId();
+        if (userId == null) return;
+        int generation = ++renderGeneration;
+        UploadOutbox outbox = UploadOutbox.getInstance(this);
+        outboxExecutor.execute(() -> {
+            int pending = outbox.countPending(userId);
+            int failed = outbox.countFailed(userId);
+            runOnUiThread(() -> {
+                if (generation != renderGeneration || isFinishing()) return;
+                text.append("\nupload outbox\n");
+                text.append(String.format(Locale.US, "  pending=%d  failed=%d (after %d attempts)%n",
+                        pending, failed, UploadOutbox.MAX_ATTEMPTS));
+                binding.textTelemetry.setText(text);
+                binding.btnRetryUploads.setVisibility(failed > 0 ? View.VISIBLE : View.GONE);
+            });
+        });
+    }
+
+    private void retryFailedUploads() {
+        String userId = getUserId();
+        if (userId == null) return;
+        UploadOutbox outbox = UploadOutbox.getInstance(this);
+        outboxExecutor.execute(() -> {
+            if (outbox.retryFailed(userId) > 0) ReceiptUploadWorker.enqueue(getApplicationContext());
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                Toast.makeText(this, R.string.failed_uploads_requeued, Toast.LENGTH_SHORT).show();
+                render();
+            });
+        });
+    }
+
+    private static String getUserId() {
+        FirebaseAuth auth = FirebaseAuth.getInstance();
+        return auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+    }
+
+    private void exportJson() {
+        String json;
+        try {
+            json = Telemetry.getInstance().toJson().toString(2);
+        } catch (JSONException e) {
+            json = Telemetry.getInstance().toJson().toString();
+        }
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("application/json");
+        send.putExtra(Intent.EXTRA_SUBJECT, "MyTrackr telemetry");
+        send.putExtra(Intent.EXTRA_TEXT, json);
+        startActivity(Intent.createChooser(send, getString(R.string.export_json)));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        outboxExecutor.shutdown();
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
@@ -22,6 +22,7 @@ import androidx.core.view.WindowInsetsCompat;
 
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+import com.mytrackr.receipts.BuildConfig;
 import com.mytrackr.receipts.R;
 import com.mytrackr.receipts.databinding.ActivitySettingsBinding;
 import com.mytrackr.receipts.utils.LanguagePreferences;
@@ -48,6 +49,7 @@ public class SettingsActivity extends AppCompatActivity {
         setupThemeSelection();
         setupLanguageSelection();
         setupNotificationPermission();
+        setupDiagnostics();
 
         ViewCompat.setOnApplyWindowInsetsListener(binding.getRoot(), (v, insets) -> {
             Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
@@ -181,6 +183,12 @@ public class SettingsActivity extends AppCompatActivity {
         });
     }
 
+    private void setupDiagnostics() {
+        if (!BuildConfig.DEBUG) return;
+        binding.cardDiagnostics.setVisibility(View.VISIBLE);
+        binding.btnOpenDiagnostics.setOnClickListener(v -> startActivity(new Intent(this, DiagnosticsActivity.class)));
+    }
+
     private void updateNotificationPermissionStatus() {
         boolean hasPermission = NotificationPermissionHelper.hasNotificationPermission(this);
         if (hasPermission) {
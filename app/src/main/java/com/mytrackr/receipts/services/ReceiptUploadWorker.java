@@ -0,0 +1,275 @@
+package com.mytrackr.receipts.services;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.mytrackr.receipts.data.local.UploadOutbox;
+import com.mytrackr.receipts.data.repository.ReceiptRepository;
+import com.mytrackr.receipts.utils.HttpClientProvider;
+import com.mytrackr.receipts.utils.Telemetry;
+import com.mytrackr.receipts.utils.UploadPreferences;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the UploadOutbox of the signed-in user: uploads each queued receipt's image (unless an earlier attempt
+ * already did), then writes the receipt. Receipts are uploaded in parallel through the UploadScheduler.
+ * Runs only with network; entries that fail stay queued and the work is retried with exponential backoff, until an
+ * entry has failed UploadOutbox.MAX_ATTEMPTS times.
+ * Progress ({@link #PROGRESS_DONE}, {@link #PROGRESS_TOTAL}, {@link #PROGRESS_BYTES_SENT}, {@link #PROGRESS_BYTES_TOTAL})
+ * is published as WorkInfo progress of the unique work {@link #UNIQUE_WORK_NAME}.
+ */
+public class ReceiptUploadWorker extends Worker {
+    private static final String TAG = "ReceiptUploadWorker";
+    public static final String UNIQUE_WORK_NAME = "receipt_upload";
+    public static final String PROGRESS_DONE = "done";
+    public static final String PROGRESS_TOTAL = "total";
+    public static final String PROGRESS_BYTES_SENT = "bytes_sent";
+    public static final String PROGRESS_BYTES_TOTAL = "bytes_total";
+    // Scheduler group of outbox drains; other batch uploads use their own groups and take turns with it
+    private static final String UPLOAD_GROUP = "outbox";
+    private static final long INITIAL_BACKOFF_SECONDS = 30;
+    // Upper bound for one step (image upload or Firestore write), so a hung callback cannot block the queue
+    private static final long STEP_TIMEOUT_MINUTES = 5;
+
+    private final UploadScheduler scheduler = UploadScheduler.getInstance();
+    // Uploads of the current pass, for progress and cancellation
+    private final List<UploadScheduler.Task> tasks = new CopyOnWriteArrayList<>();
+    private volatile int lastReportedPercent = -1;
+
+    public ReceiptUploadWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Schedule a drain of the outbox. Work queued while a drain is running is appended, so nothing is missed.
+     */
+    public static void enqueue(Context context) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(ReceiptUploadWorker.class)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, INITIAL_BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        FirebaseAuth auth = FirebaseAuth.getInstance();
+        if (auth.getCurrentUser() == null) {
+            // Entries stay queued until their user signs in again; ReceiptRepository re-enqueues on the next load
+            Log.d(TAG, "No user signed in, leaving outbox untouched");
+            return Result.success();
+        }
+        String userId = auth.getCurrentUser().getUid();
+        UploadOutbox outbox = UploadOutbox.getInstance(getApplicationContext());
+        int maxConcurrent = new UploadPreferences(getApplicationContext()).getMaxConcurrentUploads();
+        scheduler.setMaxConcurrent(maxConcurrent);
+        HttpClientProvider.setMaxConcurrentUploads(maxConcurrent);
+
+        boolean failed = false;
+        // Receipts queued while this runs are picked up by the next pass
+        Set<String> attempted = new HashSet<>();
+        List<UploadOutbox.Entry> pending;
+        while (!(pending = unattempted(outbox.getPending(userId), attempted)).isEmpty()) {
+            if (isStopped()) return Result.retry();
+            tasks.clear();
+            lastReportedPercent = -1;
+            CountDownLatch finished = new CountDownLatch(pending.size());
+            UploadScheduler.Listener listener = new UploadScheduler.Listener() {
+                @Override
+                public void onProgress(UploadScheduler.Task task) {
+                    reportProgress(false);
+                }
+
+                @Override
+                public void onFinished(UploadScheduler.Task task) {
+                    reportProgress(true);
+                    finished.countDown();
+                }
+            };
+            for (UploadOutbox.Entry entry : pending) {
+                attempted.add(entry.id);
+                try {
+                    tasks.add(scheduler.submit(UPLOAD_GROUP, entry.id, task -> upload(outbox, entry, task), listener));
+                } catch (IllegalStateException e) {
+                    // Still uploading from a drain that was stopped; its outcome stays in the outbox
+                    finished.countDown();
+                    failed = true;
+                }
+            }
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                onStopped();
+                return Result.retry();
+            }
+            for (UploadScheduler.Task task : tasks) {
+                if (task.getState() != UploadScheduler.State.SUCCEEDED) {
+                    if (task.getState() == UploadScheduler.State.FAILED) recordFailure(outbox, pending, task.getId());
+                    failed = true;
+                }
+            }
+        }
+        Log.d(TAG, "Outbox drained: " + attempted.size() + " attempted, " + (failed ? "some failed" : "all uploaded"));
+        return failed ? Result.retry() : Result.success();
+    }
+
+    @Override
+    public void onStopped() {
+        // Constraints lost or work cancelled: stop the outbox uploads, including any left running by an earlier
+        // drain; they are retried later
+        scheduler.cancelGroup(UPLOAD_GROUP);
+    }
+
+    // Publishes counts and bytes of the current pass; progress updates are limited to whole percent changes
+    private void reportProgress(boolean force) {
+        int done = 0;
+        long bytesSent = 0;
+        long bytesTotal = 0;
+        for (UploadScheduler.Task task : tasks) {
+            UploadScheduler.State state = task.getState();
+            if (state != UploadScheduler.State.QUEUED && state != UploadScheduler.State.RUNNING) done++;
+            bytesSent += task.getBytesSent();
+            bytesTotal += task.getTotalBytes();
+        }
+        int percent = bytesTotal > 0 ? (int) (bytesSent * 100 / bytesTotal) : 0;
+        if (!force && percent == lastReportedPercent) return;
+        lastReportedPercent = percent;
+        setProgressAsync(new Data.Builder()
+                .putInt(PROGRESS_DONE, done)
+                .putInt(PROGRESS_TOTAL, tasks.size())
+                .putLong(PROGRESS_BYTES_SENT, bytesSent)
+                .putLong(PROGRESS_BYTES_TOTAL, bytesTotal)
+                .build());
+    }
+
+    private static void recordFailure(UploadOutbox outbox, List<UploadOutbox.Entry> pending, String id) {
+        outbox.incrementAttempts(id);
+        for (UploadOutbox.Entry entry : pending) {
+            if (entry.id.equals(id) && entry.attempts + 1 >= UploadOutbox.MAX_ATTEMPTS) {
+                Log.e(TAG, "Queued receipt " + id + " failed " + UploadOutbox.MAX_ATTEMPTS + " times, no longer retrying it");
+            }
+        }
+    }
+
+    private static List<UploadOutbox.Entry> unattempted(List<UploadOutbox.Entry> entries, Set<String> attempted) {
+        List<UploadOutbox.Entry> result = new ArrayList<>();
+        for (UploadOutbox.Entry entry : entries) {
+            if (!attempted.contains(entry.id)) result.add(entry);
+        }
+        return result;
+    }
+
+    // Runs on a scheduler thread and blocks until the receipt is written
+    private void upload(UploadOutbox outbox, UploadOutbox.Entry entry, UploadScheduler.Task task) throws Exception {
+        if (entry.attempts > 0) Telemetry.getInstance().recordRetry(Telemetry.STAGE_RECEIPT_UPLOAD);
+        Telemetry.Span span = Telemetry.getInstance().start(Telemetry.STAGE_RECEIPT_UPLOAD);
+        try {
+            uploadEntry(outbox, entry, task);
+            span.succeed(task.getBytesSent());
+        } catch (Exception e) {
+            span.fail(e);
+            throw e;
+        }
+    }
+
+    private void uploadEntry(UploadOutbox outbox, UploadOutbox.Entry entry, UploadScheduler.Task task) throws Exception {
+        Context context = getApplicationContext();
+        ReceiptRepository repository = ReceiptRepository.getInstance();
+        String imageUrl = entry.imageUrl;
+        String cloudinaryPublicId = entry.cloudinaryPublicId;
+
+        if (imageUrl == null) {
+            if (!entry.image.exists()) {
+                Log.e(TAG, "Image of queued receipt " + entry.id + " is gone, dropping it");
+                outbox.remove(entry.id);
+                return;
+            }
+            CountDownLatch latch = new CountDownLatch(1);
+            final String[] uploaded = new String[2];
+            final Exception[] error = new Exception[1];
+            repository.uploadReceiptImage(context, entry.id, Uri.fromFile(entry.image), task.getCancellationSignal(),
+                    new ReceiptRepository.ImageUploadCallback() {
+                @Override
+                public void onSuccess(String url, String publicId) {
+                    uploaded[0] = url;
+                    uploaded[1] = publicId;
+                    latch.countDown();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    error[0] = e;
+                    latch.countDown();
+                }
+
+                @Override
+                public void onProgress(long bytesSent, long totalBytes) {
+                    task.setProgress(bytesSent, totalBytes);
+                }
+            });
+            if (!await(latch) || uploaded[0] == null) {
+                throw new IOException("Image upload failed for receipt " + entry.id + " (attempt " + (entry.attempts + 1) + ")", error[0]);
+            }
+            imageUrl = uploaded[0];
+            cloudinaryPublicId = uploaded[1];
+            outbox.setImageUploaded(entry.id, imageUrl, cloudinaryPublicId);
+        }
+
+        entry.receipt.setImageUrl(imageUrl);
+        CountDownLatch latch = new CountDownLatch(1);
+        final Exception[] error = new Exception[1];
+        final boolean[] written = {false};
+        repository.writeUploadedReceipt(context, entry.userId, entry.id, entry.receipt, cloudinaryPublicId, new ReceiptRepository.SaveCallback() {
+            @Override
+            public void onSuccess() {
+                written[0] = true;
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                error[0] = e;
+                latch.countDown();
+            }
+        });
+        if (!await(latch) || !written[0]) {
+            throw new IOException("Saving receipt " + entry.id + " failed (attempt " + (entry.attempts + 1) + ")", error[0]);
+        }
+        outbox.remove(entry.id);
+        Log.d(TAG, "Uploaded queued receipt " + entry.id);
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(STEP_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.mytrackr.receipts.services;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs uploads with a bounded number in flight, so a stack of receipts keeps the link busy without opening
+ * an unbounded number of connections. Uploads are queued per group (e.g. one batch of receipts) and groups take
+ * turns, FIFO within a group, so one large batch cannot starve receipts queued after it.
+ * Thread-safe. Uploads run on the scheduler's threads and may block.
+ */
+public class UploadScheduler {
+    private static final String TAG = "UploadScheduler";
+    public static final int DEFAULT_MAX_CONCURRENT = 3;
+
+    private static UploadScheduler instance;
+
+    public interface Upload {
+        /**
+         * Perform the upload, blocking until it is done. Report progress through the task and stop early when its
+         * cancellation signal fires.
+         * @throws Exception If the upload failed
+         */
+        void run(Task task) throws Exception;
+    }
+
+    public interface Listener {
+        // Invoked on the uploading thread
+        default void onProgress(Task task) {}
+        // Invoked exactly once, when the task succeeded, failed or was cancelled
+        void onFinished(Task task);
+    }
+
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+    public static final class Task {
+        private final String id;
+        private final String group;
+        private final Upload upload;
+        private final Listener listener;
+        private final CancellationSignal cancellationSignal = new CancellationSignal();
+        private volatile State state = State.QUEUED;
+        private volatile long bytesSent;
+        private volatile long totalBytes;
+        private volatile Exception error;
+        private boolean finished;
+
+        private Task(String id, String group, Upload upload, Listener listener) {
+            this.id = id;
+            this.group = group;
+            this.upload = upload;
+            this.listener = listener;
+        }
+
+        public String getId() { return id; }
+        public String getGroup() { return group; }
+        public State getState() { return state; }
+        public long getBytesSent() { return bytesSent; }
+        // 0 while unknown
+        public long getTotalBytes() { return totalBytes; }
+        public Exception getError() { return error; }
+
+        public CancellationSignal getCancellationSignal() { return cancellationSignal; }
+
+        public boolean isCancelled() { return state == State.CANCELLED; }
+
+        public void setProgress(long bytesSent, long totalBytes) {
+            this.bytesSent = bytesSent;
+            this.totalBytes = totalBytes;
+            if (listener != null) listener.onProgress(this);
+        }
+
+        private void finish(State finalState, Exception finalError) {
+            synchronized (this) {
+                if (finished) return;
+                finished = true;
+                // A cancelled upload usually ends with an error caused by the cancellation; keep CANCELLED
+                if (state != State.CANCELLED) {
+                    state = finalState;
+                    error = finalError;
+                }
+            }
+            if (listener != null) listener.onFinished(this);
+        }
+    }
+
+    private final Object lock = new Object();
+    // group -> its queued tasks; iteration order is the order in which groups get their next turn
+    private final LinkedHashMap<String, ArrayDeque<Task>> queues = new LinkedHashMap<>();
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private int running;
+
+    public static synchronized UploadScheduler getInstance() {
+        if (instance == null) {
+            instance = new UploadScheduler();
+        }
+        return instance;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be at least 1");
+        synchronized (lock) {
+            this.maxConcurrent = maxConcurrent;
+        }
+        startQueued();
+    }
+
+    public int getMaxConcurrent() {
+        synchronized (lock) {
+            return maxConcurrent;
+        }
+    }
+
+    /**
+     * Queue an upload.
+     * @param group Uploads of the same group run in submission order; groups take turns
+     * @param id Unique among queued and running uploads
+     * @throws IllegalStateException If an upload with the id is already queued or running
+     */
+    public Task submit(String group, String id, Upload upload, Listener listener) {
+        Task task = new Task(id, group, upload, listener);
+        synchronized (lock) {
+            if (tasks.containsKey(id)) throw new IllegalStateException("Upload already scheduled: " + id);
+            tasks.put(id, task);
+            ArrayDeque<Task> queue = queues.get(group);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(group, queue);
+            }
+            queue.add(task);
+        }
+        startQueued();
+        return task;
+    }
+
+    /**
+     * Cancel a queued or running upload. A running upload is signalled through its cancellation signal.
+     * @return False if no upload with the id is queued or running
+     */
+    public boolean cancel(String id) {
+        Task task;
+        boolean wasQueued;
+        synchronized (lock) {
+            task = tasks.get(id);
+            if (task == null) return false;
+            wasQueued = task.state == State.QUEUED;
+            task.state = State.CANCELLED;
+            if (wasQueued) {
+                tasks.remove(id);
+                ArrayDeque<Task> queue = queues.get(task.group);
+                if (queue != null) {
+                    queue.remove(task);
+                    if (queue.isEmpty()) queues.remove(task.group);
+                }
+            }
+        }
+        if (wasQueued) {
+            task.finish(State.CANCELLED, null);
+        } else {
+            task.cancellationSignal.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Cancel every queued and running upload of the group.
+     */
+    public void cancelGroup(String group) {
+        List<String> ids = new ArrayList<>();
+        synchronized (lock) {
+            for (Task task : tasks.values()) {
+                if (task.group.equals(group)) ids.add(task.id);
+            }
+        }
+        for (String id : ids) cancel(id);
+    }
+
+    private void startQueued() {
+        synchronized (lock) {
+            Task next;
+            while (running < maxConcurrent && (next = pollNextGroup()) != null) {
+                running++;
+                next.state = State.RUNNING;
+                Task task = next;
+                executor.execute(() -> run(task));
+            }
+        }
+    }
+
+    // Next task of the group whose turn it is; that group then moves to the back
+    private Task pollNextGroup() {
+        Iterator<Map.Entry<String, ArrayDeque<Task>>> groups = queues.entrySet().iterator();
+        if (!groups.hasNext()) return null;
+        Map.Entry<String, ArrayDeque<Task>> group = groups.next();
+        String key = group.getKey();
+        ArrayDeque<Task> queue = group.getValue();
+        groups.remove();
+        Task task = queue.poll();
+        if (!queue.isEmpty()) queues.put(key, queue);
+        return task;
+    }
+
+    private void run(Task task) {
+        try {
+            if (!task.isCancelled()) task.upload.run(task);
+            task.finish(State.SUCCEEDED, null);
+        } catch (Exception e) {
+            if (!task.isCancelled()) Log.w(TAG, "Upload " + task.id + " failed", e);
+            task.finish(State.FAILED, e);
+        } finally {
+            synchronized (lock) {
+                running--;
+                tasks.remove(task.id);
+            }
+            startQueued();
+        }
+    }
+}
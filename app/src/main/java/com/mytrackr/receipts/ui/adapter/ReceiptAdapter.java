@@ -31,6 +31,8 @@ public class ReceiptAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     private static final int TYPE_RECEIPT = 1;
 
     private final List<Object> items;
+    // Receipts currently shown, in the order they were submitted
+    private final List<Receipt> shownReceipts = new ArrayList<>();
     private OnReceiptClickListener listener;
 
     public interface OnReceiptClickListener {
@@ -45,7 +47,57 @@ public class ReceiptAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         this.listener = listener;
     }
 
+    /**
+     * Show the given receipts. When the list only extends the currently shown one with older receipts
+     * (a new page loaded on scroll), the page is appended in place instead of rebuilding every row.
+     */
+    public void submitReceipts(List<Receipt> receipts) {
+        if (receipts == null || !isAppendOf(receipts)) {
+            setReceipts(receipts);
+            return;
+        }
+        List<Receipt> page = receipts.subList(shownReceipts.size(), receipts.size());
+        if (page.isEmpty()) return;
+
+        SimpleDateFormat headerFormat = new SimpleDateFormat("MMMM dd yyyy", Locale.US);
+        List<Receipt> sortedPage = new ArrayList<>(page);
+        Collections.sort(sortedPage, (r1, r2) -> Long.compare(getReceiptTimestamp(r2), getReceiptTimestamp(r1)));
+
+        int insertStart = items.size();
+        String lastHeader = headerFormat.format(new Date(getReceiptTimestamp(lastRowReceipt()))).toUpperCase();
+        for (Receipt receipt : sortedPage) {
+            String dateKey = headerFormat.format(new Date(getReceiptTimestamp(receipt))).toUpperCase();
+            if (!dateKey.equals(lastHeader)) {
+                items.add(dateKey);
+                lastHeader = dateKey;
+            }
+            items.add(receipt);
+        }
+        shownReceipts.addAll(page);
+        notifyItemRangeInserted(insertStart, items.size() - insertStart);
+    }
+
+    // True when receipts starts with exactly the shown receipts and every new one is not newer than the last shown
+    private boolean isAppendOf(List<Receipt> receipts) {
+        if (shownReceipts.isEmpty() || receipts.size() < shownReceipts.size()) return false;
+        for (int i = 0; i < shownReceipts.size(); i++) {
+            if (receipts.get(i) != shownReceipts.get(i)) return false;
+        }
+        long oldestShown = getReceiptTimestamp(lastRowReceipt());
+        for (int i = shownReceipts.size(); i < receipts.size(); i++) {
+            if (getReceiptTimestamp(receipts.get(i)) > oldestShown) return false;
+        }
+        return true;
+    }
+
+    // Rows are sorted newest first, so the last receipt row is the oldest one shown
+    private Receipt lastRowReceipt() {
+        return (Receipt) items.get(items.size() - 1);
+    }
+
     public void setReceipts(List<Receipt> receipts) {
+        shownReceipts.clear();
+        if (receipts != null) shownReceipts.addAll(receipts);
         items.clear();
         if (receipts != null && !receipts.isEmpty()) {
             Map<String, List<Receipt>> groupedReceipts = groupReceiptsByDate(receipts);
@@ -238,6 +290,9 @@ public class ReceiptAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
                         return item.getCategory();
                     }
                 }
+            } else if (receipt.getItemTotals() != null && !receipt.getItemTotals().isEmpty()) {
+                // Summary without its item lines
+                return receipt.getItemTotals().keySet().iterator().next();
             }
 
             Log.d("ReceiptAdapter", "No category found for receipt");
@@ -0,0 +1,189 @@
+package com.mytrackr.receipts.utils;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recycled bitmaps for the scan flow, so re-cropping and re-processing reuse pixel memory instead of allocating
+ * a few megabytes per stage. Bitmaps are keyed by width, height and config; when the pooled bytes exceed the
+ * budget (an eighth of the app's memory class) the least recently used size is evicted first. The pool is
+ * emptied when the system runs low on memory. Thread-safe.
+ */
+public class BitmapPool {
+    // Share of the heap the pool may hold on to
+    private static final int BUDGET_DIVISOR = 8;
+
+    private static BitmapPool instance;
+
+    private final long maxBytes;
+    // Least recently used size first
+    private final LinkedHashMap<Key, ArrayDeque<Bitmap>> groups = new LinkedHashMap<>(16, 0.75f, true);
+    private long pooledBytes;
+    private long hits;
+    private long misses;
+
+    private BitmapPool(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClassMb = am != null ? am.getMemoryClass() : 64;
+        maxBytes = memoryClassMb * 1024L * 1024L / BUDGET_DIVISOR;
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+                    clear();
+                } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+                    trimTo(maxBytes / 2);
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+
+            @Override
+            public void onLowMemory() {
+                clear();
+            }
+        });
+    }
+
+    public static synchronized BitmapPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new BitmapPool(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * A mutable bitmap of the given size, cleared to transparent.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap != null) {
+            bitmap.eraseColor(0);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * A mutable bitmap of the given size with undefined contents, for callers that overwrite every pixel.
+     */
+    public Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * A pooled bitmap that can be passed as {@code BitmapFactory.Options.inBitmap} for an image of at least
+     * {@code minBytes}, or null. The decoder reconfigures it to the decoded size.
+     */
+    public synchronized Bitmap getForDecode(long minBytes) {
+        Iterator<Map.Entry<Key, ArrayDeque<Bitmap>>> it = groups.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, ArrayDeque<Bitmap>> entry = it.next();
+            Bitmap head = entry.getValue().peekFirst();
+            if (head == null || head.getAllocationByteCount() < minBytes) continue;
+            entry.getValue().pollFirst();
+            if (entry.getValue().isEmpty()) it.remove();
+            pooledBytes -= head.getAllocationByteCount();
+            hits++;
+            return head;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Hand a bitmap back for reuse. The caller must not touch it afterwards. Bitmaps that cannot be reused, or do
+     * not fit the budget, are recycled.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        long size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || size > maxBytes / 2) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (this) {
+            Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayDeque<Bitmap> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayDeque<>();
+                groups.put(key, group);
+            }
+            group.addLast(bitmap);
+            pooledBytes += size;
+            trimTo(maxBytes);
+        }
+    }
+
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    public synchronized String stats() {
+        return "pooled " + (pooledBytes / 1024) + " KB of " + (maxBytes / 1024) + " KB, " + hits + " hits, " + misses + " misses";
+    }
+
+    private synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        Key key = new Key(width, height, config);
+        ArrayDeque<Bitmap> group = groups.get(key);
+        Bitmap bitmap = group != null ? group.pollLast() : null;
+        if (bitmap == null) {
+            misses++;
+            return null;
+        }
+        if (group.isEmpty()) groups.remove(key);
+        pooledBytes -= bitmap.getAllocationByteCount();
+        hits++;
+        return bitmap;
+    }
+
+    // Evicts the oldest bitmaps of the least recently used sizes until at most targetBytes are pooled
+    private synchronized void trimTo(long targetBytes) {
+        Iterator<ArrayDeque<Bitmap>> it = groups.values().iterator();
+        while (pooledBytes > targetBytes && it.hasNext()) {
+            ArrayDeque<Bitmap> group = it.next();
+            while (pooledBytes > targetBytes && !group.isEmpty()) {
+                Bitmap evicted = group.pollFirst();
+                pooledBytes -= evicted.getAllocationByteCount();
+                evicted.recycle();
+            }
+            if (group.isEmpty()) it.remove();
+        }
+    }
+
+    private static final class Key {
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + config.hashCode();
+        }
+    }
+}
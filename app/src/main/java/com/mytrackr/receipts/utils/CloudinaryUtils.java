@@ -1,7 +1,9 @@
 package com.mytrackr.receipts.utils;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -11,9 +13,9 @@ import com.mytrackr.receipts.R;
 
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Executor;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -23,6 +25,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSink;
 
 public class CloudinaryUtils {
     private static final String TAG = "CloudinaryUtils";
@@ -30,6 +33,8 @@ public class CloudinaryUtils {
     public interface CloudinaryUploadCallback {
         void onSuccess(String secureUrl, String publicId);
         void onFailure(Exception e);
+        // Invoked on the network thread while the request body is sent
+        default void onProgress(long bytesSent, long totalBytes) {}
     }
 
     public static class UploadConfig {
@@ -81,34 +86,31 @@ public class CloudinaryUtils {
         }
     }
 
+    /**
+     * Upload with the result delivered on the main thread.
+     */
+    public static void uploadImage(Context context, Uri imageUri, UploadConfig config, CloudinaryUploadCallback callback) {
+        uploadImage(context, imageUri, config, null, null, callback);
+    }
+
+    /**
+     * @param cancellationSignal Cancels the request when signalled, may be null
+     * @param callbackExecutor Runs onSuccess/onFailure; null for the main thread
+     */
     public static void uploadImage(Context context, Uri imageUri, UploadConfig config,
+                                   CancellationSignal cancellationSignal, Executor callbackExecutor,
                                    CloudinaryUploadCallback callback) {
+        Executor deliver = callbackExecutor != null ? callbackExecutor : new Handler(Looper.getMainLooper())::post;
         Log.d(TAG, "Attempting Cloudinary upload: cloud=" + config.cloudName +
                 " preset=" + config.uploadPreset);
 
-        OkHttpClient client = new OkHttpClient.Builder().build();
+        OkHttpClient client = HttpClientProvider.getInstance();
+        Telemetry.Span span = Telemetry.getInstance().start(Telemetry.STAGE_CLOUDINARY_UPLOAD);
 
         try {
-            InputStream is = context.getContentResolver().openInputStream(imageUri);
-            if (is == null) {
-                if (callback != null) {
-                    new Handler(Looper.getMainLooper()).post(() ->
-                            callback.onFailure(new IllegalStateException("Could not open image input stream")));
-                }
-                return;
-            }
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[8192];
-            int n;
-            while ((n = is.read(buffer)) != -1) {
-                baos.write(buffer, 0, n);
-            }
-            is.close();
-            byte[] imageBytes = baos.toByteArray();
-
-            MediaType mediaType = MediaType.parse("image/jpeg");
-            RequestBody fileBody = RequestBody.create(imageBytes, mediaType);
+            // Streamed from the ContentResolver on OkHttp's thread while the request is written
+            RequestBody fileBody = new ContentUriRequestBody(context.getApplicationContext(), imageUri,
+                    MediaType.parse("image/jpeg"), callback);
 
             String folderPath = buildFolderPath(config);
 
@@ -123,12 +125,15 @@ public class CloudinaryUtils {
             String url = "https://api.cloudinary.com/v1_1/" + config.cloudName + "/image/upload";
             Request request = new Request.Builder().url(url).post(requestBody).build();
 
-            client.newCall(request).enqueue(new Callback() {
+            Call call = client.newCall(request);
+            if (cancellationSignal != null) cancellationSignal.setOnCancelListener(call::cancel);
+            call.enqueue(new Callback() {
                 @Override
                 public void onFailure(Call call, IOException e) {
                     Log.w(TAG, "Cloudinary upload failed", e);
+                    span.fail(e);
                     if (callback != null) {
-                        new Handler(Looper.getMainLooper()).post(() -> callback.onFailure(e));
+                        deliver.execute(() -> callback.onFailure(e));
                     }
                 }
 
@@ -141,8 +146,9 @@ public class CloudinaryUtils {
                                     response.code() + " body=" + respBody);
 
                             IOException error = new IOException("Upload failed: " + response.code());
+                            span.fail(error);
                             if (callback != null) {
-                                new Handler(Looper.getMainLooper()).post(() -> callback.onFailure(error));
+                                deliver.execute(() -> callback.onFailure(error));
                             }
                             return;
                         }
@@ -150,8 +156,9 @@ public class CloudinaryUtils {
                         String body = response.body() != null ? response.body().string() : null;
                         if (body == null) {
                             IOException error = new IOException("Empty response body");
+                            span.fail(error);
                             if (callback != null) {
-                                new Handler(Looper.getMainLooper()).post(() -> callback.onFailure(error));
+                                deliver.execute(() -> callback.onFailure(error));
                             }
                             return;
                         }
@@ -164,28 +171,32 @@ public class CloudinaryUtils {
                             if (secureUrl == null || secureUrl.isEmpty()) {
                                 Log.w(TAG, "Cloudinary response missing secure_url: " + body);
                                 IOException error = new IOException("Missing secure_url in response");
+                                span.fail(error);
                                 if (callback != null) {
-                                    new Handler(Looper.getMainLooper()).post(() -> callback.onFailure(error));
+                                    deliver.execute(() -> callback.onFailure(error));
                                 }
                                 return;
                             }
 
                             Log.d(TAG, "Cloudinary upload succeeded: " + secureUrl);
+                            span.succeed(fileBody.contentLength());
                             if (callback != null) {
-                                new Handler(Looper.getMainLooper()).post(() ->
+                                deliver.execute(() ->
                                         callback.onSuccess(secureUrl, publicId));
                             }
 
                         } catch (Exception ex) {
                             Log.w(TAG, "Cloudinary response parsing failed", ex);
+                            span.fail(ex);
                             if (callback != null) {
-                                new Handler(Looper.getMainLooper()).post(() -> callback.onFailure(ex));
+                                deliver.execute(() -> callback.onFailure(ex));
                             }
                         }
                     } catch (IOException ioEx) {
                         Log.w(TAG, "Error reading Cloudinary response", ioEx);
+                        span.fail(ioEx);
                         if (callback != null) {
-                            new Handler(Looper.getMainLooper()).post(() -> callback.onFailure(ioEx));
+                            deliver.execute(() -> callback.onFailure(ioEx));
                         }
                     } finally {
                         if (response.body() != null) response.close();
@@ -195,8 +206,66 @@ public class CloudinaryUtils {
 
         } catch (Exception e) {
             Log.w(TAG, "Exception preparing Cloudinary upload", e);
+            span.fail(e);
             if (callback != null) {
-                new Handler(Looper.getMainLooper()).post(() -> callback.onFailure(e));
+                deliver.execute(() -> callback.onFailure(e));
+            }
+        }
+    }
+
+    /**
+     * Request body read from a content or file Uri through a fixed buffer, so memory use does not grow with the
+     * image size. The stream is reopened for every write, so OkHttp can retry the request.
+     */
+    private static class ContentUriRequestBody extends RequestBody {
+        private static final int BUFFER_SIZE = 16 * 1024;
+
+        private final Context context;
+        private final Uri uri;
+        private final MediaType mediaType;
+        private final CloudinaryUploadCallback progressCallback;
+        private long contentLength = -2;
+
+        ContentUriRequestBody(Context context, Uri uri, MediaType mediaType, CloudinaryUploadCallback progressCallback) {
+            this.context = context;
+            this.uri = uri;
+            this.mediaType = mediaType;
+            this.progressCallback = progressCallback;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mediaType;
+        }
+
+        // -1 (chunked) if the provider does not report a length
+        @Override
+        public long contentLength() {
+            if (contentLength == -2) {
+                contentLength = -1;
+                try (AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+                    if (descriptor != null && descriptor.getLength() >= 0) contentLength = descriptor.getLength();
+                } catch (Exception e) {
+                    Log.d(TAG, "Length of " + uri + " unknown", e);
+                }
+            }
+            return contentLength;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            long total = contentLength();
+            InputStream in = context.getContentResolver().openInputStream(uri);
+            if (in == null) throw new IOException("Could not open image input stream");
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long sent = 0;
+                int count;
+                while ((count = stream.read(buffer)) != -1) {
+                    sink.write(buffer, 0, count);
+                    sent += count;
+                    if (progressCallback != null) progressCallback.onProgress(sent, total);
+                }
             }
         }
     }
@@ -0,0 +1,80 @@
+package com.mytrackr.receipts.utils;
+
+import android.content.Context;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * EXIF orientation of stored images. BitmapFactory and BitmapRegionDecoder return pixels as stored, so camera and
+ * gallery images have to be turned upright by the caller.
+ */
+public final class ExifOrientation {
+    private ExifOrientation() {}
+
+    /**
+     * The orientation tag of the image, {@link ExifInterface#ORIENTATION_NORMAL} if it has none or cannot be read.
+     */
+    public static int read(Context context, Uri source) {
+        try (InputStream in = context.getContentResolver().openInputStream(source)) {
+            if (in == null) return ExifInterface.ORIENTATION_NORMAL;
+            return new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    public static boolean isUpright(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_NORMAL || orientation == ExifInterface.ORIENTATION_UNDEFINED;
+    }
+
+    /**
+     * True if turning the image upright swaps its width and height.
+     */
+    public static boolean swapsDimensions(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_ROTATE_90 || orientation == ExifInterface.ORIENTATION_ROTATE_270
+                || orientation == ExifInterface.ORIENTATION_TRANSPOSE || orientation == ExifInterface.ORIENTATION_TRANSVERSE;
+    }
+
+    /**
+     * Post-concatenate the transform that turns a stored image upright to {@code matrix}. Returns false, leaving
+     * the matrix as is, if the image is already upright.
+     */
+    public static boolean postApply(Matrix matrix, int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90: matrix.postRotate(90); return true;
+            case ExifInterface.ORIENTATION_ROTATE_180: matrix.postRotate(180); return true;
+            case ExifInterface.ORIENTATION_ROTATE_270: matrix.postRotate(270); return true;
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL: matrix.postScale(-1, 1); return true;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL: matrix.postScale(1, -1); return true;
+            case ExifInterface.ORIENTATION_TRANSPOSE: matrix.postRotate(90); matrix.postScale(-1, 1); return true;
+            case ExifInterface.ORIENTATION_TRANSVERSE: matrix.postRotate(270); matrix.postScale(-1, 1); return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * Map points x0,y0,x1,y1.. of the upright image back to the stored image, in place.
+     * @param storedWidth Width of the image as stored
+     * @param storedHeight Height of the image as stored
+     */
+    public static void mapToStored(float[] points, int orientation, float storedWidth, float storedHeight) {
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            float x = points[i];
+            float y = points[i + 1];
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90: points[i] = y; points[i + 1] = storedHeight - x; break;
+                case ExifInterface.ORIENTATION_ROTATE_180: points[i] = storedWidth - x; points[i + 1] = storedHeight - y; break;
+                case ExifInterface.ORIENTATION_ROTATE_270: points[i] = storedWidth - y; points[i + 1] = x; break;
+                case ExifInterface.ORIENTATION_FLIP_HORIZONTAL: points[i] = storedWidth - x; break;
+                case ExifInterface.ORIENTATION_FLIP_VERTICAL: points[i + 1] = storedHeight - y; break;
+                case ExifInterface.ORIENTATION_TRANSPOSE: points[i] = y; points[i + 1] = x; break;
+                case ExifInterface.ORIENTATION_TRANSVERSE: points[i] = storedWidth - y; points[i + 1] = storedHeight - x; break;
+                default: break;
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -44,6 +45,7 @@ public class GeminiApiService {
     }
 
     private void callGemini(String prompt, GeminiCallback callback, int attempt) {
+        Telemetry.Span span = Telemetry.getInstance().start(Telemetry.STAGE_GEMINI);
         try {
             GenerativeModel baseModel = new GenerativeModel("gemini-2.5-flash", apiKey);
             GenerativeModelFutures model = GenerativeModelFutures.from(baseModel);
@@ -63,6 +65,9 @@ public class GeminiApiService {
                         if (text == null || text.trim().isEmpty()) {
                             throw new IllegalStateException("Empty response from Gemini SDK");
                         }
+                        // The SDK hides the HTTP bodies; the UTF-8 payloads are the closest measure of them
+                        long bytes = prompt.getBytes(StandardCharsets.UTF_8).length
+                                + text.getBytes(StandardCharsets.UTF_8).length;
 
                         text = text.trim();
                         if (text.startsWith("```json")) {
@@ -78,9 +83,11 @@ public class GeminiApiService {
 
                         JSONObject structuredData = new JSONObject(text);
                         Log.d(TAG, "Structured data extracted successfully from Gemini SDK");
+                        span.succeed(bytes);
                         callback.onSuccess(structuredData);
                     } catch (Exception e) {
                         Log.e(TAG, "Failed to parse Gemini SDK response", e);
+                        span.fail(e);
                         callback.onFailure(e);
                     }
                 }
@@ -88,10 +95,12 @@ public class GeminiApiService {
                 @Override
                 public void onFailure(Throwable t) {
                     Log.e(TAG, "Gemini SDK request failed", t);
+                    span.fail(t);
 
                     boolean isTimeout = isTimeoutException(t);
                     if (isTimeout && attempt < 1) {
                         Log.w(TAG, "Timeout from Gemini, retrying once (attempt " + (attempt + 1) + ")");
+                        Telemetry.getInstance().recordRetry(Telemetry.STAGE_GEMINI);
                         callGemini(prompt, callback, attempt + 1);
                     } else {
                         callback.onFailure(new Exception(t));
@@ -100,6 +109,7 @@ public class GeminiApiService {
             }, executor);
         } catch (Exception e) {
             Log.e(TAG, "Gemini SDK setup failed", e);
+            span.fail(e);
             callback.onFailure(e);
         }
     }
@@ -0,0 +1,50 @@
+package com.mytrackr.receipts.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * The app's one OkHttpClient. Sharing it shares the connection pool, TLS sessions and dispatcher threads,
+ * so repeated uploads to the same host reuse warm connections instead of handshaking every time.
+ * Callers needing different settings should derive a client with {@code getInstance().newBuilder()}.
+ */
+public final class HttpClientProvider {
+    // Enough idle connections for UploadScheduler's default parallel uploads plus API calls
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    // OkHttp's Dispatcher defaults
+    private static final int DEFAULT_MAX_REQUESTS = 64;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    private static OkHttpClient instance;
+
+    private HttpClientProvider() {}
+
+    public static synchronized OkHttpClient getInstance() {
+        if (instance == null) {
+            instance = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .connectTimeout(15, TimeUnit.SECONDS)
+                    // Image bodies on slow mobile links
+                    .writeTimeout(60, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .retryOnConnectionFailure(true)
+                    .build();
+        }
+        return instance;
+    }
+
+    /**
+     * Lets the dispatcher run {@code uploads} requests to one host at once. All Cloudinary uploads share a host,
+     * so the default per-host limit would otherwise cap UploadScheduler's concurrency.
+     */
+    public static synchronized void setMaxConcurrentUploads(int uploads) {
+        Dispatcher dispatcher = getInstance().dispatcher();
+        int perHost = Math.max(DEFAULT_MAX_REQUESTS_PER_HOST, uploads);
+        dispatcher.setMaxRequests(Math.max(DEFAULT_MAX_REQUESTS, perHost));
+        dispatcher.setMaxRequestsPerHost(perHost);
+    }
+}
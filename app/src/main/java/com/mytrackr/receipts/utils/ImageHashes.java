@@ -0,0 +1,91 @@
+package com.mytrackr.receipts.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes of a receipt image for duplicate detection.
+ * The content hash matches only the exact same pixels, e.g. the same gallery photo picked again. The difference
+ * hash (dHash) survives re-encoding, small scale changes and slight exposure shifts, so it also matches the same
+ * photo saved through another app; a re-shot receipt usually lands a few bits away.
+ */
+public final class ImageHashes {
+    // dHash samples a 9x8 grid: each bit compares a cell with its right neighbour
+    private static final int DHASH_WIDTH = 9;
+    private static final int DHASH_HEIGHT = 8;
+
+    private ImageHashes() {}
+
+    /**
+     * SHA-256 of the pixels, as lowercase hex.
+     */
+    public static String sha256(Bitmap bitmap) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // Dimensions are part of the content: the same bytes could be laid out in different shapes
+        digest.update(ByteBuffer.allocate(8).putInt(bitmap.getWidth()).putInt(bitmap.getHeight()).array());
+        int width = bitmap.getWidth();
+        int[] row = new int[width];
+        ByteBuffer rowBytes = ByteBuffer.allocate(width * 4);
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            rowBytes.clear();
+            rowBytes.asIntBuffer().put(row);
+            digest.update(rowBytes.array());
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 64-bit difference hash of the image's luminance. Every pixel is averaged into its cell of the 9x8 grid
+     * (a box filter) rather than sampled by a single scaling step, which would alias fine print and let a
+     * slightly different scale flip many bits.
+     */
+    public static long dHash(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        long[] sums = new long[DHASH_WIDTH * DHASH_HEIGHT];
+        int[] counts = new int[DHASH_WIDTH * DHASH_HEIGHT];
+        // Cell column of every pixel column, computed once
+        int[] cellX = new int[width];
+        for (int x = 0; x < width; x++) {
+            cellX[x] = (int) ((long) x * DHASH_WIDTH / width);
+        }
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            int cellRow = (int) ((long) y * DHASH_HEIGHT / height) * DHASH_WIDTH;
+            for (int x = 0; x < width; x++) {
+                sums[cellRow + cellX[x]] += luminance(row[x]);
+                counts[cellRow + cellX[x]]++;
+            }
+        }
+
+        long hash = 0;
+        for (int y = 0; y < DHASH_HEIGHT; y++) {
+            for (int x = 0; x < DHASH_WIDTH - 1; x++) {
+                int left = y * DHASH_WIDTH + x;
+                // Compare the cell means; cells can differ in pixel count by one row or column
+                hash <<= 1;
+                if (sums[left] * counts[left + 1] > sums[left + 1] * counts[left]) hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    private static int luminance(int color) {
+        return (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114) / 1000;
+    }
+}
@@ -0,0 +1,214 @@
+package com.mytrackr.receipts.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Picks the Firebase Storage bucket receipt images are uploaded to.
+ * Projects created before and after the bucket rename serve either {@code <project>.appspot.com} or
+ * {@code <project>.firebasestorage.app}, and google-services.json does not always name the one that exists.
+ * The resolver probes the configured bucket and its alternate once, caches the first that answers for
+ * {@link #TTL_MS} across restarts, and keeps health and latency figures of the resolved bucket.
+ * Thread-safe; callbacks run on the resolver's background thread.
+ */
+public class StorageBucketResolver {
+    private static final String TAG = "StorageBucketResolver";
+    private static final String PREFS_NAME = "storage_bucket";
+    private static final String KEY_BUCKET = "bucket";
+    private static final String KEY_RESOLVED_AT = "resolved_at";
+    private static final String KEY_PROBE_LATENCY_MS = "probe_latency_ms";
+    private static final String KEY_UPLOADS_SUCCEEDED = "uploads_succeeded";
+    private static final String KEY_UPLOADS_FAILED = "uploads_failed";
+    private static final String KEY_LAST_UPLOAD_LATENCY_MS = "last_upload_latency_ms";
+    // A bucket does not move often; re-probing daily still catches a project migration within a day
+    public static final long TTL_MS = 24L * 60 * 60 * 1000;
+
+    private static StorageBucketResolver instance;
+
+    public interface Callback {
+        void onResolved(FirebaseStorage storage);
+    }
+
+    /**
+     * Health and latency of the resolved bucket, for diagnostics.
+     */
+    public static final class Health {
+        public final String bucket;
+        public final long resolvedAt;
+        public final long probeLatencyMs;
+        public final long uploadsSucceeded;
+        public final long uploadsFailed;
+        public final long lastUploadLatencyMs;
+
+        Health(String bucket, long resolvedAt, long probeLatencyMs, long uploadsSucceeded, long uploadsFailed, long lastUploadLatencyMs) {
+            this.bucket = bucket;
+            this.resolvedAt = resolvedAt;
+            this.probeLatencyMs = probeLatencyMs;
+            this.uploadsSucceeded = uploadsSucceeded;
+            this.uploadsFailed = uploadsFailed;
+            this.lastUploadLatencyMs = lastUploadLatencyMs;
+        }
+    }
+
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Object lock = new Object();
+    // Callers waiting for the probe in flight; null while none runs
+    private List<Callback> waiting;
+
+    private StorageBucketResolver(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized StorageBucketResolver getInstance(Context context) {
+        if (instance == null) {
+            instance = new StorageBucketResolver(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Deliver the storage of the working bucket: immediately from the cache, otherwise after one probe shared by
+     * all callers. Falls back to the configured bucket when no candidate answers, so uploads still report the
+     * real error.
+     */
+    public void resolve(Callback callback) {
+        String cached = getCachedBucket();
+        if (cached != null) {
+            executor.execute(() -> callback.onResolved(FirebaseStorage.getInstance("gs://" + cached)));
+            return;
+        }
+        synchronized (lock) {
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+        }
+        executor.execute(() -> probe(candidates(), 0));
+    }
+
+    /**
+     * Forget the cached bucket, e.g. after an upload to it failed with "bucket not found".
+     */
+    public void invalidate() {
+        prefs.edit().remove(KEY_BUCKET).remove(KEY_RESOLVED_AT).apply();
+    }
+
+    /**
+     * Record the outcome of an upload to the resolved bucket.
+     */
+    public synchronized void recordUpload(boolean succeeded, long latencyMs) {
+        SharedPreferences.Editor editor = prefs.edit();
+        if (succeeded) {
+            editor.putLong(KEY_UPLOADS_SUCCEEDED, prefs.getLong(KEY_UPLOADS_SUCCEEDED, 0L) + 1)
+                    .putLong(KEY_LAST_UPLOAD_LATENCY_MS, latencyMs);
+        } else {
+            editor.putLong(KEY_UPLOADS_FAILED, prefs.getLong(KEY_UPLOADS_FAILED, 0L) + 1);
+        }
+        editor.apply();
+    }
+
+    public Health getHealth() {
+        return new Health(prefs.getString(KEY_BUCKET, null), prefs.getLong(KEY_RESOLVED_AT, 0L),
+                prefs.getLong(KEY_PROBE_LATENCY_MS, 0L), prefs.getLong(KEY_UPLOADS_SUCCEEDED, 0L),
+                prefs.getLong(KEY_UPLOADS_FAILED, 0L), prefs.getLong(KEY_LAST_UPLOAD_LATENCY_MS, 0L));
+    }
+
+    /**
+     * True if an upload failed because its bucket does not exist. The SDK reports every HTTP 404 as
+     * {@link StorageException#ERROR_OBJECT_NOT_FOUND}; an upload creates its object, so a 404 can only mean the
+     * bucket is gone.
+     */
+    public static boolean isBucketNotFound(Exception e) {
+        if (!(e instanceof StorageException)) return false;
+        int code = ((StorageException) e).getErrorCode();
+        return code == StorageException.ERROR_OBJECT_NOT_FOUND || code == StorageException.ERROR_BUCKET_NOT_FOUND;
+    }
+
+    private String getCachedBucket() {
+        String bucket = prefs.getString(KEY_BUCKET, null);
+        long resolvedAt = prefs.getLong(KEY_RESOLVED_AT, 0L);
+        if (bucket == null || System.currentTimeMillis() - resolvedAt > TTL_MS) return null;
+        return bucket;
+    }
+
+    // Configured bucket first, then its counterpart under the other domain
+    private static List<String> candidates() {
+        List<String> candidates = new ArrayList<>(2);
+        String configured = null;
+        try {
+            configured = FirebaseApp.getInstance().getOptions().getStorageBucket();
+        } catch (Exception e) {
+            Log.d(TAG, "Failed to read configured bucket", e);
+        }
+        if (configured == null || configured.isEmpty()) return candidates;
+        candidates.add(configured);
+        if (configured.endsWith(".firebasestorage.app")) {
+            candidates.add(configured.replace(".firebasestorage.app", ".appspot.com"));
+        } else if (configured.endsWith(".appspot.com")) {
+            candidates.add(configured.replace(".appspot.com", ".firebasestorage.app"));
+        }
+        return candidates;
+    }
+
+    private void probe(List<String> candidates, int index) {
+        if (index >= candidates.size()) {
+            Log.w(TAG, "No storage bucket answered, using the configured default");
+            deliver(FirebaseStorage.getInstance());
+            return;
+        }
+        String bucket = candidates.get(index);
+        long start = SystemClock.elapsedRealtime();
+        FirebaseStorage storage;
+        try {
+            storage = FirebaseStorage.getInstance("gs://" + bucket);
+        } catch (Exception e) {
+            Log.d(TAG, "Invalid bucket " + bucket, e);
+            probe(candidates, index + 1);
+            return;
+        }
+        // Listing the root answers 404 only when the bucket is missing; success or 403 means it exists
+        storage.getReference().list(1).addOnCompleteListener(executor, task -> {
+            long latency = SystemClock.elapsedRealtime() - start;
+            Exception e = task.getException();
+            boolean exists = e == null || (e instanceof StorageException
+                    && ((StorageException) e).getErrorCode() == StorageException.ERROR_NOT_AUTHORIZED);
+            Log.d(TAG, "Probed gs://" + bucket + " in " + latency + " ms: " + (exists ? "ok" : "unavailable"));
+            if (!exists) {
+                probe(candidates, index + 1);
+                return;
+            }
+            prefs.edit()
+                    .putString(KEY_BUCKET, bucket)
+                    .putLong(KEY_RESOLVED_AT, System.currentTimeMillis())
+                    .putLong(KEY_PROBE_LATENCY_MS, latency)
+                    .apply();
+            deliver(storage);
+        });
+    }
+
+    private void deliver(FirebaseStorage storage) {
+        List<Callback> callbacks;
+        synchronized (lock) {
+            callbacks = waiting;
+            waiting = null;
+        }
+        if (callbacks == null) return;
+        for (Callback callback : callbacks) {
+            callback.onResolved(storage);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.mytrackr.receipts.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+public class SyncPreferences {
+    private static final String PREFS_NAME = "sync_preferences";
+
+    // Tracks users/{uid}/receiptSummaries; the key changed when sync moved off the full receipt documents,
+    // so devices upgrading start with a fresh full sync
+    private static final String KEY_RECEIPTS_WATERMARK_PREFIX = "receipt_summaries_watermark_";
+    // Tracks users/{uid}/receiptSearch, which syncs separately into the same local store
+    private static final String KEY_SEARCH_WATERMARK_PREFIX = "receipt_search_watermark_";
+    // Set once the user's inline OCR texts have been moved to compressed blobs
+    private static final String KEY_OCR_BLOBS_MIGRATED_PREFIX = "ocr_blobs_migrated_";
+
+    private final SharedPreferences prefs;
+
+    public SyncPreferences(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Server time (epoch millis) of the newest receipt change already merged into the local store
+     * @param userId Firebase user id the watermark belongs to
+     * @return Watermark, or 0 if the user has never been fully synced on this device
+     */
+    public long getReceiptsWatermark(String userId) {
+        return prefs.getLong(KEY_RECEIPTS_WATERMARK_PREFIX + userId, 0L);
+    }
+
+    public void setReceiptsWatermark(String userId, long watermark) {
+        prefs.edit().putLong(KEY_RECEIPTS_WATERMARK_PREFIX + userId, watermark).apply();
+    }
+
+    public void clearReceiptsWatermark(String userId) {
+        prefs.edit().remove(KEY_RECEIPTS_WATERMARK_PREFIX + userId).remove(KEY_SEARCH_WATERMARK_PREFIX + userId).apply();
+    }
+
+    /**
+     * Like {@link #getReceiptsWatermark(String)}, for the receipts' search documents
+     */
+    public long getSearchWatermark(String userId) {
+        return prefs.getLong(KEY_SEARCH_WATERMARK_PREFIX + userId, 0L);
+    }
+
+    public void setSearchWatermark(String userId, long watermark) {
+        prefs.edit().putLong(KEY_SEARCH_WATERMARK_PREFIX + userId, watermark).apply();
+    }
+
+    /**
+     * Forget the watermarks of all users, e.g. after the local receipt cache was dropped
+     */
+    public void clearAllReceiptsWatermarks() {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(KEY_RECEIPTS_WATERMARK_PREFIX) || key.startsWith(KEY_SEARCH_WATERMARK_PREFIX)) editor.remove(key);
+        }
+        editor.apply();
+    }
+
+    public boolean isOcrTextMigrated(String userId) {
+        return prefs.getBoolean(KEY_OCR_BLOBS_MIGRATED_PREFIX + userId, false);
+    }
+
+    public void setOcrTextMigrated(String userId) {
+        prefs.edit().putBoolean(KEY_OCR_BLOBS_MIGRATED_PREFIX + userId, true).apply();
+    }
+}
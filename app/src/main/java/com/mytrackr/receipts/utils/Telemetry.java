@@ -0,0 +1,201 @@
+package com.mytrackr.receipts.utils;
+
+import android.os.SystemClock;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process timings of the scan-to-saved and sync stages: latency histograms, bytes, retries and failure reasons per stage.
+ * Kept in memory for the life of the process; shown and exported as JSON by the diagnostics screen.
+ * Thread-safe and cheap enough to record on every call.
+ */
+public final class Telemetry {
+    public static final String STAGE_OCR = "ocr";
+    public static final String STAGE_GEMINI = "gemini";
+    public static final String STAGE_CLOUDINARY_UPLOAD = "cloudinary_upload";
+    public static final String STAGE_STORAGE_UPLOAD = "storage_upload";
+    public static final String STAGE_DOWNLOAD_URL = "download_url";
+    public static final String STAGE_FIRESTORE_WRITE = "firestore_write";
+    // A queued receipt from the start of its upload until its document is written
+    public static final String STAGE_RECEIPT_UPLOAD = "receipt_upload";
+    // Bringing the local receipt summaries up to date: full download (with summary backfill) or delta
+    public static final String STAGE_RECEIPT_SYNC = "receipt_sync";
+    // One page of the move of inline OCR text into blobs
+    public static final String STAGE_OCR_MIGRATION = "ocr_migration";
+    // Full or delta download of the user's transactions
+    public static final String STAGE_TRANSACTION_SYNC = "transaction_sync";
+
+    // Upper bounds (ms) of the histogram buckets; a last bucket takes everything slower
+    private static final long[] BUCKET_BOUNDS_MS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private static Telemetry instance;
+
+    private final Map<String, StageStats> stages = new LinkedHashMap<>();
+    private long startedAt = System.currentTimeMillis();
+
+    /**
+     * One timed execution of a stage. Ends once; later calls are ignored.
+     */
+    public final class Span {
+        private final String stage;
+        private final long start = SystemClock.elapsedRealtime();
+        private boolean ended;
+
+        private Span(String stage) {
+            this.stage = stage;
+        }
+
+        public void succeed() {
+            succeed(0);
+        }
+
+        public void succeed(long bytes) {
+            end(bytes, null);
+        }
+
+        public void fail(Throwable error) {
+            end(0, error != null ? error : new Exception("unknown"));
+        }
+
+        private void end(long bytes, Throwable error) {
+            synchronized (this) {
+                if (ended) return;
+                ended = true;
+            }
+            record(stage, SystemClock.elapsedRealtime() - start, bytes, error);
+        }
+    }
+
+    private static final class StageStats {
+        long count;
+        long failures;
+        long retries;
+        long bytes;
+        long totalMs;
+        long maxMs;
+        final long[] buckets = new long[BUCKET_BOUNDS_MS.length + 1];
+        final Map<String, Long> failureReasons = new HashMap<>();
+    }
+
+    private Telemetry() {}
+
+    public static synchronized Telemetry getInstance() {
+        if (instance == null) {
+            instance = new Telemetry();
+        }
+        return instance;
+    }
+
+    public Span start(String stage) {
+        return new Span(stage);
+    }
+
+    public synchronized void record(String stage, long durationMs, long bytes, Throwable error) {
+        StageStats stats = stats(stage);
+        stats.count++;
+        stats.totalMs += durationMs;
+        stats.maxMs = Math.max(stats.maxMs, durationMs);
+        stats.bytes += Math.max(0, bytes);
+        stats.buckets[bucketOf(durationMs)]++;
+        if (error != null) {
+            stats.failures++;
+            String reason = error.getClass().getSimpleName();
+            stats.failureReasons.put(reason, stats.failureReasons.getOrDefault(reason, 0L) + 1);
+        }
+    }
+
+    public synchronized void recordRetry(String stage) {
+        stats(stage).retries++;
+    }
+
+    public synchronized void reset() {
+        stages.clear();
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Everything recorded since the process started or the last reset. Percentiles are bucket upper bounds.
+     */
+    public synchronized JSONObject toJson() {
+        JSONObject root = new JSONObject();
+        try {
+            root.put("since", startedAt);
+            root.put("exportedAt", System.currentTimeMillis());
+            JSONArray bounds = new JSONArray();
+            for (long bound : BUCKET_BOUNDS_MS) bounds.put(bound);
+            root.put("bucketBoundsMs", bounds);
+
+            JSONObject stagesJson = new JSONObject();
+            for (Map.Entry<String, StageStats> entry : stages.entrySet()) {
+                StageStats stats = entry.getValue();
+                JSONObject stage = new JSONObject();
+                stage.put("count", stats.count);
+                stage.put("failures", stats.failures);
+                stage.put("retries", stats.retries);
+                stage.put("bytes", stats.bytes);
+                stage.put("meanMs", stats.count > 0 ? stats.totalMs / stats.count : 0);
+                stage.put("p50Ms", percentile(stats, 0.5));
+                stage.put("p90Ms", percentile(stats, 0.9));
+                stage.put("maxMs", stats.maxMs);
+                JSONArray histogram = new JSONArray();
+                for (long bucket : stats.buckets) histogram.put(bucket);
+                stage.put("histogram", histogram);
+                stage.put("failureReasons", new JSONObject(new HashMap<>(stats.failureReasons)));
+                stagesJson.put(entry.getKey(), stage);
+            }
+            root.put("stages", stagesJson);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return root;
+    }
+
+    /**
+     * Stage names with data, slowest mean first, so the dominating stage is on top.
+     */
+    public synchronized List<String> stagesByMeanLatency() {
+        List<String> names = new ArrayList<>(stages.keySet());
+        names.sort((a, b) -> Long.compare(mean(stages.get(b)), mean(stages.get(a))));
+        return names;
+    }
+
+    private StageStats stats(String stage) {
+        StageStats stats = stages.get(stage);
+        if (stats == null) {
+            stats = new StageStats();
+            stages.put(stage, stats);
+        }
+        return stats;
+    }
+
+    private static long mean(StageStats stats) {
+        return stats.count > 0 ? stats.totalMs / stats.count : 0;
+    }
+
+    private static int bucketOf(long durationMs) {
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            if (durationMs <= BUCKET_BOUNDS_MS[i]) return i;
+        }
+        return BUCKET_BOUNDS_MS.length;
+    }
+
+    // Upper bound of the bucket holding the percentile; the max for the open-ended last bucket
+    private static long percentile(StageStats stats, double fraction) {
+        if (stats.count == 0) return 0;
+        long rank = (long) Math.ceil(stats.count * fraction);
+        long seen = 0;
+        for (int i = 0; i < stats.buckets.length; i++) {
+            seen += stats.buckets[i];
+            if (seen >= rank) return i < BUCKET_BOUNDS_MS.length ? Math.min(BUCKET_BOUNDS_MS[i], stats.maxMs) : stats.maxMs;
+        }
+        return stats.maxMs;
+    }
+}
@@ -0,0 +1,180 @@
+package com.mytrackr.receipts.utils;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Re-encodes receipt images for upload so each fits a byte budget.
+ * Walks a ladder of long-edge sizes and JPEG qualities, highest first, and keeps the first encoding within budget.
+ * Resolution is given up before quality, and neither goes below what ML Kit and a reader need for small receipt
+ * print; an image that cannot reach the budget at the last rung is uploaded at that rung anyway.
+ * Images already within budget are kept byte for byte. Must be called off the main thread.
+ */
+public final class UploadImageEncoder {
+    private static final String TAG = "UploadImageEncoder";
+
+    public static final int DEFAULT_BYTE_BUDGET = 250 * 1024;
+
+    // Long edge in px. 1600 matches what the scan screen produces; thermal print stays legible down to about 1024.
+    private static final int[] MAX_DIMENSIONS = {1600, 1400, 1200, 1024};
+    // Below ~60 JPEG ringing starts to merge thin glyph strokes
+    private static final int[] QUALITIES = {85, 75, 65, 60};
+
+    public static final class Result {
+        public final long originalBytes;
+        public final long encodedBytes;
+        public final int width;
+        public final int height;
+        // 0 when the original was kept
+        public final int quality;
+
+        Result(long originalBytes, long encodedBytes, int width, int height, int quality) {
+            this.originalBytes = originalBytes;
+            this.encodedBytes = encodedBytes;
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+        }
+
+        public boolean isOriginal() {
+            return quality == 0;
+        }
+
+        public long getBytesSaved() {
+            return Math.max(0, originalBytes - encodedBytes);
+        }
+    }
+
+    private UploadImageEncoder() {}
+
+    /**
+     * Write the image at {@code source} to {@code target} as a JPEG of at most {@code byteBudget} bytes where possible.
+     * @throws IOException If the image cannot be read or decoded, or the target cannot be written
+     */
+    public static Result encode(Context context, Uri source, File target, int byteBudget) throws IOException {
+        long originalBytes = sizeOf(context, source);
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(context, source)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Not a decodable image: " + source);
+        }
+        int orientation = ExifOrientation.read(context, source);
+
+        boolean uprightJpeg = "image/jpeg".equals(bounds.outMimeType) && ExifOrientation.isUpright(orientation);
+        if (uprightJpeg && originalBytes > 0 && originalBytes <= byteBudget) {
+            copy(context, source, target);
+            return new Result(originalBytes, originalBytes, bounds.outWidth, bounds.outHeight, 0);
+        }
+
+        Bitmap decoded = decode(context, source, bounds, MAX_DIMENSIONS[0]);
+        Bitmap oriented = applyOrientation(decoded, orientation);
+        if (oriented != decoded) decoded.recycle();
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(byteBudget);
+        Bitmap rung = null;
+        int quality = 0;
+        try {
+            ladder:
+            for (int maxDim : MAX_DIMENSIONS) {
+                if (rung != null && rung != oriented) rung.recycle();
+                rung = scaleToMaxDim(oriented, maxDim);
+                for (int q : QUALITIES) {
+                    buffer.reset();
+                    rung.compress(Bitmap.CompressFormat.JPEG, q, buffer);
+                    quality = q;
+                    if (buffer.size() <= byteBudget) break ladder;
+                }
+            }
+            // Never upload a re-encode bigger than an original JPEG of the same orientation
+            if (uprightJpeg && originalBytes > 0 && buffer.size() >= originalBytes) {
+                copy(context, source, target);
+                return new Result(originalBytes, originalBytes, bounds.outWidth, bounds.outHeight, 0);
+            }
+            try (OutputStream out = new FileOutputStream(target)) {
+                buffer.writeTo(out);
+            }
+            Result result = new Result(originalBytes, buffer.size(), rung.getWidth(), rung.getHeight(), quality);
+            if (buffer.size() > byteBudget) {
+                Log.d(TAG, "Image stays over budget at the last rung: " + buffer.size() + " > " + byteBudget + " bytes");
+            }
+            return result;
+        } finally {
+            if (rung != null && rung != oriented) rung.recycle();
+            oriented.recycle();
+        }
+    }
+
+    // Decodes with the largest power-of-two subsampling that keeps the long edge at or above maxDim
+    private static Bitmap decode(Context context, Uri source, BitmapFactory.Options bounds, int maxDim) throws IOException {
+        int longEdge = Math.max(bounds.outWidth, bounds.outHeight);
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= maxDim) {
+            sampleSize *= 2;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap;
+        try (InputStream in = open(context, source)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (bitmap == null) throw new IOException("Failed to decode " + source);
+        return bitmap;
+    }
+
+    private static Bitmap scaleToMaxDim(Bitmap src, int maxDim) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        int max = Math.max(w, h);
+        if (max <= maxDim) return src;
+        float scale = (float) maxDim / (float) max;
+        return Bitmap.createScaledBitmap(src, Math.max(1, Math.round(w * scale)), Math.max(1, Math.round(h * scale)), true);
+    }
+
+    // Re-encoding drops EXIF, so a rotated camera or gallery image has to be turned upright first
+    private static Bitmap applyOrientation(Bitmap src, int orientation) {
+        Matrix matrix = new Matrix();
+        if (!ExifOrientation.postApply(matrix, orientation)) return src;
+        return Bitmap.createBitmap(src, 0, 0, src.getWidth(), src.getHeight(), matrix, true);
+    }
+
+    private static long sizeOf(Context context, Uri source) {
+        try (AssetFileDescriptor fd = context.getContentResolver().openAssetFileDescriptor(source, "r")) {
+            return fd != null ? fd.getLength() : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static InputStream open(Context context, Uri source) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(source);
+        if (in == null) throw new IOException("Could not open " + source);
+        return in;
+    }
+
+    private static void copy(Context context, Uri source, File target) throws IOException {
+        try (InputStream in = open(context, source);
+             OutputStream out = new FileOutputStream(target)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        }
+    }
+}
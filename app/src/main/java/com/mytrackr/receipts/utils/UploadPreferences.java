@@ -0,0 +1,74 @@
+package com.mytrackr.receipts.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.mytrackr.receipts.services.UploadScheduler;
+
+public class UploadPreferences {
+    private static final String PREFS_NAME = "upload_preferences";
+
+    private static final String KEY_IMAGE_BYTE_BUDGET = "image_byte_budget";
+    private static final String KEY_MAX_CONCURRENT_UPLOADS = "max_concurrent_uploads";
+    // Running totals of receipt images queued for upload, before and after UploadImageEncoder
+    private static final String KEY_IMAGES_ENCODED = "images_encoded";
+    private static final String KEY_ORIGINAL_BYTES = "original_bytes";
+    private static final String KEY_UPLOAD_BYTES = "upload_bytes";
+
+    private final SharedPreferences prefs;
+
+    public UploadPreferences(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Target size of an uploaded receipt image in bytes
+     */
+    public int getImageByteBudget() {
+        return prefs.getInt(KEY_IMAGE_BYTE_BUDGET, UploadImageEncoder.DEFAULT_BYTE_BUDGET);
+    }
+
+    public void setImageByteBudget(int bytes) {
+        prefs.edit().putInt(KEY_IMAGE_BYTE_BUDGET, bytes).apply();
+    }
+
+    /**
+     * Receipts the outbox uploads at the same time
+     */
+    public int getMaxConcurrentUploads() {
+        return Math.max(1, prefs.getInt(KEY_MAX_CONCURRENT_UPLOADS, UploadScheduler.DEFAULT_MAX_CONCURRENT));
+    }
+
+    public void setMaxConcurrentUploads(int uploads) {
+        prefs.edit().putInt(KEY_MAX_CONCURRENT_UPLOADS, uploads).apply();
+    }
+
+    /**
+     * @param originalBytes Size of the picked or scanned image, negative if the provider did not report it
+     */
+    public synchronized void recordEncodedImage(long originalBytes, long uploadBytes) {
+        // Without the original size nothing can be said about the saving
+        if (originalBytes < 0) return;
+        prefs.edit()
+                .putLong(KEY_IMAGES_ENCODED, getImagesEncoded() + 1)
+                .putLong(KEY_ORIGINAL_BYTES, getOriginalBytes() + originalBytes)
+                .putLong(KEY_UPLOAD_BYTES, getUploadBytes() + uploadBytes)
+                .apply();
+    }
+
+    public long getImagesEncoded() {
+        return prefs.getLong(KEY_IMAGES_ENCODED, 0L);
+    }
+
+    public long getOriginalBytes() {
+        return prefs.getLong(KEY_ORIGINAL_BYTES, 0L);
+    }
+
+    public long getUploadBytes() {
+        return prefs.getLong(KEY_UPLOAD_BYTES, 0L);
+    }
+
+    public long getBytesSaved() {
+        return Math.max(0, getOriginalBytes() - getUploadBytes());
+    }
+}
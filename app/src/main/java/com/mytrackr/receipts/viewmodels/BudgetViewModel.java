@@ -1,18 +1,25 @@
 package com.mytrackr.receipts.viewmodels;
 
+import android.content.Context;
 import android.util.Log;
 
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
 import androidx.lifecycle.ViewModel;
 
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.mytrackr.receipts.data.model.Budget;
+import com.mytrackr.receipts.data.model.MonthlyRollup;
 import com.mytrackr.receipts.data.model.Transaction;
 import com.mytrackr.receipts.data.models.Receipt;
 import com.mytrackr.receipts.data.repository.BudgetRepository;
 import com.mytrackr.receipts.data.repository.ReceiptRepository;
+import com.mytrackr.receipts.data.repository.ReceiptStore;
+import com.mytrackr.receipts.data.repository.RollupRepository;
 import com.mytrackr.receipts.data.repository.TransactionRepository;
 
 import java.text.SimpleDateFormat;
@@ -20,16 +27,19 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class BudgetViewModel extends ViewModel {
     private static final String TAG = "BudgetViewModel";
     private final BudgetRepository budgetRepository;
     private final TransactionRepository transactionRepository;
-    private final ReceiptRepository receiptRepository;
+    private final RollupRepository rollupRepository;
     private final MutableLiveData<Budget> budgetLiveData = new MutableLiveData<>();
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
     private final MutableLiveData<Boolean> saveSuccessLiveData = new MutableLiveData<>();
-    private final MutableLiveData<List<Transaction>> transactionsLiveData = new MutableLiveData<>();
+    private final MediatorLiveData<List<Transaction>> transactionsLiveData = new MediatorLiveData<>();
+    // Live recent-transactions query currently feeding transactionsLiveData, if any
+    private LiveData<List<Transaction>> recentTransactionsSource;
     private final MutableLiveData<Integer> receiptCountLiveData = new MutableLiveData<>();
     private final MutableLiveData<Integer> manualTransactionCountLiveData = new MutableLiveData<>();
     private final MutableLiveData<Double> averageExpenseLiveData = new MutableLiveData<>();
@@ -42,7 +52,7 @@ public class BudgetViewModel extends ViewModel {
     public BudgetViewModel() {
         budgetRepository = BudgetRepository.getInstance();
         transactionRepository = TransactionRepository.getInstance();
-        receiptRepository = new ReceiptRepository();
+        rollupRepository = RollupRepository.getInstance();
     }
 
     public MutableLiveData<Budget> getBudgetLiveData() {
@@ -188,6 +198,42 @@ public class BudgetViewModel extends ViewModel {
             return;
         }
 
+        // One document read when the month's rollup is complete; otherwise scan the month once and backfill it
+        String monthKey = RollupRepository.monthKey(Integer.parseInt(year), getMonthNumber(month));
+        rollupRepository.getRollup(monthKey, new RollupRepository.RollupCallback() {
+            @Override
+            public void onRollupLoaded(MonthlyRollup rollup) {
+                if (rollup != null && rollup.isComplete()) {
+                    Log.d(TAG, "Using rollup " + monthKey + ": receipts $" + rollup.getReceiptTotal() + " (" + rollup.getReceiptCount() + ")" +
+                            ", manual $" + rollup.getManualTotal() + " (" + rollup.getManualCount() + ")");
+                    applySpending(month, year, rollup.getReceiptTotal(), (int) rollup.getReceiptCount(),
+                            rollup.getManualTotal(), (int) rollup.getManualCount());
+                    isSyncing = false;
+                    syncInProgressLiveData.postValue(false);
+                } else {
+                    scanMonthReceipts(month, year, monthKey, rollup != null ? rollup.getVersion() : RollupRepository.NO_ROLLUP);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.w(TAG, "Failed to read rollup " + monthKey + ", scanning the month instead", e);
+                // Without the version the scan cannot be written back safely
+                scanMonthReceipts(month, year, monthKey, null);
+            }
+        });
+    }
+
+    // rollupVersion: version of the rollup document read before the scan, null if it could not be read
+    private void scanMonthReceipts(String month, String year, String monthKey, Long rollupVersion) {
+        FirebaseAuth auth = FirebaseAuth.getInstance();
+        if (auth.getCurrentUser() == null) {
+            Log.w(TAG, "User not authenticated, cannot sync receipts");
+            isSyncing = false;
+            syncInProgressLiveData.postValue(false);
+            return;
+        }
+
         String userId = auth.getCurrentUser().getUid();
         FirebaseFirestore db = FirebaseFirestore.getInstance();
 
@@ -210,21 +256,27 @@ public class BudgetViewModel extends ViewModel {
 
         db.collection("users")
                 .document(userId)
-                .collection("receipts")
-                .whereGreaterThanOrEqualTo("receipt.receiptDateTimestamp", monthStart)
-                .whereLessThan("receipt.receiptDateTimestamp", monthEnd)
+                .collection(ReceiptRepository.SUMMARIES_COLLECTION)
+                .whereGreaterThanOrEqualTo("receiptDateTimestamp", monthStart)
+                .whereLessThan("receiptDateTimestamp", monthEnd)
                 .get()
                 .addOnSuccessListener(querySnapshot -> {
                     double totalSpent = 0.0;
                     int receiptCount = 0;
+                    // Totals for the rollup backfill
+                    MonthlyRollup rollup = new MonthlyRollup();
 
                     for (QueryDocumentSnapshot document : querySnapshot) {
-                        Receipt receipt = ReceiptRepository.parseReceiptFromDocument(document);
+                        Receipt receipt = ReceiptRepository.parseSummaryFromDocument(document);
                         if (receipt != null && receipt.getReceipt() != null) {
                             double total = receipt.getReceipt().getTotal();
                             if (total > 0) {
                                 totalSpent += total;
                                 receiptCount++;
+                                rollup.setTax(rollup.getTax() + receipt.getReceipt().getTax());
+                                for (Map.Entry<String, Double> entry : RollupRepository.categoryAmounts(receipt).entrySet()) {
+                                    rollup.getCategories().merge(entry.getKey(), entry.getValue(), Double::sum);
+                                }
                                 Log.d(TAG, "Found receipt: " + receipt.getId() +
                                         " with total: $" + total +
                                         " from store: " + (receipt.getStore() != null && receipt.getStore().getName() != null
@@ -235,7 +287,9 @@ public class BudgetViewModel extends ViewModel {
 
                     Log.d(TAG, "Total receipts found: " + receiptCount + ", Total from receipts: $" + totalSpent);
 
-                    syncManualTransactions(month, year, totalSpent, receiptCount);
+                    rollup.setReceiptTotal(totalSpent);
+                    rollup.setReceiptCount(receiptCount);
+                    syncManualTransactions(month, year, monthKey, rollup, rollupVersion);
                 })
                 .addOnFailureListener(e -> {
                     Log.e(TAG, "Error syncing receipts with budget", e);
@@ -245,7 +299,9 @@ public class BudgetViewModel extends ViewModel {
                 });
     }
 
-    private void syncManualTransactions(String month, String year, double receiptTotal, int receiptCount) {
+    private void syncManualTransactions(String month, String year, String monthKey, MonthlyRollup rollup, Long rollupVersion) {
+        double receiptTotal = rollup.getReceiptTotal();
+        int receiptCount = (int) rollup.getReceiptCount();
         FirebaseAuth auth = FirebaseAuth.getInstance();
         if (auth.getCurrentUser() == null) {
             Log.w(TAG, "User not authenticated, cannot sync transactions");
@@ -276,28 +332,18 @@ public class BudgetViewModel extends ViewModel {
                         }
                     }
 
-                    double totalSpent = receiptTotal + manualExpenses;
-                    int totalCount = receiptCount + transactionCount;
-
                     Log.d(TAG, "Manual transactions: " + transactionCount + ", Total: $" + manualExpenses);
-                    Log.d(TAG, "Combined total spent: $" + totalSpent + " (Receipts: $" + receiptTotal + " + Manual: $" + manualExpenses + ")");
-
-                    receiptCountLiveData.postValue(receiptCount);
-                    manualTransactionCountLiveData.postValue(transactionCount);
-
-                    double average = totalCount > 0 ? totalSpent / totalCount : 0.0;
-                    averageExpenseLiveData.postValue(average);
-
-                    Budget currentBudget = budgetLiveData.getValue();
-                    if (currentBudget != null) {
-                        if (Math.abs(currentBudget.getSpent() - totalSpent) > 0.01) {
-                            updateBudget(currentBudget.getAmount(), month, year, totalSpent);
-                            Log.d(TAG, "Synced budget spent amount: $" + currentBudget.getSpent() + " -> $" + totalSpent);
-                        } else {
-                            Log.d(TAG, "Budget spent amount unchanged: $" + totalSpent);
-                        }
-                    } else {
-                        Log.d(TAG, "No budget exists yet, synced spent amount: $" + totalSpent);
+                    applySpending(month, year, receiptTotal, receiptCount, manualExpenses, transactionCount);
+
+                    rollup.setManualTotal(manualExpenses);
+                    rollup.setManualCount(transactionCount);
+                    rollup.setTotal(receiptTotal + manualExpenses);
+                    rollup.setCount(receiptCount + transactionCount);
+                    if (manualExpenses > 0) {
+                        rollup.getCategories().merge("Other", manualExpenses, Double::sum);
+                    }
+                    if (rollupVersion != null) {
+                        rollupRepository.backfillRollup(monthKey, rollup, rollupVersion);
                     }
 
                     isSyncing = false;
@@ -314,6 +360,32 @@ public class BudgetViewModel extends ViewModel {
                 });
     }
 
+    // Publish the month's counts and average, and bring the budget's spent amount in line with them
+    private void applySpending(String month, String year, double receiptTotal, int receiptCount, double manualExpenses, int transactionCount) {
+        double totalSpent = receiptTotal + manualExpenses;
+        int totalCount = receiptCount + transactionCount;
+
+        Log.d(TAG, "Combined total spent: $" + totalSpent + " (Receipts: $" + receiptTotal + " + Manual: $" + manualExpenses + ")");
+
+        receiptCountLiveData.postValue(receiptCount);
+        manualTransactionCountLiveData.postValue(transactionCount);
+
+        double average = totalCount > 0 ? totalSpent / totalCount : 0.0;
+        averageExpenseLiveData.postValue(average);
+
+        Budget currentBudget = budgetLiveData.getValue();
+        if (currentBudget != null) {
+            if (Math.abs(currentBudget.getSpent() - totalSpent) > 0.01) {
+                updateBudget(currentBudget.getAmount(), month, year, totalSpent);
+                Log.d(TAG, "Synced budget spent amount: $" + currentBudget.getSpent() + " -> $" + totalSpent);
+            } else {
+                Log.d(TAG, "Budget spent amount unchanged: $" + totalSpent);
+            }
+        } else {
+            Log.d(TAG, "No budget exists yet, synced spent amount: $" + totalSpent);
+        }
+    }
+
     private int getMonthNumber(String monthName) {
         try {
             SimpleDateFormat sdf = new SimpleDateFormat("MMMM", Locale.ENGLISH);
@@ -330,10 +402,27 @@ public class BudgetViewModel extends ViewModel {
         Calendar calendar = Calendar.getInstance();
         String month = new SimpleDateFormat("MMMM", Locale.ENGLISH).format(calendar.getTime());
         String year = String.valueOf(calendar.get(Calendar.YEAR));
-        transactionRepository.getRecentTransactions(month, year, 50, transactionsLiveData, errorMessage);
+        detachRecentTransactions();
+        recentTransactionsSource = transactionRepository.getRecentTransactions(month, year, 50, errorMessage);
+        transactionsLiveData.addSource(recentTransactionsSource, transactionsLiveData::setValue);
+    }
+
+    // Stop following the live query, e.g. before showing a different month
+    private void detachRecentTransactions() {
+        if (recentTransactionsSource != null) {
+            transactionsLiveData.removeSource(recentTransactionsSource);
+            recentTransactionsSource = null;
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        detachRecentTransactions();
     }
 
     public void loadTransactionsForMonth(String month, String year) {
+        detachRecentTransactions();
         // Calculate month start and end timestamps
         Calendar calendar = Calendar.getInstance();
         calendar.set(Calendar.YEAR, Integer.parseInt(year));
@@ -348,42 +437,20 @@ public class BudgetViewModel extends ViewModel {
         calendar.add(Calendar.MONTH, 1);
         long monthEnd = calendar.getTimeInMillis();
         
-        com.google.firebase.auth.FirebaseAuth auth = com.google.firebase.auth.FirebaseAuth.getInstance();
-        if (auth.getCurrentUser() == null) {
-            errorMessage.postValue("User not authenticated");
-            return;
-        }
-        
-        String userId = auth.getCurrentUser().getUid();
-        com.google.firebase.firestore.FirebaseFirestore db = com.google.firebase.firestore.FirebaseFirestore.getInstance();
-        
-        // Query transactions by timestamp instead of month/year strings
-        db.collection("users")
-                .document(userId)
-                .collection("transactions")
-                .whereGreaterThanOrEqualTo("timestamp", monthStart)
-                .whereLessThan("timestamp", monthEnd)
-                .get()
-                .addOnSuccessListener(querySnapshot -> {
-                    List<com.mytrackr.receipts.data.model.Transaction> transactions = new ArrayList<>();
-                    for (com.google.firebase.firestore.QueryDocumentSnapshot document : querySnapshot) {
-                        try {
-                            com.mytrackr.receipts.data.model.Transaction transaction = document.toObject(com.mytrackr.receipts.data.model.Transaction.class);
-                            transaction.setId(document.getId());
-                            if (transaction.isExpense()) {
-                                transactions.add(transaction);
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error parsing transaction", e);
-                        }
-                    }
-                    transactionsLiveData.postValue(transactions);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error loading transactions for month", e);
-                    transactionsLiveData.postValue(new ArrayList<>());
-                    errorMessage.postValue("Failed to load transactions: " + e.getMessage());
-                });
+        // Only the month's expenses are read; income never reaches this list
+        transactionRepository.fetchExpensesInRange(monthStart, monthEnd, new TransactionRepository.TransactionsCallback() {
+            @Override
+            public void onTransactionsLoaded(List<Transaction> transactions) {
+                transactionsLiveData.postValue(transactions);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.e(TAG, "Error loading transactions for month", e);
+                transactionsLiveData.postValue(new ArrayList<>());
+                errorMessage.postValue("Failed to load transactions: " + e.getMessage());
+            }
+        });
     }
 
     public void loadCurrentMonthReceipts(MutableLiveData<List<com.mytrackr.receipts.data.models.Receipt>> receiptsLiveData) {
@@ -412,14 +479,14 @@ public class BudgetViewModel extends ViewModel {
 
         db.collection("users")
                 .document(userId)
-                .collection("receipts")
-                .whereGreaterThanOrEqualTo("receipt.receiptDateTimestamp", monthStart)
-                .whereLessThan("receipt.receiptDateTimestamp", monthEnd)
+                .collection(ReceiptRepository.SUMMARIES_COLLECTION)
+                .whereGreaterThanOrEqualTo("receiptDateTimestamp", monthStart)
+                .whereLessThan("receiptDateTimestamp", monthEnd)
                 .get()
                 .addOnSuccessListener(querySnapshot -> {
                     List<com.mytrackr.receipts.data.models.Receipt> receipts = new ArrayList<>();
                     for (com.google.firebase.firestore.QueryDocumentSnapshot document : querySnapshot) {
-                        com.mytrackr.receipts.data.models.Receipt receipt = ReceiptRepository.parseReceiptFromDocument(document);
+                        com.mytrackr.receipts.data.models.Receipt receipt = ReceiptRepository.parseSummaryFromDocument(document);
                         if (receipt != null && receipt.getReceipt() != null && receipt.getReceipt().getTotal() > 0) {
                             receipt.setId(document.getId());
                             receipts.add(receipt);
@@ -457,17 +524,17 @@ public class BudgetViewModel extends ViewModel {
         String userId = auth.getCurrentUser().getUid();
         com.google.firebase.firestore.FirebaseFirestore db = com.google.firebase.firestore.FirebaseFirestore.getInstance();
 
-        // Query by receiptDateTimestamp only (original receipt date, not upload time)
+        // Query summaries by receiptDateTimestamp only (original receipt date, not upload time)
         db.collection("users")
                 .document(userId)
-                .collection("receipts")
-                .whereGreaterThanOrEqualTo("receipt.receiptDateTimestamp", monthStart)
-                .whereLessThan("receipt.receiptDateTimestamp", monthEnd)
+                .collection(ReceiptRepository.SUMMARIES_COLLECTION)
+                .whereGreaterThanOrEqualTo("receiptDateTimestamp", monthStart)
+                .whereLessThan("receiptDateTimestamp", monthEnd)
                 .get()
                 .addOnSuccessListener(querySnapshot -> {
                     List<com.mytrackr.receipts.data.models.Receipt> receipts = new ArrayList<>();
                     for (com.google.firebase.firestore.QueryDocumentSnapshot document : querySnapshot) {
-                        com.mytrackr.receipts.data.models.Receipt receipt = ReceiptRepository.parseReceiptFromDocument(document);
+                        com.mytrackr.receipts.data.models.Receipt receipt = ReceiptRepository.parseSummaryFromDocument(document);
                         if (receipt != null && receipt.getReceipt() != null && receipt.getReceipt().getTotal() > 0) {
                             receipt.setId(document.getId());
                             receipts.add(receipt);
@@ -548,109 +615,53 @@ public class BudgetViewModel extends ViewModel {
         }, 300);
     }
 
-    public void loadCurrentYearTransactions() {
-        Calendar calendar = Calendar.getInstance();
-        int currentYear = calendar.get(Calendar.YEAR);
-        
-        calendar.set(Calendar.YEAR, currentYear);
-        calendar.set(Calendar.MONTH, Calendar.JANUARY);
-        calendar.set(Calendar.DAY_OF_MONTH, 1);
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
-        long yearStart = calendar.getTimeInMillis();
-        
-        calendar.set(Calendar.YEAR, currentYear + 1);
-        calendar.set(Calendar.MONTH, Calendar.JANUARY);
-        calendar.set(Calendar.DAY_OF_MONTH, 1);
-        long yearEnd = calendar.getTimeInMillis();
-        
-        FirebaseAuth auth = FirebaseAuth.getInstance();
-        if (auth.getCurrentUser() == null) {
-            errorMessage.postValue("User not authenticated");
-            return;
-        }
-        
-        String userId = auth.getCurrentUser().getUid();
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        
-        db.collection("users")
-                .document(userId)
-                .collection("transactions")
-                .whereGreaterThanOrEqualTo("timestamp", yearStart)
-                .whereLessThan("timestamp", yearEnd)
-                .get()
-                .addOnSuccessListener(querySnapshot -> {
-                    List<Transaction> transactions = new ArrayList<>();
-                    for (QueryDocumentSnapshot document : querySnapshot) {
-                        try {
-                            Transaction transaction = document.toObject(Transaction.class);
-                            transaction.setId(document.getId());
-                            if (transaction.isExpense()) {
-                                transactions.add(transaction);
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error parsing transaction", e);
-                        }
-                    }
-                    transactionsLiveData.postValue(transactions);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error loading transactions for year", e);
-                    transactionsLiveData.postValue(new ArrayList<>());
-                    errorMessage.postValue("Failed to load transactions: " + e.getMessage());
-                });
+    /**
+     * This year's expense transactions, derived from the shared ReceiptStore (no query of its own).
+     */
+    public LiveData<List<Transaction>> getCurrentYearTransactions(Context context) {
+        long[] year = currentYearRange();
+        ReceiptStore receiptStore = ReceiptStore.getInstance(context);
+        receiptStore.start();
+        return Transformations.map(receiptStore.getTransactions(), all -> {
+            List<Transaction> transactions = new ArrayList<>();
+            if (all == null) return transactions;
+            for (Transaction transaction : all) {
+                long timestamp = transaction.getTimestamp();
+                if (transaction.isExpense() && timestamp >= year[0] && timestamp < year[1]) {
+                    transactions.add(transaction);
+                }
+            }
+            return transactions;
+        });
     }
 
-    public void loadCurrentYearReceipts(MutableLiveData<List<Receipt>> receiptsLiveData) {
+    /**
+     * This year's receipts with a positive total, derived from the shared ReceiptStore (no query of its own).
+     */
+    public LiveData<List<Receipt>> getCurrentYearReceipts(Context context) {
+        long[] year = currentYearRange();
+        ReceiptStore receiptStore = ReceiptStore.getInstance(context);
+        receiptStore.start();
+        return Transformations.map(receiptStore.getReceiptsInRange(year[0], year[1]), loaded -> {
+            List<Receipt> receipts = new ArrayList<>();
+            if (loaded == null) return receipts;
+            for (Receipt receipt : loaded) {
+                if (receipt.getReceipt() != null && receipt.getReceipt().getTotal() > 0) {
+                    receipts.add(receipt);
+                }
+            }
+            return receipts;
+        });
+    }
+
+    // [start, end) of the current calendar year in epoch millis
+    private static long[] currentYearRange() {
         Calendar calendar = Calendar.getInstance();
         int currentYear = calendar.get(Calendar.YEAR);
-        
-        calendar.set(Calendar.YEAR, currentYear);
-        calendar.set(Calendar.MONTH, Calendar.JANUARY);
-        calendar.set(Calendar.DAY_OF_MONTH, 1);
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.clear();
+        calendar.set(currentYear, Calendar.JANUARY, 1);
         long yearStart = calendar.getTimeInMillis();
-        
-        calendar.set(Calendar.YEAR, currentYear + 1);
-        calendar.set(Calendar.MONTH, Calendar.JANUARY);
-        calendar.set(Calendar.DAY_OF_MONTH, 1);
-        long yearEnd = calendar.getTimeInMillis();
-        
-        FirebaseAuth auth = FirebaseAuth.getInstance();
-        if (auth.getCurrentUser() == null) {
-            errorMessage.postValue("User not authenticated");
-            return;
-        }
-        
-        String userId = auth.getCurrentUser().getUid();
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        
-        db.collection("users")
-                .document(userId)
-                .collection("receipts")
-                .whereGreaterThanOrEqualTo("receipt.receiptDateTimestamp", yearStart)
-                .whereLessThan("receipt.receiptDateTimestamp", yearEnd)
-                .get()
-                .addOnSuccessListener(querySnapshot -> {
-                    List<Receipt> receipts = new ArrayList<>();
-                    for (QueryDocumentSnapshot document : querySnapshot) {
-                        Receipt receipt = ReceiptRepository.parseReceiptFromDocument(document);
-                        if (receipt != null && receipt.getReceipt() != null && receipt.getReceipt().getTotal() > 0) {
-                            receipt.setId(document.getId());
-                            receipts.add(receipt);
-                        }
-                    }
-                    receiptsLiveData.postValue(receipts);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error loading receipts for year", e);
-                    receiptsLiveData.postValue(new ArrayList<>());
-                    errorMessage.postValue("Failed to load receipts: " + e.getMessage());
-                });
+        calendar.set(currentYear + 1, Calendar.JANUARY, 1);
+        return new long[]{yearStart, calendar.getTimeInMillis()};
     }
-}
\ No newline at end of file
+}
@@ -3,17 +3,16 @@ package com.mytrackr.receipts.viewmodels;
 import android.app.Application;
 
 import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.mytrackr.receipts.R;
 import com.mytrackr.receipts.data.model.DetailItem;
 import com.mytrackr.receipts.data.model.Transaction;
 import com.mytrackr.receipts.data.models.Receipt;
 import com.mytrackr.receipts.data.models.ReceiptItem;
-import com.mytrackr.receipts.data.repository.ReceiptRepository;
+import com.mytrackr.receipts.data.repository.ReceiptStore;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -22,17 +21,20 @@ import java.util.List;
 import java.util.Locale;
 
 public class CategoryDetailViewModel extends AndroidViewModel {
-    private final MutableLiveData<List<DetailItem>> detailList = new MutableLiveData<>();
+    private final MediatorLiveData<List<DetailItem>> detailList = new MediatorLiveData<>();
     private final MutableLiveData<Boolean> isLoading = new MutableLiveData<>(false);
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
-    private final ReceiptRepository receiptRepository;
+    private final ReceiptStore receiptStore;
+    private LiveData<List<Receipt>> receiptsSource;
+    private LiveData<List<Transaction>> transactionsSource;
+    private String categoryName;
     private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
     private long startTimeMillis = 0L;
     private long endTimeMillis = 0L;
 
     public CategoryDetailViewModel(Application application) {
         super(application);
-        receiptRepository = ReceiptRepository.getInstance();
+        receiptStore = ReceiptStore.getInstance(application);
     }
 
     public MutableLiveData<List<DetailItem>> getDetailList() {
@@ -54,136 +56,122 @@ public class CategoryDetailViewModel extends AndroidViewModel {
     public void loadData(String categoryName, long startTimeMillis, long endTimeMillis) {
         this.startTimeMillis = startTimeMillis;
         this.endTimeMillis = endTimeMillis;
-        isLoading.setValue(true);
+        this.categoryName = categoryName;
         errorMessage.setValue(null);
 
-        receiptRepository.fetchReceiptsForCurrentUser(task -> {
-            if (task.isSuccessful() && task.getResult() != null) {
-                List<DetailItem> items = new ArrayList<>();
+        // Rebuilt from the shared ReceiptStore whenever it changes; no fetch of its own
+        if (receiptsSource != null) detailList.removeSource(receiptsSource);
+        if (transactionsSource != null) detailList.removeSource(transactionsSource);
+        receiptsSource = "Tax".equalsIgnoreCase(categoryName)
+                ? receiptStore.getReceipts()
+                : receiptStore.getReceiptsForCategory(categoryName);
+        transactionsSource = receiptStore.getTransactions();
+
+        isLoading.setValue(receiptsSource.getValue() == null);
+        detailList.addSource(receiptsSource, receipts -> rebuild());
+        if ("Other".equalsIgnoreCase(categoryName)) {
+            detailList.addSource(transactionsSource, transactions -> rebuild());
+        }
+        receiptStore.start();
+    }
 
-                for (QueryDocumentSnapshot document : task.getResult()) {
-                    try {
-                        Receipt receipt = document.toObject(Receipt.class);
-                        String storeName = getApplication().getString(R.string.unknown_store);
-                        String dateStr = getApplication().getString(R.string.unknown_date);
+    private void rebuild() {
+        List<Receipt> receipts = receiptsSource.getValue();
+        if (receipts == null) return;
+        List<DetailItem> items = buildDetailItems(receipts, categoryName);
+        if ("Other".equalsIgnoreCase(categoryName)) {
+            addManualTransactions(items, transactionsSource.getValue());
+        }
+        detailList.setValue(items);
+        isLoading.setValue(false);
+    }
 
-                        if (receipt.getStore() != null && receipt.getStore().getName() != null) {
-                            storeName = receipt.getStore().getName();
-                        }
+    private List<DetailItem> buildDetailItems(List<Receipt> receipts, String categoryName) {
+        List<DetailItem> items = new ArrayList<>();
 
-                        long timestamp = 0;
-                        if (receipt.getReceipt() != null) {
-                            timestamp = receipt.getReceipt().getReceiptDateTimestamp();
-                            if (timestamp == 0) timestamp = receipt.getReceipt().getDateTimestamp();
+        for (Receipt receipt : receipts) {
+            try {
+                String storeName = getApplication().getString(R.string.unknown_store);
+                String dateStr = getApplication().getString(R.string.unknown_date);
 
-                            if (timestamp > 0) {
-                                dateStr = dateFormat.format(new Date(timestamp));
-                            } else if (receipt.getReceipt().getDate() != null) {
-                                dateStr = receipt.getReceipt().getDate();
-                            }
-                        }
+                if (receipt.getStore() != null && receipt.getStore().getName() != null) {
+                    storeName = receipt.getStore().getName();
+                }
 
-                        boolean inRange = isInRange(timestamp);
-
-                        if (receipt.getItems() != null) {
-                            for (ReceiptItem item : receipt.getItems()) {
-                                String cat = item.getCategory();
-
-                                boolean isMatch = false;
-                                if ("Other".equalsIgnoreCase(categoryName)) {
-                                    isMatch = "Other".equalsIgnoreCase(cat);
-                                } else if (cat != null) {
-                                    isMatch = categoryName.equalsIgnoreCase(cat);
-                                }
-
-                                if (isMatch && inRange) {
-                                    Double price = item.getEffectiveTotalPrice();
-                                    items.add(new DetailItem(
-                                            item.getName(),
-                                            storeName,
-                                            dateStr,
-                                            price != null ? price : 0.0,
-                                            timestamp
-                                    ));
-                                }
-                            }
-                        }
+                long timestamp = 0;
+                if (receipt.getReceipt() != null) {
+                    timestamp = receipt.getReceipt().getReceiptDateTimestamp();
+                    if (timestamp == 0) timestamp = receipt.getReceipt().getDateTimestamp();
+
+                    if (timestamp > 0) {
+                        dateStr = dateFormat.format(new Date(timestamp));
+                    } else if (receipt.getReceipt().getDate() != null) {
+                        dateStr = receipt.getReceipt().getDate();
+                    }
+                }
 
-                        if ("Tax".equalsIgnoreCase(categoryName) && inRange) {
-                            if (receipt.getReceipt() != null && receipt.getReceipt().getTax() > 0) {
-                                items.add(new DetailItem(
-                                        "Tax",
-                                        storeName,
-                                        dateStr,
-                                        receipt.getReceipt().getTax(),
-                                        timestamp
-                                ));
-                            }
+                boolean inRange = isInRange(timestamp);
+
+                if (receipt.getItems() != null) {
+                    for (ReceiptItem item : receipt.getItems()) {
+                        String cat = item.getCategory();
+
+                        boolean isMatch = false;
+                        if ("Other".equalsIgnoreCase(categoryName)) {
+                            isMatch = "Other".equalsIgnoreCase(cat);
+                        } else if (cat != null) {
+                            isMatch = categoryName.equalsIgnoreCase(cat);
                         }
 
-                    } catch (Exception e) {
-                        android.util.Log.e("CategoryDetailViewModel", "Error parsing receipt", e);
+                        if (isMatch && inRange) {
+                            Double price = item.getEffectiveTotalPrice();
+                            items.add(new DetailItem(
+                                    item.getName(),
+                                    storeName,
+                                    dateStr,
+                                    price != null ? price : 0.0,
+                                    timestamp
+                            ));
+                        }
                     }
                 }
 
-                if ("Other".equalsIgnoreCase(categoryName)) {
-                    loadTransactionsAndMerge(items, categoryName);
-                } else {
-                    detailList.postValue(items);
-                    isLoading.postValue(false);
+                if ("Tax".equalsIgnoreCase(categoryName) && inRange) {
+                    if (receipt.getReceipt() != null && receipt.getReceipt().getTax() > 0) {
+                        items.add(new DetailItem(
+                                "Tax",
+                                storeName,
+                                dateStr,
+                                receipt.getReceipt().getTax(),
+                                timestamp
+                        ));
+                    }
                 }
 
-            } else {
-                errorMessage.postValue(getApplication().getString(R.string.failed_to_load_data));
-                isLoading.postValue(false);
+            } catch (Exception e) {
+                android.util.Log.e("CategoryDetailViewModel", "Error parsing receipt", e);
             }
-        });
+        }
+        return items;
     }
 
-    private void loadTransactionsAndMerge(List<DetailItem> items, String categoryName) {
-        String uid = FirebaseAuth.getInstance().getCurrentUser() != null 
-                ? FirebaseAuth.getInstance().getCurrentUser().getUid() 
-                : null;
-        if (uid == null) {
-            detailList.postValue(items);
-            isLoading.postValue(false);
-            return;
+    private void addManualTransactions(List<DetailItem> items, List<Transaction> transactions) {
+        if (transactions == null) return;
+        for (Transaction transaction : transactions) {
+            if (transaction.isExpense()) {
+                long ts = transaction.getTimestamp();
+                if (isInRange(ts)) {
+                    String dateStr = dateFormat.format(new Date(ts));
+                    items.add(new DetailItem(
+                            transaction.getDescription(),
+                            getApplication().getString(R.string.manual_transaction),
+                            dateStr,
+                            transaction.getAmount(),
+                            ts
+                    ));
+                }
+            }
         }
-
-        FirebaseFirestore.getInstance()
-                .collection("users")
-                .document(uid)
-                .collection("transactions")
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
-                        try {
-                            Transaction transaction = doc.toObject(Transaction.class);
-                            if (transaction.isExpense()) {
-                                long ts = transaction.getTimestamp();
-                                if (isInRange(ts)) {
-                                    String dateStr = dateFormat.format(new Date(ts));
-                                    items.add(new DetailItem(
-                                            transaction.getDescription(),
-                                            getApplication().getString(R.string.manual_transaction),
-                                            dateStr,
-                                            transaction.getAmount(),
-                                            ts
-                                    ));
-                                }
-                            }
-                        } catch (Exception e) {
-                            android.util.Log.e("CategoryDetailViewModel", "Transaction Parse error", e);
-                        }
-                    }
-                    detailList.postValue(items);
-                    isLoading.postValue(false);
-                })
-                .addOnFailureListener(e -> {
-                    android.util.Log.e("CategoryDetailViewModel", "Failed to load transactions", e);
-                    detailList.postValue(items);
-                    isLoading.postValue(false);
-                });
     }
 
     private boolean isInRange(long timestamp) {
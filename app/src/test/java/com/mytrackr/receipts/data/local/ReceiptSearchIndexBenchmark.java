@@ -0,0 +1,96 @@
+package com.mytrackr.receipts.data.local;
+
+import com.mytrackr.receipts.data.models.Receipt;
+import com.mytrackr.receipts.data.models.ReceiptItem;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM benchmark for ReceiptSearchIndex over 10k synthetic receipts with item lines and OCR words.
+ * Prints build time and the mean time per query for exact, prefix, multi-word and fuzzy queries, and fails if a
+ * query misses the 10 ms target. Only runs with -Pbenchmarks.
+ */
+public class ReceiptSearchIndexBenchmark {
+    private static final int RECEIPT_COUNT = 10_000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 50;
+    private static final double TARGET_MS = 10;
+
+    private static final String[] STORES = {"Walmart", "Costco", "Loblaws", "Tim Hortons", "Best Buy", "IKEA",
+            "Metro", "Shoppers Drug Mart", "Canadian Tire", "Café Dépôt"};
+    private static final String[] CATEGORIES = {"Groceries", "Meal", "Entertainment", "Travel", "Shopping", "Other"};
+    private static final String[] PRODUCTS = {"Milk", "Bread", "Eggs", "Bananas", "Coffee", "Chicken", "Cheese",
+            "Yogurt", "Apples", "Rice", "Pasta", "Shampoo", "Batteries", "Headphones", "Crêpe", "Bagel", "Donut"};
+    private static final String[] QUERIES = {"walmart", "wal", "costco milk", "groceries bread", "walnart",
+            "banannas", "approved", "shoppers drug", "cafe", "xyzzy"};
+
+    @Test
+    public void benchmark_search10k() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        List<Receipt> receipts = syntheticReceipts(RECEIPT_COUNT, new Random(42));
+
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        long start = System.nanoTime();
+        index.rebuild(receipts);
+        long buildNanos = System.nanoTime() - start;
+        assertEquals(RECEIPT_COUNT, index.size());
+        System.out.printf("ReceiptSearchIndex build: %.2f ms for %d receipts%n", buildNanos / 1e6, RECEIPT_COUNT);
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (String query : QUERIES) index.search(query);
+        }
+        for (String query : QUERIES) {
+            long matches = 0;
+            start = System.nanoTime();
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                matches += index.search(query).size();
+            }
+            double meanMs = (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+            System.out.printf("ReceiptSearchIndex \"%s\": %.3f ms, %d matches%n", query, meanMs, matches / MEASURED_ROUNDS);
+            assertTrue("\"" + query + "\" took " + meanMs + " ms", meanMs < TARGET_MS);
+        }
+    }
+
+    // Receipts shaped like loaded summaries with their search part: store, category, item lines and OCR words
+    private static List<Receipt> syntheticReceipts(int count, Random random) {
+        List<Receipt> receipts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String storeName = STORES[random.nextInt(STORES.length)];
+            Receipt receipt = new Receipt();
+            receipt.setId("r" + i);
+            Receipt.StoreInfo store = new Receipt.StoreInfo();
+            store.setName(storeName);
+            receipt.setStore(store);
+            Receipt.ReceiptInfo info = new Receipt.ReceiptInfo();
+            info.setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            info.setDateTimestamp(1_700_000_000_000L - random.nextInt(365) * 86_400_000L);
+            receipt.setReceipt(info);
+
+            List<ReceiptItem> items = new ArrayList<>();
+            StringBuilder ocrTerms = new StringBuilder(storeName.toLowerCase()).append(' ').append(100 + i).append(" main st");
+            int itemCount = 1 + random.nextInt(12);
+            for (int j = 0; j < itemCount; j++) {
+                String product = PRODUCTS[random.nextInt(PRODUCTS.length)];
+                double price = Math.round(random.nextDouble() * 5000) / 100.0;
+                items.add(new ReceiptItem(product, 1, price, price, CATEGORIES[random.nextInt(CATEGORIES.length)]));
+                // OCR lines carry product codes, so the vocabulary grows with the receipt count
+                ocrTerms.append(' ').append(product.toLowerCase()).append(' ').append(random.nextInt(1_000_000));
+            }
+            ocrTerms.append(" subtotal hst total visa approved ").append(random.nextInt(1_000_000))
+                    .append(" thank you for shopping returns accepted within 30 days");
+            receipt.setItems(items);
+            Receipt.ReceiptMetadata metadata = new Receipt.ReceiptMetadata();
+            metadata.setOcrTerms(ocrTerms.toString());
+            receipt.setMetadata(metadata);
+            receipts.add(receipt);
+        }
+        return receipts;
+    }
+}
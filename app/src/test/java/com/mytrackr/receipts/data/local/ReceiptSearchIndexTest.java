@@ -0,0 +1,166 @@
+package com.mytrackr.receipts.data.local;
+
+import com.mytrackr.receipts.data.models.Receipt;
+import com.mytrackr.receipts.data.models.ReceiptItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReceiptSearchIndexTest {
+
+    @Test
+    public void prefix_matchesWordStartsOnly() {
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        index.put(receipt("r1", "Walmart", 1, null, "Milk"));
+
+        assertEquals(Collections.singletonList("r1"), index.search("wal"));
+        assertEquals(Collections.singletonList("r1"), index.search("WALMART"));
+        assertTrue(index.search("mart").isEmpty());
+    }
+
+    @Test
+    public void exactMatch_ranksAbovePrefix_thenNewestFirst() {
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        index.put(receipt("prefix", "Costco", 3, null, "Milkshake"));
+        index.put(receipt("old", "Costco", 1, null, "Milk"));
+        index.put(receipt("new", "Costco", 2, null, "Milk"));
+
+        assertEquals(Arrays.asList("new", "old", "prefix"), index.search("milk"));
+    }
+
+    @Test
+    public void fuzzy_toleratesTyposOnlyWhenNothingMatches() {
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        index.put(receipt("r1", "Walmart", 1, null, "Bananas"));
+        index.put(receipt("r2", "Costco", 2, null, "Bread"));
+
+        // One substitution
+        assertEquals(Collections.singletonList("r1"), index.search("walnart"));
+        assertEquals(Collections.singletonList("r2"), index.search("costko"));
+        // Two edits need a word of at least 8 characters
+        assertTrue(index.search("wlamart").isEmpty());
+        // Short words are never matched fuzzily
+        assertTrue(index.search("brd").isEmpty());
+        // A prefix match exists, so "bread" is not offered as a typo of "bre"
+        assertEquals(Collections.singletonList("r2"), index.search("bre"));
+    }
+
+    @Test
+    public void everyQueryWordMustMatch() {
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        index.put(receipt("milk", "Costco", 1, null, "Milk"));
+        index.put(receipt("bread", "Costco", 2, null, "Bread"));
+        index.put(receipt("other", "Walmart", 3, null, "Milk"));
+
+        assertEquals(Collections.singletonList("milk"), index.search("costco milk"));
+        assertEquals(Collections.singletonList("milk"), index.search("MILK, costco"));
+        assertTrue(index.search("costco eggs").isEmpty());
+        assertTrue(index.search("").isEmpty());
+        assertTrue(index.search("  ,. ").isEmpty());
+    }
+
+    @Test
+    public void indexesCategoriesAndOcrTerms() {
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        Receipt receipt = receipt("r1", "Loblaws", 1, "Groceries", "Apples");
+        Receipt.ReceiptMetadata metadata = new Receipt.ReceiptMetadata();
+        metadata.setOcrTerms("loblaws approved 4242");
+        receipt.setMetadata(metadata);
+        index.put(receipt);
+
+        assertEquals(Collections.singletonList("r1"), index.search("groceries"));
+        assertEquals(Collections.singletonList("r1"), index.search("approved"));
+        assertEquals(Collections.singletonList("r1"), index.search("4242"));
+    }
+
+    @Test
+    public void accents_areFolded() {
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        index.put(receipt("r1", "Café Crème", 1, null, "Crêpe"));
+
+        assertEquals(Collections.singletonList("r1"), index.search("cafe"));
+        assertEquals(Collections.singletonList("r1"), index.search("CRÈME"));
+        assertEquals(Collections.singletonList("r1"), index.search("crepe"));
+    }
+
+    @Test
+    public void put_reindexesAndRemove_dropsReceipt() {
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        index.put(receipt("r1", "Walmart", 1, null, "Milk"));
+        index.put(receipt("r2", "Walmart", 2, null, "Bread"));
+
+        index.put(receipt("r1", "Costco", 1, null, "Milk"));
+        assertEquals(Collections.singletonList("r2"), index.search("walmart"));
+        assertEquals(Collections.singletonList("r1"), index.search("costco"));
+
+        index.remove("r1");
+        index.remove("missing");
+        assertEquals(1, index.size());
+        assertTrue(index.search("costco").isEmpty());
+        assertTrue(index.search("milk").isEmpty());
+        // Words only the removed receipt had are gone from fuzzy matching too
+        assertTrue(index.search("costko").isEmpty());
+    }
+
+    @Test
+    public void remove_compactsWithoutLosingReceipts() {
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        for (int i = 0; i < 100; i++) {
+            index.put(receipt("r" + i, i % 2 == 0 ? "Walmart" : "Costco", i, null, "Item" + i));
+        }
+        // Past 64 numbers with most of them dead the index renumbers
+        for (int i = 0; i < 70; i++) {
+            index.remove("r" + i);
+        }
+
+        assertEquals(30, index.size());
+        List<String> expected = new ArrayList<>();
+        for (int i = 98; i >= 70; i -= 2) expected.add("r" + i);
+        assertEquals(expected, index.search("walmart"));
+        assertEquals(Collections.singletonList("r85"), index.search("item85"));
+        assertFalse(index.search("item12").contains("r12"));
+
+        index.put(receipt("r100", "Walmart", 100, null, "Item100"));
+        assertEquals("r100", index.search("walmart").get(0));
+    }
+
+    @Test
+    public void rebuild_replacesEverything() {
+        ReceiptSearchIndex index = new ReceiptSearchIndex();
+        index.put(receipt("r1", "Walmart", 1, null, "Milk"));
+        index.rebuild(Collections.singletonList(receipt("r2", "Costco", 2, null, "Bread")));
+
+        assertEquals(1, index.size());
+        assertTrue(index.search("walmart").isEmpty());
+        assertEquals(Collections.singletonList("r2"), index.search("costco"));
+    }
+
+    @Test
+    public void withinEditDistance_countsEdits() {
+        assertTrue(ReceiptSearchIndex.withinEditDistance("walmart", "walmart", 0));
+        assertTrue(ReceiptSearchIndex.withinEditDistance("walmart", "walmrt", 1));
+        assertTrue(ReceiptSearchIndex.withinEditDistance("walmart", "wlamart", 2));
+        assertFalse(ReceiptSearchIndex.withinEditDistance("walmart", "wlamart", 1));
+        assertFalse(ReceiptSearchIndex.withinEditDistance("milk", "milkshake", 2));
+    }
+
+    static Receipt receipt(String id, String storeName, long uploadTime, String category, String itemName) {
+        Receipt receipt = new Receipt();
+        receipt.setId(id);
+        Receipt.StoreInfo store = new Receipt.StoreInfo();
+        store.setName(storeName);
+        receipt.setStore(store);
+        Receipt.ReceiptInfo info = new Receipt.ReceiptInfo();
+        info.setDateTimestamp(uploadTime);
+        info.setCategory(category);
+        receipt.setReceipt(info);
+        receipt.setItems(new ArrayList<>(Collections.singletonList(new ReceiptItem(itemName, 1, 2.5, 2.5, category))));
+        return receipt;
+    }
+}
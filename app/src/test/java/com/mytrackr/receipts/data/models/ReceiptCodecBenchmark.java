@@ -0,0 +1,323 @@
+package com.mytrackr.receipts.data.models;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM benchmark for ReceiptCodec over 10k synthetic receipt documents shaped like the Firestore data.
+ * Prints ns per document for decode and encode; the assertions only guard correctness.
+ * The benchmark_* tests only run with -Pbenchmarks; the correctness tests always run.
+ */
+public class ReceiptCodecBenchmark {
+    private static final int DOCUMENT_COUNT = 10_000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private static final String[] STORES = {"Walmart", "Costco", "Loblaws", "Tim Hortons", "Best Buy", "IKEA"};
+    private static final String[] CATEGORIES = {"Groceries", "Meal", "Entertainment", "Travel", "Shopping", "Other"};
+
+    @Test
+    public void decodeAndEncode_roundTrip() {
+        List<Map<String, Object>> documents = syntheticDocuments(100, new Random(7));
+        for (int i = 0; i < documents.size(); i++) {
+            Map<String, Object> document = documents.get(i);
+            Receipt receipt = ReceiptCodec.decode("r" + i, document);
+            assertNotNull(receipt);
+            assertEquals("r" + i, receipt.getId());
+
+            Map<String, Object> encoded = ReceiptCodec.encode(receipt);
+            Receipt again = ReceiptCodec.decode("r" + i, encoded);
+            assertEquals(receipt.getStore().getName(), again.getStore().getName());
+            assertEquals(receipt.getReceipt().getTotal(), again.getReceipt().getTotal(), 0.0001);
+            assertEquals(receipt.getReceipt().getReceiptDateTimestamp(), again.getReceipt().getReceiptDateTimestamp());
+            assertEquals(receipt.getReceipt().getCategory(), again.getReceipt().getCategory());
+            assertEquals(receipt.getItems().size(), again.getItems().size());
+            // OCR text moves to the compressed blob; the document only references it
+            assertFalse(((Map<?, ?>) encoded.get("metadata")).containsKey("ocrText"));
+            assertEquals(ReceiptCodec.OCR_TEXT_BLOB, again.getMetadata().getOcrTextBlob());
+            assertNull(again.getMetadata().getOcrText());
+        }
+    }
+
+    @Test
+    public void ocrText_compressedRoundTrip() {
+        List<Map<String, Object>> documents = syntheticDocuments(100, new Random(13));
+        for (int i = 0; i < documents.size(); i++) {
+            String ocrText = ReceiptCodec.decode("r" + i, documents.get(i)).getMetadata().getOcrText();
+            byte[] compressed = CompressedText.compress(ocrText);
+            assertTrue(compressed.length < ocrText.length());
+            assertEquals(ocrText, CompressedText.decompress(compressed, ocrText.length()));
+        }
+        String accented = "CAF\u00c9 CR\u00c8ME BR\u00dbL\u00c9E 4,50 \u20ac";
+        assertEquals(accented, CompressedText.decompress(CompressedText.compress(accented), 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ocrText_rejectsCorruptBlob() {
+        byte[] compressed = CompressedText.compress("TOTAL 12.34");
+        CompressedText.decompress(Arrays.copyOf(compressed, compressed.length / 2), 0);
+    }
+
+    @Test
+    public void benchmark_ocrTextBlobDocumentSize() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        List<Map<String, Object>> documents = syntheticDocuments(DOCUMENT_COUNT, new Random(42));
+        long inlineBytes = 0;
+        long referencedBytes = 0;
+        long blobBytes = 0;
+        long summaryBytes = 0;
+        long searchBytes = 0;
+        for (int i = 0; i < documents.size(); i++) {
+            Map<String, Object> inline = documents.get(i);
+            Receipt receipt = ReceiptCodec.decode("r" + i, inline);
+            inlineBytes += storedSize(inline);
+            referencedBytes += storedSize(ReceiptCodec.encode(receipt));
+            summaryBytes += storedSize(ReceiptCodec.encodeSummary(receipt));
+            searchBytes += storedSize(ReceiptCodec.encodeSearch(receipt));
+            // data, encoding and length fields of the blob document
+            blobBytes += CompressedText.compress(receipt.getMetadata().getOcrText()).length
+                    + storedSize("data") + storedSize("encoding") + storedSize(CompressedText.ENCODING) + storedSize("length") + 8;
+        }
+        assertTrue(referencedBytes < inlineBytes);
+
+        System.out.printf("Receipt document: %.0f bytes with inline OCR text, %.0f bytes referencing the blob (-%.0f%%)%n",
+                (double) inlineBytes / DOCUMENT_COUNT, (double) referencedBytes / DOCUMENT_COUNT,
+                100.0 * (inlineBytes - referencedBytes) / inlineBytes);
+        System.out.printf("OCR text blob: %.0f bytes; list summary: %.0f bytes; search document: %.0f bytes%n",
+                (double) blobBytes / DOCUMENT_COUNT, (double) summaryBytes / DOCUMENT_COUNT, (double) searchBytes / DOCUMENT_COUNT);
+    }
+
+    @Test
+    public void summary_keepsListFieldsOnly() {
+        List<Map<String, Object>> documents = syntheticDocuments(100, new Random(11));
+        for (int i = 0; i < documents.size(); i++) {
+            Receipt receipt = ReceiptCodec.decode("r" + i, documents.get(i));
+            Map<String, Object> summaryMap = ReceiptCodec.encodeSummary(receipt);
+            assertFalse(summaryMap.containsKey("metadata"));
+            assertFalse(summaryMap.containsKey("items"));
+            assertFalse(summaryMap.containsKey("ocrTerms"));
+            assertTrue(storedSize(summaryMap) < storedSize(documents.get(i)) / 2);
+
+            Receipt summary = ReceiptCodec.decodeSummary("r" + i, summaryMap);
+            assertTrue(summary.isSummary());
+            assertNull(summary.getItems());
+            assertNull(summary.getMetadata());
+            assertEquals(receipt.getStore().getName(), summary.getStore().getName());
+            assertEquals(receipt.getReceipt().getTotal(), summary.getReceipt().getTotal(), 0.0001);
+            assertEquals(receipt.getReceipt().getTax(), summary.getReceipt().getTax(), 0.0001);
+            assertEquals(receipt.getReceipt().getReceiptDateTimestamp(), summary.getReceipt().getReceiptDateTimestamp());
+            assertEquals(receipt.getReceipt().getCategory(), summary.getReceipt().getCategory());
+            // Category breakdowns work from the summary alone
+            Map<String, Double> itemTotals = ReceiptCodec.itemTotalsOf(receipt);
+            assertEquals(itemTotals.keySet(), ReceiptCodec.itemTotalsOf(summary).keySet());
+            for (Map.Entry<String, Double> entry : itemTotals.entrySet()) {
+                assertEquals(entry.getValue(), ReceiptCodec.itemTotalsOf(summary).get(entry.getKey()), 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void search_carriesItemLinesAndOcrWords() {
+        List<Map<String, Object>> documents = syntheticDocuments(100, new Random(17));
+        for (int i = 0; i < documents.size(); i++) {
+            Receipt receipt = ReceiptCodec.decode("r" + i, documents.get(i));
+            Receipt summary = ReceiptCodec.decodeSummary("r" + i, ReceiptCodec.encodeSummary(receipt));
+            ReceiptCodec.attachSearch(summary, ReceiptCodec.decodeSearch("r" + i, ReceiptCodec.encodeSearch(receipt)));
+
+            // Only the words of the OCR text, for search
+            assertNull(summary.getMetadata().getOcrText());
+            String ocrTerms = summary.getMetadata().getOcrTerms();
+            assertTrue(ocrTerms.contains("total") && ocrTerms.contains("thank"));
+            assertFalse(ocrTerms.contains("\n"));
+            assertEquals(receipt.getItems().size(), summary.getItems().size());
+            for (int j = 0; j < receipt.getItems().size(); j++) {
+                assertEquals(receipt.getItems().get(j).getName(), summary.getItems().get(j).getName());
+                assertEquals(receipt.getItems().get(j).getEffectiveTotalPrice(), summary.getItems().get(j).getEffectiveTotalPrice(), 0.0001);
+                assertEquals(receipt.getItems().get(j).getCategory(), summary.getItems().get(j).getCategory());
+            }
+            // A summary with its search part attached encodes to the same documents again
+            assertEquals(ReceiptCodec.encodeSummary(receipt), ReceiptCodec.encodeSummary(summary));
+            assertEquals(ReceiptCodec.encodeSearch(receipt), ReceiptCodec.encodeSearch(summary));
+        }
+    }
+
+    @Test
+    public void decode_toleratesMalformedFields() {
+        Map<String, Object> receiptMap = new HashMap<>();
+        receiptMap.put("total", "12.50");
+        receiptMap.put("tax", "not a number");
+        receiptMap.put("category", " null ");
+        receiptMap.put("currency", 42L);
+
+        Map<String, Object> document = new HashMap<>();
+        document.put("storeName", "Legacy Store");
+        document.put("receipt", receiptMap);
+        document.put("items", "not a list");
+
+        Receipt receipt = ReceiptCodec.decode("legacy", document);
+        assertEquals("Legacy Store", receipt.getStore().getName());
+        assertEquals(12.5, receipt.getReceipt().getTotal(), 0.0001);
+        assertEquals(0.0, receipt.getReceipt().getTax(), 0.0001);
+        assertNull(receipt.getReceipt().getCategory());
+        assertNull(receipt.getReceipt().getCurrency());
+        assertNull(receipt.getItems());
+    }
+
+    @Test
+    public void benchmark_decodeEncode10k() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        List<Map<String, Object>> documents = syntheticDocuments(DOCUMENT_COUNT, new Random(42));
+        List<Receipt> decoded = new ArrayList<>(DOCUMENT_COUNT);
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            decoded.clear();
+            decodeAll(documents, decoded);
+            encodeAll(decoded);
+        }
+
+        long decodeNanos = Long.MAX_VALUE;
+        long encodeNanos = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            decoded.clear();
+            long start = System.nanoTime();
+            checksum += decodeAll(documents, decoded);
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            checksum += encodeAll(decoded);
+            encodeNanos = Math.min(encodeNanos, System.nanoTime() - start);
+        }
+
+        assertEquals(DOCUMENT_COUNT, decoded.size());
+        assertTrue(checksum > 0);
+        System.out.printf("ReceiptCodec decode: %.1f ns/doc (%.2f ms per %d docs)%n",
+                (double) decodeNanos / DOCUMENT_COUNT, decodeNanos / 1e6, DOCUMENT_COUNT);
+        System.out.printf("ReceiptCodec encode: %.1f ns/doc (%.2f ms per %d docs)%n",
+                (double) encodeNanos / DOCUMENT_COUNT, encodeNanos / 1e6, DOCUMENT_COUNT);
+    }
+
+    // Firestore's documented storage size: strings are UTF-8 bytes + 1, numbers 8, field names bytes + 1
+    private static long storedSize(Object value) {
+        if (value instanceof String) return ((String) value).getBytes(StandardCharsets.UTF_8).length + 1;
+        if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += storedSize(entry.getKey()) + storedSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof List) {
+            long size = 0;
+            for (Object element : (List<?>) value) size += storedSize(element);
+            return size;
+        }
+        return 8;
+    }
+
+    private static long decodeAll(List<Map<String, Object>> documents, List<Receipt> out) {
+        long itemCount = 0;
+        for (int i = 0; i < documents.size(); i++) {
+            Receipt receipt = ReceiptCodec.decode("doc" + i, documents.get(i));
+            itemCount += receipt.getItems() != null ? receipt.getItems().size() : 0;
+            out.add(receipt);
+        }
+        return itemCount;
+    }
+
+    private static long encodeAll(List<Receipt> receipts) {
+        long fieldCount = 0;
+        for (Receipt receipt : receipts) {
+            fieldCount += ReceiptCodec.encode(receipt).size();
+        }
+        return fieldCount;
+    }
+
+    // Documents with the same shape buildReceiptMap writes, including backward-compat duplicates and OCR text
+    private static List<Map<String, Object>> syntheticDocuments(int count, Random random) {
+        List<Map<String, Object>> documents = new ArrayList<>(count);
+        long now = 1_700_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            String storeName = STORES[random.nextInt(STORES.length)];
+            long timestamp = now - random.nextInt(365) * 86_400_000L;
+
+            Map<String, Object> store = new HashMap<>();
+            store.put("name", storeName);
+            store.put("address", (100 + i) + " Main St");
+            store.put("phone", "555-01" + (i % 100));
+
+            List<Map<String, Object>> items = new ArrayList<>();
+            int itemCount = 1 + random.nextInt(12);
+            double subtotal = 0;
+            for (int j = 0; j < itemCount; j++) {
+                double unitPrice = Math.round(random.nextDouble() * 5000) / 100.0;
+                long quantity = 1 + random.nextInt(3);
+                Map<String, Object> item = new HashMap<>();
+                item.put("name", "Item " + j);
+                item.put("quantity", quantity);
+                item.put("unitPrice", unitPrice);
+                item.put("totalPrice", unitPrice * quantity);
+                item.put("price", unitPrice * quantity);
+                item.put("category", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+                items.add(item);
+                subtotal += unitPrice * quantity;
+            }
+            double tax = Math.round(subtotal * 13) / 100.0;
+
+            Map<String, Object> receipt = new HashMap<>();
+            receipt.put("date", "2024-05-17");
+            receipt.put("time", "12:34");
+            receipt.put("currency", "CAD");
+            receipt.put("paymentMethod", "card");
+            receipt.put("cardLast4", "4242");
+            receipt.put("category", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            receipt.put("subtotal", subtotal);
+            receipt.put("tax", tax);
+            receipt.put("total", subtotal + tax);
+            receipt.put("dateTimestamp", timestamp);
+            receipt.put("receiptDateTimestamp", timestamp);
+
+            StringBuilder ocr = new StringBuilder();
+            ocr.append(storeName.toUpperCase()).append('\n').append(100 + i).append(" MAIN ST\nTEL 555-01").append(i % 100).append('\n');
+            for (Map<String, Object> item : items) {
+                ocr.append(((String) item.get("name")).toUpperCase()).append(' ')
+                        .append(random.nextInt(1_000_000)).append("  ")
+                        .append(String.format(Locale.ROOT, "%.2f", (Double) item.get("totalPrice"))).append('\n');
+            }
+            ocr.append("SUBTOTAL ").append(String.format(Locale.ROOT, "%.2f", subtotal))
+                    .append("\nHST 13% ").append(String.format(Locale.ROOT, "%.2f", tax))
+                    .append("\nTOTAL ").append(String.format(Locale.ROOT, "%.2f", subtotal + tax))
+                    .append("\nVISA ************4242\nAPPROVED ").append(random.nextInt(1_000_000))
+                    .append("\nTHANK YOU FOR SHOPPING AT ").append(storeName.toUpperCase())
+                    .append("\nRETURNS ACCEPTED WITHIN 30 DAYS WITH RECEIPT\n");
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("ocrText", ocr.toString());
+            metadata.put("processedBy", "gemini");
+            metadata.put("uploadedAt", "2024-05-17T12:34:56Z");
+            metadata.put("userId", "user-1");
+
+            Map<String, Object> document = new HashMap<>();
+            document.put("store", store);
+            document.put("receipt", receipt);
+            document.put("items", items);
+            document.put("metadata", metadata);
+            document.put("imageUrl", "https://res.cloudinary.com/demo/image/upload/" + i + ".jpg");
+            document.put("storeName", storeName);
+            document.put("date", timestamp);
+            document.put("total", subtotal + tax);
+            documents.add(document);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,292 @@
+package com.mytrackr.receipts.features.receipts;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM benchmark for the scan preprocessing kernels over synthetic receipt photos at several resolutions: a
+ * slightly rotated receipt with text rows on a darker table. Prints ns per pixel and bytes allocated per
+ * pixel (all threads, so ForkJoin bands count) for each kernel; the assertions only guard correctness.
+ * The timed run only happens with -Pbenchmarks; the correctness tests always run.
+ */
+public class ImageKernelBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    // Phone preview, processing size, 8 MP camera
+    private static final int[][] RESOLUTIONS = {{720, 1280}, {1200, 1600}, {2448, 3264}};
+    private static final int PROCESSING_DIM = 1600;
+    private static final int TRIM_THRESHOLD = 230;
+    private static final int[] CONTRAST_LUT = EnhanceKernel.contrastLut(1.15f, -10f);
+
+    private interface Kernel {
+        // Returns something derived from the output so the work cannot be optimised away
+        long run();
+    }
+
+    @Test
+    public void perspective_identityCopiesExactly() {
+        int w = 97, h = 61;
+        int[] src = noise(w, h, new Random(3));
+        int[] dst = new int[w * h];
+        float[] corners = {0, 0, w, 0, w, h, 0, h};
+        int[] size = new int[2];
+        PerspectiveKernel.outputSize(corners, size);
+        assertEquals(w, size[0]);
+        assertEquals(h, size[1]);
+        PerspectiveKernel.warp(src, w, h, dst, w, h, PerspectiveKernel.mapping(corners, w, h));
+        assertArrayEquals(src, dst);
+    }
+
+    @Test
+    public void perspective_mapsOutputCornersToQuad() {
+        float[] corners = {12.5f, 20f, 410f, 3f, 430f, 600f, 5f, 580f};
+        int dstW = 420, dstH = 590;
+        double[] m = PerspectiveKernel.mapping(corners, dstW, dstH);
+        assertNotNull(m);
+        double[][] outputCorners = {{0, 0}, {dstW, 0}, {dstW, dstH}, {0, dstH}};
+        for (int i = 0; i < 4; i++) {
+            double x = outputCorners[i][0], y = outputCorners[i][1];
+            double z = m[6] * x + m[7] * y + 1;
+            assertEquals(corners[2 * i], (m[0] * x + m[1] * y + m[2]) / z, 1e-3);
+            assertEquals(corners[2 * i + 1], (m[3] * x + m[4] * y + m[5]) / z, 1e-3);
+        }
+        assertNull(PerspectiveKernel.mapping(new float[]{0, 0, 10, 10, 20, 20, 30, 30}, 10, 10));
+    }
+
+    @Test
+    public void scale_keepsFlatColoursAndOneToOne() {
+        int w = 300, h = 200;
+        int[] flat = new int[w * h];
+        Arrays.fill(flat, 0xFF336699);
+        int[] size = new int[2];
+        assertTrue(ScaleKernel.fitSize(w, h, 150, size));
+        assertEquals(150, size[0]);
+        assertEquals(100, size[1]);
+        assertFalse(ScaleKernel.fitSize(w, h, 300, size));
+        int[] half = new int[150 * 100];
+        ScaleKernel.scale(flat, w, h, half, 150, 100);
+        for (int p : half) assertEquals(0xFF336699, p);
+
+        int[] src = noise(w, h, new Random(5));
+        int[] copy = new int[w * h];
+        ScaleKernel.scale(src, w, h, copy, w, h);
+        assertArrayEquals(src, copy);
+    }
+
+    @Test
+    public void trim_findsReceiptOnSyntheticPhoto() {
+        int w = 600, h = 900;
+        int[] photo = syntheticReceipt(w, h, 0f, new Random(9));
+        byte[] luma = new byte[w * h];
+        TrimDetector.luminance(photo, w, h, luma);
+        int[] bounds = new int[4];
+        assertTrue(TrimDetector.findContentBounds(luma, w, h, TRIM_THRESHOLD, bounds));
+        // The table around the receipt is darker than the threshold, so the whole photo is content
+        assertArrayEquals(new int[]{0, 0, w, h}, bounds);
+
+        // After a perspective crop just inside the paper edge, margins are trimmed to the text block
+        float[] corners = receiptCorners(w, h, 0f);
+        float[] inset = {3, 3, -3, 3, -3, -3, 3, -3};
+        for (int i = 0; i < 8; i++) corners[i] += inset[i];
+        int[] size = new int[2];
+        PerspectiveKernel.outputSize(corners, size);
+        int[] crop = new int[size[0] * size[1]];
+        PerspectiveKernel.warp(photo, w, h, crop, size[0], size[1], PerspectiveKernel.mapping(corners, size[0], size[1]));
+        byte[] cropLuma = new byte[crop.length];
+        TrimDetector.luminance(crop, size[0], size[1], cropLuma);
+        assertTrue(TrimDetector.findContentBounds(cropLuma, size[0], size[1], TRIM_THRESHOLD, bounds));
+        assertTrue(bounds[0] > 0 && bounds[1] > 0 && bounds[2] < size[0] && bounds[3] < size[1]);
+    }
+
+    @Test
+    public void enhance_matchesContrastThenSharpen() {
+        Random random = new Random(17);
+        // Degenerate sizes, a small image, and one tall enough to be split into row bands
+        int[][] sizes = {{1, 1}, {2, 5}, {5, 2}, {3, 3}, {17, 9}, {61, 4 * RowBands.MIN_ROWS_PER_TASK + 7}};
+        for (int[] size : sizes) {
+            int w = size[0], h = size[1];
+            // Inside larger buffers, so offsets and strides are exercised too
+            int srcOffset = 5, srcStride = w + 3, dstOffset = 2, dstStride = w + 1;
+            int[] src = new int[srcOffset + h * srcStride];
+            for (int i = 0; i < src.length; i++) src[i] = random.nextInt();
+            int[] dst = new int[dstOffset + h * dstStride];
+            EnhanceKernel.apply(src, srcOffset, srcStride, dst, dstOffset, dstStride, w, h, CONTRAST_LUT);
+
+            int[] contrasted = new int[w * h];
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int p = src[srcOffset + y * srcStride + x];
+                    int r = contrast((p >> 16) & 0xFF), g = contrast((p >> 8) & 0xFF), b = contrast(p & 0xFF);
+                    contrasted[y * w + x] = (p & 0xFF000000) | (r << 16) | (g << 8) | b;
+                }
+            }
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int expected = contrasted[y * w + x];
+                    if (x > 0 && y > 0 && x < w - 1 && y < h - 1) {
+                        // Alpha of the centre pixel, channels convolved
+                        expected &= 0xFF000000;
+                        for (int shift = 16; shift >= 0; shift -= 8) {
+                            int v = 5 * channel(contrasted, w, x, y, shift)
+                                    - channel(contrasted, w, x, y - 1, shift) - channel(contrasted, w, x, y + 1, shift)
+                                    - channel(contrasted, w, x - 1, y, shift) - channel(contrasted, w, x + 1, y, shift);
+                            expected |= Math.max(0, Math.min(255, v)) << shift;
+                        }
+                    }
+                    assertEquals(w + "x" + h + " at " + x + "," + y, expected, dst[dstOffset + y * dstStride + x]);
+                }
+            }
+        }
+    }
+
+    // Reference contrast of one channel, the ColorMatrix the scan flow used before the lookup table
+    private static int contrast(int c) {
+        return Math.max(0, Math.min(255, Math.round(c * 1.15f - 10f)));
+    }
+
+    private static int channel(int[] pixels, int w, int x, int y, int shift) {
+        return (pixels[y * w + x] >> shift) & 0xFF;
+    }
+
+    @Test
+    public void benchmark_kernels() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+        for (int[] resolution : RESOLUTIONS) {
+            int w = resolution[0], h = resolution[1];
+            int pixelCount = w * h;
+            int[] photo = syntheticReceipt(w, h, 4f, new Random(42));
+
+            float[] corners = receiptCorners(w, h, 4f);
+            int[] cropSize = new int[2];
+            PerspectiveKernel.outputSize(corners, cropSize);
+            int cropW = cropSize[0], cropH = cropSize[1];
+            double[] mapping = PerspectiveKernel.mapping(corners, cropW, cropH);
+            int[] cropped = new int[cropW * cropH];
+
+            int[] scaledSize = {w, h};
+            ScaleKernel.fitSize(w, h, PROCESSING_DIM * 2 / 3, scaledSize);
+            int[] scaled = new int[scaledSize[0] * scaledSize[1]];
+
+            int[] enhanced = new int[pixelCount];
+            byte[] luma = new byte[pixelCount];
+            int[] bounds = new int[4];
+
+            System.out.printf("Synthetic receipt %dx%d (%.1f MP)%n", w, h, pixelCount / 1e6);
+            report("perspective crop", cropW * cropH, () -> {
+                PerspectiveKernel.warp(photo, w, h, cropped, cropW, cropH, mapping);
+                return cropped[cropped.length / 2];
+            });
+            report("scale", pixelCount, () -> {
+                ScaleKernel.scale(photo, w, h, scaled, scaledSize[0], scaledSize[1]);
+                return scaled[scaled.length / 2];
+            });
+            report("luminance + trim bounds", cropW * cropH, () -> {
+                TrimDetector.luminance(cropped, cropW, cropH, luma);
+                TrimDetector.findContentBounds(luma, cropW, cropH, TRIM_THRESHOLD, bounds);
+                return bounds[0] + bounds[1] + bounds[2] + bounds[3];
+            });
+            report("contrast + sharpen", pixelCount, () -> {
+                EnhanceKernel.apply(photo, 0, w, enhanced, 0, w, w, h, CONTRAST_LUT);
+                return enhanced[pixelCount / 2];
+            });
+        }
+    }
+
+    // Best-of-N time and mean allocation of one kernel, per pixel
+    private static void report(String name, int pixelCount, Kernel kernel) {
+        long checksum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            checksum += kernel.run();
+        }
+        long bestNanos = Long.MAX_VALUE;
+        long allocatedBefore = allocatedBytes();
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            checksum += kernel.run();
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+        assertTrue(checksum != Long.MIN_VALUE);
+        String allocation = allocatedBefore < 0 ? "n/a" : String.format("%.3f B/px", (double) allocated / MEASURED_ROUNDS / pixelCount);
+        System.out.printf("  %-24s %6.2f ns/px  %7.2f ms  %s%n", name, (double) bestNanos / pixelCount, bestNanos / 1e6, allocation);
+    }
+
+    // Bytes allocated so far by all live threads, or -1 where the JVM cannot tell
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) return -1;
+        long total = 0;
+        for (long bytes : hotspot.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    // Corners tl, tr, br, bl of the receipt in a w x h photo, turned by the given degrees around the centre
+    private static float[] receiptCorners(int w, int h, float degrees) {
+        double angle = Math.toRadians(degrees);
+        double cos = Math.cos(angle), sin = Math.sin(angle);
+        double halfW = w * 0.36, halfH = h * 0.42;
+        double[][] unrotated = {{-halfW, -halfH}, {halfW, -halfH}, {halfW, halfH}, {-halfW, halfH}};
+        float[] corners = new float[8];
+        for (int i = 0; i < 4; i++) {
+            corners[2 * i] = (float) (w / 2.0 + unrotated[i][0] * cos - unrotated[i][1] * sin);
+            corners[2 * i + 1] = (float) (h / 2.0 + unrotated[i][0] * sin + unrotated[i][1] * cos);
+        }
+        return corners;
+    }
+
+    // Off-white paper with rows of dark glyph blocks on a mid-grey table, with sensor noise
+    private static int[] syntheticReceipt(int w, int h, float degrees, Random random) {
+        int[] pixels = new int[w * h];
+        double angle = Math.toRadians(-degrees);
+        double cos = Math.cos(angle), sin = Math.sin(angle);
+        double halfW = w * 0.36, halfH = h * 0.42;
+        double line = halfH * 2 / 48;
+        double glyph = halfW * 2 / 40;
+        long textSeed = random.nextLong();
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                // Into receipt coordinates, origin at its top-left
+                double dx = x - w / 2.0, dy = y - h / 2.0;
+                double u = dx * cos - dy * sin + halfW;
+                double v = dx * sin + dy * cos + halfH;
+                int grey;
+                if (u < 0 || v < 0 || u >= 2 * halfW || v >= 2 * halfH) {
+                    grey = 110;
+                } else {
+                    grey = 245;
+                    int row = (int) (v / line);
+                    int column = (int) (u / glyph);
+                    boolean inMargin = column < 3 || column >= 37 || row < 4 || row >= 44;
+                    boolean inGlyph = v - row * line > line * 0.25 && u - column * glyph > glyph * 0.2;
+                    // Glyphs present per row/column, ragged line ends
+                    long hash = (row * 0x9E3779B97F4A7C15L + column * 0xC2B2AE3D27D4EB4FL) ^ textSeed;
+                    if (!inMargin && inGlyph && (hash >>> 60) > 3 && column < 12 + (int) ((hash >>> 8) & 0x1F)) {
+                        grey = 40;
+                    }
+                }
+                int value = Math.max(0, Math.min(255, grey + random.nextInt(9) - 4));
+                pixels[y * w + x] = 0xFF000000 | (value << 16) | (value << 8) | value;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] noise(int w, int h, Random random) {
+        int[] pixels = new int[w * h];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,100 @@
+package com.mytrackr.receipts.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UploadSchedulerTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void runsAtMostMaxConcurrent() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler();
+        scheduler.setMaxConcurrent(2);
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(6);
+
+        List<UploadScheduler.Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            tasks.add(scheduler.submit("batch", "r" + i, task -> {
+                peak.accumulateAndGet(current.incrementAndGet(), Math::max);
+                started.countDown();
+                release.await();
+                current.decrementAndGet();
+            }, task -> finished.countDown()));
+        }
+
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // Give a third upload the chance to start if the cap were broken
+        Thread.sleep(100);
+        assertEquals(2, current.get());
+        assertEquals(UploadScheduler.State.QUEUED, tasks.get(5).getState());
+
+        release.countDown();
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, peak.get());
+        for (UploadScheduler.Task task : tasks) {
+            assertEquals(UploadScheduler.State.SUCCEEDED, task.getState());
+        }
+    }
+
+    @Test
+    public void groupsTakeTurns() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler();
+        scheduler.setMaxConcurrent(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(6);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        // Holds the only slot until every other upload is queued
+        scheduler.submit("gate", "gate", task -> release.await(), task -> finished.countDown());
+        for (String id : Arrays.asList("a1", "a2", "a3")) {
+            scheduler.submit("a", id, task -> order.add(task.getId()), task -> finished.countDown());
+        }
+        for (String id : Arrays.asList("b1", "b2")) {
+            scheduler.submit("b", id, task -> order.add(task.getId()), task -> finished.countDown());
+        }
+
+        release.countDown();
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3"), order);
+    }
+
+    @Test
+    public void cancelledQueuedUploadNeverRuns() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler();
+        scheduler.setMaxConcurrent(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        AtomicBoolean ran = new AtomicBoolean();
+        List<UploadScheduler.State> finishedStates = Collections.synchronizedList(new ArrayList<>());
+
+        scheduler.submit("batch", "running", task -> release.await(), task -> finished.countDown());
+        UploadScheduler.Task queued = scheduler.submit("batch", "queued", task -> ran.set(true),
+                task -> finishedStates.add(task.getState()));
+        scheduler.submit("batch", "after", task -> {}, task -> finished.countDown());
+
+        assertTrue(scheduler.cancel("queued"));
+        assertEquals(UploadScheduler.State.CANCELLED, queued.getState());
+        assertEquals(Collections.singletonList(UploadScheduler.State.CANCELLED), finishedStates);
+        // Its id is free again once it left the queue
+        assertFalse(scheduler.cancel("queued"));
+
+        release.countDown();
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+        assertEquals(1, finishedStates.size());
+    }
+}